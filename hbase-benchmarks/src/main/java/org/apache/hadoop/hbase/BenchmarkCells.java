@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Generates deterministic, sorted cell data for the microbenchmarks in this module. Rows are
+ * fixed width so that byte order and numeric order agree, which lets benchmarks pick random seek
+ * targets by index without re-sorting.
+ */
+@InterfaceAudience.Private
+public final class BenchmarkCells {
+
+  public static final byte[] FAMILY = Bytes.toBytes("f");
+
+  /** A fixed timestamp keeps the generated data identical across forks. */
+  private static final long TIMESTAMP = 1L << 40;
+
+  private BenchmarkCells() {
+  }
+
+  public static byte[] row(int i) {
+    return Bytes.toBytes(String.format("row-%010d", i));
+  }
+
+  public static byte[] qualifier(int i) {
+    return Bytes.toBytes(String.format("q%04d", i));
+  }
+
+  /**
+   * @param rows        number of distinct rows
+   * @param columns     number of qualifiers per row
+   * @param valueLength size of each value in bytes
+   * @param seed        seed for the value contents
+   * @return cells sorted by {@link CellComparatorImpl#COMPARATOR}
+   */
+  public static List<Cell> create(int rows, int columns, int valueLength, long seed) {
+    Random rand = new Random(seed);
+    List<Cell> cells = new ArrayList<>(rows * columns);
+    for (int r = 0; r < rows; r++) {
+      byte[] row = row(r);
+      for (int c = 0; c < columns; c++) {
+        byte[] value = new byte[valueLength];
+        rand.nextBytes(value);
+        cells.add(new KeyValue(row, FAMILY, qualifier(c), TIMESTAMP,
+          KeyValue.Type.Put, value));
+      }
+    }
+    return cells;
+  }
+
+  /**
+   * Returns a first-on-row key for a random existing row, for use as a seek target.
+   */
+  public static Cell randomRowKey(Random rand, int rows) {
+    return PrivateCellUtil.createFirstOnRow(row(rand.nextInt(rows)));
+  }
+}
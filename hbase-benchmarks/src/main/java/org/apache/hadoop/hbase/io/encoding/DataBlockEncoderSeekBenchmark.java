@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.BenchmarkCells;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.io.ByteArrayOutputStream;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.hfile.HFileContext;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.nio.SingleByteBuff;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the {@link DataBlockEncoder.EncodedSeeker} of each prefix based encoding on a single
+ * encoded data block of roughly the default block size, without any HFile or block cache overhead.
+ */
+@InterfaceAudience.Private
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DataBlockEncoderSeekBenchmark {
+
+  private static final int ROWS = 512;
+  private static final int COLUMNS = 2;
+  private static final int CELLS = ROWS * COLUMNS;
+  private static final int ENCODED_DATA_OFFSET =
+    HConstants.HFILEBLOCK_HEADER_SIZE + DataBlockEncoding.ID_SIZE;
+
+  @Param({ "PREFIX", "DIFF", "FAST_DIFF", "ROW_INDEX_V1" })
+  public DataBlockEncoding encoding;
+
+  @Param({ "false", "true" })
+  public boolean offheap;
+
+  private List<Cell> cells;
+  private DataBlockEncoder.EncodedSeeker seeker;
+  private final Random rand = new Random(0xCAFEL);
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Configuration conf = HBaseConfiguration.create();
+    HFileContext meta = new HFileContextBuilder().withHBaseCheckSum(false)
+      .withIncludesMvcc(false).withIncludesTags(false)
+      .withCompression(Compression.Algorithm.NONE).build();
+    DataBlockEncoder encoder = encoding.getEncoder();
+    HFileBlockEncodingContext encodingContext = encoder.newDataBlockEncodingContext(conf, encoding,
+      HConstants.HFILEBLOCK_DUMMY_HEADER, meta);
+    cells = BenchmarkCells.create(ROWS, COLUMNS, 32, 0xBEEFL);
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    baos.write(HConstants.HFILEBLOCK_DUMMY_HEADER);
+    DataOutputStream dos = new DataOutputStream(baos);
+    encoder.startBlockEncoding(encodingContext, dos);
+    for (Cell cell : cells) {
+      encoder.encode(cell, encodingContext, dos);
+    }
+    encoder.endBlockEncoding(encodingContext, dos, baos.getBuffer());
+    int length = baos.size() - ENCODED_DATA_OFFSET;
+    ByteBuffer block = offheap ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+    block.put(baos.getBuffer(), ENCODED_DATA_OFFSET, length);
+    block.rewind();
+
+    seeker = encoder.createSeeker(encoder.newDataBlockDecodingContext(conf, meta));
+    seeker.setCurrentBuffer(new SingleByteBuff(block));
+  }
+
+  @Benchmark
+  public int seekToKeyInBlock() {
+    return seeker.seekToKeyInBlock(cells.get(rand.nextInt(CELLS)), false);
+  }
+
+  @Benchmark
+  public int seekBeforeKeyInBlock() {
+    return seeker.seekToKeyInBlock(cells.get(1 + rand.nextInt(CELLS - 1)), true);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CELLS)
+  public void next(Blackhole bh) {
+    seeker.rewind();
+    do {
+      bh.consume(seeker.getCell());
+    } while (seeker.next());
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.BenchmarkCells;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link HFileReaderImpl} random seeks and sequential next() calls against a file on the
+ * local file system. With {@link #blockCache} enabled the file is fully cached after warmup, so the
+ * score reflects seeker and block decoding costs rather than I/O.
+ */
+@InterfaceAudience.Private
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HFileReadBenchmark {
+
+  private static final int ROWS = 100000;
+  private static final int COLUMNS = 4;
+  private static final int CELLS = ROWS * COLUMNS;
+
+  @Param({ "NONE", "PREFIX", "DIFF", "FAST_DIFF", "ROW_INDEX_V1" })
+  public DataBlockEncoding encoding;
+
+  @Param({ "true", "false" })
+  public boolean blockCache;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path dir;
+  private HFile.Reader reader;
+  private HFileScanner scanner;
+  private final Random rand = new Random(0xCAFEL);
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    conf = HBaseConfiguration.create();
+    fs = FileSystem.getLocal(conf);
+    dir =
+      new Path(System.getProperty("java.io.tmpdir"), "hfile-read-benchmark-" + System.nanoTime());
+    fs.mkdirs(dir);
+    Path path = new Path(dir, encoding.name());
+    HFileContext context = new HFileContextBuilder().withBlockSize(HConstants.DEFAULT_BLOCKSIZE)
+      .withCompression(Compression.Algorithm.NONE).withIncludesTags(false)
+      .withDataBlockEncoding(encoding).build();
+    HFile.Writer writer = HFile.getWriterFactory(conf, CacheConfig.DISABLED).withPath(fs, path)
+      .withFileContext(context).create();
+    try {
+      for (Cell cell : BenchmarkCells.create(ROWS, COLUMNS, 32, 0xBEEFL)) {
+        writer.append(cell);
+      }
+    } finally {
+      writer.close();
+    }
+    CacheConfig cacheConf = blockCache
+      ? new CacheConfig(conf, BlockCacheFactory.createBlockCache(conf))
+      : CacheConfig.DISABLED;
+    reader = HFile.createReader(fs, path, cacheConf, true, conf);
+    scanner = reader.getScanner(conf, blockCache, true);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    scanner.close();
+    reader.close();
+    fs.delete(dir, true);
+  }
+
+  @Benchmark
+  public int seek() throws IOException {
+    return scanner.seekTo(BenchmarkCells.randomRowKey(rand, ROWS));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CELLS)
+  public void scan(Blackhole bh) throws IOException {
+    if (!scanner.seekTo()) {
+      throw new IOException("Empty file " + reader.getPath());
+    }
+    do {
+      bh.consume(scanner.getCell());
+    } while (scanner.next());
+  }
+}
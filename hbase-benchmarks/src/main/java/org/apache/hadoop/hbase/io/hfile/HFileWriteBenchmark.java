@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.BenchmarkCells;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link HFileWriterImpl#append(Cell)} throughput on the local file system for each data
+ * block encoding. Every invocation writes a complete file, so the score also includes block
+ * encoding, index and trailer writes amortized over {@link #CELLS} appends.
+ */
+@InterfaceAudience.Private
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HFileWriteBenchmark {
+
+  private static final int ROWS = 10000;
+  private static final int COLUMNS = 10;
+  static final int CELLS = ROWS * COLUMNS;
+
+  @Param({ "NONE", "PREFIX", "DIFF", "FAST_DIFF", "ROW_INDEX_V1" })
+  public DataBlockEncoding encoding;
+
+  @Param({ "64" })
+  public int valueLength;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path dir;
+  private CacheConfig cacheConf;
+  private HFileContext context;
+  private List<Cell> cells;
+  private int fileId;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    conf = HBaseConfiguration.create();
+    fs = FileSystem.getLocal(conf);
+    dir = new Path(System.getProperty("java.io.tmpdir"),
+      "hfile-write-benchmark-" + System.nanoTime());
+    fs.mkdirs(dir);
+    cacheConf = CacheConfig.DISABLED;
+    context = new HFileContextBuilder().withBlockSize(HConstants.DEFAULT_BLOCKSIZE)
+      .withCompression(Compression.Algorithm.NONE).withIncludesTags(false)
+      .withDataBlockEncoding(encoding).build();
+    cells = BenchmarkCells.create(ROWS, COLUMNS, valueLength, 0xBEEFL);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    fs.delete(dir, true);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CELLS)
+  public long append() throws IOException {
+    Path path = new Path(dir, Integer.toString(fileId++));
+    HFile.Writer writer = HFile.getWriterFactory(conf, cacheConf).withPath(fs, path)
+      .withFileContext(context).create();
+    try {
+      for (Cell cell : cells) {
+        writer.append(cell);
+      }
+    } finally {
+      writer.close();
+    }
+    long len = fs.getFileStatus(path).getLen();
+    fs.delete(path, false);
+    return len;
+  }
+}
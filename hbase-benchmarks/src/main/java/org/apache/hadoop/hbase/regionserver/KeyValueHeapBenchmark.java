@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.hbase.BenchmarkCells;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparatorImpl;
+import org.apache.hadoop.hbase.PrivateCellUtil;
+import org.apache.hadoop.hbase.util.CollectionBackedScanner;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the merge cost of {@link KeyValueHeap} over a varying number of in-memory scanners, as
+ * seen when a store has many files or memstore segments. Cells are dealt to the scanners at random
+ * so the heap has to switch its current scanner frequently.
+ */
+@InterfaceAudience.Private
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class KeyValueHeapBenchmark {
+
+  private static final int ROWS = 50000;
+  private static final int COLUMNS = 2;
+  private static final int CELLS = ROWS * COLUMNS;
+
+  @Param({ "2", "8", "32" })
+  public int scanners;
+
+  private List<List<Cell>> inputs;
+  private final Random rand = new Random(0xCAFEL);
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    inputs = new ArrayList<>(scanners);
+    for (int i = 0; i < scanners; i++) {
+      inputs.add(new ArrayList<>());
+    }
+    Random dealer = new Random(0xBEEFL);
+    for (Cell cell : BenchmarkCells.create(ROWS, COLUMNS, 16, 0xBEEFL)) {
+      inputs.get(dealer.nextInt(scanners)).add(cell);
+    }
+  }
+
+  private KeyValueHeap newHeap() throws IOException {
+    List<KeyValueScanner> list = new ArrayList<>(scanners);
+    for (List<Cell> input : inputs) {
+      list.add(new CollectionBackedScanner(input, CellComparatorImpl.COMPARATOR));
+    }
+    return new KeyValueHeap(list, CellComparatorImpl.COMPARATOR);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(CELLS)
+  public void merge(Blackhole bh) throws IOException {
+    KeyValueHeap heap = newHeap();
+    try {
+      Cell cell;
+      while ((cell = heap.next()) != null) {
+        bh.consume(cell);
+      }
+    } finally {
+      heap.close();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(1000)
+  public void reseek(Blackhole bh) throws IOException {
+    KeyValueHeap heap = newHeap();
+    try {
+      int row = 0;
+      for (int i = 0; i < 1000; i++) {
+        row += 1 + rand.nextInt(ROWS / 1000);
+        heap.reseek(PrivateCellUtil.createFirstOnRow(BenchmarkCells.row(Math.min(row, ROWS - 1))));
+        bh.consume(heap.peek());
+      }
+    } finally {
+      heap.close();
+    }
+  }
+}
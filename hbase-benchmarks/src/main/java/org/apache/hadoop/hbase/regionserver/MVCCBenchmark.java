@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.hadoop.hbase.regionserver.MultiVersionConcurrencyControl.WriteEntry;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of {@link MultiVersionConcurrencyControl} and
+ * {@link LockFreeMultiVersionConcurrencyControl} with many writers on one region. Each operation
+ * is a write transaction as done by HRegion: a begin with an action standing in for the WAL append,
+ * then a complete and a wait for the read point.
+ */
+@InterfaceAudience.Private
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(64)
+public class MVCCBenchmark {
+
+  @Param({ "false", "true" })
+  public boolean lockFree;
+
+  private MultiVersionConcurrencyControl mvcc;
+  private final AtomicLong txid = new AtomicLong();
+
+  @Setup
+  public void setUp() {
+    mvcc = lockFree
+      ? new LockFreeMultiVersionConcurrencyControl()
+      : new MultiVersionConcurrencyControl();
+  }
+
+  @Benchmark
+  public long writeWithAction() {
+    WriteEntry e = mvcc.begin(txid::incrementAndGet);
+    mvcc.completeAndWait(e);
+    return e.getWriteNumber();
+  }
+
+  @Benchmark
+  public long write() {
+    WriteEntry e = mvcc.begin();
+    mvcc.completeAndWait(e);
+    return e.getWriteNumber();
+  }
+
+  @Benchmark
+  public long readPoint() {
+    return mvcc.getReadPoint();
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.BenchmarkCells;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparatorImpl;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares point lookups on the immutable memstore segment flavours: the skip list backed
+ * {@link CSLMImmutableSegment} and the flattened {@link CellArrayImmutableSegment} and
+ * {@link CellChunkImmutableSegment}. Cells are copied into MSLAB chunks the same way
+ * {@link AbstractMemStore} does, so CHUNK_MAP flattening works on real chunk references.
+ */
+@InterfaceAudience.Private
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SegmentLookupBenchmark {
+
+  private static final int ROWS = 200000;
+  private static final int COLUMNS = 2;
+
+  @Param({ "CSLM_MAP", "ARRAY_MAP", "CHUNK_MAP" })
+  public CompactingMemStore.IndexType indexType;
+
+  private ImmutableSegment segment;
+  private CellSet cellSet;
+  private KeyValueScanner scanner;
+  private final Random rand = new Random(0xCAFEL);
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Configuration conf = HBaseConfiguration.create();
+    ChunkCreator.initialize(MemStoreLAB.CHUNK_SIZE_DEFAULT, false, 1L << 30,
+      MemStoreLAB.POOL_MAX_SIZE_DEFAULT, MemStoreLAB.POOL_INITIAL_SIZE_DEFAULT, null,
+      MemStoreLAB.INDEX_CHUNK_SIZE_PERCENTAGE_DEFAULT);
+    MemStoreSizing sizing = new NonThreadSafeMemStoreSizing();
+    MutableSegment mutable = SegmentFactory.instance().createMutableSegment(conf,
+      CellComparatorImpl.COMPARATOR, sizing);
+    for (Cell cell : BenchmarkCells.create(ROWS, COLUMNS, 32, 0xBEEFL)) {
+      Cell toAdd = mutable.maybeCloneWithAllocator(cell, false);
+      mutable.add(toAdd, toAdd != cell, sizing, false);
+    }
+    ImmutableSegment cslm = SegmentFactory.instance().createImmutableSegment(mutable, sizing);
+    if (indexType == CompactingMemStore.IndexType.CSLM_MAP) {
+      segment = cslm;
+    } else {
+      segment = SegmentFactory.instance().createImmutableSegmentByFlattening(
+        (CSLMImmutableSegment) cslm, indexType, sizing, MemStoreCompactionStrategy.Action.FLATTEN);
+    }
+    cellSet = segment.getCellSet();
+    scanner = segment.getScanner(Long.MAX_VALUE);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    scanner.close();
+    segment.close();
+  }
+
+  @Benchmark
+  public Cell ceiling() {
+    return cellSet.ceiling(BenchmarkCells.randomRowKey(rand, ROWS));
+  }
+
+  @Benchmark
+  public Cell seek() throws IOException {
+    scanner.seek(BenchmarkCells.randomRowKey(rand, ROWS));
+    return scanner.peek();
+  }
+}
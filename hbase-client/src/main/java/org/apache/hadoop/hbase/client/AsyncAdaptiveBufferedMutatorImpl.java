@@ -0,0 +1,501 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import static org.apache.hadoop.hbase.client.ConnectionUtils.validatePut;
+import static org.apache.hadoop.hbase.util.FutureUtils.addListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.RegionLocations;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.yetus.audience.InterfaceAudience;
+
+import org.apache.hbase.thirdparty.io.netty.util.HashedWheelTimer;
+import org.apache.hbase.thirdparty.io.netty.util.Timeout;
+
+/**
+ * An {@link AsyncBufferedMutator} which buffers the mutations per destination region server and
+ * sizes the batches of each server from its observed latency.
+ * <p>
+ * Every server gets its own buffer and is sent a batch when the buffer reaches the batch size of
+ * the server, or when the buffer has waited for about one RPC round trip to that server. The batch
+ * size is the number of bytes the server has been writing within the target latency, between the
+ * configured minimum and the write buffer size, so fast servers get large batches and slow servers
+ * small ones. A server with more than the configured bytes in flight is sent nothing more until
+ * some of them complete, and its mutations keep piling up in its own buffer while the other
+ * servers carry on. The buffer of a server with nothing buffered nor in flight for
+ * {@link #IDLE_SERVER_EXPIRY_MS} is dropped, with what was learned about the server.
+ * <p>
+ * The location of a mutation is only taken from the cache of the connection, without going to
+ * meta. Mutations whose location is not cached go to a buffer of their own, sent as a plain batch
+ * which finds their locations, and so fills the cache for the next ones.
+ * <p>
+ * The buffers are changed under the lock of the mutator, but the batches are sent out of it, by
+ * one thread at a time so that they go out in order.
+ * <p>
+ * Enabled with {@link #ADAPTIVE_ENABLED}.
+ */
+@InterfaceAudience.Private
+class AsyncAdaptiveBufferedMutatorImpl implements AsyncBufferedMutator {
+
+  static final String ADAPTIVE_ENABLED = "hbase.client.write.buffer.adaptive.enabled";
+
+  static final boolean DEFAULT_ADAPTIVE_ENABLED = false;
+
+  /** The time a batch should take to be written by a region server. */
+  static final String TARGET_LATENCY_MS = "hbase.client.write.buffer.adaptive.target.latency.ms";
+
+  static final long DEFAULT_TARGET_LATENCY_MS = 50;
+
+  /** The smallest batch sent to a region server, unless flushed. */
+  static final String MIN_BATCH_SIZE = "hbase.client.write.buffer.adaptive.min.batch.size";
+
+  static final long DEFAULT_MIN_BATCH_SIZE = 64 * 1024;
+
+  /** The bytes which can be sent to a region server and not yet acknowledged. */
+  static final String MAX_IN_FLIGHT_BYTES_PER_SERVER =
+    "hbase.client.write.buffer.adaptive.max.inflight.bytes.per.server";
+
+  static final long DEFAULT_MAX_IN_FLIGHT_BYTES_PER_SERVER = 8 * 1024 * 1024;
+
+  /** The time after which an idle region server is forgotten. */
+  static final String IDLE_SERVER_EXPIRY_MS =
+    "hbase.client.write.buffer.adaptive.idle.server.expiry.ms";
+
+  static final long DEFAULT_IDLE_SERVER_EXPIRY_MS = TimeUnit.MINUTES.toMillis(5);
+
+  /** Weight of the last batch in the latency and throughput averages. */
+  private static final double ALPHA = 0.3;
+
+  private static final long MIN_LINGER_NS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  static boolean isEnabled(Configuration conf) {
+    return conf.getBoolean(ADAPTIVE_ENABLED, DEFAULT_ADAPTIVE_ENABLED);
+  }
+
+  /** The buffer of one region server. */
+  final class ServerBuffer {
+
+    private final ServerName serverName;
+
+    private List<Mutation> mutations = new ArrayList<>();
+
+    private List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+    private long bufferedSize;
+
+    private long inFlightBytes;
+
+    private int inFlightBatches;
+
+    private long batchSize;
+
+    private double latencyNs;
+
+    private double bytesPerNs;
+
+    private Timeout lingerTask;
+
+    /** Whether the buffer should be sent as soon as the bytes in flight allow it. */
+    private boolean due;
+
+    private long lastActiveNs = System.nanoTime();
+
+    ServerBuffer(ServerName serverName) {
+      this.serverName = serverName;
+      this.batchSize = minBatchSize;
+    }
+
+    long getBatchSize() {
+      return batchSize;
+    }
+
+    long getInFlightBytes() {
+      return inFlightBytes;
+    }
+
+    long getBufferedSize() {
+      return bufferedSize;
+    }
+
+    private void add(Mutation mutation, CompletableFuture<Void> future, long heapSize) {
+      mutations.add(mutation);
+      futures.add(future);
+      bufferedSize += heapSize;
+      lastActiveNs = System.nanoTime();
+    }
+
+    private boolean isIdle(long nowNs) {
+      return mutations.isEmpty() && inFlightBatches == 0 && nowNs - lastActiveNs >= idleExpiryNs;
+    }
+
+    /**
+     * An idle server is sent what there is right away. Otherwise wait until one of the batches in
+     * flight is likely to be done, coalescing what comes in meanwhile.
+     */
+    private long lingerNs() {
+      long linger = inFlightBatches == 0
+        ? MIN_LINGER_NS
+        : Math.max(MIN_LINGER_NS, (long) latencyNs / inFlightBatches);
+      return periodicFlushTimeoutNs > 0 ? Math.min(linger, periodicFlushTimeoutNs) : linger;
+    }
+
+    private void cancelLinger() {
+      if (lingerTask != null) {
+        lingerTask.cancel();
+        lingerTask = null;
+      }
+      due = false;
+    }
+
+    private void maybeSend() {
+      if (mutations.isEmpty()) {
+        cancelLinger();
+        return;
+      }
+      if (bufferedSize >= batchSize || due) {
+        // unlocated mutations have no server to protect
+        if (serverName == null || inFlightBytes < maxInFlightBytesPerServer) {
+          send();
+          return;
+        }
+        // held back by the bytes in flight, goes out as soon as some of them complete
+        due = true;
+      }
+      if (!due && lingerTask == null) {
+        lingerTask = periodicalFlushTimer.newTimeout(timeout -> {
+          synchronized (AsyncAdaptiveBufferedMutatorImpl.this) {
+            if (timeout == lingerTask) {
+              lingerTask = null;
+              due = true;
+              maybeSend();
+            }
+          }
+          sendPendingBatches();
+        }, lingerNs(), TimeUnit.NANOSECONDS);
+      }
+    }
+
+    /**
+     * Takes what is buffered as a batch, which is sent by {@link #sendPendingBatches()} once out of
+     * the lock.
+     */
+    private void send() {
+      cancelLinger();
+      if (mutations.isEmpty()) {
+        return;
+      }
+      pendingBatches.add(new Batch(this, mutations, futures, bufferedSize));
+      totalBufferedSize -= bufferedSize;
+      inFlightBytes += bufferedSize;
+      inFlightBatches++;
+      this.mutations = new ArrayList<>();
+      this.futures = new ArrayList<>();
+      bufferedSize = 0;
+    }
+
+    private void completed(long size, long elapsedNs, boolean success) {
+      inFlightBytes -= size;
+      inFlightBatches--;
+      lastActiveNs = System.nanoTime();
+      elapsedNs = Math.max(1, elapsedNs);
+      if (latencyNs == 0) {
+        latencyNs = elapsedNs;
+        bytesPerNs = (double) size / elapsedNs;
+      } else {
+        latencyNs = ALPHA * elapsedNs + (1 - ALPHA) * latencyNs;
+        bytesPerNs = ALPHA * size / elapsedNs + (1 - ALPHA) * bytesPerNs;
+      }
+      if (success) {
+        batchSize = Math.max(minBatchSize,
+          Math.min(writeBufferSize, (long) (bytesPerNs * targetLatencyNs)));
+      } else {
+        // a failed batch took the retries into its time, do not grow on it
+        batchSize = Math.max(minBatchSize, batchSize / 2);
+      }
+      maybeSend();
+    }
+  }
+
+  /** A batch taken from the buffer of a server. */
+  private final class Batch {
+
+    private final ServerBuffer buffer;
+
+    private final List<Mutation> mutations;
+
+    private final List<CompletableFuture<Void>> futures;
+
+    private final long size;
+
+    Batch(ServerBuffer buffer, List<Mutation> mutations, List<CompletableFuture<Void>> futures,
+      long size) {
+      this.buffer = buffer;
+      this.mutations = mutations;
+      this.futures = futures;
+      this.size = size;
+    }
+
+    private void send() {
+      long startNs = System.nanoTime();
+      List<CompletableFuture<Object>> sent = table.batch(mutations);
+      for (int i = 0; i < sent.size(); i++) {
+        CompletableFuture<Void> future = futures.get(i);
+        addListener(sent.get(i), (r, e) -> {
+          if (e != null) {
+            future.completeExceptionally(e);
+          } else {
+            future.complete(null);
+          }
+        });
+      }
+      addListener(CompletableFuture.allOf(sent.toArray(new CompletableFuture<?>[0])), (r, e) -> {
+        synchronized (AsyncAdaptiveBufferedMutatorImpl.this) {
+          buffer.completed(size, System.nanoTime() - startNs, e == null);
+        }
+        sendPendingBatches();
+      });
+    }
+  }
+
+  private final HashedWheelTimer periodicalFlushTimer;
+
+  private final AsyncTable<?> table;
+
+  private final AsyncRegionLocator locator;
+
+  private final long writeBufferSize;
+
+  private final long periodicFlushTimeoutNs;
+
+  private final int maxKeyValueSize;
+
+  private final long targetLatencyNs;
+
+  private final long minBatchSize;
+
+  private final long maxInFlightBytesPerServer;
+
+  private final long idleExpiryNs;
+
+  private final Map<ServerName, ServerBuffer> servers = new HashMap<>();
+
+  /** The batches taken from the buffers and not sent yet. */
+  private List<Batch> pendingBatches = new ArrayList<>();
+
+  /** Whether a thread is sending the pending batches. */
+  private boolean sending;
+
+  private final ServerBuffer unlocated;
+
+  private long totalBufferedSize;
+
+  private boolean closed;
+
+  Timeout periodicFlushTask;
+
+  AsyncAdaptiveBufferedMutatorImpl(HashedWheelTimer periodicalFlushTimer, AsyncTable<?> table,
+    AsyncRegionLocator locator, long writeBufferSize, long periodicFlushTimeoutNs,
+    int maxKeyValueSize) {
+    this.periodicalFlushTimer = periodicalFlushTimer;
+    this.table = table;
+    this.locator = locator;
+    this.writeBufferSize = writeBufferSize;
+    this.periodicFlushTimeoutNs = periodicFlushTimeoutNs;
+    this.maxKeyValueSize = maxKeyValueSize;
+    Configuration conf = table.getConfiguration();
+    this.targetLatencyNs =
+      TimeUnit.MILLISECONDS.toNanos(conf.getLong(TARGET_LATENCY_MS, DEFAULT_TARGET_LATENCY_MS));
+    this.minBatchSize =
+      Math.min(writeBufferSize, conf.getLong(MIN_BATCH_SIZE, DEFAULT_MIN_BATCH_SIZE));
+    this.maxInFlightBytesPerServer =
+      conf.getLong(MAX_IN_FLIGHT_BYTES_PER_SERVER, DEFAULT_MAX_IN_FLIGHT_BYTES_PER_SERVER);
+    this.idleExpiryNs = TimeUnit.MILLISECONDS
+      .toNanos(conf.getLong(IDLE_SERVER_EXPIRY_MS, DEFAULT_IDLE_SERVER_EXPIRY_MS));
+    this.unlocated = new ServerBuffer(null);
+  }
+
+  @Override
+  public TableName getName() {
+    return table.getName();
+  }
+
+  @Override
+  public Configuration getConfiguration() {
+    return table.getConfiguration();
+  }
+
+  private ServerBuffer getServerBuffer(Mutation mutation) {
+    RegionLocations locs = locator.getRegionLocationInCache(table.getName(), mutation.getRow());
+    HRegionLocation loc = locs != null ? locs.getDefaultRegionLocation() : null;
+    if (loc == null || loc.getServerName() == null) {
+      return unlocated;
+    }
+    ServerBuffer buffer = servers.get(loc.getServerName());
+    if (buffer == null) {
+      // a new server, for example one restarted, is a good time to forget the idle ones
+      evictIdleServers();
+      buffer = new ServerBuffer(loc.getServerName());
+      servers.put(loc.getServerName(), buffer);
+    }
+    return buffer;
+  }
+
+  private void evictIdleServers() {
+    long nowNs = System.nanoTime();
+    for (Iterator<ServerBuffer> it = servers.values().iterator(); it.hasNext();) {
+      if (it.next().isIdle(nowNs)) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Sends the batches taken from the buffers. Only one thread sends at a time, the others leave
+   * their batches to it, so that the batches go out in the order they were taken.
+   */
+  private void sendPendingBatches() {
+    for (;;) {
+      List<Batch> toSend;
+      synchronized (this) {
+        if (sending || pendingBatches.isEmpty()) {
+          return;
+        }
+        sending = true;
+        toSend = pendingBatches;
+        pendingBatches = new ArrayList<>();
+      }
+      try {
+        toSend.forEach(Batch::send);
+      } finally {
+        synchronized (this) {
+          sending = false;
+        }
+      }
+    }
+  }
+
+  synchronized ServerBuffer getServerBuffer(ServerName serverName) {
+    return serverName == null ? unlocated : servers.get(serverName);
+  }
+
+  // will be overridden in test
+  protected void internalFlush() {
+    if (periodicFlushTask != null) {
+      periodicFlushTask.cancel();
+      periodicFlushTask = null;
+    }
+    // an explicit flush sends everything, whatever the bytes in flight
+    for (ServerBuffer buffer : new ArrayList<>(servers.values())) {
+      buffer.send();
+    }
+    unlocated.send();
+  }
+
+  @Override
+  public List<CompletableFuture<Void>> mutate(List<? extends Mutation> mutations) {
+    List<CompletableFuture<Void>> futures = new ArrayList<>(mutations.size());
+    long[] heapSizes = new long[mutations.size()];
+    for (int i = 0; i < mutations.size(); i++) {
+      Mutation mutation = mutations.get(i);
+      futures.add(new CompletableFuture<>());
+      heapSizes[i] = mutation.heapSize();
+      if (mutation instanceof Put) {
+        validatePut((Put) mutation, maxKeyValueSize);
+      }
+    }
+    synchronized (this) {
+      if (closed) {
+        IOException ioe = new IOException("Already closed");
+        futures.forEach(f -> f.completeExceptionally(ioe));
+        return futures;
+      }
+      if (totalBufferedSize == 0 && periodicFlushTimeoutNs > 0 && periodicFlushTask == null) {
+        periodicFlushTask = periodicalFlushTimer.newTimeout(timeout -> {
+          synchronized (AsyncAdaptiveBufferedMutatorImpl.this) {
+            if (timeout == periodicFlushTask) {
+              periodicFlushTask = null;
+              internalFlush();
+            }
+          }
+          sendPendingBatches();
+        }, periodicFlushTimeoutNs, TimeUnit.NANOSECONDS);
+      }
+      Set<ServerBuffer> touched = new LinkedHashSet<>();
+      for (int i = 0; i < mutations.size(); i++) {
+        ServerBuffer buffer = getServerBuffer(mutations.get(i));
+        touched.add(buffer);
+        buffer.add(mutations.get(i), futures.get(i), heapSizes[i]);
+        totalBufferedSize += heapSizes[i];
+      }
+      for (ServerBuffer buffer : touched) {
+        buffer.maybeSend();
+      }
+      if (totalBufferedSize >= writeBufferSize) {
+        // the buffers of the servers which are not held back by their bytes in flight
+        for (ServerBuffer buffer : new ArrayList<>(servers.values())) {
+          if (buffer.inFlightBytes < maxInFlightBytesPerServer) {
+            buffer.send();
+          }
+        }
+        unlocated.send();
+      }
+    }
+    sendPendingBatches();
+    return futures;
+  }
+
+  @Override
+  public void flush() {
+    synchronized (this) {
+      internalFlush();
+    }
+    sendPendingBatches();
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      internalFlush();
+      closed = true;
+    }
+    sendPendingBatches();
+  }
+
+  @Override
+  public long getWriteBufferSize() {
+    return writeBufferSize;
+  }
+
+  @Override
+  public long getPeriodicalFlushTimeout(TimeUnit unit) {
+    return unit.convert(periodicFlushTimeoutNs, TimeUnit.NANOSECONDS);
+  }
+}
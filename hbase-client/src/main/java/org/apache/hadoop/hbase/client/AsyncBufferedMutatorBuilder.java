@@ -103,6 +103,16 @@ public interface AsyncBufferedMutatorBuilder {
    */
   AsyncBufferedMutatorBuilder setMaxKeyValueSize(int maxKeyValueSize);
 
+  /**
+   * Set whether to buffer the mutations per region server and size the batch of each server from
+   * its observed latency, instead of sending everything when the write buffer is full. The bytes in
+   * flight to a single server are capped, so a slow server does not hold back the others. Overrides
+   * the configuration key {@code hbase.client.write.buffer.adaptive.enabled}.
+   */
+  default AsyncBufferedMutatorBuilder setAdaptiveBatching(boolean adaptive) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
   /**
    * Create the {@link AsyncBufferedMutator} instance.
    */
@@ -33,18 +33,25 @@ class AsyncBufferedMutatorBuilderImpl implements AsyncBufferedMutatorBuilder {
 
   private final AsyncTableBuilder<?> tableBuilder;
 
+  private final AsyncRegionLocator locator;
+
   private long writeBufferSize;
 
   private long periodicFlushTimeoutNs;
 
   private int maxKeyValueSize;
 
+  private boolean adaptive;
+
   public AsyncBufferedMutatorBuilderImpl(AsyncConnectionConfiguration connConf,
-    AsyncTableBuilder<?> tableBuilder, HashedWheelTimer periodicalFlushTimer) {
+    AsyncTableBuilder<?> tableBuilder, AsyncRegionLocator locator,
+    HashedWheelTimer periodicalFlushTimer) {
     this.tableBuilder = tableBuilder;
+    this.locator = locator;
     this.writeBufferSize = connConf.getWriteBufferSize();
     this.periodicFlushTimeoutNs = connConf.getWriteBufferPeriodicFlushTimeoutNs();
     this.maxKeyValueSize = connConf.getMaxKeyValueSize();
+    this.adaptive = connConf.isWriteBufferAdaptive();
     this.periodicalFlushTimer = periodicalFlushTimer;
   }
 
@@ -100,8 +107,18 @@ class AsyncBufferedMutatorBuilderImpl implements AsyncBufferedMutatorBuilder {
     return this;
   }
 
+  @Override
+  public AsyncBufferedMutatorBuilder setAdaptiveBatching(boolean adaptive) {
+    this.adaptive = adaptive;
+    return this;
+  }
+
   @Override
   public AsyncBufferedMutator build() {
+    if (adaptive) {
+      return new AsyncAdaptiveBufferedMutatorImpl(periodicalFlushTimer, tableBuilder.build(),
+        locator, writeBufferSize, periodicFlushTimeoutNs, maxKeyValueSize);
+    }
     return new AsyncBufferedMutatorImpl(periodicalFlushTimer, tableBuilder.build(), writeBufferSize,
       periodicFlushTimeoutNs, maxKeyValueSize);
   }
@@ -21,10 +21,12 @@ import static org.apache.hadoop.hbase.HConstants.EMPTY_END_ROW;
 import static org.apache.hadoop.hbase.HConstants.EMPTY_START_ROW;
 import static org.apache.hadoop.hbase.client.ConnectionUtils.createScanResultCache;
 import static org.apache.hadoop.hbase.client.ConnectionUtils.getLocateType;
+import static org.apache.hadoop.hbase.client.ConnectionUtils.hedgedRead;
 import static org.apache.hadoop.hbase.client.ConnectionUtils.incRPCCallsMetrics;
 import static org.apache.hadoop.hbase.client.ConnectionUtils.incRPCRetriesMetrics;
 import static org.apache.hadoop.hbase.client.ConnectionUtils.incRegionCountMetrics;
 import static org.apache.hadoop.hbase.client.ConnectionUtils.isRemote;
+import static org.apache.hadoop.hbase.client.ConnectionUtils.resetController;
 import static org.apache.hadoop.hbase.client.ConnectionUtils.timelineConsistentRead;
 import static org.apache.hadoop.hbase.util.FutureUtils.addListener;
 
@@ -32,17 +34,23 @@ import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.StatusCode;
 import io.opentelemetry.context.Scope;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.HedgedReadPolicy.ReadType;
 import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
 import org.apache.hadoop.hbase.client.trace.TableOperationSpanBuilder;
 import org.apache.hadoop.hbase.ipc.HBaseRpcController;
 import org.apache.hadoop.hbase.trace.TraceUtil;
 import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.apache.hbase.thirdparty.io.netty.util.Timer;
 
@@ -63,6 +71,8 @@ import org.apache.hadoop.hbase.shaded.protobuf.generated.ClientProtos.ScanRespon
 @InterfaceAudience.Private
 class AsyncClientScanner {
 
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncClientScanner.class);
+
   // We will use this scan object during the whole scan operation. The
   // AsyncScanSingleRegionRpcRetryingCaller will modify this scan object directly.
   private final Scan scan;
@@ -95,10 +105,12 @@ class AsyncClientScanner {
 
   private final Map<String, byte[]> requestAttributes;
 
+  private final double hedgedReadBudget;
+
   public AsyncClientScanner(Scan scan, AdvancedScanResultConsumer consumer, TableName tableName,
     AsyncConnectionImpl conn, Timer retryTimer, long pauseNs, long pauseNsForServerOverloaded,
     int maxAttempts, long scanTimeoutNs, long rpcTimeoutNs, int startLogErrorsCnt,
-    Map<String, byte[]> requestAttributes) {
+    Map<String, byte[]> requestAttributes, double hedgedReadBudget) {
     if (scan.getStartRow() == null) {
       scan.withStartRow(EMPTY_START_ROW, scan.includeStartRow());
     }
@@ -118,6 +130,7 @@ class AsyncClientScanner {
     this.startLogErrorsCnt = startLogErrorsCnt;
     this.resultCache = createScanResultCache(scan);
     this.requestAttributes = requestAttributes;
+    this.hedgedReadBudget = hedgedReadBudget;
     if (scan.isScanMetricsEnabled()) {
       this.scanMetrics = new ScanMetrics();
       consumer.onScanMetricsCreated(scanMetrics);
@@ -160,10 +173,58 @@ class AsyncClientScanner {
     }
   }
 
+  /**
+   * The scanners opened for a region. When the open is hedged, or sent to the secondary replicas,
+   * more than one scanner may be opened, and the ones not used are closed instead of being left
+   * until their lease expires.
+   */
+  private final class OpenedScanners {
+
+    private final List<OpenScannerResponse> opened = new ArrayList<>();
+
+    private boolean done;
+
+    void add(OpenScannerResponse resp) {
+      synchronized (this) {
+        if (!done) {
+          opened.add(resp);
+          return;
+        }
+      }
+      // the one used has been added before the open completed, so this one is not
+      closeScanner(resp);
+    }
+
+    void done(OpenScannerResponse used) {
+      List<OpenScannerResponse> toClose;
+      synchronized (this) {
+        done = true;
+        toClose = new ArrayList<>(opened);
+      }
+      toClose.stream().filter(resp -> resp != used).forEach(AsyncClientScanner.this::closeScanner);
+    }
+  }
+
+  private void closeScanner(OpenScannerResponse resp) {
+    if (resp.resp.hasMoreResultsInRegion() && !resp.resp.getMoreResultsInRegion()) {
+      // already closed by the region server
+      return;
+    }
+    resetController(resp.controller, rpcTimeoutNs, HConstants.HIGH_QOS, tableName);
+    ScanRequest req = RequestConverter.buildScanRequest(resp.resp.getScannerId(), 0, true, false);
+    resp.stub.scan(resp.controller, req, r -> {
+      if (resp.controller.failed()) {
+        LOG.warn("Call to {} for closing the unused scanner id = {} for {} failed, ignore",
+          resp.loc.getServerName(), resp.resp.getScannerId(), resp.loc.getRegion().getEncodedName(),
+          resp.controller.getFailed());
+      }
+    });
+  }
+
   private final AtomicInteger openScannerTries = new AtomicInteger();
 
   private CompletableFuture<OpenScannerResponse> callOpenScanner(HBaseRpcController controller,
-    HRegionLocation loc, ClientService.Interface stub) {
+    HRegionLocation loc, ClientService.Interface stub, OpenedScanners openedScanners) {
     try (Scope ignored = span.makeCurrent()) {
       boolean isRegionServerRemote = isRemote(loc.getHostname());
       incRPCCallsMetrics(scanMetrics, isRegionServerRemote);
@@ -171,6 +232,7 @@ class AsyncClientScanner {
         incRPCRetriesMetrics(scanMetrics, isRegionServerRemote);
       }
       CompletableFuture<OpenScannerResponse> future = new CompletableFuture<>();
+      long startNs = System.nanoTime();
       try {
         ScanRequest request = RequestConverter.buildScanRequest(loc.getRegion().getRegionName(),
           scan, scan.getCaching(), false);
@@ -183,8 +245,14 @@ class AsyncClientScanner {
               span.end();
               return;
             }
-            future
-              .complete(new OpenScannerResponse(loc, isRegionServerRemote, stub, controller, resp));
+            OpenScannerResponse openResp =
+              new OpenScannerResponse(loc, isRegionServerRemote, stub, controller, resp);
+            if (hedgedReadBudget > 0) {
+              conn.hedgedReadPolicy.recordLatency(loc.getServerName(), ReadType.OPEN_SCANNER,
+                System.nanoTime() - startNs);
+            }
+            openedScanners.add(openResp);
+            future.complete(openResp);
           }
         });
       } catch (IOException e) {
@@ -231,7 +299,8 @@ class AsyncClientScanner {
       });
   }
 
-  private CompletableFuture<OpenScannerResponse> openScanner(int replicaId) {
+  private CompletableFuture<OpenScannerResponse> openScanner(int replicaId,
+    OpenedScanners openedScanners) {
     try (Scope ignored = span.makeCurrent()) {
       return conn.callerFactory.<OpenScannerResponse> single().table(tableName)
         .row(scan.getStartRow()).replicaId(replicaId).locateType(getLocateType(scan))
@@ -239,7 +308,9 @@ class AsyncClientScanner {
         .operationTimeout(scanTimeoutNs, TimeUnit.NANOSECONDS).pause(pauseNs, TimeUnit.NANOSECONDS)
         .pauseForServerOverloaded(pauseNsForServerOverloaded, TimeUnit.NANOSECONDS)
         .maxAttempts(maxAttempts).startLogErrorsCnt(startLogErrorsCnt)
-        .setRequestAttributes(requestAttributes).action(this::callOpenScanner).call();
+        .setRequestAttributes(requestAttributes)
+        .action((controller, loc, stub) -> callOpenScanner(controller, loc, stub, openedScanners))
+        .call();
     }
   }
 
@@ -252,22 +323,30 @@ class AsyncClientScanner {
   private void openScanner() {
     incRegionCountMetrics(scanMetrics);
     openScannerTries.set(1);
-    addListener(timelineConsistentRead(conn.getLocator(), tableName, scan, scan.getStartRow(),
-      getLocateType(scan), this::openScanner, rpcTimeoutNs, getPrimaryTimeoutNs(), retryTimer,
-      conn.getConnectionMetrics()), (resp, error) -> {
-        try (Scope ignored = span.makeCurrent()) {
-          if (error != null) {
-            try {
-              consumer.onError(error);
-              return;
-            } finally {
-              TraceUtil.setError(span, error);
-              span.end();
-            }
+    OpenedScanners openedScanners = new OpenedScanners();
+    CompletableFuture<OpenScannerResponse> future = hedgedReadBudget > 0
+      ? hedgedRead(conn.getLocator(), tableName, scan, scan.getStartRow(), getLocateType(scan),
+        replicaId -> openScanner(replicaId, openedScanners), rpcTimeoutNs, getPrimaryTimeoutNs(),
+        conn.hedgedReadPolicy, ReadType.OPEN_SCANNER, hedgedReadBudget, retryTimer,
+        conn.getConnectionMetrics())
+      : timelineConsistentRead(conn.getLocator(), tableName, scan, scan.getStartRow(),
+        getLocateType(scan), replicaId -> openScanner(replicaId, openedScanners), rpcTimeoutNs,
+        getPrimaryTimeoutNs(), retryTimer, conn.getConnectionMetrics());
+    addListener(future, (resp, error) -> {
+      openedScanners.done(resp);
+      try (Scope ignored = span.makeCurrent()) {
+        if (error != null) {
+          try {
+            consumer.onError(error);
+            return;
+          } finally {
+            TraceUtil.setError(span, error);
+            span.end();
           }
-          startScan(resp);
         }
-      });
+        startScan(resp);
+      }
+    });
   }
 
   public void start() {
@@ -138,6 +138,10 @@ class AsyncConnectionConfiguration {
 
   private final long writeBufferPeriodicFlushTimeoutNs;
 
+  private final boolean writeBufferAdaptive;
+
+  private final double hedgedReadBudget;
+
   // this is for supporting region replica get, if the primary does not finished within this
   // timeout, we will send request to secondaries.
   private final long primaryCallTimeoutNs;
@@ -191,6 +195,9 @@ class AsyncConnectionConfiguration {
     this.writeBufferPeriodicFlushTimeoutNs =
       TimeUnit.MILLISECONDS.toNanos(conf.getLong(WRITE_BUFFER_PERIODIC_FLUSH_TIMEOUT_MS,
         WRITE_BUFFER_PERIODIC_FLUSH_TIMEOUT_MS_DEFAULT));
+    this.writeBufferAdaptive = AsyncAdaptiveBufferedMutatorImpl.isEnabled(conf);
+    this.hedgedReadBudget = conf.getDouble(HedgedReadPolicy.HEDGED_READ_BUDGET,
+      HedgedReadPolicy.DEFAULT_HEDGED_READ_BUDGET);
     this.primaryCallTimeoutNs = TimeUnit.MICROSECONDS.toNanos(
       conf.getLong(PRIMARY_CALL_TIMEOUT_MICROSECOND, PRIMARY_CALL_TIMEOUT_MICROSECOND_DEFAULT));
     this.primaryScanTimeoutNs = TimeUnit.MICROSECONDS.toNanos(
@@ -269,6 +276,14 @@ class AsyncConnectionConfiguration {
     return writeBufferPeriodicFlushTimeoutNs;
   }
 
+  boolean isWriteBufferAdaptive() {
+    return writeBufferAdaptive;
+  }
+
+  double getHedgedReadBudget() {
+    return hedgedReadBudget;
+  }
+
   long getPrimaryCallTimeoutNs() {
     return primaryCallTimeoutNs;
   }
@@ -26,10 +26,12 @@ import static org.apache.hadoop.hbase.TableName.META_TABLE_NAME;
 import static org.apache.hadoop.hbase.client.AsyncRegionLocatorHelper.createRegionLocations;
 import static org.apache.hadoop.hbase.client.AsyncRegionLocatorHelper.isGood;
 import static org.apache.hadoop.hbase.client.ConnectionUtils.createClosestRowAfter;
+import static org.apache.hadoop.hbase.client.ConnectionUtils.isEmptyStartRow;
 import static org.apache.hadoop.hbase.client.ConnectionUtils.isEmptyStopRow;
 import static org.apache.hadoop.hbase.client.RegionInfo.createRegionName;
 import static org.apache.hadoop.hbase.client.RegionLocator.LOCATOR_META_REPLICAS_MODE;
 import static org.apache.hadoop.hbase.util.ConcurrentMapUtils.computeIfAbsent;
+import static org.apache.hadoop.hbase.util.FutureUtils.addListener;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -48,6 +50,8 @@ import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.hadoop.hbase.CatalogFamilyFormat;
 import org.apache.hadoop.hbase.CatalogReplicaMode;
+import org.apache.hadoop.hbase.ClientMetaTableAccessor;
+import org.apache.hadoop.hbase.ClientMetaTableAccessor.QueryType;
 import org.apache.hadoop.hbase.HBaseIOException;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HRegionLocation;
@@ -145,8 +149,8 @@ class AsyncNonMetaRegionLocator {
       new LinkedHashMap<>();
     private final AsyncRegionLocationCache regionLocationCache;
 
-    public TableCache(TableName tableName) {
-      regionLocationCache = new AsyncRegionLocationCache(tableName);
+    public TableCache(TableName tableName, Optional<MetricsConnection> metrics) {
+      regionLocationCache = new AsyncRegionLocationCache(tableName, metrics);
     }
 
     public boolean hasQuota(int max) {
@@ -177,6 +181,26 @@ class AsyncNonMetaRegionLocator {
       return futureResultList;
     }
 
+    /**
+     * Completes the requests which can be served from the cache, after adding many locations at
+     * once.
+     */
+    public List<RegionLocationsFutureResult> clearCompletedRequests() {
+      List<RegionLocationsFutureResult> futureResultList = new ArrayList<>();
+      for (Iterator<Map.Entry<LocateRequest, CompletableFuture<RegionLocations>>> iter =
+        allRequests.entrySet().iterator(); iter.hasNext();) {
+        Map.Entry<LocateRequest, CompletableFuture<RegionLocations>> entry = iter.next();
+        LocateRequest req = entry.getKey();
+        RegionLocations locations = req.locateType.equals(RegionLocateType.BEFORE)
+          ? regionLocationCache.findForBeforeRow(req.row, RegionReplicaUtil.DEFAULT_REPLICA_ID)
+          : regionLocationCache.findForRow(req.row, RegionReplicaUtil.DEFAULT_REPLICA_ID);
+        if (tryComplete(req, entry.getValue(), locations, futureResultList)) {
+          iter.remove();
+        }
+      }
+      return futureResultList;
+    }
+
     private boolean tryComplete(LocateRequest req, CompletableFuture<RegionLocations> future,
       RegionLocations locations, List<RegionLocationsFutureResult> futureResultList) {
       if (future.isDone()) {
@@ -256,7 +280,8 @@ class AsyncNonMetaRegionLocator {
   }
 
   private TableCache getTableCache(TableName tableName) {
-    return computeIfAbsent(cache, tableName, () -> new TableCache(tableName));
+    return computeIfAbsent(cache, tableName,
+      () -> new TableCache(tableName, conn.getConnectionMetrics()));
   }
 
   private void complete(TableName tableName, LocateRequest req, RegionLocations locs,
@@ -338,34 +363,51 @@ class AsyncNonMetaRegionLocator {
     return true;
   }
 
-  private void recordCacheHit() {
-    conn.getConnectionMetrics().ifPresent(MetricsConnection::incrMetaCacheHit);
-  }
-
-  private void recordCacheMiss() {
-    conn.getConnectionMetrics().ifPresent(MetricsConnection::incrMetaCacheMiss);
+  private void recordCacheLookup(RegionLocations locs, long startNs) {
+    conn.getConnectionMetrics().ifPresent(metrics -> {
+      metrics.updateMetaCacheLookupTime(System.nanoTime() - startNs);
+      if (locs == null) {
+        metrics.incrMetaCacheMiss();
+      } else {
+        metrics.incrMetaCacheHit();
+      }
+    });
   }
 
   private RegionLocations locateRowInCache(TableCache tableCache, byte[] row, int replicaId) {
+    long startNs = System.nanoTime();
     RegionLocations locs = tableCache.regionLocationCache.findForRow(row, replicaId);
-    if (locs == null) {
-      recordCacheMiss();
-    } else {
-      recordCacheHit();
-    }
+    recordCacheLookup(locs, startNs);
     return locs;
   }
 
   private RegionLocations locateRowBeforeInCache(TableCache tableCache, byte[] row, int replicaId) {
+    long startNs = System.nanoTime();
     RegionLocations locs = tableCache.regionLocationCache.findForBeforeRow(row, replicaId);
-    if (locs == null) {
-      recordCacheMiss();
-    } else {
-      recordCacheHit();
-    }
+    recordCacheLookup(locs, startNs);
     return locs;
   }
 
+  private void setMetaReplica(Scan scan, TableName tableName, byte[] row,
+    RegionLocateType locateType) {
+    switch (this.metaReplicaMode) {
+      case LOAD_BALANCE:
+        int metaReplicaId = this.metaReplicaSelector.select(tableName, row, locateType);
+        if (metaReplicaId != RegionInfo.DEFAULT_REPLICA_ID) {
+          // If the selector gives a non-primary meta replica region, then go with it.
+          // Otherwise, just go to primary in non-hedgedRead mode.
+          scan.setConsistency(Consistency.TIMELINE);
+          scan.setReplicaId(metaReplicaId);
+        }
+        break;
+      case HEDGED_READ:
+        scan.setConsistency(Consistency.TIMELINE);
+        break;
+      default:
+        // do nothing
+    }
+  }
+
   private void locateInMeta(TableName tableName, LocateRequest req) {
     if (LOG.isTraceEnabled()) {
       LOG.trace("Try locate '" + tableName + "', row='" + Bytes.toStringBinary(req.row)
@@ -387,23 +429,7 @@ class AsyncNonMetaRegionLocator {
     Scan scan = new Scan().withStartRow(metaStartKey).withStopRow(metaStopKey, true)
       .addFamily(HConstants.CATALOG_FAMILY).setReversed(true).setCaching(locatePrefetchLimit)
       .setReadType(ReadType.PREAD);
-
-    switch (this.metaReplicaMode) {
-      case LOAD_BALANCE:
-        int metaReplicaId = this.metaReplicaSelector.select(tableName, req.row, req.locateType);
-        if (metaReplicaId != RegionInfo.DEFAULT_REPLICA_ID) {
-          // If the selector gives a non-primary meta replica region, then go with it.
-          // Otherwise, just go to primary in non-hedgedRead mode.
-          scan.setConsistency(Consistency.TIMELINE);
-          scan.setReplicaId(metaReplicaId);
-        }
-        break;
-      case HEDGED_READ:
-        scan.setConsistency(Consistency.TIMELINE);
-        break;
-      default:
-        // do nothing
-    }
+    setMetaReplica(scan, tableName, req.row, req.locateType);
 
     conn.getTable(META_TABLE_NAME).scan(scan, new AdvancedScanResultConsumer() {
 
@@ -469,6 +495,94 @@ class AsyncNonMetaRegionLocator {
     });
   }
 
+  /**
+   * Loads the locations of all the regions of the given table between the start and stop rows into
+   * the cache with a single scan of meta, instead of one meta lookup per region.
+   * @param startRow the first row to locate, or empty for the first region of the table
+   * @param stopRow  the row after the last row to locate, or empty for the last region
+   * @return the number of regions loaded
+   */
+  CompletableFuture<Integer> prefetchRegionLocations(TableName tableName, byte[] startRow,
+    byte[] stopRow) {
+    CompletableFuture<Integer> future = new CompletableFuture<>();
+    byte[] metaStopKey = isEmptyStopRow(stopRow)
+      ? ClientMetaTableAccessor.getTableStopRowForMeta(tableName, QueryType.REGION)
+      : createRegionName(tableName, stopRow, ZEROES, false);
+    if (isEmptyStartRow(startRow)) {
+      prefetchFromMeta(tableName, startRow,
+        ClientMetaTableAccessor.getTableStartRowForMeta(tableName, QueryType.REGION), metaStopKey,
+        future);
+    } else {
+      // the region containing the start row is before it in meta, so locate it first
+      addListener(getRegionLocations(tableName, startRow, RegionReplicaUtil.DEFAULT_REPLICA_ID,
+        RegionLocateType.CURRENT, false), (locs, error) -> {
+          if (error != null) {
+            future.completeExceptionally(error);
+            return;
+          }
+          prefetchFromMeta(tableName, startRow,
+            locs.getDefaultRegionLocation().getRegion().getRegionName(), metaStopKey, future);
+        });
+    }
+    return future;
+  }
+
+  private void prefetchFromMeta(TableName tableName, byte[] startRow, byte[] metaStartKey,
+    byte[] metaStopKey, CompletableFuture<Integer> future) {
+    Scan scan = new Scan().withStartRow(metaStartKey).withStopRow(metaStopKey)
+      .addFamily(HConstants.CATALOG_FAMILY).setCaching(conn.connConf.getMetaScannerCaching());
+    setMetaReplica(scan, tableName, startRow, RegionLocateType.CURRENT);
+    long startNs = System.nanoTime();
+    List<RegionLocations> fetched = new ArrayList<>();
+    conn.getTable(META_TABLE_NAME).scan(scan, new AdvancedScanResultConsumer() {
+
+      @Override
+      public void onNext(Result[] results, ScanController controller) {
+        for (Result result : results) {
+          RegionLocations locs = CatalogFamilyFormat.getRegionLocations(result);
+          if (locs == null) {
+            continue;
+          }
+          locs = locs.removeElementsWithNullLocation();
+          HRegionLocation loc = locs.getDefaultRegionLocation();
+          if (loc == null) {
+            continue;
+          }
+          RegionInfo info = loc.getRegion();
+          if (info == null || info.isOffline() || info.isSplitParent()) {
+            continue;
+          }
+          fetched.add(locs);
+        }
+      }
+
+      @Override
+      public void onError(Throwable error) {
+        future.completeExceptionally(error);
+      }
+
+      @Override
+      public void onComplete() {
+        if (fetched.isEmpty()) {
+          future.complete(0);
+          return;
+        }
+        TableCache tableCache = getTableCache(tableName);
+        tableCache.regionLocationCache.addAll(fetched);
+        List<RegionLocationsFutureResult> futureResultList;
+        synchronized (tableCache) {
+          futureResultList = tableCache.clearCompletedRequests();
+        }
+        futureResultList.forEach(RegionLocationsFutureResult::complete);
+        conn.getConnectionMetrics()
+          .ifPresent(metrics -> metrics.incrMetaCachePrefetchedRegions(fetched.size()));
+        LOG.debug("Prefetched {} region locations of {} in {} ms", fetched.size(), tableName,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs));
+        future.complete(fetched.size());
+      }
+    });
+  }
+
   private RegionLocations locateInCache(TableCache tableCache, byte[] row, int replicaId,
     RegionLocateType locateType) {
     return locateType.equals(RegionLocateType.BEFORE)
@@ -588,10 +702,15 @@ class AsyncNonMetaRegionLocator {
     futureResultList.forEach(RegionLocationsFutureResult::complete);
     conn.getConnectionMetrics().ifPresent(
       metrics -> metrics.incrMetaCacheNumClearRegion(tableCache.regionLocationCache.size()));
+    tableCache.regionLocationCache.clear();
   }
 
   void clearCache() {
-    cache.clear();
+    for (Iterator<TableCache> iter = cache.values().iterator(); iter.hasNext();) {
+      TableCache tableCache = iter.next();
+      iter.remove();
+      tableCache.regionLocationCache.clear();
+    }
   }
 
   void clearCache(ServerName serverName) {
@@ -600,7 +719,7 @@ class AsyncNonMetaRegionLocator {
     }
   }
 
-  // only used for testing whether we have cached the location for a region.
+  // looks up the cache only, see AsyncRegionLocator.getRegionLocationInCache
   RegionLocations getRegionLocationInCache(TableName tableName, byte[] row) {
     TableCache tableCache = cache.get(tableName);
     if (tableCache == null) {
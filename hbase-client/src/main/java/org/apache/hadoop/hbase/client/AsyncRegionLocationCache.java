@@ -22,36 +22,135 @@ import static org.apache.hadoop.hbase.client.AsyncRegionLocatorHelper.removeRegi
 import static org.apache.hadoop.hbase.client.ConnectionUtils.isEmptyStopRow;
 import static org.apache.hadoop.hbase.util.Bytes.BYTES_COMPARATOR;
 
+import java.util.AbstractMap;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.RegionLocations;
 import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.hbase.thirdparty.com.google.common.base.Objects;
 
 /**
- * Cache of RegionLocations for use by {@link AsyncNonMetaRegionLocator}. Wrapper around
- * ConcurrentSkipListMap ensuring proper access to cached items. Updates are synchronized, but reads
- * are not.
+ * Cache of RegionLocations for use by {@link AsyncNonMetaRegionLocator}. Updates are synchronized,
+ * but reads are not.
+ * <p>
+ * The locations are kept in two parts. Most of them are in a sorted array of start keys with the
+ * array of their locations, which costs two references per region and is searched with a binary
+ * search. The locations added one by one go to a ConcurrentSkipListMap first, and are folded into
+ * the arrays once there are enough of them, see {@link #COMPACTION_THRESHOLD}. A start key is never
+ * in both parts, so updating or removing the location of a region in the arrays is done in place,
+ * by setting its slot, and a removed slot is skipped by the lookups until the next fold.
+ * {@link #addAll(Collection)}, used when prefetching the locations of a table, builds the arrays
+ * directly.
  */
 final class AsyncRegionLocationCache {
 
   private static final Logger LOG = LoggerFactory.getLogger(AsyncRegionLocationCache.class);
 
+  /**
+   * The skip list is folded into the arrays once it has this many entries, or a quarter of the
+   * number of entries in the arrays if more. The same goes for the removed slots of the arrays.
+   */
+  static final int COMPACTION_THRESHOLD = 1024;
+
+  /**
+   * Heap used by a cached location besides its keys and region name, i.e, the HRegionLocation,
+   * the RegionInfo with its encoded names, and the ServerName.
+   */
+  private static final long LOCATION_OVERHEAD =
+    ClassSize.align(ClassSize.OBJECT + 2 * ClassSize.REFERENCE + Bytes.SIZEOF_LONG)
+      + ClassSize.align(ClassSize.OBJECT + 8 * ClassSize.REFERENCE + 2 * Bytes.SIZEOF_LONG)
+      + 3 * ClassSize.STRING + ClassSize.align(ClassSize.OBJECT + 4 * ClassSize.REFERENCE);
+
+  private static final SortedRun EMPTY_RUN = new SortedRun(new byte[0][], new RegionLocations[0]);
+
+  /**
+   * The sorted arrays. The start keys never change, the locations of a region can be replaced or
+   * removed by setting its slot to null.
+   */
+  private static final class SortedRun {
+
+    private final byte[][] startKeys;
+
+    private final AtomicReferenceArray<RegionLocations> locs;
+
+    /** The number of slots which are not null, only changed under the lock of the cache. */
+    private volatile int live;
+
+    SortedRun(byte[][] startKeys, RegionLocations[] locs) {
+      this.startKeys = startKeys;
+      this.locs = new AtomicReferenceArray<>(locs);
+      this.live = locs.length;
+    }
+
+    int length() {
+      return startKeys.length;
+    }
+
+    /** Returns the index of the given start key, or a negative value if not in the arrays. */
+    int indexOf(byte[] startKey) {
+      return Arrays.binarySearch(startKeys, startKey, BYTES_COMPARATOR);
+    }
+
+    /**
+     * Returns the index of the greatest start key less than, or equal to if inclusive, the given
+     * key, or -1 if there is none.
+     */
+    int floor(byte[] key, boolean inclusive) {
+      int index = indexOf(key);
+      if (index >= 0) {
+        return inclusive ? index : index - 1;
+      }
+      return -index - 2;
+    }
+
+    /** Returns the first entry which is not removed at the given index or before it. */
+    Map.Entry<byte[], RegionLocations> entryAtOrBefore(int index) {
+      for (; index >= 0; index--) {
+        RegionLocations l = locs.get(index);
+        if (l != null) {
+          return new AbstractMap.SimpleImmutableEntry<>(startKeys[index], l);
+        }
+      }
+      return null;
+    }
+  }
+
   private final ConcurrentNavigableMap<byte[], RegionLocations> cache =
     new ConcurrentSkipListMap<>(BYTES_COMPARATOR);
   private final TableName tableName;
+  private final Optional<MetricsConnection> metrics;
+
+  private volatile SortedRun run = EMPTY_RUN;
+
+  /** The estimated heap used by the cached locations, only changed under the lock. */
+  private volatile long locationsHeapSize;
+
+  /** The last value of {@link #heapSize()} given to the metrics. */
+  private long reportedHeapSize;
 
   public AsyncRegionLocationCache(TableName tableName) {
+    this(tableName, Optional.empty());
+  }
+
+  public AsyncRegionLocationCache(TableName tableName, Optional<MetricsConnection> metrics) {
     this.tableName = tableName;
+    this.metrics = metrics;
   }
 
   /**
@@ -63,9 +162,12 @@ final class AsyncRegionLocationCache {
    */
   public synchronized RegionLocations add(RegionLocations locs) {
     byte[] startKey = locs.getRegionLocation().getRegion().getStartKey();
-    RegionLocations oldLocs = cache.putIfAbsent(startKey, locs);
+    RegionLocations oldLocs = get(startKey);
     if (oldLocs == null) {
+      put(startKey, locs);
       cleanProblematicOverlappedRegions(locs);
+      maybeCompact();
+      reportHeapSize();
       return locs;
     }
 
@@ -92,11 +194,52 @@ final class AsyncRegionLocationCache {
       }
     }
 
-    cache.put(startKey, locs);
+    put(startKey, locs);
     cleanProblematicOverlappedRegions(locs);
+    maybeCompact();
+    reportHeapSize();
     return locs;
   }
 
+  /**
+   * Adds the given locations to the cache at once, for example all the locations of a table read
+   * from meta in a single scan. The locations are merged with the cached
+   * ones the same way as in {@link #add(RegionLocations)}, and the cached regions they overlap are
+   * removed.
+   * @param locsList the locations to cache
+   */
+  public synchronized void addAll(Collection<RegionLocations> locsList) {
+    NavigableMap<byte[], RegionLocations> merged = new TreeMap<>(BYTES_COMPARATOR);
+    SortedRun r = run;
+    for (int i = 0, n = r.length(); i < n; i++) {
+      RegionLocations l = r.locs.get(i);
+      if (l != null) {
+        merged.put(r.startKeys[i], l);
+      }
+    }
+    merged.putAll(cache);
+    for (RegionLocations locs : locsList) {
+      RegionInfo region = locs.getRegionLocation().getRegion();
+      byte[] startKey = region.getStartKey();
+      RegionLocations oldLocs = merged.get(startKey);
+      if (oldLocs != null) {
+        RegionInfo oldRegion = oldLocs.getRegionLocation().getRegion();
+        if (region.getEncodedName().equals(oldRegion.getEncodedName())) {
+          locs = oldLocs.mergeLocations(locs);
+        }
+      }
+      merged.put(startKey, locs);
+      // same as cleanProblematicOverlappedRegions
+      byte[] endKey = region.getEndKey();
+      NavigableMap<byte[], RegionLocations> overlapped = isEmptyStopRow(endKey)
+        ? merged.tailMap(startKey, false)
+        : merged.subMap(startKey, false, endKey, false);
+      overlapped.clear();
+    }
+    replaceAll(merged);
+    reportHeapSize();
+  }
+
   /**
    * When caching a location, the region may have been the result of a merge. Check to see if the
    * region's boundaries overlap any other cached locations in a problematic way. Those would have
@@ -124,7 +267,7 @@ final class AsyncRegionLocationCache {
 
     while (true) {
       Map.Entry<byte[], RegionLocations> overlap =
-        isLast ? cache.lastEntry() : cache.lowerEntry(region.getEndKey());
+        isLast ? lastEntry() : lowerEntry(region.getEndKey());
       if (
         overlap == null || overlap.getValue() == locations
           || Bytes.equals(overlap.getKey(), region.getStartKey())
@@ -141,7 +284,7 @@ final class AsyncRegionLocationCache {
           locations, Bytes.toStringBinary(locations.getRegionLocation().getRegion().getEndKey()));
       }
 
-      cache.remove(overlap.getKey());
+      removeKey(overlap.getKey());
     }
   }
 
@@ -178,7 +321,16 @@ final class AsyncRegionLocationCache {
    * Returns all cached RegionLocations
    */
   public Collection<RegionLocations> getAll() {
-    return Collections.unmodifiableCollection(cache.values());
+    // the skip list before the arrays, see publish, a location in both is only returned once
+    NavigableMap<byte[], RegionLocations> all = new TreeMap<>(cache);
+    SortedRun r = run;
+    for (int i = 0, n = r.length(); i < n; i++) {
+      RegionLocations l = r.locs.get(i);
+      if (l != null) {
+        all.putIfAbsent(r.startKeys[i], l);
+      }
+    }
+    return Collections.unmodifiableCollection(all.values());
   }
 
   /**
@@ -187,7 +339,13 @@ final class AsyncRegionLocationCache {
    * @param startKey region start key to directly look up
    */
   public RegionLocations get(byte[] startKey) {
-    return cache.get(startKey);
+    RegionLocations locs = cache.get(startKey);
+    if (locs != null) {
+      return locs;
+    }
+    SortedRun r = run;
+    int index = r.indexOf(startKey);
+    return index >= 0 ? r.locs.get(index) : null;
   }
 
   /**
@@ -196,7 +354,7 @@ final class AsyncRegionLocationCache {
    * @param row row to find locations
    */
   public RegionLocations findForRow(byte[] row, int replicaId) {
-    Map.Entry<byte[], RegionLocations> entry = cache.floorEntry(row);
+    Map.Entry<byte[], RegionLocations> entry = floorEntry(row);
     if (entry == null) {
       return null;
     }
@@ -231,8 +389,7 @@ final class AsyncRegionLocationCache {
    */
   public RegionLocations findForBeforeRow(byte[] row, int replicaId) {
     boolean isEmptyStopRow = isEmptyStopRow(row);
-    Map.Entry<byte[], RegionLocations> entry =
-      isEmptyStopRow ? cache.lastEntry() : cache.lowerEntry(row);
+    Map.Entry<byte[], RegionLocations> entry = isEmptyStopRow ? lastEntry() : lowerEntry(row);
     if (entry == null) {
       return null;
     }
@@ -264,7 +421,7 @@ final class AsyncRegionLocationCache {
    */
   public synchronized boolean remove(HRegionLocation loc) {
     byte[] startKey = loc.getRegion().getStartKey();
-    RegionLocations oldLocs = cache.get(startKey);
+    RegionLocations oldLocs = get(startKey);
     if (oldLocs == null) {
       return false;
     }
@@ -276,21 +433,30 @@ final class AsyncRegionLocationCache {
 
     RegionLocations newLocs = removeRegionLocation(oldLocs, loc.getRegion().getReplicaId());
     if (newLocs == null) {
-      if (cache.remove(startKey, oldLocs)) {
-        return true;
-      }
+      removeKey(startKey);
     } else {
-      cache.put(startKey, newLocs);
-      return true;
+      put(startKey, newLocs);
     }
-    return false;
+    maybeCompact();
+    reportHeapSize();
+    return true;
   }
 
   /**
    * Returns the size of the region locations cache
    */
   public int size() {
-    return cache.size();
+    return run.live + cache.size();
+  }
+
+  /**
+   * Returns the estimated heap used by the cache.
+   */
+  public long heapSize() {
+    SortedRun r = run;
+    long arrays = 2 * ClassSize.align(ClassSize.ARRAY + (long) r.length() * ClassSize.REFERENCE);
+    return locationsHeapSize + arrays
+      + (long) cache.size() * ClassSize.CONCURRENT_SKIPLISTMAP_ENTRY;
   }
 
   /**
@@ -307,10 +473,191 @@ final class AsyncRegionLocationCache {
         continue;
       }
       if (newLocs.isEmpty()) {
-        cache.remove(regionName, locs);
+        if (cache.remove(regionName, locs)) {
+          updateHeapSize(-heapSize(locs));
+        }
       } else {
         cache.put(regionName, newLocs);
+        updateHeapSize(heapSize(newLocs) - heapSize(locs));
+      }
+    }
+    SortedRun r = run;
+    for (int i = 0, n = r.length(); i < n; i++) {
+      RegionLocations locs = r.locs.get(i);
+      if (locs == null) {
+        continue;
+      }
+      RegionLocations newLocs = locs.removeByServer(serverName);
+      if (locs == newLocs) {
+        continue;
+      }
+      if (newLocs.isEmpty()) {
+        r.locs.set(i, null);
+        r.live--;
+        updateHeapSize(-heapSize(locs));
+      } else {
+        r.locs.set(i, newLocs);
+        updateHeapSize(heapSize(newLocs) - heapSize(locs));
+      }
+    }
+    maybeCompact();
+    reportHeapSize();
+  }
+
+  /**
+   * Removes all the locations, called when the cache is dropped.
+   */
+  public synchronized void clear() {
+    run = EMPTY_RUN;
+    cache.clear();
+    locationsHeapSize = 0;
+    reportHeapSize();
+  }
+
+  // The lookups below read the skip list before the arrays, as get does. publish sets the arrays
+  // before clearing the skip list, so a location missed in the skip list because it was just
+  // cleared is in the arrays read afterwards.
+
+  private Map.Entry<byte[], RegionLocations> floorEntry(byte[] key) {
+    Map.Entry<byte[], RegionLocations> e = cache.floorEntry(key);
+    SortedRun r = run;
+    return greater(e, r.entryAtOrBefore(r.floor(key, true)));
+  }
+
+  private Map.Entry<byte[], RegionLocations> lowerEntry(byte[] key) {
+    Map.Entry<byte[], RegionLocations> e = cache.lowerEntry(key);
+    SortedRun r = run;
+    return greater(e, r.entryAtOrBefore(r.floor(key, false)));
+  }
+
+  private Map.Entry<byte[], RegionLocations> lastEntry() {
+    Map.Entry<byte[], RegionLocations> e = cache.lastEntry();
+    SortedRun r = run;
+    return greater(e, r.entryAtOrBefore(r.length() - 1));
+  }
+
+  private static Map.Entry<byte[], RegionLocations> greater(Map.Entry<byte[], RegionLocations> e1,
+    Map.Entry<byte[], RegionLocations> e2) {
+    if (e1 == null) {
+      return e2;
+    }
+    if (e2 == null) {
+      return e1;
+    }
+    return BYTES_COMPARATOR.compare(e1.getKey(), e2.getKey()) >= 0 ? e1 : e2;
+  }
+
+  // the methods below must be called with the lock held
+
+  private void put(byte[] startKey, RegionLocations locs) {
+    SortedRun r = run;
+    int index = r.indexOf(startKey);
+    RegionLocations oldLocs;
+    if (index >= 0 && r.locs.get(index) != null) {
+      oldLocs = r.locs.getAndSet(index, locs);
+    } else {
+      oldLocs = cache.put(startKey, locs);
+    }
+    updateHeapSize(heapSize(locs) - (oldLocs != null ? heapSize(oldLocs) : 0));
+  }
+
+  private void removeKey(byte[] startKey) {
+    RegionLocations oldLocs = cache.remove(startKey);
+    if (oldLocs == null) {
+      SortedRun r = run;
+      int index = r.indexOf(startKey);
+      if (index < 0) {
+        return;
+      }
+      oldLocs = r.locs.getAndSet(index, null);
+      if (oldLocs == null) {
+        return;
+      }
+      r.live--;
+    }
+    updateHeapSize(-heapSize(oldLocs));
+  }
+
+  private void maybeCompact() {
+    SortedRun r = run;
+    int threshold = Math.max(COMPACTION_THRESHOLD, r.length() / 4);
+    if (cache.size() < threshold && r.length() - r.live < threshold) {
+      return;
+    }
+    // both are sorted and do not share any start key, so merge them
+    int size = r.live + cache.size();
+    byte[][] startKeys = new byte[size][];
+    RegionLocations[] locs = new RegionLocations[size];
+    Iterator<Map.Entry<byte[], RegionLocations>> iter = cache.entrySet().iterator();
+    Map.Entry<byte[], RegionLocations> next = iter.hasNext() ? iter.next() : null;
+    int j = 0;
+    for (int i = 0, n = r.length(); i < n; i++) {
+      RegionLocations l = r.locs.get(i);
+      if (l == null) {
+        continue;
+      }
+      for (; next != null && BYTES_COMPARATOR.compare(next.getKey(), r.startKeys[i]) < 0;
+        next = iter.hasNext() ? iter.next() : null) {
+        startKeys[j] = next.getKey();
+        locs[j++] = next.getValue();
+      }
+      startKeys[j] = r.startKeys[i];
+      locs[j++] = l;
+    }
+    for (; next != null; next = iter.hasNext() ? iter.next() : null) {
+      startKeys[j] = next.getKey();
+      locs[j++] = next.getValue();
+    }
+    publish(new SortedRun(startKeys, locs));
+  }
+
+  private void replaceAll(NavigableMap<byte[], RegionLocations> locations) {
+    byte[][] startKeys = new byte[locations.size()][];
+    RegionLocations[] locs = new RegionLocations[locations.size()];
+    long newHeapSize = 0;
+    int i = 0;
+    for (Map.Entry<byte[], RegionLocations> e : locations.entrySet()) {
+      startKeys[i] = e.getKey();
+      locs[i] = e.getValue();
+      newHeapSize += heapSize(e.getValue());
+      i++;
+    }
+    publish(new SortedRun(startKeys, locs));
+    locationsHeapSize = newHeapSize;
+  }
+
+  private void publish(SortedRun newRun) {
+    // publish the arrays before clearing the skip list, so a reader sees each location in one of
+    // them, or in both, at any time
+    run = newRun;
+    cache.clear();
+  }
+
+  private void updateHeapSize(long delta) {
+    locationsHeapSize += delta;
+  }
+
+  private void reportHeapSize() {
+    long size = heapSize();
+    long delta = size - reportedHeapSize;
+    reportedHeapSize = size;
+    if (delta != 0) {
+      metrics.ifPresent(m -> m.updateMetaCacheHeapSize(delta));
+    }
+  }
+
+  private static long heapSize(RegionLocations locs) {
+    long size = ClassSize.align(ClassSize.OBJECT + ClassSize.REFERENCE + Bytes.SIZEOF_INT)
+      + ClassSize.align(ClassSize.ARRAY + locs.size() * ClassSize.REFERENCE);
+    for (HRegionLocation loc : locs.getRegionLocations()) {
+      if (loc == null) {
+        continue;
       }
+      RegionInfo region = loc.getRegion();
+      size += LOCATION_OVERHEAD + ClassSize.align(ClassSize.ARRAY + region.getStartKey().length)
+        + ClassSize.align(ClassSize.ARRAY + region.getEndKey().length)
+        + ClassSize.align(ClassSize.ARRAY + region.getRegionName().length);
     }
+    return size;
   }
 }
@@ -204,6 +204,19 @@ class AsyncRegionLocator {
     return getRegionLocation(tableName, row, type, false, timeoutNs);
   }
 
+  CompletableFuture<Integer> prefetchRegionLocations(TableName tableName, byte[] startRow,
+    byte[] stopRow) {
+    Supplier<Span> supplier = new TableSpanBuilder(conn)
+      .setName("AsyncRegionLocator.prefetchRegionLocations").setTableName(tableName);
+    return TraceUtil.tracedFuture(() -> {
+      if (isMeta(tableName)) {
+        return metaRegionLocator.getRegionLocations(RegionReplicaUtil.DEFAULT_REPLICA_ID, false)
+          .thenApply(RegionLocations::numNonNullElements);
+      }
+      return nonMetaRegionLocator.prefetchRegionLocations(tableName, startRow, stopRow);
+    }, supplier);
+  }
+
   void updateCachedLocationOnError(HRegionLocation loc, Throwable exception) {
     if (loc.getRegion().isMetaRegion()) {
       metaRegionLocator.updateCachedLocationOnError(loc, exception);
@@ -250,7 +263,8 @@ class AsyncRegionLocator {
     return nonMetaRegionLocator;
   }
 
-  // only used for testing whether we have cached the location for a region.
+  // used for testing whether we have cached the location for a region, and by the adaptive
+  // buffered mutator which must not go to meta for every mutation.
   RegionLocations getRegionLocationInCache(TableName tableName, byte[] row) {
     if (TableName.isMetaTableName(tableName)) {
       return metaRegionLocator.getRegionLocationInCache();
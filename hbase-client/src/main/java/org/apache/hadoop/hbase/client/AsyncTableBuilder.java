@@ -137,6 +137,24 @@ public interface AsyncTableBuilder<C extends ScanResultConsumerBase> {
    */
   AsyncTableBuilder<C> setStartLogErrorsCnt(int startLogErrorsCnt);
 
+  /**
+   * Set the fraction of extra read requests that hedged reads may add, 0 to disable them.
+   * <p>
+   * With hedged reads enabled, a get which is slower than usual for the region server it was sent
+   * to, i.e, slower than the observed p95 latency of that server, is hedged with a backup request.
+   * For {@link Consistency#TIMELINE} gets the backup requests go to the secondary replicas, and the
+   * p95 latency replaces the fixed primary call timeout once known. Other gets are sent to the
+   * same server again. The first response wins. For example, a budget of 0.05 means no more than
+   * 5% extra requests.
+   * <p>
+   * The gets of a batch made only of gets are grouped by region server, and every group is hedged
+   * as a whole. The opening of the scanner of every region by a scan is hedged as a get is, and the
+   * scanners opened but not used are closed.
+   */
+  default AsyncTableBuilder<C> setHedgedReadBudget(double budget) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
   /**
    * Set a request attribute
    */
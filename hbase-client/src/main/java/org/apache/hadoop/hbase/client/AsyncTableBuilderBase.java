@@ -53,6 +53,8 @@ abstract class AsyncTableBuilderBase<C extends ScanResultConsumerBase>
 
   protected int startLogErrorsCnt;
 
+  protected double hedgedReadBudget;
+
   protected Map<String, byte[]> requestAttributes = Collections.emptyMap();
 
   AsyncTableBuilderBase(TableName tableName, AsyncConnectionConfiguration connConf) {
@@ -71,6 +73,7 @@ abstract class AsyncTableBuilderBase<C extends ScanResultConsumerBase>
     this.pauseNsForServerOverloaded = connConf.getPauseNsForServerOverloaded();
     this.maxAttempts = retries2Attempts(connConf.getMaxRetries());
     this.startLogErrorsCnt = connConf.getStartLogErrorsCnt();
+    this.hedgedReadBudget = connConf.getHedgedReadBudget();
   }
 
   @Override
@@ -127,6 +130,12 @@ abstract class AsyncTableBuilderBase<C extends ScanResultConsumerBase>
     return this;
   }
 
+  @Override
+  public AsyncTableBuilderBase<C> setHedgedReadBudget(double budget) {
+    this.hedgedReadBudget = budget;
+    return this;
+  }
+
   @Override
   public AsyncTableBuilder<C> setRequestAttribute(String key, byte[] value) {
     if (this.requestAttributes.isEmpty()) {
@@ -20,6 +20,7 @@ package org.apache.hadoop.hbase.client;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.util.Pair;
@@ -147,6 +148,26 @@ public interface AsyncTableRegionLocator {
         .collect(Collectors.toList()));
   }
 
+  /**
+   * Loads the locations of all the regions of this table into the region location cache.
+   * <p/>
+   * The locations are read with a single scan of the meta table, which is much faster than locating
+   * the regions one by one on their first access when the table has many regions.
+   */
+  default CompletableFuture<Void> prefetchRegionLocations() {
+    return prefetchRegionLocations(HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+  }
+
+  /**
+   * Loads the locations of the regions of this table overlapping the given key range into the
+   * region location cache, with a single scan of the meta table.
+   * @param startKey the first row of the range, inclusive, or empty for the start of the table
+   * @param endKey   the last row of the range, exclusive, or empty for the end of the table
+   */
+  default CompletableFuture<Void> prefetchRegionLocations(byte[] startKey, byte[] endKey) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
   /**
    * Clear all the entries in the region location cache.
    * <p/>
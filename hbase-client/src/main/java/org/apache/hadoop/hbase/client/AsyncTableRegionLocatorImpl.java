@@ -81,6 +81,12 @@ class AsyncTableRegionLocatorImpl implements AsyncTableRegionLocator {
       .thenApply(locs -> Arrays.asList(locs.getRegionLocations()));
   }
 
+  @Override
+  public CompletableFuture<Void> prefetchRegionLocations(byte[] startKey, byte[] endKey) {
+    return conn.getLocator().prefetchRegionLocations(tableName, startKey, endKey)
+      .thenApply(count -> null);
+  }
+
   @Override
   public void clearRegionLocationCache() {
     conn.getLocator().clearCache(tableName);
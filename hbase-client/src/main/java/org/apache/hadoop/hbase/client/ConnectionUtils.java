@@ -433,6 +433,77 @@ public final class ConnectionUtils {
     }
   }
 
+  private static <T> void sendHedgedRequests(Function<Integer, CompletableFuture<T>> requestReplica,
+    RegionLocations locs, boolean timeline, HedgedReadPolicy policy, CompletableFuture<T> future,
+    Optional<MetricsConnection> metrics) {
+    if (future.isDone()) {
+      return;
+    }
+    boolean toSecondaries = timeline && locs.size() > 1;
+    if (!policy.tryAcquire(toSecondaries ? locs.size() - 1 : 1)) {
+      metrics.ifPresent(MetricsConnection::incrHedgedReadSkipped);
+      return;
+    }
+    if (toSecondaries) {
+      sendRequestsToSecondaryReplicas(requestReplica, locs, future, metrics);
+    } else {
+      CompletableFuture<T> hedgedFuture =
+        requestReplica.apply(RegionReplicaUtil.DEFAULT_REPLICA_ID);
+      metrics.ifPresent(MetricsConnection::incrHedgedReadOps);
+      connect(hedgedFuture, future, metrics);
+    }
+  }
+
+  /**
+   * Like {@link #timelineConsistentRead}, but the backup requests are sent once the primary request
+   * is slower than the latency percentile of the reads of the given type sent to its server, given
+   * by the {@link HedgedReadPolicy}, and only when within the hedged read budget. Requests which
+   * are not timeline consistent, or with no secondary replica to go to, are hedged by sending them
+   * to the primary replica again.
+   */
+  static <T> CompletableFuture<T> hedgedRead(AsyncRegionLocator locator, TableName tableName,
+    Query query, byte[] row, RegionLocateType locateType,
+    Function<Integer, CompletableFuture<T>> requestReplica, long rpcTimeoutNs,
+    long primaryCallTimeoutNs, HedgedReadPolicy policy, HedgedReadPolicy.ReadType type,
+    double budget, Timer retryTimer, Optional<MetricsConnection> metrics) {
+    // user specifies a replica id explicitly, just send request to the specific replica
+    if (query.getReplicaId() >= 0) {
+      return requestReplica.apply(query.getReplicaId());
+    }
+    policy.onRead(budget);
+    boolean timeline = query.getConsistency() == Consistency.TIMELINE;
+    CompletableFuture<T> primaryFuture = requestReplica.apply(RegionReplicaUtil.DEFAULT_REPLICA_ID);
+    CompletableFuture<T> future = new CompletableFuture<>();
+    connect(primaryFuture, future, Optional.empty());
+    long startNs = System.nanoTime();
+    addListener(locator.getRegionLocations(tableName, row, locateType, false, rpcTimeoutNs),
+      (locs, error) -> {
+        if (error != null) {
+          LOG.debug("Failed to locate table={}, row='{}', locateType={}, give up hedged read",
+            tableName, Bytes.toStringBinary(row), locateType, error);
+          return;
+        }
+        HRegionLocation loc = locs.getDefaultRegionLocation();
+        long hedgeDelayNs = loc != null ? policy.hedgeDelayNs(loc.getServerName(), type) : -1;
+        if (hedgeDelayNs < 0) {
+          if (!timeline || locs.size() <= 1) {
+            // nothing known about the server yet
+            return;
+          }
+          hedgeDelayNs = primaryCallTimeoutNs;
+        }
+        long delayNs = hedgeDelayNs - (System.nanoTime() - startNs);
+        if (delayNs <= 0) {
+          sendHedgedRequests(requestReplica, locs, timeline, policy, future, metrics);
+        } else {
+          retryTimer.newTimeout(
+            timeout -> sendHedgedRequests(requestReplica, locs, timeline, policy, future, metrics),
+            delayNs, TimeUnit.NANOSECONDS);
+        }
+      });
+    return future;
+  }
+
   static <T> CompletableFuture<T> timelineConsistentRead(AsyncRegionLocator locator,
     TableName tableName, Query query, byte[] row, RegionLocateType locateType,
     Function<Integer, CompletableFuture<T>> requestReplica, long rpcTimeoutNs,
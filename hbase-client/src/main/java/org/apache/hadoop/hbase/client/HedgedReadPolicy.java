@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import static org.apache.hadoop.hbase.util.ConcurrentMapUtils.computeIfAbsent;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Decides when a get should be hedged, i.e, when a backup request should be sent because the
+ * original one is taking longer than usual.
+ * <p>
+ * The latencies of the successful reads are kept per region server and per {@link ReadType}, over
+ * a window of the last {@link #WINDOW} calls, and a read is hedged once it is slower than the
+ * configured percentile of the reads of the same type sent to the same server. The types are kept
+ * apart as a multi get or a scanner open usually takes longer than a single get, and would be
+ * hedged too often on the latencies of the gets. Until a server has
+ * {@link #HEDGED_READ_MIN_SAMPLES} samples of a type nothing is known about it and no delay is
+ * returned. The percentile is only computed again after {@link #RECOMPUTE_INTERVAL} new samples,
+ * so that the window is not copied and sorted on every read.
+ * <p>
+ * The extra load is bounded with a token bucket shared by all the tables of the connection. Every
+ * get adds the budget of its table, for example 0.05 for 5% more requests at most, and every
+ * backup request takes one token. As every get goes through it, the bucket takes no lock: the
+ * tokens earned are summed in a {@link LongAdder}, and only the backup requests, which are rare,
+ * update the tokens spent with a CAS.
+ */
+@InterfaceAudience.Private
+class HedgedReadPolicy {
+
+  /**
+   * The default fraction of extra read requests the hedged reads of a table may add, 0 to disable.
+   * Can be overridden per table with {@link AsyncTableBuilder#setHedgedReadBudget(double)}.
+   */
+  static final String HEDGED_READ_BUDGET = "hbase.client.hedged.read.budget";
+  static final double DEFAULT_HEDGED_READ_BUDGET = 0;
+
+  /** The percentile of the latency of a server after which a get to it is hedged. */
+  static final String HEDGED_READ_PERCENTILE = "hbase.client.hedged.read.percentile";
+  static final double DEFAULT_HEDGED_READ_PERCENTILE = 0.95;
+
+  /** The number of latencies to see from a server before hedging the gets sent to it. */
+  static final String HEDGED_READ_MIN_SAMPLES = "hbase.client.hedged.read.min.samples";
+  static final int DEFAULT_HEDGED_READ_MIN_SAMPLES = 32;
+
+  /** The number of latest latencies kept per server. */
+  static final int WINDOW = 128;
+
+  /** The number of new latencies after which the percentile of a server is computed again. */
+  static final int RECOMPUTE_INTERVAL = WINDOW / 8;
+
+  /** The most backup requests which can be sent in a row after a quiet period. */
+  static final double MAX_TOKENS = 16;
+
+  /** The tokens are counted in millionths, so that a fraction of a token is not lost. */
+  private static final long TOKEN = 1_000_000;
+
+  private static final long MAX_TOKENS_FIXED = (long) (MAX_TOKENS * TOKEN);
+
+  /** The kinds of reads which may be hedged, the latencies of which are kept apart. */
+  enum ReadType {
+    GET,
+    MULTI_GET,
+    OPEN_SCANNER
+  }
+
+  private static final class LatencyWindow {
+
+    private final long[] samples = new long[WINDOW];
+
+    private int count;
+
+    private int next;
+
+    /** The number of samples added since the percentile was computed. */
+    private int added;
+
+    /** The cached percentile, -1 if it has to be computed again. */
+    private long percentileNs = -1;
+
+    synchronized void add(long latencyNs) {
+      samples[next] = latencyNs;
+      next = (next + 1) % WINDOW;
+      if (count < WINDOW) {
+        count++;
+      }
+      if (++added >= RECOMPUTE_INTERVAL) {
+        percentileNs = -1;
+      }
+    }
+
+    synchronized long percentile(double percentile, int minSamples) {
+      if (count < minSamples) {
+        return -1;
+      }
+      if (percentileNs < 0) {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        percentileNs = sorted[Math.min(count - 1, (int) Math.ceil(percentile * count) - 1)];
+        added = 0;
+      }
+      return percentileNs;
+    }
+  }
+
+  private final double percentile;
+
+  private final int minSamples;
+
+  private final EnumMap<ReadType, ConcurrentMap<ServerName, LatencyWindow>> latencies =
+    new EnumMap<>(ReadType.class);
+
+  private final LongAdder earnedTokens = new LongAdder();
+
+  private final AtomicLong spentTokens = new AtomicLong();
+
+  HedgedReadPolicy(Configuration conf) {
+    this.percentile = Math.max(0.5,
+      Math.min(1.0, conf.getDouble(HEDGED_READ_PERCENTILE, DEFAULT_HEDGED_READ_PERCENTILE)));
+    this.minSamples =
+      Math.max(1, conf.getInt(HEDGED_READ_MIN_SAMPLES, DEFAULT_HEDGED_READ_MIN_SAMPLES));
+    for (ReadType type : ReadType.values()) {
+      latencies.put(type, new ConcurrentHashMap<>());
+    }
+  }
+
+  /**
+   * Records the latency of a successful read of the given type served by the given server.
+   */
+  void recordLatency(ServerName serverName, ReadType type, long latencyNs) {
+    computeIfAbsent(latencies.get(type), serverName, LatencyWindow::new).add(latencyNs);
+  }
+
+  /**
+   * Returns how long to wait for a read of the given type sent to the given server before hedging
+   * it, or -1 if there are not enough samples for the server yet.
+   */
+  long hedgeDelayNs(ServerName serverName, ReadType type) {
+    LatencyWindow window = latencies.get(type).get(serverName);
+    return window != null ? window.percentile(percentile, minSamples) : -1;
+  }
+
+  /**
+   * Called for every get which may be hedged, with the budget of its table.
+   */
+  void onRead(double budget) {
+    earnedTokens.add(Math.round(budget * TOKEN));
+  }
+
+  /**
+   * Takes the tokens for sending the given number of backup requests.
+   * @return false if over the budget, in which case nothing should be sent
+   */
+  boolean tryAcquire(int requests) {
+    long cost = requests * TOKEN;
+    for (;;) {
+      long earned = earnedTokens.sum();
+      long spent = spentTokens.get();
+      // the tokens above the cap, earned during a quiet period, are counted as spent
+      long floor = earned - MAX_TOKENS_FIXED;
+      long available = earned - Math.max(spent, floor);
+      if (available < cost) {
+        return false;
+      }
+      if (spentTokens.compareAndSet(spent, Math.max(spent, floor) + cost)) {
+        return true;
+      }
+    }
+  }
+}
@@ -359,8 +359,12 @@ public final class MetricsConnection implements StatisticTrackable {
   private final RunnerStats runnerStats;
   private final Counter metaCacheNumClearServer;
   private final Counter metaCacheNumClearRegion;
+  private final Counter metaCacheHeapSize;
+  private final Counter metaCachePrefetchedRegions;
+  private final Timer metaCacheLookupTimer;
   private final Counter hedgedReadOps;
   private final Counter hedgedReadWin;
+  private final Counter hedgedReadSkipped;
   private final Histogram concurrentCallsPerServerHist;
   private final Histogram numActionsPerServerHist;
   private final Counter nsLookups;
@@ -434,8 +438,14 @@ public final class MetricsConnection implements StatisticTrackable {
       registry.counter(name(this.getClass(), "metaCacheNumClearServer", scope));
     this.metaCacheNumClearRegion =
       registry.counter(name(this.getClass(), "metaCacheNumClearRegion", scope));
+    this.metaCacheHeapSize = registry.counter(name(this.getClass(), "metaCacheHeapSize", scope));
+    this.metaCachePrefetchedRegions =
+      registry.counter(name(this.getClass(), "metaCachePrefetchedRegions", scope));
+    this.metaCacheLookupTimer =
+      registry.timer(name(this.getClass(), "metaCacheLookupDurationNs", scope));
     this.hedgedReadOps = registry.counter(name(this.getClass(), "hedgedReadOps", scope));
     this.hedgedReadWin = registry.counter(name(this.getClass(), "hedgedReadWin", scope));
+    this.hedgedReadSkipped = registry.counter(name(this.getClass(), "hedgedReadSkipped", scope));
     this.getTracker = new CallTracker(this.registry, "Get", scope);
     this.scanTracker = new CallTracker(this.registry, "Scan", scope);
     this.appendTracker = new CallTracker(this.registry, "Mutate", "Append", scope);
@@ -494,6 +504,21 @@ public final class MetricsConnection implements StatisticTrackable {
     return metaCacheNumClearRegion;
   }
 
+  /** metaCacheHeapSize metric */
+  public Counter getMetaCacheHeapSize() {
+    return metaCacheHeapSize;
+  }
+
+  /** metaCachePrefetchedRegions metric */
+  public Counter getMetaCachePrefetchedRegions() {
+    return metaCachePrefetchedRegions;
+  }
+
+  /** metaCacheLookupDurationNs metric */
+  public Timer getMetaCacheLookupTimer() {
+    return metaCacheLookupTimer;
+  }
+
   /** hedgedReadOps metric */
   public Counter getHedgedReadOps() {
     return hedgedReadOps;
@@ -504,6 +529,11 @@ public final class MetricsConnection implements StatisticTrackable {
     return hedgedReadWin;
   }
 
+  /** hedgedReadSkipped metric */
+  public Counter getHedgedReadSkipped() {
+    return hedgedReadSkipped;
+  }
+
   /** numActionsPerServerHist metric */
   public Histogram getNumActionsPerServerHist() {
     return numActionsPerServerHist;
@@ -594,6 +624,21 @@ public final class MetricsConnection implements StatisticTrackable {
     metaCacheNumClearRegion.inc(count);
   }
 
+  /** Update the estimated heap used by the cached region locations. */
+  public void updateMetaCacheHeapSize(long delta) {
+    metaCacheHeapSize.inc(delta);
+  }
+
+  /** Increment the number of region locations loaded by a prefetch. */
+  public void incrMetaCachePrefetchedRegions(int count) {
+    metaCachePrefetchedRegions.inc(count);
+  }
+
+  /** Update the time spent looking up a region location in the cache. */
+  public void updateMetaCacheLookupTime(long nanos) {
+    metaCacheLookupTimer.update(nanos, TimeUnit.NANOSECONDS);
+  }
+
   /** Increment the number of hedged read that have occurred. */
   public void incrHedgedReadOps() {
     hedgedReadOps.inc();
@@ -604,6 +649,11 @@ public final class MetricsConnection implements StatisticTrackable {
     hedgedReadWin.inc();
   }
 
+  /** Increment the number of hedged read not sent because of the hedged read budget. */
+  public void incrHedgedReadSkipped() {
+    hedgedReadSkipped.inc();
+  }
+
   /** Increment the number of normal runner counts. */
   public void incrNormalRunners() {
     this.runnerStats.incrNormalRunners();
@@ -701,22 +701,33 @@ public abstract class Mutation extends OperationWithAttributes
         + " doesn't match the original one " + Bytes.toStringBinary(this.row));
     }
 
-    byte[] family;
-
-    if (cell instanceof IndividualBytesFieldCell) {
-      family = cell.getFamilyArray();
+    List<Cell> list;
+    // Cells usually come sorted by family, e.g. when decoded from a cell block, so the family of a
+    // cell is most likely the greatest family of the map: reuse its key if it matches instead of
+    // cloning the family out of every cell.
+    Map.Entry<byte[], List<Cell>> last = getFamilyCellMap().lastEntry();
+    if (
+      last != null && cell.getFamilyLength() > 0 && CellUtil.matchingFamily(cell, last.getKey())
+    ) {
+      list = last.getValue();
     } else {
-      family = CellUtil.cloneFamily(cell);
-    }
+      byte[] family;
+      if (cell instanceof IndividualBytesFieldCell) {
+        family = cell.getFamilyArray();
+      } else {
+        family = CellUtil.cloneFamily(cell);
+      }
 
-    if (family == null || family.length == 0) {
-      throw new IllegalArgumentException("Family cannot be null");
+      if (family == null || family.length == 0) {
+        throw new IllegalArgumentException("Family cannot be null");
+      }
+      list = getCellList(family);
     }
 
     if (cell instanceof ExtendedCell) {
-      getCellList(family).add(cell);
+      list.add(cell);
     } else {
-      getCellList(family).add(new CellWrapper(cell));
+      list.add(new CellWrapper(cell));
     }
     return this;
   }
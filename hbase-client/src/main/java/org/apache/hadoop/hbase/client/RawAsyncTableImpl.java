@@ -19,6 +19,7 @@ package org.apache.hadoop.hbase.client;
 
 import static java.util.stream.Collectors.toList;
 import static org.apache.hadoop.hbase.client.ConnectionUtils.checkHasFamilies;
+import static org.apache.hadoop.hbase.client.ConnectionUtils.hedgedRead;
 import static org.apache.hadoop.hbase.client.ConnectionUtils.isEmptyStopRow;
 import static org.apache.hadoop.hbase.client.ConnectionUtils.timelineConsistentRead;
 import static org.apache.hadoop.hbase.client.ConnectionUtils.validatePut;
@@ -33,6 +34,7 @@ import io.opentelemetry.context.Scope;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -46,9 +48,11 @@ import org.apache.hadoop.hbase.CompareOperator;
 import org.apache.hadoop.hbase.DoNotRetryIOException;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.AsyncRpcRetryingCallerFactory.SingleRequestCallerBuilder;
 import org.apache.hadoop.hbase.client.ConnectionUtils.Converter;
+import org.apache.hadoop.hbase.client.HedgedReadPolicy.ReadType;
 import org.apache.hadoop.hbase.client.trace.TableOperationSpanBuilder;
 import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.io.TimeRange;
@@ -120,6 +124,8 @@ class RawAsyncTableImpl implements AsyncTable<AdvancedScanResultConsumer> {
 
   private final int startLogErrorsCnt;
 
+  private final double hedgedReadBudget;
+
   private final Map<String, byte[]> requestAttributes;
 
   RawAsyncTableImpl(AsyncConnectionImpl conn, Timer retryTimer, AsyncTableBuilderBase<?> builder) {
@@ -144,6 +150,7 @@ class RawAsyncTableImpl implements AsyncTable<AdvancedScanResultConsumer> {
     }
     this.maxAttempts = builder.maxAttempts;
     this.startLogErrorsCnt = builder.startLogErrorsCnt;
+    this.hedgedReadBudget = builder.hedgedReadBudget;
     this.defaultScannerCaching = tableName.isSystemTable()
       ? conn.connConf.getMetaScannerCaching()
       : conn.connConf.getScannerCaching();
@@ -225,13 +232,30 @@ class RawAsyncTableImpl implements AsyncTable<AdvancedScanResultConsumer> {
 
   private CompletableFuture<Result> get(Get get, int replicaId) {
     return this.<Result, Get> newCaller(get, readRpcTimeoutNs)
-      .action((controller, loc, stub) -> ConnectionUtils.<Get, GetRequest, GetResponse,
-        Result> call(controller, loc, stub, get, RequestConverter::buildGetRequest,
-          (s, c, req, done) -> s.get(c, req, done),
-          (c, resp) -> ProtobufUtil.toResult(resp.getResult(), c.cellScanner())))
+      .action((controller, loc, stub) -> recordLatency(loc,
+        ConnectionUtils.<Get, GetRequest, GetResponse, Result> call(controller, loc, stub, get,
+          RequestConverter::buildGetRequest, (s, c, req, done) -> s.get(c, req, done),
+          (c, resp) -> ProtobufUtil.toResult(resp.getResult(), c.cellScanner()))))
       .replicaId(replicaId).call();
   }
 
+  /**
+   * Feeds the latency of the given call to the hedged read policy, if hedged reads are enabled.
+   */
+  private <T> CompletableFuture<T> recordLatency(HRegionLocation loc, CompletableFuture<T> future) {
+    if (hedgedReadBudget <= 0) {
+      return future;
+    }
+    long startNs = System.nanoTime();
+    addListener(future, (r, e) -> {
+      if (e == null) {
+        conn.hedgedReadPolicy.recordLatency(loc.getServerName(), ReadType.GET,
+          System.nanoTime() - startNs);
+      }
+    });
+    return future;
+  }
+
   private TableOperationSpanBuilder newTableOperationSpanBuilder() {
     return new TableOperationSpanBuilder(conn).setTableName(tableName);
   }
@@ -239,6 +263,9 @@ class RawAsyncTableImpl implements AsyncTable<AdvancedScanResultConsumer> {
   @Override
   public CompletableFuture<Result> get(Get get) {
     final Supplier<Span> supplier = newTableOperationSpanBuilder().setOperation(get);
+    if (hedgedReadBudget > 0) {
+      return tracedFuture(() -> hedgedGet(get), supplier);
+    }
     return tracedFuture(
       () -> timelineConsistentRead(conn.getLocator(), tableName, get, get.getRow(),
         RegionLocateType.CURRENT, replicaId -> get(get, replicaId), readRpcTimeoutNs,
@@ -246,6 +273,99 @@ class RawAsyncTableImpl implements AsyncTable<AdvancedScanResultConsumer> {
       supplier);
   }
 
+  private CompletableFuture<Result> hedgedGet(Get get) {
+    return hedgedRead(conn.getLocator(), tableName, get, get.getRow(), RegionLocateType.CURRENT,
+      replicaId -> get(get, replicaId), readRpcTimeoutNs, conn.connConf.getPrimaryCallTimeoutNs(),
+      conn.hedgedReadPolicy, ReadType.GET, hedgedReadBudget, retryTimer,
+      conn.getConnectionMetrics());
+  }
+
+  /**
+   * Sends the given gets with hedging. The timeline consistent gets, and the ones with a replica
+   * id, are sent one by one as by {@link #get(Get)}. The others are grouped by region server, and
+   * every group is sent as a batch, i.e, as a single multi request, which is hedged as a whole by
+   * sending the batch again to the same server. The latencies of these batches are kept apart from
+   * the ones of the single gets, as a multi request is usually slower.
+   */
+  private List<CompletableFuture<Result>> hedgedGets(List<Get> gets, long rpcTimeoutNs) {
+    List<CompletableFuture<Result>> futures = new ArrayList<>(gets.size());
+    List<Integer> batched = new ArrayList<>();
+    List<CompletableFuture<HRegionLocation>> locFutures = new ArrayList<>();
+    for (int i = 0; i < gets.size(); i++) {
+      Get get = gets.get(i);
+      if (get.getConsistency() == Consistency.TIMELINE || get.getReplicaId() >= 0) {
+        futures.add(hedgedGet(get));
+      } else {
+        futures.add(new CompletableFuture<>());
+        batched.add(i);
+        locFutures.add(conn.getLocator().getRegionLocation(tableName, get.getRow(),
+          RegionLocateType.CURRENT, rpcTimeoutNs));
+      }
+    }
+    if (batched.isEmpty()) {
+      return futures;
+    }
+    addListener(CompletableFuture.allOf(locFutures.toArray(new CompletableFuture<?>[0])),
+      (r, error) -> {
+        if (error != null) {
+          // let the batch locate the regions again, with its retries
+          sendHedgedBatch(gets, batched, futures, rpcTimeoutNs, null);
+          return;
+        }
+        Map<ServerName, List<Integer>> servers = new HashMap<>();
+        for (int i = 0; i < batched.size(); i++) {
+          servers.computeIfAbsent(locFutures.get(i).join().getServerName(),
+            k -> new ArrayList<>()).add(batched.get(i));
+        }
+        servers.forEach((serverName, indexes) -> sendHedgedBatch(gets, indexes, futures,
+          rpcTimeoutNs, serverName));
+      });
+    return futures;
+  }
+
+  /**
+   * Sends the given gets as a batch, hedged if the region server they all go to is known, in which
+   * case the latency of the batch is recorded for this server.
+   */
+  private void sendHedgedBatch(List<Get> gets, List<Integer> indexes,
+    List<CompletableFuture<Result>> futures, long rpcTimeoutNs, ServerName serverName) {
+    List<Get> toSend = indexes.stream().map(gets::get).collect(toList());
+    Function<Integer, CompletableFuture<List<CompletableFuture<Result>>>> send = replicaId -> {
+      long startNs = System.nanoTime();
+      List<CompletableFuture<Result>> sent = batch(toSend, rpcTimeoutNs);
+      // done when all the gets are, whatever their outcome
+      return CompletableFuture.allOf(sent.toArray(new CompletableFuture<?>[0])).handle((r, e) -> {
+        if (e == null && serverName != null) {
+          conn.hedgedReadPolicy.recordLatency(serverName, ReadType.MULTI_GET,
+            System.nanoTime() - startNs);
+        }
+        return sent;
+      });
+    };
+    Get first = toSend.get(0);
+    CompletableFuture<List<CompletableFuture<Result>>> future = serverName != null
+      ? hedgedRead(conn.getLocator(), tableName, first, first.getRow(), RegionLocateType.CURRENT,
+        send, rpcTimeoutNs, conn.connConf.getPrimaryCallTimeoutNs(), conn.hedgedReadPolicy,
+        ReadType.MULTI_GET, hedgedReadBudget, retryTimer, conn.getConnectionMetrics())
+      : send.apply(RegionReplicaUtil.DEFAULT_REPLICA_ID);
+    addListener(future, (sent, error) -> {
+      for (int i = 0; i < indexes.size(); i++) {
+        CompletableFuture<Result> dst = futures.get(indexes.get(i));
+        if (error != null) {
+          dst.completeExceptionally(error);
+          continue;
+        }
+        addListener(sent.get(i), (result, e) -> {
+          if (e != null) {
+            dst.completeExceptionally(e);
+          } else {
+            dst.complete(result);
+          }
+        });
+      }
+    });
+  }
+
   @Override
   public CompletableFuture<Void> put(Put put) {
     validatePut(put, conn.connConf.getMaxKeyValueSize());
@@ -613,7 +733,7 @@ class RawAsyncTableImpl implements AsyncTable<AdvancedScanResultConsumer> {
   public void scan(Scan scan, AdvancedScanResultConsumer consumer) {
     new AsyncClientScanner(setDefaultScanConfig(scan), consumer, tableName, conn, retryTimer,
       pauseNs, pauseNsForServerOverloaded, maxAttempts, scanTimeoutNs, readRpcTimeoutNs,
-      startLogErrorsCnt, requestAttributes).start();
+      startLogErrorsCnt, requestAttributes, hedgedReadBudget).start();
   }
 
   private long resultSize2CacheSize(long maxResultSize) {
@@ -660,6 +780,9 @@ class RawAsyncTableImpl implements AsyncTable<AdvancedScanResultConsumer> {
   public List<CompletableFuture<Result>> get(List<Get> gets) {
     final Supplier<Span> supplier = newTableOperationSpanBuilder().setOperation(gets)
       .setContainerOperations(HBaseSemanticAttributes.Operation.GET);
+    if (hedgedReadBudget > 0) {
+      return tracedFutures(() -> hedgedGets(gets, readRpcTimeoutNs), supplier);
+    }
     return tracedFutures(() -> batch(gets, readRpcTimeoutNs), supplier);
   }
 
@@ -681,9 +804,17 @@ class RawAsyncTableImpl implements AsyncTable<AdvancedScanResultConsumer> {
   public <T> List<CompletableFuture<T>> batch(List<? extends Row> actions) {
     final Supplier<Span> supplier =
       newTableOperationSpanBuilder().setOperation(actions).setContainerOperations(actions);
+    if (hedgedReadBudget > 0 && actions.stream().allMatch(action -> action instanceof Get)) {
+      return tracedFutures(() -> hedgedBatch(actions), supplier);
+    }
     return tracedFutures(() -> batch(actions, rpcTimeoutNs), supplier);
   }
 
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private <T> List<CompletableFuture<T>> hedgedBatch(List<? extends Row> gets) {
+    return (List) hedgedGets((List<Get>) gets, rpcTimeoutNs);
+  }
+
   private List<CompletableFuture<Void>> voidMutate(List<? extends Row> actions) {
     return this.<Object> batch(actions, writeRpcTimeoutNs).stream()
       .map(f -> f.<Void> thenApply(r -> null)).collect(toList());
@@ -23,12 +23,17 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.util.function.Predicate;
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.ByteBufferKeyValue;
+import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellScanner;
 import org.apache.hadoop.hbase.DoNotRetryIOException;
 import org.apache.hadoop.hbase.codec.Codec;
+import org.apache.hadoop.hbase.codec.KeyValueCodec;
+import org.apache.hadoop.hbase.codec.KeyValueCodecWithTags;
 import org.apache.hadoop.hbase.io.ByteBuffAllocator;
 import org.apache.hadoop.hbase.io.ByteBuffInputStream;
 import org.apache.hadoop.hbase.io.ByteBufferInputStream;
@@ -36,6 +41,7 @@ import org.apache.hadoop.hbase.io.ByteBufferListOutputStream;
 import org.apache.hadoop.hbase.io.ByteBufferOutputStream;
 import org.apache.hadoop.hbase.nio.ByteBuff;
 import org.apache.hadoop.hbase.nio.SingleByteBuff;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
 import org.apache.hadoop.hbase.util.ClassSize;
 import org.apache.hadoop.io.compress.CodecPool;
 import org.apache.hadoop.io.compress.CompressionCodec;
@@ -228,6 +234,65 @@ class CellBlockBuilder {
     return bbos;
   }
 
+  /**
+   * Whether {@link #buildCellBlockStream(Codec, CellScanner, ByteBuffAllocator, Predicate)} can be
+   * used, i.e, the cells are not compressed and the codec writes them in the KeyValue format.
+   */
+  public static boolean canReferenceCells(Codec codec, CompressionCodec compressor) {
+    return compressor == null && codec != null && (codec.getClass() == KeyValueCodec.class
+      || codec.getClass() == KeyValueCodecWithTags.class);
+  }
+
+  /**
+   * Like {@link #buildCellBlockStream(Codec, CompressionCodec, CellScanner, ByteBuffAllocator)},
+   * but the cells accepted by <code>reference</code> are not copied, the cell block references
+   * their backing memory instead. The memory of these cells must stay valid until the returned
+   * stream is released. Only for the codecs accepted by
+   * {@link #canReferenceCells(Codec, CompressionCodec)}.
+   * @param codec       to use for encoding
+   * @param cellScanner to encode
+   * @param allocator   to allocate the {@link ByteBuff} for the copied bytes
+   * @param reference   whether to reference a cell instead of copying it
+   * @return Null or the stream holding the cellblock
+   * @throws IOException if encoding the cells fail
+   */
+  public ByteBufferListOutputStream buildCellBlockStream(Codec codec, CellScanner cellScanner,
+    ByteBuffAllocator allocator, Predicate<ByteBufferKeyValue> reference) throws IOException {
+    if (cellScanner == null) {
+      return null;
+    }
+    boolean withTags = codec.getClass() == KeyValueCodecWithTags.class;
+    ByteBufferListOutputStream bbos = new ByteBufferListOutputStream(allocator);
+    try {
+      Codec.Encoder encoder = codec.getEncoder(bbos);
+      while (cellScanner.advance()) {
+        Cell cell = cellScanner.current();
+        if (cell instanceof ByteBufferKeyValue && reference.test((ByteBufferKeyValue) cell)) {
+          // The KeyValue serialization is a prefix of the bytes of the cell, what the encoder would
+          // copy after the length.
+          ByteBufferKeyValue kv = (ByteBufferKeyValue) cell;
+          int length = kv.getSerializedSize(withTags);
+          ByteBufferUtils.putInt(bbos, length);
+          bbos.writeReference(kv.getBuffer(), kv.getOffset(), length);
+        } else {
+          encoder.write(cell);
+        }
+      }
+      encoder.flush();
+    } catch (BufferOverflowException | IndexOutOfBoundsException e) {
+      bbos.releaseResources();
+      throw new DoNotRetryIOException(e);
+    } catch (IOException e) {
+      bbos.releaseResources();
+      throw e;
+    }
+    if (bbos.size() == 0) {
+      bbos.releaseResources();
+      return null;
+    }
+    return bbos;
+  }
+
   /**
    * Create a cell scanner.
    * @param codec     to use for cellblock
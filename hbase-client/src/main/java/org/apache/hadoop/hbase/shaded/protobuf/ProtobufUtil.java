@@ -719,7 +719,8 @@ public final class ProtobufUtil {
         }
         Cell cell = cellScanner.current();
         if (put == null) {
-          put = new Put(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength(), timestamp);
+          // the clone is ours, no need for the Put to copy it again
+          put = new Put(CellUtil.cloneRow(cell), timestamp, true);
         }
         put.add(cell);
       }
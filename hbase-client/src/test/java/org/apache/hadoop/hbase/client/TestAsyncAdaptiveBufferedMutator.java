@@ -0,0 +1,276 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.RegionLocations;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.testclassification.ClientTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import org.apache.hbase.thirdparty.io.netty.util.HashedWheelTimer;
+
+@Category({ ClientTests.class, SmallTests.class })
+public class TestAsyncAdaptiveBufferedMutator {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestAsyncAdaptiveBufferedMutator.class);
+
+  private static final TableName TABLE_NAME = TableName.valueOf("adaptive");
+
+  private static final byte[] CF = Bytes.toBytes("cf");
+
+  private static final ServerName FAST = ServerName.valueOf("fast.example.org", 16020, 1);
+
+  private static final ServerName SLOW = ServerName.valueOf("slow.example.org", 16020, 1);
+
+  private static final ServerName OTHER = ServerName.valueOf("other.example.org", 16020, 1);
+
+  private static final byte[] VALUE = new byte[1024];
+
+  private HashedWheelTimer timer;
+
+  private Configuration conf;
+
+  /** The batches sent, with the futures of their mutations, in order. */
+  private final List<List<? extends Row>> batches = new CopyOnWriteArrayList<>();
+
+  private final List<List<CompletableFuture<Object>>> batchFutures = new CopyOnWriteArrayList<>();
+
+  private AsyncRegionLocator locator;
+
+  @Before
+  public void setUp() {
+    timer = new HashedWheelTimer();
+    conf = HBaseConfiguration.create();
+    conf.setLong(AsyncAdaptiveBufferedMutatorImpl.MIN_BATCH_SIZE, 8 * 1024);
+    conf.setLong(AsyncAdaptiveBufferedMutatorImpl.MAX_IN_FLIGHT_BYTES_PER_SERVER, 16 * 1024);
+    conf.setLong(AsyncAdaptiveBufferedMutatorImpl.TARGET_LATENCY_MS, 50);
+  }
+
+  @After
+  public void tearDown() {
+    timer.stop();
+  }
+
+  /**
+   * Rows starting with 's' are on the slow server, rows starting with 'o' on the other server, and
+   * rows starting with 'u' are not located.
+   */
+  @SuppressWarnings("unchecked")
+  private AsyncAdaptiveBufferedMutatorImpl createMutator() {
+    AsyncTable<?> table = mock(AsyncTable.class);
+    when(table.getName()).thenReturn(TABLE_NAME);
+    when(table.getConfiguration()).thenReturn(conf);
+    when(table.batch(any())).thenAnswer(invocation -> {
+      List<? extends Row> actions = invocation.getArgument(0);
+      List<CompletableFuture<Object>> futures = new ArrayList<>();
+      for (int i = 0; i < actions.size(); i++) {
+        futures.add(new CompletableFuture<>());
+      }
+      batches.add(actions);
+      batchFutures.add(futures);
+      return futures;
+    });
+    locator = mock(AsyncRegionLocator.class);
+    RegionInfo region = RegionInfoBuilder.newBuilder(TABLE_NAME).build();
+    when(locator.getRegionLocationInCache(any(), any())).thenAnswer(invocation -> {
+      byte[] row = invocation.getArgument(1);
+      if (row[0] == 'u') {
+        return null;
+      }
+      ServerName serverName = row[0] == 's' ? SLOW : row[0] == 'o' ? OTHER : FAST;
+      return new RegionLocations(new HRegionLocation(region, serverName));
+    });
+    return new AsyncAdaptiveBufferedMutatorImpl(timer, table, locator, 64 * 1024,
+      TimeUnit.SECONDS.toNanos(10), 10 * 1024);
+  }
+
+  private static Put put(String row) {
+    return new Put(Bytes.toBytes(row)).addColumn(CF, CF, VALUE);
+  }
+
+  private static List<Put> puts(String prefix, int count) {
+    List<Put> puts = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      puts.add(put(prefix + i));
+    }
+    return puts;
+  }
+
+  private void complete(int batch) {
+    batchFutures.get(batch).forEach(f -> f.complete(null));
+  }
+
+  private static boolean isOn(List<? extends Row> batch, char prefix) {
+    return batch.stream().allMatch(r -> r.getRow()[0] == prefix);
+  }
+
+  @Test
+  public void testBatchesArePerServer() {
+    AsyncAdaptiveBufferedMutatorImpl mutator = createMutator();
+    List<Put> puts = new ArrayList<>();
+    // more than the minimum batch size for both servers, interleaved
+    for (int i = 0; i < 10; i++) {
+      puts.add(put("f" + i));
+      puts.add(put("s" + i));
+    }
+    List<CompletableFuture<Void>> futures = mutator.mutate(puts);
+    assertEquals(2, batches.size());
+    assertTrue(isOn(batches.get(0), 'f') || isOn(batches.get(0), 's'));
+    assertTrue(isOn(batches.get(1), 'f') || isOn(batches.get(1), 's'));
+    complete(0);
+    complete(1);
+    futures.forEach(CompletableFuture::join);
+  }
+
+  @Test
+  public void testSlowServerDoesNotHoldBackOthers() {
+    AsyncAdaptiveBufferedMutatorImpl mutator = createMutator();
+    // fills the bytes in flight of the slow server
+    List<CompletableFuture<Void>> slow = mutator.mutate(puts("s", 20));
+    assertEquals(1, batches.size());
+    long inFlight = mutator.getServerBuffer(SLOW).getInFlightBytes();
+    assertTrue(inFlight >= 16 * 1024);
+
+    // more for the slow server stays buffered, the fast one keeps going
+    List<CompletableFuture<Void>> slowPending = mutator.mutate(puts("s-more", 20));
+    List<CompletableFuture<Void>> fast = mutator.mutate(puts("f", 20));
+    assertEquals(2, batches.size());
+    assertTrue(isOn(batches.get(1), 'f'));
+    assertTrue(mutator.getServerBuffer(SLOW).getBufferedSize() > 0);
+    complete(1);
+    fast.forEach(CompletableFuture::join);
+    assertFalse(slowPending.get(0).isDone());
+
+    // the slow server acknowledges its first batch, so the next one goes out
+    complete(0);
+    slow.forEach(CompletableFuture::join);
+    assertEquals(3, batches.size());
+    assertTrue(isOn(batches.get(2), 's'));
+    assertEquals(0, mutator.getServerBuffer(SLOW).getBufferedSize());
+    complete(2);
+    slowPending.forEach(CompletableFuture::join);
+  }
+
+  @Test
+  public void testFlushIgnoresBytesInFlight() {
+    AsyncAdaptiveBufferedMutatorImpl mutator = createMutator();
+    mutator.mutate(puts("s", 20));
+    List<CompletableFuture<Void>> pending = mutator.mutate(puts("s-more", 2));
+    List<CompletableFuture<Void>> unlocated = mutator.mutate(puts("u", 2));
+    assertFalse(pending.get(0).isDone());
+    mutator.flush();
+    assertEquals(3, batches.size());
+    batchFutures.forEach(fs -> fs.forEach(f -> f.complete(null)));
+    pending.forEach(CompletableFuture::join);
+    unlocated.forEach(CompletableFuture::join);
+  }
+
+  @Test
+  public void testBatchSizeFollowsLatency() throws Exception {
+    AsyncAdaptiveBufferedMutatorImpl mutator = createMutator();
+    mutator.mutate(puts("f", 10));
+    assertEquals(1, batches.size());
+    long initial = mutator.getServerBuffer(FAST).getBatchSize();
+    // about 10KB in more than the 50ms target, the batches get no bigger than the minimum
+    Thread.sleep(100);
+    complete(0);
+    assertEquals(initial, mutator.getServerBuffer(FAST).getBatchSize());
+
+    // a quick batch raises the size
+    mutator.mutate(puts("f-more", 10));
+    mutator.flush();
+    complete(1);
+    assertTrue(mutator.getServerBuffer(FAST).getBatchSize() > initial);
+  }
+
+  @Test
+  public void testFailedBatch() {
+    AsyncAdaptiveBufferedMutatorImpl mutator = createMutator();
+    List<CompletableFuture<Void>> futures = mutator.mutate(puts("f", 10));
+    batchFutures.get(0).get(0).completeExceptionally(new RetriesExhaustedException("failed"));
+    complete(0);
+    assertTrue(futures.get(0).isCompletedExceptionally());
+    futures.subList(1, futures.size()).forEach(CompletableFuture::join);
+    assertEquals(0, mutator.getServerBuffer(FAST).getInFlightBytes());
+  }
+
+  @Test
+  public void testLocationsOnlyFromCache() {
+    AsyncAdaptiveBufferedMutatorImpl mutator = createMutator();
+    List<CompletableFuture<Void>> futures = mutator.mutate(puts("u", 2));
+    mutator.flush();
+    assertEquals(1, batches.size());
+    // never goes to meta
+    verify(locator, times(2)).getRegionLocationInCache(any(), any());
+    verifyNoMoreInteractions(locator);
+    complete(0);
+    futures.forEach(CompletableFuture::join);
+  }
+
+  @Test
+  public void testIdleServerEvicted() {
+    conf.setLong(AsyncAdaptiveBufferedMutatorImpl.IDLE_SERVER_EXPIRY_MS, 0);
+    AsyncAdaptiveBufferedMutatorImpl mutator = createMutator();
+    mutator.mutate(puts("f", 10));
+    assertEquals(1, batches.size());
+    // still in flight, so kept when a new server comes
+    mutator.mutate(puts("s", 10));
+    assertEquals(2, batches.size());
+    assertNotNull(mutator.getServerBuffer(FAST));
+    complete(0);
+    complete(1);
+    // nothing buffered nor in flight, dropped when another server comes
+    List<CompletableFuture<Void>> futures = mutator.mutate(puts("o", 10));
+    assertEquals(3, batches.size());
+    assertNull(mutator.getServerBuffer(FAST));
+    assertNull(mutator.getServerBuffer(SLOW));
+    assertNotNull(mutator.getServerBuffer(OTHER));
+    complete(2);
+    futures.forEach(CompletableFuture::join);
+  }
+}
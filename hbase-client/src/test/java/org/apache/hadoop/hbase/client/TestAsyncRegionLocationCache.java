@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.RegionLocations;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.testclassification.ClientTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({ ClientTests.class, SmallTests.class })
+public class TestAsyncRegionLocationCache {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestAsyncRegionLocationCache.class);
+
+  private static final TableName TABLE_NAME = TableName.valueOf("cache");
+
+  private static final ServerName SERVER1 = ServerName.valueOf("rs1.example.org", 16020, 1);
+
+  private static final ServerName SERVER2 = ServerName.valueOf("rs2.example.org", 16020, 1);
+
+  private static byte[] key(int i) {
+    return i == 0 ? HConstants.EMPTY_START_ROW : Bytes.toBytes(String.format("%08d", i * 10));
+  }
+
+  /** The i-th of n regions, covering [key(i), key(i + 1)). */
+  private static RegionLocations region(int i, int n, ServerName sn) {
+    RegionInfo region = RegionInfoBuilder.newBuilder(TABLE_NAME).setStartKey(key(i))
+      .setEndKey(i == n - 1 ? HConstants.EMPTY_END_ROW : key(i + 1)).build();
+    return new RegionLocations(new HRegionLocation(region, sn));
+  }
+
+  private static void assertLocated(AsyncRegionLocationCache cache, int n) {
+    for (int i = 0; i < n; i++) {
+      RegionLocations locs = cache.findForRow(Bytes.toBytes(String.format("%08d", i * 10 + 5)),
+        RegionReplicaUtil.DEFAULT_REPLICA_ID);
+      assertNotNull(locs);
+      assertTrue(Bytes.equals(key(i), locs.getRegionLocation().getRegion().getStartKey()));
+    }
+  }
+
+  @Test
+  public void testAddAll() {
+    int n = 10000;
+    AsyncRegionLocationCache cache = new AsyncRegionLocationCache(TABLE_NAME);
+    List<RegionLocations> all = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      all.add(region(i, n, SERVER1));
+    }
+    cache.addAll(all);
+    assertEquals(n, cache.size());
+    assertLocated(cache, n);
+    RegionLocations before = cache.findForBeforeRow(key(5), RegionReplicaUtil.DEFAULT_REPLICA_ID);
+    assertTrue(Bytes.equals(key(4), before.getRegionLocation().getRegion().getStartKey()));
+    before = cache.findForBeforeRow(HConstants.EMPTY_END_ROW, RegionReplicaUtil.DEFAULT_REPLICA_ID);
+    assertTrue(Bytes.equals(key(n - 1), before.getRegionLocation().getRegion().getStartKey()));
+
+    // the arrays take much less than a skip list
+    AsyncRegionLocationCache one = new AsyncRegionLocationCache(TABLE_NAME);
+    for (int i = 0; i < 1000; i++) {
+      one.add(region(i, 1000, SERVER1));
+    }
+    AsyncRegionLocationCache bulk = new AsyncRegionLocationCache(TABLE_NAME);
+    bulk.addAll(all.subList(0, 1000));
+    assertTrue(bulk.heapSize() < one.heapSize());
+  }
+
+  @Test
+  public void testAddOneByOne() {
+    int n = AsyncRegionLocationCache.COMPACTION_THRESHOLD * 3;
+    AsyncRegionLocationCache cache = new AsyncRegionLocationCache(TABLE_NAME);
+    // in reverse order, so every fold merges into the existing arrays
+    for (int i = n - 1; i >= 0; i--) {
+      cache.add(region(i, n, SERVER1));
+      assertEquals(n - i, cache.size());
+    }
+    assertLocated(cache, n);
+    assertEquals(n, cache.getAll().size());
+  }
+
+  @Test
+  public void testUpdateAndRemove() {
+    int n = AsyncRegionLocationCache.COMPACTION_THRESHOLD * 2;
+    AsyncRegionLocationCache cache = new AsyncRegionLocationCache(TABLE_NAME);
+    List<RegionLocations> all = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      all.add(region(i, n, i % 2 == 0 ? SERVER1 : SERVER2));
+    }
+    cache.addAll(all);
+
+    // moved to another server, updated in place
+    RegionInfo moved = all.get(10).getRegionLocation().getRegion();
+    cache.add(new RegionLocations(new HRegionLocation(moved, SERVER2, 100)));
+    assertEquals(SERVER2, cache.get(moved.getStartKey()).getRegionLocation().getServerName());
+
+    // removed, the lookup must not fall back to the region before it
+    HRegionLocation removed = all.get(20).getRegionLocation();
+    assertTrue(cache.remove(removed));
+    assertNull(cache.findForRow(key(20), RegionReplicaUtil.DEFAULT_REPLICA_ID));
+    assertEquals(n - 1, cache.size());
+
+    // a merged region replaces its parents
+    RegionInfo merged =
+      RegionInfoBuilder.newBuilder(TABLE_NAME).setStartKey(key(30)).setEndKey(key(33)).build();
+    cache.add(new RegionLocations(new HRegionLocation(merged, SERVER1)));
+    assertNull(cache.get(key(31)));
+    assertNull(cache.get(key(32)));
+    assertEquals(n - 3, cache.size());
+    assertEquals(merged,
+      cache.findForRow(key(32), RegionReplicaUtil.DEFAULT_REPLICA_ID).getRegionLocation()
+        .getRegion());
+
+    // enough removals to fold the arrays again, the regions left are the even ones but 10, 20
+    // and 32
+    cache.removeForServer(SERVER2);
+    assertEquals(n / 2 - 3, cache.size());
+    for (RegionLocations locs : cache.getAll()) {
+      assertEquals(SERVER1, locs.getRegionLocation().getServerName());
+    }
+    assertNotNull(cache.findForRow(key(0), RegionReplicaUtil.DEFAULT_REPLICA_ID));
+    assertNull(cache.findForRow(key(1), RegionReplicaUtil.DEFAULT_REPLICA_ID));
+
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getAll().size());
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellBuilderFactory;
+import org.apache.hadoop.hbase.CellBuilderType;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.RegionLocations;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.ipc.HBaseRpcController;
+import org.apache.hadoop.hbase.security.User;
+import org.apache.hadoop.hbase.security.UserProvider;
+import org.apache.hadoop.hbase.testclassification.ClientTests;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TestName;
+import org.mockito.invocation.InvocationOnMock;
+
+import org.apache.hbase.thirdparty.com.google.common.io.Closeables;
+import org.apache.hbase.thirdparty.com.google.protobuf.RpcCallback;
+
+import org.apache.hadoop.hbase.shaded.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ClientProtos.Action;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ClientProtos.ClientService;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ClientProtos.MultiRequest;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ClientProtos.MultiResponse;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ClientProtos.RegionAction;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ClientProtos.RegionActionResult;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ClientProtos.ResultOrException;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ClientProtos.ScanRequest;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ClientProtos.ScanResponse;
+
+/**
+ * Confirm that the multi gets and the scanner opens are hedged against a slow region server, and
+ * that the scanner opened by the request which lost is closed.
+ */
+@Category({ ClientTests.class, MediumTests.class })
+public class TestAsyncTableHedgedRead {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestAsyncTableHedgedRead.class);
+
+  private static final Configuration CONF = HBaseConfiguration.create();
+
+  private static final ServerName SERVER = ServerName.valueOf("rs", 16010, 12345);
+
+  private static final byte[] SPLIT = Bytes.toBytes("m");
+
+  private static final byte[] FAMILY = Bytes.toBytes("cf");
+
+  private ClientService.Interface stub;
+
+  private ScheduledExecutorService slowServer;
+
+  private AsyncConnectionImpl conn;
+
+  @Rule
+  public TestName name = new TestName();
+
+  @Before
+  public void setUp() throws IOException {
+    CONF.setInt(HedgedReadPolicy.HEDGED_READ_MIN_SAMPLES, 1);
+    slowServer = Executors.newSingleThreadScheduledExecutor();
+    stub = mock(ClientService.Interface.class);
+    // two regions, both on the same server
+    AsyncRegionLocator locator = mock(AsyncRegionLocator.class);
+    doAnswer(invocation -> CompletableFuture.completedFuture(locate(invocation)))
+      .when(locator).getRegionLocation(any(TableName.class), any(byte[].class),
+        any(RegionLocateType.class), anyLong());
+    doAnswer(invocation -> CompletableFuture.completedFuture(locate(invocation)))
+      .when(locator).getRegionLocation(any(TableName.class), any(byte[].class), anyInt(),
+        any(RegionLocateType.class), anyLong());
+    doAnswer(
+      invocation -> CompletableFuture.completedFuture(new RegionLocations(locate(invocation))))
+      .when(locator).getRegionLocations(any(TableName.class), any(byte[].class),
+        any(RegionLocateType.class), anyBoolean(), anyLong());
+    User user = UserProvider.instantiate(CONF).getCurrent();
+    conn = new AsyncConnectionImpl(CONF, new DoNothingConnectionRegistry(CONF, user), "test", null,
+      user) {
+
+      @Override
+      AsyncRegionLocator getLocator() {
+        return locator;
+      }
+
+      @Override
+      ClientService.Interface getRegionServerStub(ServerName serverName) throws IOException {
+        return stub;
+      }
+    };
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    // the slow replies which are still pending are never sent
+    slowServer.shutdownNow();
+    Closeables.close(conn, true);
+  }
+
+  private static HRegionLocation locate(InvocationOnMock invocation) {
+    TableName tableName = invocation.getArgument(0);
+    byte[] row = invocation.getArgument(1);
+    RegionInfoBuilder builder = RegionInfoBuilder.newBuilder(tableName);
+    if (Bytes.compareTo(row, SPLIT) < 0) {
+      builder.setEndKey(SPLIT);
+    } else {
+      builder.setStartKey(SPLIT);
+    }
+    return new HRegionLocation(builder.build(), SERVER);
+  }
+
+  private static MultiResponse multiResponse(MultiRequest req) {
+    MultiResponse.Builder resp = MultiResponse.newBuilder();
+    for (RegionAction regionAction : req.getRegionActionList()) {
+      RegionActionResult.Builder result = RegionActionResult.newBuilder();
+      for (Action action : regionAction.getActionList()) {
+        byte[] row = action.getGet().getRow().toByteArray();
+        Cell cell = CellBuilderFactory.create(CellBuilderType.SHALLOW_COPY).setType(Cell.Type.Put)
+          .setRow(row).setFamily(FAMILY).setQualifier(FAMILY).setValue(row).build();
+        result.addResultOrException(ResultOrException.newBuilder().setIndex(action.getIndex())
+          .setResult(ProtobufUtil.toResult(Result.create(Arrays.asList(cell)))));
+      }
+      resp.addRegionActionResult(result);
+    }
+    return resp.build();
+  }
+
+  private AsyncTable<AdvancedScanResultConsumer> getTable() {
+    return conn.getTableBuilder(TableName.valueOf(name.getMethodName())).setHedgedReadBudget(1.0)
+      .build();
+  }
+
+  @Test
+  public void testHedgedMultiGet() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    doAnswer(invocation -> {
+      MultiResponse resp = multiResponse(invocation.getArgument(1));
+      RpcCallback<MultiResponse> done = invocation.getArgument(2);
+      if (calls.incrementAndGet() == 2) {
+        // the server is slow for the second batch only
+        slowServer.schedule(() -> done.run(resp), 1, TimeUnit.HOURS);
+      } else {
+        done.run(resp);
+      }
+      return null;
+    }).when(stub).multi(any(HBaseRpcController.class), any(MultiRequest.class), any());
+    AsyncTable<AdvancedScanResultConsumer> table = getTable();
+    List<Get> gets = new ArrayList<>();
+    for (String row : new String[] { "a", "b", "x", "y" }) {
+      gets.add(new Get(Bytes.toBytes(row)));
+    }
+    // the gets of the two regions of the server go in a single multi request
+    table.getAll(gets).get();
+    verify(stub, times(1)).multi(any(HBaseRpcController.class),
+      argThat(req -> req.getRegionActionCount() == 2), any());
+
+    // slower than the multi of the first batch, so sent again
+    List<Result> results = table.getAll(gets).get();
+    assertEquals(gets.size(), results.size());
+    for (int i = 0; i < gets.size(); i++) {
+      assertArrayEquals(gets.get(i).getRow(), results.get(i).getRow());
+    }
+    verify(stub, times(3)).multi(any(HBaseRpcController.class),
+      argThat(req -> req.getRegionActionCount() == 2), any());
+    // the latencies of the batches are not the ones of the single gets
+    assertEquals(-1, conn.hedgedReadPolicy.hedgeDelayNs(SERVER, HedgedReadPolicy.ReadType.GET));
+  }
+
+  @Test
+  public void testHedgedOpenScanner() throws Exception {
+    AtomicInteger opens = new AtomicInteger();
+    doAnswer(invocation -> {
+      ScanRequest req = invocation.getArgument(1);
+      RpcCallback<ScanResponse> done = invocation.getArgument(2);
+      if (req.hasScannerId()) {
+        // the close of the scanner which was not used
+        done.run(ScanResponse.getDefaultInstance());
+        return null;
+      }
+      int scannerId = opens.incrementAndGet();
+      if (scannerId == 2) {
+        // the server is slow for the second open, the scanner it opens is left with more results
+        ScanResponse resp = ScanResponse.newBuilder().setScannerId(scannerId).setTtl(800)
+          .setMoreResultsInRegion(true).setMoreResults(true).build();
+        slowServer.schedule(() -> done.run(resp), 500, TimeUnit.MILLISECONDS);
+      } else {
+        done.run(ScanResponse.newBuilder().setScannerId(scannerId).setTtl(800)
+          .setMoreResultsInRegion(false).setMoreResults(false).build());
+      }
+      return null;
+    }).when(stub).scan(any(HBaseRpcController.class), any(ScanRequest.class), any());
+    AsyncTable<AdvancedScanResultConsumer> table = getTable();
+    // within the first region, so a single scanner is opened for a scan
+    Scan scan = new Scan().withStopRow(Bytes.toBytes("b"));
+    table.scanAll(scan).get();
+
+    // slower than the first open, so sent again
+    table.scanAll(scan).get();
+    verify(stub, times(3)).scan(any(HBaseRpcController.class),
+      argThat(req -> !req.hasScannerId()), any());
+    // once it is finally opened, the scanner of the slow open is closed
+    verify(stub, timeout(5000).times(1)).scan(any(HBaseRpcController.class),
+      argThat(req -> req.getScannerId() == 2 && req.hasCloseScanner() && req.getCloseScanner()),
+      any());
+    verify(stub, never()).scan(any(HBaseRpcController.class),
+      argThat(req -> req.getScannerId() != 2 && req.hasCloseScanner() && req.getCloseScanner()),
+      any());
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.RegionLocations;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.HedgedReadPolicy.ReadType;
+import org.apache.hadoop.hbase.testclassification.ClientTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import org.apache.hbase.thirdparty.io.netty.util.HashedWheelTimer;
+
+@Category({ ClientTests.class, SmallTests.class })
+public class TestHedgedReadPolicy {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestHedgedReadPolicy.class);
+
+  private static final TableName TABLE_NAME = TableName.valueOf("hedged");
+
+  private static final byte[] ROW = Bytes.toBytes("row");
+
+  private static final ServerName SERVER = ServerName.valueOf("rs.example.org", 16020, 1);
+
+  private HashedWheelTimer timer;
+
+  private Configuration conf;
+
+  @Before
+  public void setUp() {
+    timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+    conf = HBaseConfiguration.create();
+    conf.setInt(HedgedReadPolicy.HEDGED_READ_MIN_SAMPLES, 10);
+  }
+
+  @After
+  public void tearDown() {
+    timer.stop();
+  }
+
+  private static void record(HedgedReadPolicy policy, long fromMs, long toMs) {
+    for (long ms = fromMs; ms <= toMs; ms++) {
+      policy.recordLatency(SERVER, ReadType.GET, TimeUnit.MILLISECONDS.toNanos(ms));
+    }
+  }
+
+  @Test
+  public void testPercentile() {
+    HedgedReadPolicy policy = new HedgedReadPolicy(conf);
+    record(policy, 1, 9);
+    // not enough samples yet
+    assertEquals(-1, policy.hedgeDelayNs(SERVER, ReadType.GET));
+    record(policy, 10, 100);
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(95), policy.hedgeDelayNs(SERVER, ReadType.GET));
+    assertEquals(-1,
+      policy.hedgeDelayNs(ServerName.valueOf("other.example.org", 16020, 1), ReadType.GET));
+    // the latencies of the other types of reads are kept apart
+    assertEquals(-1, policy.hedgeDelayNs(SERVER, ReadType.MULTI_GET));
+    for (int i = 0; i < 10; i++) {
+      policy.recordLatency(SERVER, ReadType.MULTI_GET, TimeUnit.MILLISECONDS.toNanos(500));
+    }
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(500),
+      policy.hedgeDelayNs(SERVER, ReadType.MULTI_GET));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(95), policy.hedgeDelayNs(SERVER, ReadType.GET));
+
+    // the percentile is only computed again after a few new samples
+    for (int i = 1; i < HedgedReadPolicy.RECOMPUTE_INTERVAL; i++) {
+      policy.recordLatency(SERVER, ReadType.GET, TimeUnit.MILLISECONDS.toNanos(10000));
+    }
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(95), policy.hedgeDelayNs(SERVER, ReadType.GET));
+    policy.recordLatency(SERVER, ReadType.GET, TimeUnit.MILLISECONDS.toNanos(10000));
+    assertTrue(policy.hedgeDelayNs(SERVER, ReadType.GET) > TimeUnit.MILLISECONDS.toNanos(95));
+
+    // only the last samples count
+    record(policy, 1001, 1000 + HedgedReadPolicy.WINDOW);
+    assertTrue(policy.hedgeDelayNs(SERVER, ReadType.GET) > TimeUnit.MILLISECONDS.toNanos(1000));
+  }
+
+  @Test
+  public void testBudget() {
+    HedgedReadPolicy policy = new HedgedReadPolicy(conf);
+    assertFalse(policy.tryAcquire(1));
+    for (int i = 0; i < 100; i++) {
+      policy.onRead(0.05);
+    }
+    // 5 tokens for 100 reads
+    for (int i = 0; i < 4; i++) {
+      assertTrue(policy.tryAcquire(1));
+    }
+    assertFalse(policy.tryAcquire(2));
+    for (int i = 0; i < 10000; i++) {
+      policy.onRead(0.05);
+    }
+    // no more than the cap after a quiet period
+    int acquired = 0;
+    while (policy.tryAcquire(1)) {
+      acquired++;
+    }
+    assertEquals((int) HedgedReadPolicy.MAX_TOKENS, acquired);
+  }
+
+  @Test
+  public void testConcurrentBudget() throws Exception {
+    HedgedReadPolicy policy = new HedgedReadPolicy(conf);
+    int threads = 4;
+    int reads = 10000;
+    AtomicInteger acquired = new AtomicInteger();
+    Thread[] readers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      readers[t] = new Thread(() -> {
+        for (int i = 0; i < reads; i++) {
+          policy.onRead(1.0);
+          if (policy.tryAcquire(1)) {
+            acquired.incrementAndGet();
+          }
+        }
+      });
+      readers[t].start();
+    }
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    while (policy.tryAcquire(1)) {
+      acquired.incrementAndGet();
+    }
+    // never more than the cap is outstanding, so no token is lost or spent twice
+    assertEquals(threads * reads, acquired.get());
+  }
+
+  private static AsyncRegionLocator locator() {
+    AsyncRegionLocator locator = mock(AsyncRegionLocator.class);
+    RegionInfo region = RegionInfoBuilder.newBuilder(TABLE_NAME).build();
+    when(locator.getRegionLocations(any(), any(), any(), anyBoolean(), anyLong()))
+      .thenReturn(CompletableFuture
+        .completedFuture(new RegionLocations(new HRegionLocation(region, SERVER))));
+    return locator;
+  }
+
+  @Test
+  public void testResendToSameServer() throws Exception {
+    HedgedReadPolicy policy = new HedgedReadPolicy(conf);
+    record(policy, 1, 20);
+    List<CompletableFuture<String>> sent = new CopyOnWriteArrayList<>();
+    CompletableFuture<String> future = ConnectionUtils.hedgedRead(locator(), TABLE_NAME,
+      new Get(ROW), ROW, RegionLocateType.CURRENT, replicaId -> {
+        assertEquals(RegionReplicaUtil.DEFAULT_REPLICA_ID, (int) replicaId);
+        CompletableFuture<String> f = new CompletableFuture<>();
+        sent.add(f);
+        return f;
+      }, TimeUnit.SECONDS.toNanos(10), TimeUnit.SECONDS.toNanos(10), policy,
+      ReadType.GET, 1.0, timer, Optional.empty());
+    assertEquals(1, sent.size());
+    // the original request is slower than the p95 of the server, so it is sent again
+    while (sent.size() < 2) {
+      Thread.sleep(5);
+    }
+    sent.get(1).complete("hedged");
+    assertEquals("hedged", future.get());
+    assertTrue(sent.get(0).isCancelled());
+  }
+
+  @Test
+  public void testOverBudget() throws Exception {
+    HedgedReadPolicy policy = new HedgedReadPolicy(conf);
+    record(policy, 1, 20);
+    List<CompletableFuture<String>> sent = new CopyOnWriteArrayList<>();
+    CompletableFuture<String> future = ConnectionUtils.hedgedRead(locator(), TABLE_NAME,
+      new Get(ROW), ROW, RegionLocateType.CURRENT, replicaId -> {
+        CompletableFuture<String> f = new CompletableFuture<>();
+        sent.add(f);
+        return f;
+      }, TimeUnit.SECONDS.toNanos(10), TimeUnit.SECONDS.toNanos(10), policy,
+      ReadType.GET, 0.1, timer, Optional.empty());
+    // well past the p95, but a single read does not earn a whole backup request
+    Thread.sleep(200);
+    assertEquals(1, sent.size());
+    sent.get(0).complete("original");
+    assertEquals("original", future.get());
+  }
+}
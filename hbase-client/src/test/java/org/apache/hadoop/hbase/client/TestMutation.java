@@ -20,14 +20,20 @@ package org.apache.hadoop.hbase.client;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellBuilderFactory;
 import org.apache.hadoop.hbase.CellBuilderType;
 import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.codec.Codec;
+import org.apache.hadoop.hbase.codec.KeyValueCodec;
 import org.apache.hadoop.hbase.io.TimeRange;
+import org.apache.hadoop.hbase.nio.SingleByteBuff;
 import org.apache.hadoop.hbase.testclassification.ClientTests;
 import org.apache.hadoop.hbase.testclassification.SmallTests;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -121,6 +127,36 @@ public class TestMutation {
     assertNotEquals(origin.getCellList(family), clone.getCellList(family));
   }
 
+  @Test
+  public void testAddCellsFromCellBlock() throws IOException {
+    byte[] row = Bytes.toBytes("ROW-01");
+    byte[] family1 = Bytes.toBytes("CF-01");
+    byte[] family2 = Bytes.toBytes("CF-02");
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Codec.Encoder encoder = new KeyValueCodec().getEncoder(bos);
+    encoder.write(new KeyValue(row, family1, Bytes.toBytes("q0"), Bytes.toBytes("V-00")));
+    encoder.write(new KeyValue(row, family1, Bytes.toBytes("q1"), Bytes.toBytes("V-01")));
+    encoder.write(new KeyValue(row, family2, Bytes.toBytes("q2"), Bytes.toBytes("V-02")));
+    // not grouped by family anymore
+    encoder.write(new KeyValue(row, family1, Bytes.toBytes("q3"), Bytes.toBytes("V-03")));
+    encoder.flush();
+    ByteBuffer bb = ByteBuffer.allocateDirect(bos.size());
+    bb.put(bos.toByteArray());
+    bb.flip();
+
+    Put put = new Put(row);
+    Codec.Decoder decoder = new KeyValueCodec().getDecoder(new SingleByteBuff(bb));
+    while (decoder.advance()) {
+      put.add(decoder.current());
+    }
+    Assert.assertEquals(2, put.getFamilyCellMap().size());
+    List<Cell> cells = put.get(family1, Bytes.toBytes("q3"));
+    Assert.assertEquals(1, cells.size());
+    assertTrue(CellUtil.matchingValue(cells.get(0), Bytes.toBytes("V-03")));
+    Assert.assertEquals(3, put.getCellList(family1).size());
+    Assert.assertEquals(1, put.getCellList(family2).size());
+  }
+
   private void assertEquals(Mutation origin, Mutation clone) {
     Assert.assertEquals(origin.getFamilyCellMap().size(), clone.getFamilyCellMap().size());
     for (byte[] family : origin.getFamilyCellMap().keySet()) {
@@ -18,20 +18,30 @@
 package org.apache.hadoop.hbase.ipc;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.List;
 import org.apache.commons.lang3.time.StopWatch;
+import org.apache.hadoop.hbase.ArrayBackedTag;
+import org.apache.hadoop.hbase.ByteBufferKeyValue;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellScanner;
 import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.HBaseClassTestRule;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.PrivateCellUtil;
+import org.apache.hadoop.hbase.Tag;
 import org.apache.hadoop.hbase.codec.Codec;
 import org.apache.hadoop.hbase.codec.KeyValueCodec;
+import org.apache.hadoop.hbase.codec.KeyValueCodecWithTags;
+import org.apache.hadoop.hbase.io.ByteBuffAllocator;
+import org.apache.hadoop.hbase.io.ByteBufferListOutputStream;
 import org.apache.hadoop.hbase.io.SizedCellScanner;
 import org.apache.hadoop.hbase.nio.SingleByteBuff;
 import org.apache.hadoop.hbase.testclassification.ClientTests;
@@ -70,6 +80,56 @@ public class TestCellBlockBuilder {
     doBuildCellBlockUndoCellBlock(this.builder, new KeyValueCodec(), new GzipCodec());
   }
 
+  @Test
+  public void testBuildCellBlockReferencingCells() throws IOException {
+    assertTrue(CellBlockBuilder.canReferenceCells(new KeyValueCodec(), null));
+    assertTrue(CellBlockBuilder.canReferenceCells(new KeyValueCodecWithTags(), null));
+    assertFalse(CellBlockBuilder.canReferenceCells(new KeyValueCodec(), new DefaultCodec()));
+    doBuildCellBlockReferencingCells(new KeyValueCodec(), false);
+    doBuildCellBlockReferencingCells(new KeyValueCodecWithTags(), true);
+  }
+
+  private void doBuildCellBlockReferencingCells(Codec codec, boolean withTags)
+    throws IOException {
+    int count = 10;
+    Cell[] cells = new Cell[count];
+    ByteBuffer direct = ByteBuffer.allocateDirect(64 * 1024);
+    for (int i = 0; i < count; i++) {
+      byte[] index = Bytes.toBytes(i);
+      KeyValue kv = new KeyValue(index, Bytes.toBytes("f"), index, HConstants.LATEST_TIMESTAMP,
+        new byte[i * 100], new Tag[] { new ArrayBackedTag((byte) 1, "tag" + i) });
+      if (i % 3 == 0) {
+        // stays on heap, copied
+        cells[i] = kv;
+      } else {
+        int offset = direct.position();
+        direct.put(kv.getBuffer(), kv.getOffset(), kv.getLength());
+        cells[i] = new ByteBufferKeyValue(direct, offset, kv.getLength());
+      }
+    }
+    ByteBufferListOutputStream bbos = builder.buildCellBlockStream(codec,
+      CellUtil.createCellScanner(cells), ByteBuffAllocator.HEAP, kv -> kv.getValueLength() > 200);
+    List<ByteBuffer> bufs = bbos.getByteBuffers();
+    assertTrue(bufs.stream().anyMatch(ByteBuffer::isDirect));
+    byte[] cellBlock = new byte[bbos.size()];
+    int pos = 0;
+    for (ByteBuffer buf : bufs) {
+      int len = buf.remaining();
+      buf.duplicate().get(cellBlock, pos, len);
+      pos += len;
+    }
+    bbos.releaseResources();
+    CellScanner cellScanner = builder.createCellScanner(codec, null, cellBlock);
+    for (int i = 0; i < count; i++) {
+      assertTrue(cellScanner.advance());
+      Cell cell = cellScanner.current();
+      assertTrue(CellUtil.equals(cells[i], cell));
+      assertTrue(CellUtil.matchingValue(cells[i], cell));
+      assertEquals(withTags ? cells[i].getTagsLength() : 0, cell.getTagsLength());
+    }
+    assertFalse(cellScanner.advance());
+  }
+
   static void doBuildCellBlockUndoCellBlock(final CellBlockBuilder builder, final Codec codec,
     final CompressionCodec compressor) throws IOException {
     doBuildCellBlockUndoCellBlock(builder, codec, compressor, 10, 1, false);
@@ -153,6 +153,24 @@ public class ByteBufferListOutputStream extends ByteBufferOutputStream {
     }
   }
 
+  /**
+   * Adds the given bytes to the stream without copying them, the returned ByteBuffers reference
+   * the memory of the passed buffer. The caller must make sure that memory stays valid until the
+   * stream is released.
+   */
+  public void writeReference(ByteBuffer b, int off, int len) {
+    ByteBuffer ref = b.duplicate();
+    ref.limit(off + len);
+    ref.position(off);
+    // The bytes written so far stay in the current BB, and the space left in it is used for the
+    // bytes written after the reference, so that no memory of the pool is wasted.
+    ByteBuffer rest = this.curBuf.slice();
+    this.curBuf.flip();
+    this.allBufs.add(new SingleByteBuff(ref.slice()));
+    this.curBuf = rest;
+    this.allBufs.add(new SingleByteBuff(rest));
+  }
+
   @Override
   public void write(ByteBuffer b, int off, int len) throws IOException {
     int toWrite = 0;
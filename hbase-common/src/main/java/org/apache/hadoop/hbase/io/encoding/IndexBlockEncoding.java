@@ -32,8 +32,8 @@ public enum IndexBlockEncoding {
 
   /** Disable index block encoding. */
   NONE(0, null),
-  // id 1 is reserved for the PREFIX_TREE algorithm to be added later
-  PREFIX_TREE(1, null);
+  /** Encode the rows of index keys as a prefix tree. Only used for the data block index. */
+  PREFIX_TREE(1, "org.apache.hadoop.hbase.io.hfile.PrefixTreeIndexBlockEncoder");
 
   private final short id;
   private final byte[] idInBytes;
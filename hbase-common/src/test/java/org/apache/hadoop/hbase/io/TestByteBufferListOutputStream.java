@@ -82,4 +82,28 @@ public class TestByteBufferListOutputStream {
     bbos.releaseResources();
     assertEquals(3, alloc.getFreeBufferCount());
   }
+
+  @Test
+  public void testWriteReference() throws Exception {
+    ByteBuffAllocator alloc = new ByteBuffAllocator(true, 3, 10, 10 / 6);
+    ByteBufferListOutputStream bbos = new ByteBufferListOutputStream(alloc);
+    bbos.writeInt(100);
+    ByteBuffer ref = ByteBuffer.allocateDirect(32);
+    ref.put(Bytes.toBytes("row123_cf1_q1"));
+    bbos.writeReference(ref, 3, 7);
+    bbos.writeInt(123);
+    // the space left after the first int is used for the one after the reference
+    assertEquals(2, alloc.getFreeBufferCount());
+    assertEquals(15, bbos.size());
+    List<ByteBuffer> allBufs = bbos.getByteBuffers();
+    assertEquals(3, allBufs.size());
+    assertEquals(100, allBufs.get(0).getInt());
+    assertEquals(0, allBufs.get(0).remaining());
+    // not a copy
+    ref.put(3, (byte) '-');
+    assertEquals("-23_cf1", Bytes.toString(Bytes.getBytes(allBufs.get(1))));
+    assertEquals(123, allBufs.get(2).getInt());
+    bbos.releaseResources();
+    assertEquals(3, alloc.getFreeBufferCount());
+  }
 }
@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client.coprocessor;
+
+import static org.apache.hadoop.hbase.util.FutureUtils.addListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.CompletableFuture;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.AsyncTable;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.yetus.audience.InterfaceAudience;
+
+import org.apache.hadoop.hbase.shaded.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ColumnarScanProtos.ColumnarScanRequest;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ColumnarScanProtos.ColumnarScanResponse;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ColumnarScanProtos.ColumnarScanService;
+
+/**
+ * Scans a table into {@link ColumnarBatch}es, through the
+ * {@link org.apache.hadoop.hbase.coprocessor.ColumnarScanEndpoint} which must be loaded on the
+ * table.
+ * <p>
+ * The columns of the batches are the columns explicitly added to the scan with
+ * {@link Scan#addColumn(byte[], byte[])}, in family and then qualifier order. Only the latest
+ * version of a column is returned. Reversed and batched scans are not supported. The next batch is
+ * fetched while the current one is consumed, and no state is kept on the servers between batches,
+ * so a scanner does not need to be closed.
+ */
+@InterfaceAudience.Public
+public final class AsyncColumnarScanner {
+
+  // A batch, and where the scan goes on after it.
+  private static final class Page {
+
+    private final ColumnarBatch batch;
+
+    private final byte[] nextRow;
+
+    private final boolean nextRowInclusive;
+
+    Page(ColumnarBatch batch, byte[] nextRow, boolean nextRowInclusive) {
+      this.batch = batch;
+      this.nextRow = nextRow;
+      this.nextRowInclusive = nextRowInclusive;
+    }
+  }
+
+  private final AsyncTable<?> table;
+
+  private final Scan scan;
+
+  private final int batchRows;
+
+  private final List<byte[]> families = new ArrayList<>();
+
+  private final List<byte[]> qualifiers = new ArrayList<>();
+
+  // The next page not returned yet, null once the scan is over.
+  private CompletableFuture<Page> next;
+
+  private AsyncColumnarScanner(AsyncTable<?> table, Scan scan, int batchRows) throws IOException {
+    if (scan.isReversed() || scan.getBatch() > 0 || scan.getLimit() > 0) {
+      throw new IllegalArgumentException("Reversed, batched and limited scans are not supported");
+    }
+    if (batchRows <= 0) {
+      throw new IllegalArgumentException("batchRows must be positive: " + batchRows);
+    }
+    for (Map.Entry<byte[], NavigableSet<byte[]>> entry : scan.getFamilyMap().entrySet()) {
+      if (entry.getValue() == null || entry.getValue().isEmpty()) {
+        throw new IllegalArgumentException(
+          "The columns of family " + Bytes.toStringBinary(entry.getKey()) + " are not declared");
+      }
+      for (byte[] qualifier : entry.getValue()) {
+        families.add(entry.getKey());
+        qualifiers.add(qualifier);
+      }
+    }
+    if (families.isEmpty()) {
+      throw new IllegalArgumentException("No column declared");
+    }
+    this.table = table;
+    this.scan = new Scan(scan);
+    this.batchRows = batchRows;
+    this.next = fetch(scan.getStartRow(), scan.includeStartRow());
+  }
+
+  /**
+   * Starts scanning the given table.
+   * @param table     the table to scan
+   * @param scan      the scan, which declares the columns of the batches
+   * @param batchRows the maximum number of rows of a batch
+   */
+  public static AsyncColumnarScanner scan(AsyncTable<?> table, Scan scan, int batchRows)
+    throws IOException {
+    return new AsyncColumnarScanner(table, scan, batchRows);
+  }
+
+  public List<byte[]> getFamilies() {
+    return Collections.unmodifiableList(families);
+  }
+
+  public List<byte[]> getQualifiers() {
+    return Collections.unmodifiableList(qualifiers);
+  }
+
+  /**
+   * Returns the next batch, completed with null once the scan is over. The batch after it is
+   * fetched as soon as it is available.
+   */
+  public synchronized CompletableFuture<ColumnarBatch> next() {
+    CompletableFuture<Page> current = next;
+    if (current == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    CompletableFuture<Page> following = new CompletableFuture<>();
+    next = following;
+    CompletableFuture<ColumnarBatch> future = new CompletableFuture<>();
+    addListener(current, (page, error) -> {
+      if (error != null) {
+        following.completeExceptionally(error);
+        future.completeExceptionally(error);
+        return;
+      }
+      if (page == null) {
+        following.complete(null);
+        future.complete(null);
+        return;
+      }
+      if (page.nextRow == null) {
+        following.complete(null);
+      } else {
+        fetch(page.nextRow, page.nextRowInclusive, following);
+      }
+      future.complete(page.batch);
+    });
+    return future;
+  }
+
+  private CompletableFuture<Page> fetch(byte[] row, boolean inclusive) {
+    CompletableFuture<Page> future = new CompletableFuture<>();
+    fetch(row, inclusive, future);
+    return future;
+  }
+
+  // Skips the regions with no row to return, a batch is never empty.
+  private void fetch(byte[] row, boolean inclusive, CompletableFuture<Page> future) {
+    ColumnarScanRequest request;
+    try {
+      request = ColumnarScanRequest.newBuilder()
+        .setScan(ProtobufUtil.toScan(new Scan(scan).withStartRow(row, inclusive)))
+        .setBatchRows(batchRows).build();
+    } catch (IOException e) {
+      future.completeExceptionally(e);
+      return;
+    }
+    CompletableFuture<ColumnarScanResponse> call =
+      table.<ColumnarScanService.Stub, ColumnarScanResponse> coprocessorService(
+        ColumnarScanService::newStub,
+        (stub, controller, done) -> stub.scan(controller, request, done), row);
+    addListener(call, (resp, error) -> {
+      if (error != null) {
+        future.completeExceptionally(error);
+        return;
+      }
+      byte[] nextRow;
+      boolean nextRowInclusive;
+      if (resp.getMoreRowsInRegion()) {
+        nextRow = null;
+        nextRowInclusive = false;
+      } else {
+        byte[] endKey = resp.getRegionEndKey().toByteArray();
+        if (endKey.length == 0 || isAfterStopRow(endKey)) {
+          endKey = null;
+        }
+        nextRow = endKey;
+        nextRowInclusive = true;
+      }
+      if (resp.getRowCount() == 0) {
+        if (nextRow == null) {
+          future.complete(null);
+        } else {
+          fetch(nextRow, true, future);
+        }
+        return;
+      }
+      ColumnarBatch batch = new ColumnarBatch(families, qualifiers, resp);
+      if (resp.getMoreRowsInRegion()) {
+        nextRow = batch.getLastRow();
+      }
+      future.complete(new Page(batch, nextRow, nextRowInclusive));
+    });
+  }
+
+  private boolean isAfterStopRow(byte[] row) {
+    byte[] stopRow = scan.getStopRow();
+    if (Bytes.equals(stopRow, HConstants.EMPTY_END_ROW)) {
+      return false;
+    }
+    int c = Bytes.compareTo(row, stopRow);
+    return scan.includeStopRow() ? c > 0 : c >= 0;
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client.coprocessor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.yetus.audience.InterfaceAudience;
+
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ColumnarScanProtos.ColumnVector;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ColumnarScanProtos.ColumnarScanResponse;
+
+/**
+ * A batch of rows returned by an {@link AsyncColumnarScanner}, held column by column.
+ * <p>
+ * Every column, and the row keys, is kept in the layout of an Arrow variable size binary vector: a
+ * validity bitmap, least significant bit first, <code>rowCount + 1</code> little endian int32
+ * offsets and the values one after the other. The buffers are exposed as they were received, so
+ * they can be handed to an Arrow reader without copying them.
+ */
+@InterfaceAudience.Public
+public final class ColumnarBatch {
+
+  private static final class Vector {
+
+    private final ByteBuffer validity;
+
+    private final ByteBuffer offsets;
+
+    private final ByteBuffer data;
+
+    Vector(ColumnVector vector) {
+      this.validity = vector.getValidity().asReadOnlyByteBuffer();
+      this.offsets = vector.getOffsets().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+      this.data = vector.getData().asReadOnlyByteBuffer();
+    }
+
+    boolean isNull(int row) {
+      return (validity.get(validity.position() + (row >> 3)) & (1 << (row & 7))) == 0;
+    }
+
+    byte[] get(int row) {
+      if (isNull(row)) {
+        return null;
+      }
+      int start = offsets.getInt(offsets.position() + row * Bytes.SIZEOF_INT);
+      int end = offsets.getInt(offsets.position() + (row + 1) * Bytes.SIZEOF_INT);
+      byte[] value = new byte[end - start];
+      ByteBuffer dup = data.duplicate();
+      dup.position(data.position() + start);
+      dup.get(value);
+      return value;
+    }
+  }
+
+  private final List<byte[]> families;
+
+  private final List<byte[]> qualifiers;
+
+  private final int rowCount;
+
+  private final Vector rows;
+
+  private final Vector[] columns;
+
+  ColumnarBatch(List<byte[]> families, List<byte[]> qualifiers, ColumnarScanResponse response) {
+    this.families = families;
+    this.qualifiers = qualifiers;
+    this.rowCount = response.getRowCount();
+    this.rows = new Vector(response.getRows());
+    this.columns = new Vector[response.getColumnsCount()];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = new Vector(response.getColumns(i));
+    }
+  }
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public int getColumnCount() {
+    return columns.length;
+  }
+
+  public byte[] getFamily(int column) {
+    return families.get(column);
+  }
+
+  public byte[] getQualifier(int column) {
+    return qualifiers.get(column);
+  }
+
+  /**
+   * Returns the key of the given row.
+   */
+  public byte[] getRow(int row) {
+    return rows.get(row);
+  }
+
+  /**
+   * Returns true if the given row has no value for the given column.
+   */
+  public boolean isNull(int column, int row) {
+    return columns[column].isNull(row);
+  }
+
+  /**
+   * Returns a copy of the value of the given column for the given row, or null if it has none.
+   */
+  public byte[] getValue(int column, int row) {
+    return columns[column].get(row);
+  }
+
+  /**
+   * Returns the validity bitmap of the given column, -1 for the row keys.
+   */
+  public ByteBuffer getValidityBuffer(int column) {
+    return vector(column).validity.duplicate();
+  }
+
+  /**
+   * Returns the little endian offsets of the given column, -1 for the row keys.
+   */
+  public ByteBuffer getOffsetBuffer(int column) {
+    return vector(column).offsets.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Returns the values of the given column, -1 for the row keys.
+   */
+  public ByteBuffer getDataBuffer(int column) {
+    return vector(column).data.duplicate();
+  }
+
+  private Vector vector(int column) {
+    return column < 0 ? rows : columns[column];
+  }
+
+  byte[] getLastRow() {
+    return rows.get(rowCount - 1);
+  }
+}
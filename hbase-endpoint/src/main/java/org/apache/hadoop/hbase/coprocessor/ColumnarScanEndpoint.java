@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.coprocessor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.CoprocessorEnvironment;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HBaseInterfaceAudience;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.PrivateCellUtil;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.ipc.CoprocessorRpcUtils;
+import org.apache.hadoop.hbase.regionserver.Region;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.apache.yetus.audience.InterfaceStability;
+
+import org.apache.hbase.thirdparty.com.google.protobuf.ByteString;
+import org.apache.hbase.thirdparty.com.google.protobuf.RpcCallback;
+import org.apache.hbase.thirdparty.com.google.protobuf.RpcController;
+import org.apache.hbase.thirdparty.com.google.protobuf.Service;
+import org.apache.hbase.thirdparty.com.google.protobuf.UnsafeByteOperations;
+
+import org.apache.hadoop.hbase.shaded.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ColumnarScanProtos.ColumnVector;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ColumnarScanProtos.ColumnarScanRequest;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ColumnarScanProtos.ColumnarScanResponse;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ColumnarScanProtos.ColumnarScanService;
+
+/**
+ * Scans a region into column batches instead of rows. The columns of a batch are the columns
+ * explicitly added to the scan, each of them is sent as the buffers of an Arrow variable size
+ * binary vector holding the latest value of the column for every row, so that the client gets a
+ * columnar frame without pivoting the rows itself. The endpoint keeps no state between calls, the
+ * client resumes the scan after the last row of the batch.
+ * @see org.apache.hadoop.hbase.client.coprocessor.AsyncColumnarScanner
+ */
+@InterfaceAudience.LimitedPrivate(HBaseInterfaceAudience.COPROC)
+@InterfaceStability.Evolving
+public class ColumnarScanEndpoint extends ColumnarScanService implements RegionCoprocessor {
+
+  private RegionCoprocessorEnvironment env;
+
+  private long maxResultSize;
+
+  @Override
+  public void scan(RpcController controller, ColumnarScanRequest request,
+    RpcCallback<ColumnarScanResponse> done) {
+    ColumnarScanResponse response = null;
+    try {
+      response = scan(ProtobufUtil.toScan(request.getScan()), request.getBatchRows());
+    } catch (IOException e) {
+      CoprocessorRpcUtils.setControllerException(controller, e);
+    }
+    done.run(response);
+  }
+
+  private ColumnarScanResponse scan(Scan scan, int batchRows) throws IOException {
+    if (scan.isReversed() || scan.getBatch() > 0) {
+      throw new DoNotRetryIOException("Reversed and batched scans are not supported");
+    }
+    List<byte[]> families = new ArrayList<>();
+    List<byte[]> qualifiers = new ArrayList<>();
+    for (Map.Entry<byte[], NavigableSet<byte[]>> entry : scan.getFamilyMap().entrySet()) {
+      if (entry.getValue() == null || entry.getValue().isEmpty()) {
+        throw new DoNotRetryIOException("The columns of family "
+          + Bytes.toStringBinary(entry.getKey()) + " are not declared");
+      }
+      for (byte[] qualifier : entry.getValue()) {
+        families.add(entry.getKey());
+        qualifiers.add(qualifier);
+      }
+    }
+    int columnCount = families.size();
+    if (columnCount == 0) {
+      throw new DoNotRetryIOException("No column declared");
+    }
+    long maxSize = scan.getMaxResultSize() > 0 ? scan.getMaxResultSize() : maxResultSize;
+    Region region = env.getRegion();
+    VectorBuilder rows = new VectorBuilder();
+    VectorBuilder[] columns = new VectorBuilder[columnCount];
+    for (int i = 0; i < columnCount; i++) {
+      columns[i] = new VectorBuilder();
+    }
+    boolean[] present = new boolean[columnCount];
+    List<Cell> cells = new ArrayList<>();
+    int rowCount = 0;
+    long size = 0;
+    boolean moreRows;
+    try (RegionScanner scanner = region.getScanner(scan)) {
+      do {
+        moreRows = scanner.next(cells);
+        if (cells.isEmpty()) {
+          continue;
+        }
+        Cell first = cells.get(0);
+        rows.addRow(first);
+        size += first.getRowLength();
+        Arrays.fill(present, false);
+        // The cells come in the order of the family map, and only for the declared columns, so a
+        // single pass over the columns finds them. Older versions are skipped.
+        int column = 0;
+        for (Cell cell : cells) {
+          while (
+            column < columnCount
+              && !CellUtil.matchingColumn(cell, families.get(column), qualifiers.get(column))
+          ) {
+            column++;
+          }
+          if (column == columnCount) {
+            break;
+          }
+          if (!present[column]) {
+            present[column] = true;
+            columns[column].addValue(cell);
+            size += cell.getValueLength();
+          }
+        }
+        for (int i = 0; i < columnCount; i++) {
+          if (!present[i]) {
+            columns[i].addNull();
+          }
+        }
+        cells.clear();
+        rowCount++;
+      } while (moreRows && rowCount < batchRows && size < maxSize);
+    }
+    ColumnarScanResponse.Builder builder = ColumnarScanResponse.newBuilder().setRowCount(rowCount)
+      .setRows(rows.build()).setMoreRowsInRegion(moreRows);
+    for (VectorBuilder vector : columns) {
+      builder.addColumns(vector.build());
+    }
+    if (!moreRows) {
+      builder.setRegionEndKey(
+        UnsafeByteOperations.unsafeWrap(region.getRegionInfo().getEndKey()));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Builds the buffers of a variable size binary vector, one row at a time.
+   */
+  private static final class VectorBuilder {
+
+    private final ByteString.Output data = ByteString.newOutput();
+
+    private byte[] validity = new byte[8];
+
+    private int[] offsets = new int[64];
+
+    private int count;
+
+    private void next(boolean valid) {
+      if (count + 1 == offsets.length) {
+        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+      }
+      if ((count >> 3) == validity.length) {
+        validity = Arrays.copyOf(validity, validity.length * 2);
+      }
+      if (valid) {
+        validity[count >> 3] |= 1 << (count & 7);
+      }
+      count++;
+      offsets[count] = data.size();
+    }
+
+    void addRow(Cell cell) throws IOException {
+      PrivateCellUtil.writeRow(data, cell, cell.getRowLength());
+      next(true);
+    }
+
+    void addValue(Cell cell) throws IOException {
+      PrivateCellUtil.writeValue(data, cell, cell.getValueLength());
+      next(true);
+    }
+
+    void addNull() {
+      next(false);
+    }
+
+    ColumnVector build() {
+      ByteBuffer buf = ByteBuffer.allocate((count + 1) * Bytes.SIZEOF_INT)
+        .order(ByteOrder.LITTLE_ENDIAN);
+      for (int i = 0; i <= count; i++) {
+        buf.putInt(offsets[i]);
+      }
+      return ColumnVector.newBuilder()
+        .setValidity(UnsafeByteOperations.unsafeWrap(validity, 0, (count + 7) >> 3))
+        .setOffsets(UnsafeByteOperations.unsafeWrap(buf.array())).setData(data.toByteString())
+        .build();
+    }
+  }
+
+  @Override
+  public Iterable<Service> getServices() {
+    return Collections.singleton(this);
+  }
+
+  @Override
+  public void start(CoprocessorEnvironment env) throws IOException {
+    if (env instanceof RegionCoprocessorEnvironment) {
+      this.env = (RegionCoprocessorEnvironment) env;
+      this.maxResultSize =
+        env.getConfiguration().getLong(HConstants.HBASE_SERVER_SCANNER_MAX_RESULT_SIZE_KEY,
+          HConstants.DEFAULT_HBASE_SERVER_SCANNER_MAX_RESULT_SIZE);
+    } else {
+      throw new CoprocessorException("Must be loaded on a table region!");
+    }
+  }
+
+  @Override
+  public void stop(CoprocessorEnvironment env) throws IOException {
+    // nothing to do
+  }
+}
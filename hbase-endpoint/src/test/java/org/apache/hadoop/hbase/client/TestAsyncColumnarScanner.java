@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseTestingUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.coprocessor.AsyncColumnarScanner;
+import org.apache.hadoop.hbase.client.coprocessor.ColumnarBatch;
+import org.apache.hadoop.hbase.coprocessor.ColumnarScanEndpoint;
+import org.apache.hadoop.hbase.coprocessor.CoprocessorHost;
+import org.apache.hadoop.hbase.testclassification.CoprocessorTests;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({ MediumTests.class, CoprocessorTests.class })
+public class TestAsyncColumnarScanner {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestAsyncColumnarScanner.class);
+
+  private static HBaseTestingUtil UTIL = new HBaseTestingUtil();
+
+  private static TableName TABLE_NAME = TableName.valueOf("TestAsyncColumnarScanner");
+
+  private static byte[] CF = Bytes.toBytes("CF");
+
+  private static byte[] CQ = Bytes.toBytes("CQ");
+
+  private static byte[] CQ2 = Bytes.toBytes("CQ2");
+
+  private static long COUNT = 1000;
+
+  private static AsyncConnection CONN;
+
+  private static AsyncTable<AdvancedScanResultConsumer> TABLE;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    Configuration conf = UTIL.getConfiguration();
+    conf.setStrings(CoprocessorHost.REGION_COPROCESSOR_CONF_KEY,
+      ColumnarScanEndpoint.class.getName());
+    UTIL.startMiniCluster(3);
+    byte[][] splitKeys = new byte[8][];
+    for (int i = 111; i < 999; i += 111) {
+      splitKeys[i / 111 - 1] = Bytes.toBytes(String.format("%03d", i));
+    }
+    UTIL.createTable(TABLE_NAME, CF, splitKeys);
+    CONN = ConnectionFactory.createAsyncConnection(UTIL.getConfiguration()).get();
+    TABLE = CONN.getTable(TABLE_NAME);
+    // CQ2 is only written for the even rows
+    TABLE.putAll(LongStream.range(0, COUNT).mapToObj(l -> {
+      Put put =
+        new Put(Bytes.toBytes(String.format("%03d", l))).addColumn(CF, CQ, Bytes.toBytes(l));
+      return l % 2 == 0 ? put.addColumn(CF, CQ2, Bytes.toBytes(l * l)) : put;
+    }).collect(Collectors.toList())).get();
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    CONN.close();
+    UTIL.shutdownMiniCluster();
+  }
+
+  private static void assertScan(Scan scan, int batchRows, long start, long stop)
+    throws Exception {
+    AsyncColumnarScanner scanner = AsyncColumnarScanner.scan(TABLE, scan, batchRows);
+    assertEquals(2, scanner.getFamilies().size());
+    assertArrayEquals(CQ, scanner.getQualifiers().get(0));
+    assertArrayEquals(CQ2, scanner.getQualifiers().get(1));
+    long expected = start;
+    for (ColumnarBatch batch; (batch = scanner.next().get()) != null;) {
+      assertTrue(batch.getRowCount() > 0);
+      assertTrue(batch.getRowCount() <= batchRows);
+      assertEquals(2, batch.getColumnCount());
+      for (int i = 0; i < batch.getRowCount(); i++, expected++) {
+        assertEquals(String.format("%03d", expected), Bytes.toString(batch.getRow(i)));
+        assertEquals(expected, Bytes.toLong(batch.getValue(0, i)));
+        if (expected % 2 == 0) {
+          assertEquals(expected * expected, Bytes.toLong(batch.getValue(1, i)));
+        } else {
+          assertTrue(batch.isNull(1, i));
+          assertNull(batch.getValue(1, i));
+        }
+      }
+    }
+    assertEquals(stop, expected);
+    assertNull(scanner.next().get());
+  }
+
+  @Test
+  public void testScanAll() throws Exception {
+    assertScan(new Scan().addColumn(CF, CQ2).addColumn(CF, CQ), 100, 0, COUNT);
+  }
+
+  @Test
+  public void testScanRange() throws Exception {
+    // starts and stops in the middle of a region, batches do not cross regions
+    assertScan(new Scan().addColumn(CF, CQ).addColumn(CF, CQ2)
+      .withStartRow(Bytes.toBytes("150")).withStopRow(Bytes.toBytes("500")), 7, 150, 500);
+    assertScan(new Scan().addColumn(CF, CQ).addColumn(CF, CQ2)
+      .withStartRow(Bytes.toBytes("150"), false).withStopRow(Bytes.toBytes("500"), true), 1000,
+      151, 501);
+  }
+
+  @Test
+  public void testLittleEndianBuffers() throws Exception {
+    AsyncColumnarScanner scanner =
+      AsyncColumnarScanner.scan(TABLE, new Scan().addColumn(CF, CQ).addColumn(CF, CQ2), 10);
+    ColumnarBatch batch = scanner.next().get();
+    assertEquals(10, batch.getRowCount());
+    // rows 0 to 9, CQ2 is set for the even ones
+    ByteBuffer validity = batch.getValidityBuffer(1);
+    assertEquals(0x55, validity.get(validity.position()) & 0xFF);
+    ByteBuffer offsets = batch.getOffsetBuffer(0);
+    assertEquals(Bytes.SIZEOF_INT * 11, offsets.remaining());
+    assertEquals(Bytes.SIZEOF_LONG * 3, offsets.getInt(offsets.position() + Bytes.SIZEOF_INT * 3));
+    assertEquals(Bytes.SIZEOF_LONG * 10, batch.getDataBuffer(0).remaining());
+    assertEquals(3 * 10, batch.getDataBuffer(-1).remaining());
+  }
+}
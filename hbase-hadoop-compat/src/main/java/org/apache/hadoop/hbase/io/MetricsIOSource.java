@@ -52,6 +52,17 @@ public interface MetricsIOSource extends BaseSource {
 
   String CHECKSUM_FAILURES_KEY = "fsChecksumFailureCount";
 
+  String SCAN_READAHEAD_BLOCKS_KEY = "scanReadaheadBlockCount";
+  String SCAN_READAHEAD_BLOCKS_DESC = "Number of HFile blocks read ahead of scanners";
+  String SCAN_READAHEAD_HITS_KEY = "scanReadaheadHitCount";
+  String SCAN_READAHEAD_HITS_DESC = "Number of HFile blocks scanners found read ahead";
+  String SCAN_READAHEAD_WASTED_KEY = "scanReadaheadWastedCount";
+  String SCAN_READAHEAD_WASTED_DESC =
+    "Number of HFile blocks read ahead of scanners which the scanners did not use";
+  String SCAN_READAHEAD_STALL_TIME_KEY = "scanReadaheadStallTime";
+  String SCAN_READAHEAD_STALL_TIME_DESC =
+    "Time scanners spent waiting for HFile blocks being read ahead, in milliseconds";
+
   String FS_READ_TIME_HISTO_DESC =
     "Latency of HFile's sequential reads on this region server in milliseconds";
   String FS_PREAD_TIME_HISTO_DESC =
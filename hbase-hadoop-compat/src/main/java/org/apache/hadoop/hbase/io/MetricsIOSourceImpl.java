@@ -82,6 +82,14 @@ public class MetricsIOSourceImpl extends BaseSourceImpl implements MetricsIOSour
     if (wrapper != null) {
       mrb.addCounter(Interns.info(CHECKSUM_FAILURES_KEY, CHECKSUM_FAILURES_DESC),
         wrapper.getChecksumFailures());
+      mrb.addCounter(Interns.info(SCAN_READAHEAD_BLOCKS_KEY, SCAN_READAHEAD_BLOCKS_DESC),
+        wrapper.getScanReadaheadBlocks());
+      mrb.addCounter(Interns.info(SCAN_READAHEAD_HITS_KEY, SCAN_READAHEAD_HITS_DESC),
+        wrapper.getScanReadaheadHits());
+      mrb.addCounter(Interns.info(SCAN_READAHEAD_WASTED_KEY, SCAN_READAHEAD_WASTED_DESC),
+        wrapper.getScanReadaheadWasted());
+      mrb.addCounter(Interns.info(SCAN_READAHEAD_STALL_TIME_KEY, SCAN_READAHEAD_STALL_TIME_DESC),
+        wrapper.getScanReadaheadStallTime());
     }
 
     metricsRegistry.snapshot(mrb, all);
@@ -23,4 +23,12 @@ import org.apache.yetus.audience.InterfaceAudience;
 public interface MetricsIOWrapper {
 
   long getChecksumFailures();
+
+  long getScanReadaheadBlocks();
+
+  long getScanReadaheadHits();
+
+  long getScanReadaheadWasted();
+
+  long getScanReadaheadStallTime();
 }
@@ -101,6 +101,12 @@ public interface MetricsHBaseServerSource extends ExceptionTrackingSource {
   String NUM_LIFO_MODE_SWITCHES_NAME = "numLifoModeSwitches";
   String NUM_LIFO_MODE_SWITCHES_DESC =
     "Total number of calls in general queue which " + "were served from the tail of the queue";
+  String TENANT_PREFIX = "tenant_";
+  String TENANT_NUM_CALLS_NAME = "_numCalls";
+  String TENANT_NUM_CALLS_DESC = "Total number of calls of the tenant served from the fair queue";
+  String TENANT_QUEUE_TIME_NAME = "_queueCallTimeSum";
+  String TENANT_QUEUE_TIME_DESC =
+    "Total time in ms the calls of the tenant served from the fair queue spent in the queue";
   // Direct Memory Usage metrics
   String NETTY_DM_USAGE_NAME = "nettyDirectMemoryUsage";
 
@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.hbase.ipc;
 
+import java.util.Map;
 import org.apache.hadoop.hbase.metrics.ExceptionTrackingSourceImpl;
 import org.apache.hadoop.hbase.metrics.Interns;
 import org.apache.hadoop.hbase.util.Pair;
@@ -201,8 +202,46 @@ public class MetricsHBaseServerSourceImpl extends ExceptionTrackingSourceImpl
         totalAndMax.getFirst());
       mrb.addGauge(Interns.info(NETTY_MAX_PENDING_OUTBOUND_NAME, NETTY_MAX_PENDING_OUTBOUND_DESC),
         totalAndMax.getSecond());
+
+      for (Map.Entry<String, Pair<Long, Long>> e : wrapper.getTenantQueueTimes().entrySet()) {
+        String prefix = TENANT_PREFIX + escapeTenant(e.getKey());
+        mrb.addCounter(Interns.info(prefix + TENANT_NUM_CALLS_NAME, TENANT_NUM_CALLS_DESC),
+          e.getValue().getFirst());
+        mrb.addCounter(Interns.info(prefix + TENANT_QUEUE_TIME_NAME, TENANT_QUEUE_TIME_DESC),
+          e.getValue().getSecond());
+      }
     }
 
     metricsRegistry.snapshot(mrb, all);
   }
+
+  /**
+   * Escapes a user or namespace name for use in a metric name: letters and digits are kept, '_'
+   * becomes "__" and any other character '_' followed by the four hex digits of its code, so that
+   * two tenants never get the same metric.
+   */
+  static String escapeTenant(String tenant) {
+    StringBuilder sb = null;
+    for (int i = 0, n = tenant.length(); i < n; i++) {
+      char c = tenant.charAt(i);
+      boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+      if (valid && sb == null) {
+        continue;
+      }
+      if (sb == null) {
+        sb = new StringBuilder(tenant.length() + 8).append(tenant, 0, i);
+      }
+      if (valid) {
+        sb.append(c);
+      } else if (c == '_') {
+        sb.append("__");
+      } else {
+        sb.append('_');
+        for (int shift = 12; shift >= 0; shift -= 4) {
+          sb.append(Character.forDigit((c >> shift) & 0xf, 16));
+        }
+      }
+    }
+    return sb == null ? tenant : sb.toString();
+  }
 }
@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.hbase.ipc;
 
+import java.util.Map;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.yetus.audience.InterfaceAudience;
 
@@ -71,4 +72,10 @@ public interface MetricsHBaseServerWrapper {
    * @return pair containing total (first) and max (second) pending outbound bytes.
    */
   Pair<Long, Long> getTotalAndMaxNettyOutboundBytes();
+
+  /**
+   * The number of calls (first) and their total queue time in milliseconds (second) per tenant,
+   * when the fair call queue is used.
+   */
+  Map<String, Pair<Long, Long>> getTenantQueueTimes();
 }
@@ -185,6 +185,21 @@ public interface MetricsRegionServerSource extends BaseSource, JvmPauseMonitorSo
    */
   void updateFlushOutputSize(long bytes);
 
+  /**
+   * Update the histograms for the time spent writing store snapshots to files during a flush
+   * @param wallTime  time it took to write the snapshots of all the flushed stores, in milliseconds
+   * @param storeTime sum of the time it took to write each store snapshot, in milliseconds. Larger
+   *                  than wallTime when stores are flushed in parallel
+   */
+  void updateFlushStoreWriteTime(long wallTime, long storeTime);
+
+  /**
+   * Update the histograms for the replay of the recovered edits of a region when it opens
+   * @param t     time it took to replay the recovered edits, in milliseconds
+   * @param edits number of edits applied to the memstores
+   */
+  void updateRecoveredEditsReplay(long t, long edits);
+
   /**
    * Update the compaction time histogram, both major and minor
    * @param isMajor whether compaction is a major compaction
@@ -414,6 +429,23 @@ public interface MetricsRegionServerSource extends BaseSource, JvmPauseMonitorSo
   String L2_CACHE_SIZE_DESC = "Size of the L2 cache in bytes";
   String L2_CACHE_COUNT = "l2CacheCount";
   String L2_CACHE_COUNT_DESC = "Count of blocks in the L2 cache";
+  String L2_CACHE_INDEX_HEAP_SAVED = "l2CacheIndexHeapSaved";
+  String L2_CACHE_INDEX_HEAP_SAVED_DESC =
+    "Estimated heap saved by keeping the index of the L2 cache off-heap, in bytes";
+  String L2_CACHE_INDEX_OFFHEAP_SIZE = "l2CacheIndexOffHeapSize";
+  String L2_CACHE_INDEX_OFFHEAP_SIZE_DESC = "Off-heap size of the index of the L2 cache in bytes";
+  String L2_CACHE_FRAGMENTATION_BYTES = "l2CacheFragmentationBytes";
+  String L2_CACHE_FRAGMENTATION_BYTES_DESC =
+    "Space of the L2 cache lost to blocks smaller than the bucket items holding them, in bytes";
+  String L2_CACHE_RELOCATED_BLOCK_COUNT = "l2CacheRelocatedBlockCount";
+  String L2_CACHE_RELOCATED_BLOCK_COUNT_DESC =
+    "Count of blocks moved between buckets by the defragmentation of the L2 cache";
+  String L2_CACHE_ADMISSION_REJECTED_COUNT = "l2CacheAdmissionRejectedCount";
+  String L2_CACHE_ADMISSION_REJECTED_COUNT_DESC =
+    "Count of blocks the eviction policy of the full L2 cache refused to cache";
+  String L2_CACHE_GHOST_HIT_COUNT = "l2CacheGhostHitCount";
+  String L2_CACHE_GHOST_HIT_COUNT_DESC =
+    "Count of L2 cache misses on blocks evicted not long ago by its eviction policy";
   String L2_CACHE_EVICTION_COUNT = "l2CacheEvictionCount";
   String L2_CACHE_EVICTION_COUNT_DESC = "Count of blocks evicted from the L2 cache";
   String L2_CACHE_HIT_COUNT = "l2CacheHitCount";
@@ -515,6 +547,16 @@ public interface MetricsRegionServerSource extends BaseSource, JvmPauseMonitorSo
   String MOB_FILE_CACHE_EVICTED_COUNT_DESC = "The number of items evicted from the mob file cache";
   String MOB_FILE_CACHE_COUNT = "mobFileCacheCount";
   String MOB_FILE_CACHE_COUNT_DESC = "The count of cached mob files";
+  String ROW_CACHE_HIT_COUNT = "rowCacheHitCount";
+  String ROW_CACHE_HIT_COUNT_DESC = "The count of Gets served from the row cache";
+  String ROW_CACHE_MISS_COUNT = "rowCacheMissCount";
+  String ROW_CACHE_MISS_COUNT_DESC = "The count of cacheable Gets that missed the row cache";
+  String ROW_CACHE_EVICTED_COUNT = "rowCacheEvictedCount";
+  String ROW_CACHE_EVICTED_COUNT_DESC = "The number of entries evicted from the row cache";
+  String ROW_CACHE_COUNT = "rowCacheCount";
+  String ROW_CACHE_COUNT_DESC = "The number of entries in the row cache";
+  String ROW_CACHE_SIZE = "rowCacheSize";
+  String ROW_CACHE_SIZE_DESC = "The heap size of the row cache, in bytes";
 
   String HEDGED_READS = "hedgedReads";
   String HEDGED_READS_DESC = "The number of times we started a hedged read";
@@ -550,11 +592,26 @@ public interface MetricsRegionServerSource extends BaseSource, JvmPauseMonitorSo
   String FLUSH_MEMSTORE_SIZE_DESC = "Histogram for number of bytes in the memstore for a flush";
   String FLUSH_OUTPUT_SIZE = "flushOutputSize";
   String FLUSH_OUTPUT_SIZE_DESC = "Histogram for number of bytes in the resulting file for a flush";
+  String FLUSH_WRITE_TIME = "flushWriteTime";
+  String FLUSH_WRITE_TIME_DESC =
+    "Histogram for the wall time in millis spent writing the store snapshots of a region flush";
+  String FLUSH_STORE_WRITE_TIME = "flushStoreWriteTime";
+  String FLUSH_STORE_WRITE_TIME_DESC =
+    "Histogram for the summed time in millis spent writing each store snapshot of a region flush";
   String FLUSHED_OUTPUT_BYTES = "flushedOutputBytes";
   String FLUSHED_OUTPUT_BYTES_DESC = "Total number of bytes written from flush";
   String FLUSHED_MEMSTORE_BYTES = "flushedMemstoreBytes";
   String FLUSHED_MEMSTORE_BYTES_DESC = "Total number of bytes of cells in memstore from flush";
 
+  String RECOVERED_EDITS_REPLAY_TIME = "recoveredEditsReplayTime";
+  String RECOVERED_EDITS_REPLAY_TIME_DESC =
+    "Histogram for the time in millis to replay the recovered edits of a region on open";
+  String RECOVERED_EDITS_REPLAY_RATE = "recoveredEditsReplayRate";
+  String RECOVERED_EDITS_REPLAY_RATE_DESC =
+    "Histogram for the edits per second applied replaying the recovered edits of a region";
+  String RECOVERED_EDITS_REPLAYED = "recoveredEditsReplayed";
+  String RECOVERED_EDITS_REPLAYED_DESC = "Total number of recovered edits applied to memstores";
+
   String COMPACTION_TIME = "compactionTime";
   String COMPACTION_TIME_DESC =
     "Histogram for the time in millis for compaction, both major and minor";
@@ -70,9 +70,16 @@ public class MetricsRegionServerSourceImpl extends BaseSourceImpl
   private final MetricHistogram flushTimeHisto;
   private final MetricHistogram flushMemstoreSizeHisto;
   private final MetricHistogram flushOutputSizeHisto;
+  private final MetricHistogram flushWriteTimeHisto;
+  private final MetricHistogram flushStoreWriteTimeHisto;
   private final MutableFastCounter flushedMemstoreBytes;
   private final MutableFastCounter flushedOutputBytes;
 
+  // recovered edits replay related metrics
+  private final MetricHistogram recoveredEditsReplayTimeHisto;
+  private final MetricHistogram recoveredEditsReplayRateHisto;
+  private final MutableFastCounter recoveredEditsReplayed;
+
   // compaction related metrics
   private final MetricHistogram compactionTimeHisto;
   private final MetricHistogram compactionInputFileCountHisto;
@@ -147,11 +154,22 @@ public class MetricsRegionServerSourceImpl extends BaseSourceImpl
       getMetricsRegistry().newSizeHistogram(FLUSH_MEMSTORE_SIZE, FLUSH_MEMSTORE_SIZE_DESC);
     flushOutputSizeHisto =
       getMetricsRegistry().newSizeHistogram(FLUSH_OUTPUT_SIZE, FLUSH_OUTPUT_SIZE_DESC);
+    flushWriteTimeHisto =
+      getMetricsRegistry().newTimeHistogram(FLUSH_WRITE_TIME, FLUSH_WRITE_TIME_DESC);
+    flushStoreWriteTimeHisto =
+      getMetricsRegistry().newTimeHistogram(FLUSH_STORE_WRITE_TIME, FLUSH_STORE_WRITE_TIME_DESC);
     flushedOutputBytes =
       getMetricsRegistry().newCounter(FLUSHED_OUTPUT_BYTES, FLUSHED_OUTPUT_BYTES_DESC, 0L);
     flushedMemstoreBytes =
       getMetricsRegistry().newCounter(FLUSHED_MEMSTORE_BYTES, FLUSHED_MEMSTORE_BYTES_DESC, 0L);
 
+    recoveredEditsReplayTimeHisto = getMetricsRegistry()
+      .newTimeHistogram(RECOVERED_EDITS_REPLAY_TIME, RECOVERED_EDITS_REPLAY_TIME_DESC);
+    recoveredEditsReplayRateHisto = getMetricsRegistry()
+      .newHistogram(RECOVERED_EDITS_REPLAY_RATE, RECOVERED_EDITS_REPLAY_RATE_DESC);
+    recoveredEditsReplayed =
+      getMetricsRegistry().newCounter(RECOVERED_EDITS_REPLAYED, RECOVERED_EDITS_REPLAYED_DESC, 0L);
+
     compactionTimeHisto =
       getMetricsRegistry().newTimeHistogram(COMPACTION_TIME, COMPACTION_TIME_DESC);
     compactionInputFileCountHisto = getMetricsRegistry().newHistogram(COMPACTION_INPUT_FILE_COUNT,
@@ -307,6 +325,19 @@ public class MetricsRegionServerSourceImpl extends BaseSourceImpl
     flushedOutputBytes.incr(bytes);
   }
 
+  @Override
+  public void updateFlushStoreWriteTime(long wallTime, long storeTime) {
+    flushWriteTimeHisto.add(wallTime);
+    flushStoreWriteTimeHisto.add(storeTime);
+  }
+
+  @Override
+  public void updateRecoveredEditsReplay(long t, long edits) {
+    recoveredEditsReplayTimeHisto.add(t);
+    recoveredEditsReplayRateHisto.add(edits * 1000 / Math.max(1, t));
+    recoveredEditsReplayed.incr(edits);
+  }
+
   @Override
   public void updateCompactionTime(boolean isMajor, long t) {
     compactionTimeHisto.add(t);
@@ -489,6 +520,12 @@ public class MetricsRegionServerSourceImpl extends BaseSourceImpl
           rsWrap.getMobFileCacheMissCount())
         .addCounter(Interns.info(MOB_FILE_CACHE_EVICTED_COUNT, MOB_FILE_CACHE_EVICTED_COUNT_DESC),
           rsWrap.getMobFileCacheEvictedCount())
+        .addCounter(Interns.info(ROW_CACHE_HIT_COUNT, ROW_CACHE_HIT_COUNT_DESC),
+          rsWrap.getRowCacheHitCount())
+        .addCounter(Interns.info(ROW_CACHE_MISS_COUNT, ROW_CACHE_MISS_COUNT_DESC),
+          rsWrap.getRowCacheMissCount())
+        .addCounter(Interns.info(ROW_CACHE_EVICTED_COUNT, ROW_CACHE_EVICTED_COUNT_DESC),
+          rsWrap.getRowCacheEvictedCount())
         .addCounter(Interns.info(HEDGED_READS, HEDGED_READS_DESC), rsWrap.getHedgedReadOps())
         .addCounter(Interns.info(HEDGED_READ_WINS, HEDGED_READ_WINS_DESC),
           rsWrap.getHedgedReadWins())
@@ -604,6 +641,19 @@ public class MetricsRegionServerSourceImpl extends BaseSourceImpl
       .addGauge(Interns.info(L2_CACHE_FREE_SIZE, L2_CACHE_FREE_SIZE_DESC),
         rsWrap.getL2CacheFreeSize())
       .addGauge(Interns.info(L2_CACHE_COUNT, L2_CACHE_COUNT_DESC), rsWrap.getL2CacheCount())
+      .addGauge(Interns.info(L2_CACHE_INDEX_HEAP_SAVED, L2_CACHE_INDEX_HEAP_SAVED_DESC),
+        rsWrap.getL2CacheIndexHeapSaved())
+      .addGauge(Interns.info(L2_CACHE_INDEX_OFFHEAP_SIZE, L2_CACHE_INDEX_OFFHEAP_SIZE_DESC),
+        rsWrap.getL2CacheIndexOffHeapSize())
+      .addGauge(Interns.info(L2_CACHE_FRAGMENTATION_BYTES, L2_CACHE_FRAGMENTATION_BYTES_DESC),
+        rsWrap.getL2CacheFragmentationBytes())
+      .addCounter(Interns.info(L2_CACHE_RELOCATED_BLOCK_COUNT, L2_CACHE_RELOCATED_BLOCK_COUNT_DESC),
+        rsWrap.getL2CacheRelocatedBlockCount())
+      .addCounter(
+        Interns.info(L2_CACHE_ADMISSION_REJECTED_COUNT, L2_CACHE_ADMISSION_REJECTED_COUNT_DESC),
+        rsWrap.getL2CacheAdmissionRejectedCount())
+      .addCounter(Interns.info(L2_CACHE_GHOST_HIT_COUNT, L2_CACHE_GHOST_HIT_COUNT_DESC),
+        rsWrap.getL2CacheGhostHitCount())
       .addCounter(Interns.info(L2_CACHE_EVICTION_COUNT, L2_CACHE_EVICTION_COUNT_DESC),
         rsWrap.getL2CacheEvictedCount())
       .addGauge(Interns.info(L2_CACHE_HIT_COUNT, L2_CACHE_HIT_COUNT_DESC),
@@ -618,6 +668,8 @@ public class MetricsRegionServerSourceImpl extends BaseSourceImpl
         rsWrap.getMobFileCacheCount())
       .addGauge(Interns.info(MOB_FILE_CACHE_HIT_PERCENT, MOB_FILE_CACHE_HIT_PERCENT_DESC),
         rsWrap.getMobFileCacheHitPercent())
+      .addGauge(Interns.info(ROW_CACHE_COUNT, ROW_CACHE_COUNT_DESC), rsWrap.getRowCacheCount())
+      .addGauge(Interns.info(ROW_CACHE_SIZE, ROW_CACHE_SIZE_DESC), rsWrap.getRowCacheSize())
       .addGauge(Interns.info(READ_REQUEST_RATE_PER_SECOND, READ_REQUEST_RATE_DESC),
         rsWrap.getReadRequestsRatePerSecond())
       .addGauge(Interns.info(WRITE_REQUEST_RATE_PER_SECOND, WRITE_REQUEST_RATE_DESC),
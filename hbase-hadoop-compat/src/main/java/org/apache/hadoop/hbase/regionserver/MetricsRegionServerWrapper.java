@@ -399,6 +399,36 @@ public interface MetricsRegionServerWrapper {
    */
   long getL2CacheCount();
 
+  /**
+   * Estimated heap saved by keeping the index of the L2 cache off-heap
+   */
+  long getL2CacheIndexHeapSaved();
+
+  /**
+   * Off-heap size of the index of the L2 cache
+   */
+  long getL2CacheIndexOffHeapSize();
+
+  /**
+   * Space of the L2 cache lost to blocks smaller than the bucket items holding them
+   */
+  long getL2CacheFragmentationBytes();
+
+  /**
+   * Number of blocks moved between buckets by the defragmentation of the L2 cache
+   */
+  long getL2CacheRelocatedBlockCount();
+
+  /**
+   * Number of blocks the eviction policy of the full L2 cache refused to cache
+   */
+  long getL2CacheAdmissionRejectedCount();
+
+  /**
+   * Number of L2 cache misses on blocks evicted not long ago by its eviction policy
+   */
+  long getL2CacheGhostHitCount();
+
   /**
    * Number of blocks evicted from L2 cache
    */
@@ -534,6 +564,31 @@ public interface MetricsRegionServerWrapper {
    */
   double getMobFileCacheHitPercent();
 
+  /**
+   * Gets the count of Gets served from the row cache.
+   */
+  long getRowCacheHitCount();
+
+  /**
+   * Gets the count of cacheable Gets that missed the row cache.
+   */
+  long getRowCacheMissCount();
+
+  /**
+   * Gets the number of entries evicted from the row cache.
+   */
+  long getRowCacheEvictedCount();
+
+  /**
+   * Gets the number of entries in the row cache.
+   */
+  long getRowCacheCount();
+
+  /**
+   * Gets the heap size of the row cache, in bytes.
+   */
+  long getRowCacheSize();
+
   /** Returns Count of hedged read operations */
   long getHedgedReadOps();
 
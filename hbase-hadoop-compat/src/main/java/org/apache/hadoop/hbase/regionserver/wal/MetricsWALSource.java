@@ -75,6 +75,10 @@ public interface MetricsWALSource extends BaseSource {
   String WRITTEN_BYTES_DESC = "Size (in bytes) of the data written to the WAL.";
   String SUCCESSFUL_LOG_ROLLS = "successfulLogRolls";
   String SUCCESSFUL_LOG_ROLLS_DESC = "Number of successful log rolls requests";
+  String GROUP_SYNC_TIME_DESC = "The time it took to sync the WAL of a region group.";
+  String GROUP_REGION_MOVES = "groupRegionMoves";
+  String GROUP_REGION_MOVES_DESC =
+    "Number of regions reassigned to another WAL group because of the write load.";
 
   /**
    * Add the append size.
@@ -101,6 +105,16 @@ public interface MetricsWALSource extends BaseSource {
    */
   void incrementSyncTime(long time);
 
+  /**
+   * Add the time it took to sync the wal of a region group.
+   */
+  void incrementSyncTime(String walGroup, long time);
+
+  /**
+   * Add the number of regions reassigned to another wal group.
+   */
+  void incrementGroupRegionMoves(long moves);
+
   void incrementLogRollRequested();
 
   void incrementErrorLogRoll();
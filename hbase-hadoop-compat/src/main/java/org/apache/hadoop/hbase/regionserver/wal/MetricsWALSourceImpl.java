@@ -45,9 +45,12 @@ public class MetricsWALSourceImpl extends BaseSourceImpl implements MetricsWALSo
   private final MutableFastCounter sizeRollRequested;
   private final MutableFastCounter writtenBytes;
   private final MutableFastCounter successfulLogRolls;
+  private final MutableFastCounter groupRegionMoves;
   // Per table metrics.
   private final ConcurrentMap<TableName, MutableFastCounter> perTableAppendCount;
   private final ConcurrentMap<TableName, MutableFastCounter> perTableAppendSize;
+  // Per wal group metrics.
+  private final ConcurrentMap<String, MetricHistogram> perGroupSyncTime;
 
   public MetricsWALSourceImpl() {
     this(METRICS_NAME, METRICS_DESCRIPTION, METRICS_CONTEXT, METRICS_JMX_CONTEXT);
@@ -79,6 +82,9 @@ public class MetricsWALSourceImpl extends BaseSourceImpl implements MetricsWALSo
       this.getMetricsRegistry().newCounter(SUCCESSFUL_LOG_ROLLS, SUCCESSFUL_LOG_ROLLS_DESC, 0L);
     perTableAppendCount = new ConcurrentHashMap<>();
     perTableAppendSize = new ConcurrentHashMap<>();
+    groupRegionMoves =
+      this.getMetricsRegistry().newCounter(GROUP_REGION_MOVES, GROUP_REGION_MOVES_DESC, 0L);
+    perGroupSyncTime = new ConcurrentHashMap<>();
   }
 
   @Override
@@ -124,6 +130,23 @@ public class MetricsWALSourceImpl extends BaseSourceImpl implements MetricsWALSo
     syncTimeHisto.add(time);
   }
 
+  @Override
+  public void incrementSyncTime(String walGroup, long time) {
+    MetricHistogram groupSyncTimeHisto = perGroupSyncTime.get(walGroup);
+    if (groupSyncTimeHisto == null) {
+      String metricsKey = String.format("%s.%s", walGroup, SYNC_TIME);
+      perGroupSyncTime.putIfAbsent(walGroup,
+        getMetricsRegistry().newTimeHistogram(metricsKey, GROUP_SYNC_TIME_DESC));
+      groupSyncTimeHisto = perGroupSyncTime.get(walGroup);
+    }
+    groupSyncTimeHisto.add(time);
+  }
+
+  @Override
+  public void incrementGroupRegionMoves(long moves) {
+    groupRegionMoves.incr(moves);
+  }
+
   @Override
   public void incrementLogRollRequested() {
     logRollRequested.incr();
@@ -18,6 +18,7 @@
 package org.apache.hadoop.hbase.io;
 
 import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.ScanReadahead;
 import org.apache.yetus.audience.InterfaceAudience;
 
 @InterfaceAudience.Private
@@ -27,4 +28,24 @@ public class MetricsIOWrapperImpl implements MetricsIOWrapper {
   public long getChecksumFailures() {
     return HFile.getAndResetChecksumFailuresCount();
   }
+
+  @Override
+  public long getScanReadaheadBlocks() {
+    return ScanReadahead.getBlocksRead();
+  }
+
+  @Override
+  public long getScanReadaheadHits() {
+    return ScanReadahead.getHits();
+  }
+
+  @Override
+  public long getScanReadaheadWasted() {
+    return ScanReadahead.getWasted();
+  }
+
+  @Override
+  public long getScanReadaheadStallTime() {
+    return ScanReadahead.getStallTime();
+  }
 }
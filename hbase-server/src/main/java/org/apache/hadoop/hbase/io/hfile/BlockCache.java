@@ -51,6 +51,22 @@ public interface BlockCache extends Iterable<CachedBlock> {
     cacheBlock(cacheKey, buf, inMemory);
   }
 
+  /**
+   * Add block to cache.
+   * @param cacheKey      The block's cache key.
+   * @param buf           The block contents wrapped in a ByteBuffer.
+   * @param inMemory      Whether block should be treated as in-memory
+   * @param waitWhenCache Whether to wait for the cache to be flushed mainly when BucketCache is
+   *                      configured.
+   * @param skipAdmission Whether to cache the block without asking the admission policy of the
+   *                      cache, for the blocks cached before they are read, i.e, prefetched or
+   *                      written, which were never looked up.
+   */
+  default void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory,
+    boolean waitWhenCache, boolean skipAdmission) {
+    cacheBlock(cacheKey, buf, inMemory, waitWhenCache);
+  }
+
   /**
    * Add block to cache (defaults to not in-memory).
    * @param cacheKey The block's cache key.
@@ -250,4 +266,29 @@ public interface BlockCache extends Iterable<CachedBlock> {
   default Optional<Map<String, Long>> getRegionCachedInfo() {
     return Optional.empty();
   }
+
+  /**
+   * Fetches the decompressed copy of a block the cache keeps compressed, for the caches which keep
+   * the blocks looked up most often decompressed too. The caller has to release the returned
+   * block. This method may not be overridden by all implementing classes, in such cases it returns
+   * null.
+   * @param cacheKey           Block to fetch.
+   * @param caching            Whether this request has caching enabled (used for stats)
+   * @param updateCacheMetrics Whether to update cache metrics or not
+   * @return the decompressed block, or null if the cache does not keep it
+   */
+  default HFileBlock getDecompressedBlock(BlockCacheKey cacheKey, boolean caching,
+    boolean updateCacheMetrics) {
+    return null;
+  }
+
+  /**
+   * Offers the decompressed copy of a block the cache keeps compressed, which the cache may keep
+   * for the next lookups of the block. The passed block is not retained, the cache copies it if
+   * needed. This method may not be overridden by all implementing classes, in such cases it does
+   * nothing.
+   */
+  default void cacheDecompressedBlock(BlockCacheKey cacheKey, HFileBlock block) {
+    // noop
+  }
 }
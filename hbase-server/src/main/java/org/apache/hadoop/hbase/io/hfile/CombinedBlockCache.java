@@ -69,11 +69,17 @@ public class CombinedBlockCache implements ResizableBlockCache, HeapSize {
   @Override
   public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory,
     boolean waitWhenCache) {
+    cacheBlock(cacheKey, buf, inMemory, waitWhenCache, false);
+  }
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory,
+    boolean waitWhenCache, boolean skipAdmission) {
     boolean metaBlock = isMetaBlock(buf.getBlockType());
     if (metaBlock) {
       l1Cache.cacheBlock(cacheKey, buf, inMemory);
     } else {
-      l2Cache.cacheBlock(cacheKey, buf, inMemory, waitWhenCache);
+      l2Cache.cacheBlock(cacheKey, buf, inMemory, waitWhenCache, skipAdmission);
     }
   }
 
@@ -504,4 +510,15 @@ public class CombinedBlockCache implements ResizableBlockCache, HeapSize {
     return l1Result.isPresent() ? l1Result : l2Cache.getBlockSize(key);
   }
 
+  @Override
+  public HFileBlock getDecompressedBlock(BlockCacheKey cacheKey, boolean caching,
+    boolean updateCacheMetrics) {
+    return l2Cache.getDecompressedBlock(cacheKey, caching, updateCacheMetrics);
+  }
+
+  @Override
+  public void cacheDecompressedBlock(BlockCacheKey cacheKey, HFileBlock block) {
+    l2Cache.cacheDecompressedBlock(cacheKey, block);
+  }
+
 }
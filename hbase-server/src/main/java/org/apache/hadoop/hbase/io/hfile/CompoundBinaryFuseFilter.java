@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.DataInput;
+import java.io.IOException;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.regionserver.BloomType;
+import org.apache.hadoop.hbase.util.BinaryFuseFilterChunk;
+import org.apache.hadoop.hbase.util.BloomFilter;
+import org.apache.hadoop.hbase.util.BloomFilterUtil;
+import org.apache.hadoop.hbase.util.ByteArrayHashKey;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Hash;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * A row filter made of {@link BinaryFuseFilterChunk}s written out at the time of
+ * {@link org.apache.hadoop.hbase.io.hfile.HFile} generation into the data block stream, and loaded
+ * on demand through the block cache at query time. This is the
+ * {@link BloomType#ROW_BINARY_FUSE} counterpart of {@link CompoundBloomFilter} and only provides
+ * reading capabilities.
+ */
+@InterfaceAudience.Private
+public class CompoundBinaryFuseFilter extends CompoundBloomFilterBase implements BloomFilter {
+
+  /** Used to load chunks on demand */
+  private final HFile.Reader reader;
+  private final BloomFilterMetrics metrics;
+
+  private final HFileBlockIndex.BlockIndexReader index;
+
+  private final int fingerprintBits;
+  private final Hash hash;
+
+  /**
+   * De-serialization for binary fuse filter metadata. Must be consistent with what
+   * {@link CompoundBinaryFuseFilterWriter} does.
+   * @param meta    serialized filter metadata without any magic blocks
+   * @param reader  reader for hfile
+   * @param metrics for collecting bloom filter metrics. may be null
+   */
+  public CompoundBinaryFuseFilter(DataInput meta, HFile.Reader reader, BloomFilterMetrics metrics)
+    throws IOException {
+    this.reader = reader;
+    this.metrics = metrics;
+
+    totalByteSize = meta.readLong();
+    fingerprintBits = meta.readInt();
+    hashType = meta.readInt();
+    totalKeyCount = meta.readLong();
+    totalMaxKeys = meta.readLong();
+    numChunks = meta.readInt();
+    errorRate = (float) Math.pow(2, -fingerprintBits);
+
+    if (fingerprintBits < 1 || fingerprintBits > BinaryFuseFilterChunk.MAX_FINGERPRINT_BITS) {
+      throw new IllegalArgumentException("Invalid fingerprint bits: " + fingerprintBits);
+    }
+    hash = Hash.getInstance(hashType);
+    if (hash == null) {
+      throw new IllegalArgumentException("Invalid hash type: " + hashType);
+    }
+    index = new HFileBlockIndex.ByteArrayKeyBlockIndexReader(1);
+    index.readRootIndex(meta, numChunks);
+  }
+
+  @Override
+  public boolean contains(byte[] key, int keyOffset, int keyLength, ByteBuff bloom) {
+    int block = index.rootBlockContainingKey(key, keyOffset, keyLength);
+    boolean result = block >= 0
+      && containsInternal(block, BinaryFuseFilterChunk.hash64(hash,
+        new ByteArrayHashKey(key, keyOffset, keyLength)));
+    if (metrics != null) {
+      metrics.incrementRequests(result);
+    }
+    return result;
+  }
+
+  @Override
+  public boolean contains(Cell keyCell, ByteBuff bloom, BloomType type) {
+    // Only row keys are added to binary fuse filters
+    byte[] row = CellUtil.cloneRow(keyCell);
+    return contains(row, 0, row.length, bloom);
+  }
+
+  private boolean containsInternal(int block, long keyHash) {
+    HFileBlock chunkBlock;
+    try {
+      // We cache the block and use a positional read.
+      chunkBlock = reader.readBlock(index.getRootBlockOffset(block),
+        index.getRootBlockDataSize(block), true, true, false, true, BlockType.BLOOM_CHUNK, null);
+    } catch (IOException ex) {
+      // The filter is broken, turn it off.
+      throw new IllegalArgumentException("Failed to load binary fuse filter block", ex);
+    }
+    try {
+      return BinaryFuseFilterChunk.contains(keyHash, chunkBlock.getBufferReadOnly(),
+        chunkBlock.headerSize(), fingerprintBits);
+    } finally {
+      // After the use, should release the block to deallocate byte buffers.
+      chunkBlock.release();
+    }
+  }
+
+  @Override
+  public boolean supportsAutoLoading() {
+    return true;
+  }
+
+  public int getNumChunks() {
+    return numChunks;
+  }
+
+  public int getFingerprintBits() {
+    return fingerprintBits;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(BloomFilterUtil.formatStats(this));
+    sb.append(BloomFilterUtil.STATS_RECORD_SEP + "Number of chunks: " + numChunks);
+    sb.append(BloomFilterUtil.STATS_RECORD_SEP + "Fingerprint bits: " + fingerprintBits);
+    sb.append(BloomFilterUtil.STATS_RECORD_SEP + "Comparator: "
+      + Bytes.BYTES_RAWCOMPARATOR.getClass().getSimpleName());
+    return sb.toString();
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.util.BinaryFuseFilterChunk;
+import org.apache.hadoop.hbase.util.BloomFilterWriter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.Writable;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes a row filter made of {@link BinaryFuseFilterChunk}s to the data section of an
+ * {@link org.apache.hadoop.hbase.io.hfile.HFile}, to be read by {@link CompoundBinaryFuseFilter}.
+ * Chunks are written as inline {@link BlockType#BLOOM_CHUNK} blocks and indexed by their first row,
+ * exactly like the chunks of a {@link CompoundBloomFilterWriter}.
+ */
+@InterfaceAudience.Private
+public class CompoundBinaryFuseFilterWriter extends CompoundBloomFilterBase
+  implements BloomFilterWriter, InlineBlockWriter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CompoundBinaryFuseFilterWriter.class);
+
+  /** The current chunk being written to */
+  private BinaryFuseFilterChunk chunk;
+
+  /** Number of keys that fit into a chunk of the configured size */
+  private final int maxKeysPerChunk;
+
+  /** Bits per fingerprint, derived from the target error rate */
+  private final int fingerprintBits;
+
+  /** The prev Cell that was processed */
+  private Cell prevCell;
+
+  /** A filter chunk enqueued for writing */
+  private static class ReadyChunk {
+    int chunkId;
+    byte[] firstKey;
+    BinaryFuseFilterChunk chunk;
+  }
+
+  private Queue<ReadyChunk> readyChunks = new ArrayDeque<>();
+
+  /** The first key in the current chunk. */
+  private byte[] firstKeyInChunk = null;
+
+  private HFileBlockIndex.BlockIndexWriter bloomBlockIndexWriter =
+    new HFileBlockIndex.BlockIndexWriter();
+
+  /** Whether to cache-on-write filter chunks */
+  private boolean cacheOnWrite;
+
+  /**
+   * @param chunkByteSizeHint the target size of individual chunks in bytes
+   * @param errorRate         target false positive rate
+   * @param hashType          hash function type to use
+   * @param cacheOnWrite      whether to cache chunks on write
+   */
+  public CompoundBinaryFuseFilterWriter(int chunkByteSizeHint, float errorRate, int hashType,
+    boolean cacheOnWrite) {
+    this.errorRate = errorRate;
+    this.hashType = hashType;
+    this.cacheOnWrite = cacheOnWrite;
+    this.fingerprintBits = BinaryFuseFilterChunk.computeFingerprintBits(errorRate);
+    this.maxKeysPerChunk = BinaryFuseFilterChunk.computeMaxKeys(chunkByteSizeHint, fingerprintBits);
+  }
+
+  @Override
+  public boolean shouldWriteBlock(boolean closing) {
+    enqueueReadyChunk(closing);
+    return !readyChunks.isEmpty();
+  }
+
+  /**
+   * Build and enqueue the current chunk if it is ready to be written out.
+   * @param closing true if we are closing the file, so we do not expect new keys to show up
+   */
+  private void enqueueReadyChunk(boolean closing) {
+    if (chunk == null || (chunk.getKeyCount() < chunk.getMaxKeys() && !closing)) {
+      return;
+    }
+
+    if (firstKeyInChunk == null) {
+      throw new NullPointerException(
+        "Trying to enqueue a chunk, " + "but first key is null: closing=" + closing + ", keyCount="
+          + chunk.getKeyCount() + ", maxKeys=" + chunk.getMaxKeys());
+    }
+
+    chunk.build();
+
+    ReadyChunk readyChunk = new ReadyChunk();
+    readyChunk.chunkId = numChunks - 1;
+    readyChunk.chunk = chunk;
+    readyChunk.firstKey = firstKeyInChunk;
+    readyChunks.add(readyChunk);
+
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("Built binary fuse chunk #" + readyChunk.chunkId + " with " + chunk.getKeyCount()
+        + " keys in " + chunk.getByteSize() + " bytes");
+    }
+
+    totalMaxKeys += chunk.getMaxKeys();
+    totalByteSize += chunk.getByteSize();
+
+    firstKeyInChunk = null;
+    chunk = null;
+  }
+
+  @Override
+  public void append(Cell cell) throws IOException {
+    Objects.requireNonNull(cell);
+
+    enqueueReadyChunk(false);
+
+    if (chunk == null) {
+      if (firstKeyInChunk != null) {
+        throw new IllegalStateException(
+          "First key in chunk already set: " + Bytes.toStringBinary(firstKeyInChunk));
+      }
+      // This will be done only once per chunk
+      firstKeyInChunk = CellUtil.copyRow(cell);
+      chunk = new BinaryFuseFilterChunk(maxKeysPerChunk, fingerprintBits, hashType);
+      ++numChunks;
+    }
+
+    chunk.add(cell);
+    this.prevCell = cell;
+    ++totalKeyCount;
+  }
+
+  @Override
+  public void beforeShipped() throws IOException {
+    if (this.prevCell != null) {
+      this.prevCell = KeyValueUtil.toNewKeyCell(this.prevCell);
+    }
+  }
+
+  @Override
+  public Cell getPrevCell() {
+    return this.prevCell;
+  }
+
+  @Override
+  public void writeInlineBlock(DataOutput out) throws IOException {
+    // We don't remove the chunk from the queue here, because we might need it
+    // again for cache-on-write.
+    readyChunks.peek().chunk.writeChunk(out);
+  }
+
+  @Override
+  public void blockWritten(long offset, int onDiskSize, int uncompressedSize) {
+    ReadyChunk readyChunk = readyChunks.remove();
+    bloomBlockIndexWriter.addEntry(readyChunk.firstKey, offset, onDiskSize);
+  }
+
+  @Override
+  public BlockType getInlineBlockType() {
+    return BlockType.BLOOM_CHUNK;
+  }
+
+  private class MetaWriter implements Writable {
+    protected MetaWriter() {
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      throw new IOException("Cant read with this class.");
+    }
+
+    /**
+     * This has to be consistent with how
+     * {@link CompoundBinaryFuseFilter#CompoundBinaryFuseFilter(DataInput, HFile.Reader, BloomFilterMetrics)}
+     * reads fields.
+     */
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeInt(BINARY_FUSE_VERSION);
+
+      out.writeLong(getByteSize());
+      out.writeInt(fingerprintBits);
+      out.writeInt(hashType);
+      out.writeLong(getKeyCount());
+      out.writeLong(getMaxKeys());
+      out.writeInt(numChunks);
+
+      // Write a single-level index without compression or block header.
+      bloomBlockIndexWriter.writeSingleLevelIndex(out, "Binary fuse filter");
+    }
+  }
+
+  @Override
+  public void compactBloom() {
+  }
+
+  @Override
+  public Writable getMetaWriter() {
+    return new MetaWriter();
+  }
+
+  @Override
+  public Writable getDataWriter() {
+    return null;
+  }
+
+  @Override
+  public boolean getCacheOnWrite() {
+    return cacheOnWrite;
+  }
+}
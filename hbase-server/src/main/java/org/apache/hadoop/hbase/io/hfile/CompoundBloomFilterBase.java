@@ -35,6 +35,12 @@ public class CompoundBloomFilterBase implements BloomFilterBase {
    */
   public static final int VERSION = 3;
 
+  /**
+   * The version of compound filters made of binary fuse chunks, see
+   * {@link CompoundBinaryFuseFilter}.
+   */
+  public static final int BINARY_FUSE_VERSION = 4;
+
   /** Target error rate for configuring the filter and for information */
   protected float errorRate;
 
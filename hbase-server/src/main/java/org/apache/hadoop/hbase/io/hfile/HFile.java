@@ -399,6 +399,13 @@ public final class HFile {
 
     Optional<Cell> midKey() throws IOException;
 
+    /**
+     * Returns at most {@code count} keys which divide the data blocks of this file into ranges of
+     * about the same size, in ascending order. The keys are taken from the root level of the data
+     * block index, so no block is read. Small files may return fewer keys, or none at all.
+     */
+    List<Cell> getSplitKeys(int count);
+
     long length();
 
     long getEntries();
@@ -627,6 +627,15 @@ public class HFileBlock implements Cacheable {
    * encoded structure. Internal structures are shared between instances where applicable.
    */
   HFileBlock unpack(HFileContext fileContext, FSReader reader) throws IOException {
+    return unpack(fileContext, reader, allocator);
+  }
+
+  /**
+   * Retrieves the decompressed/decrypted view of this block, in a buffer from the given allocator.
+   * @see #unpack(HFileContext, FSReader)
+   */
+  HFileBlock unpack(HFileContext fileContext, FSReader reader, ByteBuffAllocator allocator)
+    throws IOException {
     if (!fileContext.isCompressedOrEncrypted()) {
       // TODO: cannot use our own fileContext here because HFileBlock(ByteBuffer, boolean),
       // which is used for block serialization to L2 cache, does not preserve encoding and
@@ -634,7 +643,8 @@ public class HFileBlock implements Cacheable {
       return this;
     }
 
-    ByteBuff newBuf = allocateBufferForUnpacking(); // allocates space for the decompressed block
+    // allocates space for the decompressed block
+    ByteBuff newBuf = allocateBufferForUnpacking(allocator);
     HFileBlock unpacked = shallowClone(this, newBuf);
 
     boolean succ = false;
@@ -665,7 +675,7 @@ public class HFileBlock implements Cacheable {
    * Always allocates a new buffer of the correct size. Copies header bytes from the existing
    * buffer. Does not change header fields. Reserve room to keep checksum bytes too.
    */
-  private ByteBuff allocateBufferForUnpacking() {
+  private ByteBuff allocateBufferForUnpacking(ByteBuffAllocator allocator) {
     int headerSize = headerSize();
     int capacityNeeded = headerSize + uncompressedSizeWithoutHeader;
 
@@ -2167,4 +2177,15 @@ public class HFileBlock implements Cacheable {
       .wrap(ByteBuffer.wrap(blk.bufWithoutChecksum.toBytes(0, blk.bufWithoutChecksum.limit())));
     return createBuilder(blk, deepCloned).build();
   }
+
+  /**
+   * Copies the block into a buffer allocated from the given allocator, given back to it once the
+   * copy is released.
+   */
+  public static HFileBlock deepClone(HFileBlock blk, ByteBuffAllocator alloc) {
+    int length = blk.bufWithoutChecksum.limit();
+    ByteBuff copy = alloc.allocate(length);
+    copy.put(0, blk.bufWithoutChecksum, 0, length);
+    return createBuilder(blk, copy).build();
+  }
 }
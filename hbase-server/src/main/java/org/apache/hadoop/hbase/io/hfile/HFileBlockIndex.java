@@ -1071,7 +1071,7 @@ public class HFileBlockIndex {
           cacheConf.getBlockCache().ifPresent(cache -> {
             HFileBlock blockForCaching = blockWriter.getBlockForCaching(cacheConf);
             cache.cacheBlock(new BlockCacheKey(nameForCaching, rootLevelIndexPos, true,
-              blockForCaching.getBlockType()), blockForCaching);
+              blockForCaching.getBlockType()), blockForCaching, false, false, true);
           });
         }
       }
@@ -1163,7 +1163,7 @@ public class HFileBlockIndex {
           HFileBlock blockForCaching = blockWriter.getBlockForCaching(cacheConf);
           cache.cacheBlock(
             new BlockCacheKey(nameForCaching, beginOffset, true, blockForCaching.getBlockType()),
-            blockForCaching);
+            blockForCaching, false, false, true);
         });
       }
 
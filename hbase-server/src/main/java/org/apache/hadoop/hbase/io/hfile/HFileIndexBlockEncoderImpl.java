@@ -30,12 +30,27 @@ import org.apache.yetus.audience.InterfaceAudience;
 public class HFileIndexBlockEncoderImpl implements HFileIndexBlockEncoder {
   private final IndexBlockEncoding indexBlockEncoding;
 
+  /** The encoder doing the actual work for the configured encoding */
+  private final HFileIndexBlockEncoder delegate;
+
   /**
    * Do index block encoding with specified options.
    * @param encoding What kind of data block encoding will be used.
    */
   public HFileIndexBlockEncoderImpl(IndexBlockEncoding encoding) {
     this.indexBlockEncoding = encoding != null ? encoding : IndexBlockEncoding.NONE;
+    this.delegate = createDelegate(this.indexBlockEncoding);
+  }
+
+  private static HFileIndexBlockEncoder createDelegate(IndexBlockEncoding encoding) {
+    switch (encoding) {
+      case PREFIX_TREE:
+        return PrefixTreeIndexBlockEncoder.INSTANCE;
+      case NONE:
+        return NoOpIndexBlockEncoder.INSTANCE;
+      default:
+        throw new IllegalArgumentException("Unsupported index block encoding " + encoding);
+    }
   }
 
   public static HFileIndexBlockEncoder createFromFileInfo(HFileInfo fileInfo) throws IOException {
@@ -70,12 +85,12 @@ public class HFileIndexBlockEncoderImpl implements HFileIndexBlockEncoder {
   @Override
   public void encode(BlockIndexChunk blockIndexChunk, boolean rootIndexBlock, DataOutput out)
     throws IOException {
-    // TODO
+    delegate.encode(blockIndexChunk, rootIndexBlock, out);
   }
 
   @Override
   public EncodedSeeker createSeeker() {
-    return null;
+    return delegate.createSeeker();
   }
 
   @Override
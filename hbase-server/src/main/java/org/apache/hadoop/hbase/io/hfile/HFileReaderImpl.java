@@ -26,6 +26,7 @@ import java.io.DataInput;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.IntConsumer;
 import org.apache.hadoop.conf.Configurable;
@@ -47,6 +48,7 @@ import org.apache.hadoop.hbase.io.compress.Compression;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoder;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.io.encoding.HFileBlockDecodingContext;
+import org.apache.hadoop.hbase.ipc.ResponseBlockPins;
 import org.apache.hadoop.hbase.nio.ByteBuff;
 import org.apache.hadoop.hbase.regionserver.KeyValueScanner;
 import org.apache.hadoop.hbase.regionserver.StoreFileInfo;
@@ -342,6 +344,8 @@ public abstract class HFileReaderImpl implements HFile.Reader, Configurable {
     private boolean providedCurrentBlockSize = false;
     // Previous blocks that were used in the course of the read
     protected final ArrayList<HFileBlock> prevBlocks = new ArrayList<>();
+    // Reads ahead the next blocks of long scans, null if this scanner does not read ahead.
+    private ScanReadahead readahead;
 
     public HFileScannerImpl(final HFile.Reader reader, final boolean cacheBlocks,
       final boolean pread, final boolean isCompaction) {
@@ -371,6 +375,21 @@ public abstract class HFileReaderImpl implements HFile.Reader, Configurable {
     }
 
     private void returnBlocks(boolean returnAll) {
+      if (ResponseBlockPins.isPinning()) {
+        // The response may reference the cells of these blocks, it releases them once written.
+        // That includes the current block, which we keep using, so it gets one more reference.
+        this.prevBlocks.forEach(ResponseBlockPins::pin);
+        this.prevBlocks.clear();
+        if (this.curBlock != null) {
+          if (returnAll) {
+            ResponseBlockPins.pin(this.curBlock);
+            this.curBlock = null;
+          } else {
+            ResponseBlockPins.pin(this.curBlock.retain());
+          }
+        }
+        return;
+      }
       this.prevBlocks.forEach(HFileBlock::release);
       this.prevBlocks.clear();
       if (returnAll && this.curBlock != null) {
@@ -417,6 +436,9 @@ public abstract class HFileReaderImpl implements HFile.Reader, Configurable {
         // For seek + pread stream socket should be closed when the scanner is closed. HBASE-9393
         reader.unbufferStream();
       }
+      if (readahead != null) {
+        readahead.close();
+      }
       this.returnBlocks(true);
     }
 
@@ -752,11 +774,17 @@ public abstract class HFileReaderImpl implements HFile.Reader, Configurable {
           releaseIfNotCurBlock(block);
           throw new IOException("Invalid block offset: " + block + ", path=" + reader.getPath());
         }
+        long nextOffset = block.getOffset() + block.getOnDiskSizeWithHeader();
+        if (readahead != null) {
+          readahead.beforeRead(nextOffset);
+        }
         // We are reading the next block without block type validation, because
         // it might turn out to be a non-data block.
-        block = reader.readBlock(block.getOffset() + block.getOnDiskSizeWithHeader(),
-          block.getNextBlockOnDiskSize(), cacheBlocks, pread, isCompaction, true, null,
-          getEffectiveDataBlockEncoding());
+        block = reader.readBlock(nextOffset, block.getNextBlockOnDiskSize(), cacheBlocks, pread,
+          isCompaction, true, null, getEffectiveDataBlockEncoding());
+        if (readahead != null && block != null) {
+          readahead.afterRead(block);
+        }
         if (block != null && !block.getBlockType().isData()) {
           // Whatever block we read we will be returning it unless
           // it is a datablock. Just in case the blocks are non data blocks
@@ -1095,15 +1123,30 @@ public abstract class HFileReaderImpl implements HFile.Reader, Configurable {
     // Check cache for block. If found return.
     BlockCache cache = cacheConf.getBlockCache().orElse(null);
     if (cache != null) {
-      HFileBlock cachedBlock = (HFileBlock) cache.getBlock(cacheKey, cacheBlock, useLock,
-        updateCacheMetrics, expectedBlockType);
+      // A block kept decompressed by the cache needs no unpacking
+      HFileBlock cachedBlock =
+        cache.getDecompressedBlock(cacheKey, cacheBlock, updateCacheMetrics);
+      boolean decompressed = cachedBlock != null;
+      if (!decompressed) {
+        cachedBlock = (HFileBlock) cache.getBlock(cacheKey, cacheBlock, useLock,
+          updateCacheMetrics, expectedBlockType);
+      }
       if (cachedBlock != null) {
-        if (cacheConf.shouldCacheCompressed(cachedBlock.getBlockType().getCategory())) {
+        if (
+          !decompressed && cacheConf.shouldCacheCompressed(cachedBlock.getBlockType().getCategory())
+        ) {
           HFileBlock compressedBlock = cachedBlock;
-          cachedBlock = compressedBlock.unpack(hfileContext, fsBlockReader);
+          cachedBlock = compressedBlock.unpack(hfileContext, fsBlockReader,
+            cacheConf.getByteBuffAllocator());
           // In case of compressed block after unpacking we can release the compressed block
           if (compressedBlock != cachedBlock) {
             compressedBlock.release();
+            try {
+              cache.cacheDecompressedBlock(cacheKey, cachedBlock);
+            } catch (RuntimeException e) {
+              // keeping the block decompressed is best effort, the read goes on
+              LOG.warn("Failed to cache the decompressed block {}", cacheKey, e);
+            }
           }
         }
         try {
@@ -1354,7 +1397,8 @@ public abstract class HFileReaderImpl implements HFile.Reader, Configurable {
             LOG.debug("Skipping decompression of block {} in prefetch", cacheKey);
             // Cache the block if necessary
             if (cacheable && cacheConf.shouldCacheBlockOnRead(category)) {
-              cache.cacheBlock(cacheKey, hfileBlock, cacheConf.isInMemory(), cacheOnly);
+              cache.cacheBlock(cacheKey, hfileBlock, cacheConf.isInMemory(), cacheOnly,
+                cacheOnly);
             }
           });
 
@@ -1369,7 +1413,7 @@ public abstract class HFileReaderImpl implements HFile.Reader, Configurable {
           if (cacheable && cacheConf.shouldCacheBlockOnRead(category)) {
             // Using the wait on cache during compaction and prefetching.
             cache.cacheBlock(cacheKey, cacheCompressed ? hfileBlock : unpacked,
-              cacheConf.isInMemory(), cacheOnly);
+              cacheConf.isInMemory(), cacheOnly, cacheOnly);
           }
         });
         if (unpacked != hfileBlock) {
@@ -1437,6 +1481,22 @@ public abstract class HFileReaderImpl implements HFile.Reader, Configurable {
     return Optional.ofNullable(dataBlockIndexReader.midkey(this));
   }
 
+  @Override
+  public List<Cell> getSplitKeys(int count) {
+    int rootCount = dataBlockIndexReader.getRootBlockCount();
+    List<Cell> splitKeys = new ArrayList<>(Math.min(count, rootCount));
+    int prevIndex = 0;
+    for (int i = 1; i <= count; i++) {
+      // The first root entry starts the file, so it can not split it.
+      int index = (int) ((long) i * rootCount / (count + 1));
+      if (index > prevIndex) {
+        splitKeys.add(dataBlockIndexReader.getRootBlockKey(index));
+        prevIndex = index;
+      }
+    }
+    return splitKeys;
+  }
+
   @Override
   public void close() throws IOException {
     close(cacheConf.shouldEvictOnClose());
@@ -1677,10 +1737,11 @@ public abstract class HFileReaderImpl implements HFile.Reader, Configurable {
   @Override
   public HFileScanner getScanner(Configuration conf, boolean cacheBlocks, final boolean pread,
     final boolean isCompaction) {
-    if (dataBlockEncoder.useEncodedScanner()) {
-      return new EncodedScanner(this, cacheBlocks, pread, isCompaction, this.hfileContext, conf);
-    }
-    return new HFileScannerImpl(this, cacheBlocks, pread, isCompaction);
+    HFileScannerImpl scanner = dataBlockEncoder.useEncodedScanner()
+      ? new EncodedScanner(this, cacheBlocks, pread, isCompaction, this.hfileContext, conf)
+      : new HFileScannerImpl(this, cacheBlocks, pread, isCompaction);
+    scanner.readahead = ScanReadahead.create(this, conf, cacheBlocks, isCompaction);
+    return scanner;
   }
 
   public int getMajorVersion() {
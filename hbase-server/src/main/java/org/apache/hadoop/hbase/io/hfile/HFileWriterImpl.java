@@ -183,6 +183,15 @@ public class HFileWriterImpl implements HFile.Writer {
       this.blockEncoder = NoOpDataBlockEncoder.INSTANCE;
     }
     IndexBlockEncoding indexBlockEncoding = hFileContext.getIndexBlockEncoding();
+    if (
+      indexBlockEncoding == IndexBlockEncoding.PREFIX_TREE
+        && !PrefixTreeIndexBlockEncoder.isSupported(hFileContext.getCellComparator())
+    ) {
+      // The prefix tree relies on rows sorting lexicographically, which is not true for meta.
+      LOG.debug("Index block encoding {} is not supported by {}, falling back to {}",
+        indexBlockEncoding, hFileContext.getCellComparator(), IndexBlockEncoding.NONE);
+      indexBlockEncoding = IndexBlockEncoding.NONE;
+    }
     if (indexBlockEncoding != IndexBlockEncoding.NONE) {
       this.indexBlockEncoder = new HFileIndexBlockEncoderImpl(indexBlockEncoding);
     } else {
@@ -557,7 +566,7 @@ public class HFileWriterImpl implements HFile.Writer {
       HFileBlock cacheFormatBlock = blockWriter.getBlockForCaching(cacheConf);
       try {
         cache.cacheBlock(new BlockCacheKey(name, offset, true, cacheFormatBlock.getBlockType()),
-          cacheFormatBlock, cacheConf.isInMemory(), true);
+          cacheFormatBlock, cacheConf.isInMemory(), true, true);
       } finally {
         // refCnt will auto increase when block add to Cache, see RAMCache#putIfAbsent
         cacheFormatBlock.release();
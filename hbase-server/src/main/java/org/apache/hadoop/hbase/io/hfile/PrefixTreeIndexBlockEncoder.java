@@ -0,0 +1,865 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.apache.hadoop.hbase.io.hfile.HFileBlockIndex.MID_KEY_METADATA_SIZE;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.hadoop.hbase.ByteBufferExtendedCell;
+import org.apache.hadoop.hbase.ByteBufferKeyOnlyKeyValue;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.MetaCellComparator;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.encoding.IndexBlockEncoding;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.nio.SingleByteBuff;
+import org.apache.hadoop.hbase.regionserver.KeyValueScanner;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.hbase.util.ObjectIntPair;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Encodes index blocks as a prefix tree (a radix trie) over the row part of the index keys.
+ * <p>
+ * Index keys are serialized {@link KeyValue} keys. The rows of all entries in a chunk are stored
+ * once in the trie, so long rows sharing a common prefix, which is typical of composite row keys,
+ * only pay for the shared bytes once. The remainder of each key (family, qualifier, timestamp and
+ * type) is stored in a de-duplicated suffix section. The same layout is used for root, intermediate
+ * and leaf index blocks:
+ *
+ * <pre>
+ * int   numEntries
+ * byte  entry index width, in bytes, of entry ordinals stored in the trie
+ * byte  offset width, in bytes, of offsets into the trie and suffix sections
+ * int   trie section size
+ * int   suffix section size
+ * numEntries * (long block offset, int on-disk size)
+ * numEntries * (offset width) suffix offsets
+ * trie section
+ * suffix section, each unique suffix stored as (int length, bytes)
+ * </pre>
+ *
+ * Every trie node is laid out as
+ *
+ * <pre>
+ * (entry index width) first entry ordinal in the subtree
+ * (entry index width) last entry ordinal in the subtree
+ * (entry index width) number of entries whose row ends at this node
+ * short label length, label bytes
+ * short number of children, children's first label bytes, (offset width) children's offsets
+ * </pre>
+ *
+ * Children are sorted by their first label byte and nodes are laid out in pre-order, so entry
+ * ordinals follow the depth-first order of the trie. That order is the same as the order of the
+ * entries only when rows are compared lexicographically, which is why the meta table, whose
+ * comparator orders rows differently, always falls back to {@link IndexBlockEncoding#NONE}.
+ * <p>
+ * Lookups walk the trie directly over the cached block buffer, so no keys are materialized while
+ * searching. Suffixes are written with an empty row so that entries with the same row as the
+ * search key can be compared through a flyweight {@link ByteBufferKeyOnlyKeyValue}.
+ */
+@InterfaceAudience.Private
+public class PrefixTreeIndexBlockEncoder implements HFileIndexBlockEncoder {
+
+  public static final PrefixTreeIndexBlockEncoder INSTANCE = new PrefixTreeIndexBlockEncoder();
+
+  /** numEntries, entry index width, offset width, trie size and suffix size */
+  static final int HEADER_SIZE = 3 * Bytes.SIZEOF_INT + 2 * Bytes.SIZEOF_BYTE;
+
+  /** Block offset and on-disk size of every entry */
+  private static final int ENTRY_FIXED_SIZE = Bytes.SIZEOF_LONG + Bytes.SIZEOF_INT;
+
+  /** Cannot be instantiated. Use {@link #INSTANCE} instead. */
+  private PrefixTreeIndexBlockEncoder() {
+  }
+
+  /**
+   * Returns true if index blocks of files sorted by the given comparator can be encoded as a
+   * prefix tree, i.e. the comparator orders rows lexicographically.
+   */
+  public static boolean isSupported(CellComparator comparator) {
+    return comparator != null && !(comparator instanceof MetaCellComparator);
+  }
+
+  @Override
+  public void saveMetadata(HFile.Writer writer) throws IOException {
+    writer.appendFileInfo(INDEX_BLOCK_ENCODING, getIndexBlockEncoding().getNameInBytes());
+  }
+
+  @Override
+  public void encode(BlockIndexChunk blockIndexChunk, boolean rootIndexBlock, DataOutput out)
+    throws IOException {
+    int numEntries = blockIndexChunk.getNumEntries();
+    TrieNode root = new TrieNode(HConstants.EMPTY_BYTE_ARRAY, 0);
+    List<byte[]> suffixes = new ArrayList<>(numEntries);
+    byte[] prevRow = null;
+    for (int i = 0; i < numEntries; i++) {
+      byte[] key = blockIndexChunk.getBlockKey(i);
+      int rowLength = Bytes.toShort(key, 0);
+      byte[] row = new byte[rowLength];
+      System.arraycopy(key, Bytes.SIZEOF_SHORT, row, 0, rowLength);
+      if (prevRow != null && Bytes.compareTo(prevRow, row) > 0) {
+        throw new IOException("Index keys are not sorted lexicographically by row: "
+          + Bytes.toStringBinary(prevRow) + " is after " + Bytes.toStringBinary(row));
+      }
+      root.insert(row, 0, i);
+      prevRow = row;
+
+      // The suffix keeps a zero row length so that it can be read back as a key with an empty row.
+      int suffixLength = key.length - Bytes.SIZEOF_SHORT - rowLength;
+      byte[] suffix = new byte[Bytes.SIZEOF_SHORT + suffixLength];
+      System.arraycopy(key, Bytes.SIZEOF_SHORT + rowLength, suffix, Bytes.SIZEOF_SHORT,
+        suffixLength);
+      suffixes.add(suffix);
+    }
+
+    // De-duplicate suffixes. Index keys are often shortened fake keys which only differ in row.
+    Map<ByteBuffer, Integer> uniqueSuffixes = new HashMap<>();
+    int[] suffixOffsets = new int[numEntries];
+    int suffixSize = 0;
+    List<byte[]> suffixSection = new ArrayList<>();
+    for (int i = 0; i < numEntries; i++) {
+      byte[] suffix = suffixes.get(i);
+      Integer offset = uniqueSuffixes.get(ByteBuffer.wrap(suffix));
+      if (offset == null) {
+        offset = suffixSize;
+        uniqueSuffixes.put(ByteBuffer.wrap(suffix), offset);
+        suffixSection.add(suffix);
+        suffixSize += Bytes.SIZEOF_INT + suffix.length;
+      }
+      suffixOffsets[i] = offset;
+    }
+
+    int entryIndexWidth = getWidth(numEntries);
+    int offsetWidth = 1;
+    int trieSize = root.assignOffsets(0, entryIndexWidth, offsetWidth);
+    while (getWidth(Math.max(trieSize, suffixSize)) > offsetWidth) {
+      offsetWidth++;
+      trieSize = root.assignOffsets(0, entryIndexWidth, offsetWidth);
+    }
+
+    out.writeInt(numEntries);
+    out.writeByte(entryIndexWidth);
+    out.writeByte(offsetWidth);
+    out.writeInt(numEntries == 0 ? 0 : trieSize);
+    out.writeInt(suffixSize);
+    for (int i = 0; i < numEntries; i++) {
+      out.writeLong(blockIndexChunk.getBlockOffset(i));
+      out.writeInt(blockIndexChunk.getOnDiskDataSize(i));
+    }
+    for (int i = 0; i < numEntries; i++) {
+      writeFixedWidth(out, suffixOffsets[i], offsetWidth);
+    }
+    if (numEntries > 0) {
+      root.write(out, entryIndexWidth, offsetWidth);
+    }
+    for (byte[] suffix : suffixSection) {
+      out.writeInt(suffix.length);
+      out.write(suffix);
+    }
+  }
+
+  @Override
+  public IndexBlockEncoding getIndexBlockEncoding() {
+    return IndexBlockEncoding.PREFIX_TREE;
+  }
+
+  @Override
+  public EncodedSeeker createSeeker() {
+    return new PrefixTreeEncodedSeeker();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName();
+  }
+
+  /** Returns the number of bytes needed to store values from 0 to {@code maxValue} inclusive */
+  static int getWidth(int maxValue) {
+    if (maxValue < (1 << 8)) {
+      return 1;
+    } else if (maxValue < (1 << 16)) {
+      return 2;
+    } else if (maxValue < (1 << 24)) {
+      return 3;
+    }
+    return 4;
+  }
+
+  private static void writeFixedWidth(DataOutput out, int value, int width) throws IOException {
+    for (int shift = (width - 1) * Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+      out.writeByte(value >>> shift);
+    }
+  }
+
+  private static int readFixedWidth(ByteBuff buf, int offset, int width) {
+    int value = 0;
+    for (int i = 0; i < width; i++) {
+      value = (value << Byte.SIZE) | (buf.get(offset + i) & 0xff);
+    }
+    return value;
+  }
+
+  /**
+   * In-memory trie node used while encoding. Rows are inserted in sorted order, so only the last
+   * child of a node can share a prefix with the row being inserted.
+   */
+  private static final class TrieNode {
+    private byte[] label;
+    private final int firstEntry;
+    private int lastEntry;
+    private int numEntriesAtNode;
+    private final List<TrieNode> children = new ArrayList<>(2);
+    private int offset;
+
+    TrieNode(byte[] label, int firstEntry) {
+      this.label = label;
+      this.firstEntry = firstEntry;
+      this.lastEntry = firstEntry;
+    }
+
+    void insert(byte[] row, int depth, int entry) throws IOException {
+      lastEntry = entry;
+      if (depth == row.length) {
+        if (!children.isEmpty()) {
+          throw new IOException("Index keys are not sorted, row " + Bytes.toStringBinary(row)
+            + " added after its extensions");
+        }
+        numEntriesAtNode++;
+        return;
+      }
+      TrieNode last = children.isEmpty() ? null : children.get(children.size() - 1);
+      if (last == null || last.label[0] != row[depth]) {
+        TrieNode leaf = new TrieNode(Bytes.copy(row, depth, row.length - depth), entry);
+        leaf.numEntriesAtNode = 1;
+        children.add(leaf);
+        return;
+      }
+      int common = Bytes.findCommonPrefix(last.label, row, last.label.length, row.length - depth,
+        0, depth);
+      if (common < last.label.length) {
+        // Split the last child at the end of the common prefix.
+        TrieNode branch = new TrieNode(Bytes.copy(last.label, 0, common), last.firstEntry);
+        branch.lastEntry = last.lastEntry;
+        last.label = Bytes.copy(last.label, common, last.label.length - common);
+        branch.children.add(last);
+        children.set(children.size() - 1, branch);
+        last = branch;
+      }
+      last.insert(row, depth + common, entry);
+    }
+
+    /** Assigns pre-order offsets to this subtree and returns the offset after its last node. */
+    int assignOffsets(int offset, int entryIndexWidth, int offsetWidth) {
+      this.offset = offset;
+      int next = offset + 3 * entryIndexWidth + Bytes.SIZEOF_SHORT + label.length
+        + Bytes.SIZEOF_SHORT + children.size() * (1 + offsetWidth);
+      for (TrieNode child : children) {
+        next = child.assignOffsets(next, entryIndexWidth, offsetWidth);
+      }
+      return next;
+    }
+
+    void write(DataOutput out, int entryIndexWidth, int offsetWidth) throws IOException {
+      writeFixedWidth(out, firstEntry, entryIndexWidth);
+      writeFixedWidth(out, lastEntry, entryIndexWidth);
+      writeFixedWidth(out, numEntriesAtNode, entryIndexWidth);
+      out.writeShort(label.length);
+      out.write(label);
+      out.writeShort(children.size());
+      for (TrieNode child : children) {
+        out.writeByte(child.label[0]);
+      }
+      for (TrieNode child : children) {
+        writeFixedWidth(out, child.offset, offsetWidth);
+      }
+      for (TrieNode child : children) {
+        child.write(out, entryIndexWidth, offsetWidth);
+      }
+    }
+  }
+
+  /**
+   * Read-only view over a prefix tree encoded index block. All accessors work directly on the
+   * given buffer using absolute offsets, so a view is cheap and safe to create per lookup.
+   */
+  static final class PrefixTreeBlock {
+    private final ByteBuff buf;
+    private final int numEntries;
+    private final int entryIndexWidth;
+    private final int offsetWidth;
+    private final int suffixOffsetsStart;
+    private final int trieStart;
+    private final int suffixStart;
+    private final int encodedLength;
+
+    PrefixTreeBlock(ByteBuff buf) {
+      this.buf = buf;
+      this.numEntries = buf.getInt(0);
+      this.entryIndexWidth = buf.get(Bytes.SIZEOF_INT);
+      this.offsetWidth = buf.get(Bytes.SIZEOF_INT + 1);
+      int trieSize = buf.getInt(Bytes.SIZEOF_INT + 2);
+      int suffixSize = buf.getInt(2 * Bytes.SIZEOF_INT + 2);
+      this.suffixOffsetsStart = HEADER_SIZE + numEntries * ENTRY_FIXED_SIZE;
+      this.trieStart = suffixOffsetsStart + numEntries * offsetWidth;
+      this.suffixStart = trieStart + trieSize;
+      this.encodedLength = suffixStart + suffixSize;
+    }
+
+    int getNumEntries() {
+      return numEntries;
+    }
+
+    /** Returns the number of bytes taken by the encoded index, excluding trailing metadata */
+    int getEncodedLength() {
+      return encodedLength;
+    }
+
+    long getBlockOffset(int i) {
+      return buf.getLong(HEADER_SIZE + i * ENTRY_FIXED_SIZE);
+    }
+
+    int getOnDiskDataSize(int i) {
+      return buf.getInt(HEADER_SIZE + i * ENTRY_FIXED_SIZE + Bytes.SIZEOF_LONG);
+    }
+
+    private int nodeFirstEntry(int node) {
+      return readFixedWidth(buf, trieStart + node, entryIndexWidth);
+    }
+
+    private int nodeLastEntry(int node) {
+      return readFixedWidth(buf, trieStart + node + entryIndexWidth, entryIndexWidth);
+    }
+
+    private int nodeNumEntries(int node) {
+      return readFixedWidth(buf, trieStart + node + 2 * entryIndexWidth, entryIndexWidth);
+    }
+
+    private int nodeLabelLength(int node) {
+      return buf.getShort(trieStart + node + 3 * entryIndexWidth) & 0xffff;
+    }
+
+    /** Absolute position of the first label byte of the node */
+    private int nodeLabelStart(int node) {
+      return trieStart + node + 3 * entryIndexWidth + Bytes.SIZEOF_SHORT;
+    }
+
+    /** Absolute position of the children count of the node */
+    private int nodeChildrenStart(int node) {
+      return nodeLabelStart(node) + nodeLabelLength(node);
+    }
+
+    private int childOffset(int childrenStart, int numChildren, int i) {
+      return readFixedWidth(buf, childrenStart + Bytes.SIZEOF_SHORT + numChildren + i * offsetWidth,
+        offsetWidth);
+    }
+
+    /**
+     * Finds the entry i such that keys[i] &lt;= key &lt; keys[i + 1], walking the trie without
+     * materializing any of the stored keys.
+     * @return the entry ordinal, or -1 if the key is before the first entry of the block
+     */
+    int binarySearch(Cell key, CellComparator comparator) {
+      if (numEntries == 0) {
+        return -1;
+      }
+      int rowLength = key.getRowLength();
+      int node = 0;
+      int depth = 0;
+      while (true) {
+        int first = nodeFirstEntry(node);
+        int atNode = nodeNumEntries(node);
+        if (depth == rowLength) {
+          if (atNode == 0) {
+            // Every row in this subtree extends the searched row, so all of them sort after it.
+            return first - 1;
+          }
+          return binarySearchSameRow(key, comparator, first, first + atNode - 1);
+        }
+        // Rows ending at this node are proper prefixes of the searched row, so they sort before.
+        int childrenStart = nodeChildrenStart(node);
+        int numChildren = buf.getShort(childrenStart) & 0xffff;
+        int b = rowByte(key, depth) & 0xff;
+        // Find the last child whose first label byte is <= b.
+        int low = 0;
+        int high = numChildren - 1;
+        while (low <= high) {
+          int mid = (low + high) >>> 1;
+          int childByte = buf.get(childrenStart + Bytes.SIZEOF_SHORT + mid) & 0xff;
+          if (childByte <= b) {
+            low = mid + 1;
+          } else {
+            high = mid - 1;
+          }
+        }
+        if (high < 0) {
+          return first + atNode - 1;
+        }
+        int child = childOffset(childrenStart, numChildren, high);
+        int childByte = buf.get(childrenStart + Bytes.SIZEOF_SHORT + high) & 0xff;
+        if (childByte < b) {
+          return nodeLastEntry(child);
+        }
+        int labelLength = nodeLabelLength(child);
+        int labelStart = nodeLabelStart(child);
+        int toCompare = Math.min(labelLength, rowLength - depth);
+        for (int i = 1; i < toCompare; i++) {
+          int diff = (buf.get(labelStart + i) & 0xff) - (rowByte(key, depth + i) & 0xff);
+          if (diff < 0) {
+            return nodeLastEntry(child);
+          } else if (diff > 0) {
+            return nodeFirstEntry(child) - 1;
+          }
+        }
+        if (toCompare < labelLength) {
+          // The searched row ends inside the label, so the whole subtree sorts after it.
+          return nodeFirstEntry(child) - 1;
+        }
+        node = child;
+        depth += labelLength;
+      }
+    }
+
+    /**
+     * Searches entries [low, high] which all have the same row as the given key. Returns the first
+     * entry equal to the key if there is one, otherwise the last entry before the key.
+     */
+    private int binarySearchSameRow(Cell key, CellComparator comparator, int low, int high) {
+      int firstOfRow = low;
+      ByteBufferKeyOnlyKeyValue suffixKV = new ByteBufferKeyOnlyKeyValue();
+      ObjectIntPair<ByteBuffer> pair = new ObjectIntPair<>();
+      int found = -1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        setSuffix(mid, suffixKV, pair);
+        int cmp = comparator.compareWithoutRow(key, suffixKV);
+        if (cmp > 0) {
+          low = mid + 1;
+        } else {
+          if (cmp == 0) {
+            found = mid;
+          }
+          high = mid - 1;
+        }
+      }
+      if (found >= 0) {
+        return found;
+      }
+      // low is the first entry of the row which is after the key, and low - 1 >= firstOfRow - 1
+      // is either an entry of this row before the key or the last entry of the previous rows.
+      assert low - 1 >= firstOfRow - 1;
+      return low - 1;
+    }
+
+    private void setSuffix(int i, ByteBufferKeyOnlyKeyValue suffixKV,
+      ObjectIntPair<ByteBuffer> pair) {
+      int suffixPos =
+        suffixStart + readFixedWidth(buf, suffixOffsetsStart + i * offsetWidth, offsetWidth);
+      int suffixLength = buf.getInt(suffixPos);
+      buf.asSubByteBuffer(suffixPos + Bytes.SIZEOF_INT, suffixLength, pair);
+      suffixKV.setKey(pair.getFirst(), pair.getSecond(), suffixLength, (short) 0);
+    }
+
+    /**
+     * Returns the child of the node on the path to the given entry, that is the child whose entry
+     * range covers the ordinal, or -1 if the row of the entry ends at the node.
+     */
+    private int childOnPath(int node, int i) {
+      int atNode = nodeNumEntries(node);
+      if (atNode > 0 && i < nodeFirstEntry(node) + atNode) {
+        return -1;
+      }
+      int childrenStart = nodeChildrenStart(node);
+      int numChildren = buf.getShort(childrenStart) & 0xffff;
+      // Find the first child whose last entry is >= i.
+      int low = 0;
+      int high = numChildren - 1;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (nodeLastEntry(childOffset(childrenStart, numChildren, mid)) < i) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return childOffset(childrenStart, numChildren, low);
+    }
+
+    /**
+     * Rebuilds the serialized key of the given entry by walking the trie down from the root twice,
+     * once to size the key and once to copy the labels, so that only the key is allocated.
+     */
+    byte[] getKey(int i) {
+      if (i < 0 || i >= numEntries) {
+        return null;
+      }
+      int suffixPos =
+        suffixStart + readFixedWidth(buf, suffixOffsetsStart + i * offsetWidth, offsetWidth);
+      // Skip the zero row length written at the head of every suffix.
+      int suffixLength = buf.getInt(suffixPos) - Bytes.SIZEOF_SHORT;
+      int suffixBytesStart = suffixPos + Bytes.SIZEOF_INT + Bytes.SIZEOF_SHORT;
+
+      int rowLength = 0;
+      for (int node = 0; node >= 0; node = childOnPath(node, i)) {
+        rowLength += nodeLabelLength(node);
+      }
+      byte[] key = new byte[Bytes.SIZEOF_SHORT + rowLength + suffixLength];
+      int pos = Bytes.putShort(key, 0, (short) rowLength);
+      for (int node = 0; node >= 0; node = childOnPath(node, i)) {
+        int labelLength = nodeLabelLength(node);
+        buf.get(nodeLabelStart(node), key, pos, labelLength);
+        pos += labelLength;
+      }
+      buf.get(suffixBytesStart, key, pos, suffixLength);
+      return key;
+    }
+  }
+
+  private static byte rowByte(Cell key, int i) {
+    if (key instanceof ByteBufferExtendedCell) {
+      ByteBufferExtendedCell bbCell = (ByteBufferExtendedCell) key;
+      return ByteBufferUtils.toByte(bbCell.getRowByteBuffer(), bbCell.getRowPosition() + i);
+    }
+    return key.getRowArray()[key.getRowOffset() + i];
+  }
+
+  private static Cell toKeyOnlyCell(byte[] key) {
+    return new KeyValue.KeyOnlyKeyValue(key, 0, key.length);
+  }
+
+  /** The key following the entry a lookup went down, in the non-root index block at the offset */
+  private static final class NextIndexedKey {
+    private final long blockOffset;
+    private final int entry;
+    private final Cell key;
+
+    NextIndexedKey(long blockOffset, int entry, Cell key) {
+      this.blockOffset = blockOffset;
+      this.entry = entry;
+      this.key = key;
+    }
+  }
+
+  /**
+   * Seeker over a prefix tree encoded block index. The root level is kept encoded in memory and
+   * searched in place; non-root blocks are searched directly in their cached buffers.
+   */
+  protected static class PrefixTreeEncodedSeeker implements EncodedSeeker {
+
+    private PrefixTreeBlock root;
+    private byte[] rootBytes;
+    private int rootCount = 0;
+
+    // Mid-key metadata.
+    protected long midLeafBlockOffset = -1;
+    protected int midLeafBlockOnDiskSize = -1;
+    protected int midKeyEntry = -1;
+
+    private CellComparator comparator;
+    protected int searchTreeLevel;
+
+    /** Pre-computed mid-key */
+    private final AtomicReference<Cell> midKey = new AtomicReference<>();
+
+    /** The first key of the file, asked for whenever the reader is opened */
+    private final AtomicReference<Cell> firstKey = new AtomicReference<>();
+
+    /** The next indexed key of the last lookup, the keys are never modified so can be shared */
+    private volatile NextIndexedKey lastNextIndexedKey;
+
+    @Override
+    public long heapSize() {
+      long heapSize = ClassSize.align(ClassSize.OBJECT);
+
+      // Mid-key metadata.
+      heapSize += MID_KEY_METADATA_SIZE;
+
+      if (rootBytes != null) {
+        // The encoded root, the ByteBuffer and ByteBuff wrapping it, and the view over them.
+        heapSize += ClassSize.align(ClassSize.ARRAY + rootBytes.length);
+        heapSize += ClassSize.align(ClassSize.BYTE_BUFFER) + ClassSize.align(ClassSize.OBJECT
+          + 2 * ClassSize.REFERENCE) + ClassSize.align(ClassSize.OBJECT + ClassSize.REFERENCE
+            + 7 * Bytes.SIZEOF_INT);
+      }
+      // Add root, rootBytes, comparator, lastNextIndexedKey, and the midkey and firstKey atomic
+      // references
+      heapSize += 6 * ClassSize.REFERENCE + 2 * ClassSize.ATOMIC_REFERENCE;
+      // Add rootCount and searchTreeLevel
+      heapSize += 2 * Bytes.SIZEOF_INT;
+
+      return ClassSize.align(heapSize);
+    }
+
+    @Override
+    public void initRootIndex(HFileBlock blk, int numEntries, CellComparator comparator,
+      int treeLevel) throws IOException {
+      if (!isSupported(comparator)) {
+        throw new IOException(
+          IndexBlockEncoding.PREFIX_TREE + " index block encoding does not support " + comparator);
+      }
+      this.comparator = comparator;
+      this.searchTreeLevel = treeLevel;
+      // Copy the root out of the block, which may be backed by pooled memory, and keep it encoded.
+      ByteBuff buf = blk.getBufferWithoutHeader();
+      int encodedLength = new PrefixTreeBlock(buf).getEncodedLength();
+      rootBytes = buf.toBytes(0, encodedLength);
+      root = new PrefixTreeBlock(new SingleByteBuff(ByteBuffer.wrap(rootBytes)));
+      if (root.getNumEntries() != numEntries) {
+        throw new IOException("Root index has " + root.getNumEntries() + " entries but "
+          + numEntries + " are expected");
+      }
+      rootCount = numEntries;
+      // The mid-key metadata follows the encoded root in a multi-level index.
+      if (buf.limit() - encodedLength < MID_KEY_METADATA_SIZE) {
+        return;
+      }
+      midLeafBlockOffset = buf.getLong(encodedLength);
+      midLeafBlockOnDiskSize = buf.getInt(encodedLength + Bytes.SIZEOF_LONG);
+      midKeyEntry = buf.getInt(encodedLength + Bytes.SIZEOF_LONG + Bytes.SIZEOF_INT);
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return rootCount == 0;
+    }
+
+    @Override
+    public Cell getRootBlockKey(int i) {
+      if (i == 0) {
+        Cell first = firstKey.get();
+        if (first == null) {
+          first = toKeyOnlyCell(root.getKey(0));
+          firstKey.set(first);
+        }
+        return first;
+      }
+      return toKeyOnlyCell(root.getKey(i));
+    }
+
+    @Override
+    public int getRootBlockCount() {
+      return rootCount;
+    }
+
+    @Override
+    public Cell midkey(HFile.CachingBlockReader cachingBlockReader) throws IOException {
+      if (rootCount == 0) throw new IOException("HFile empty");
+
+      Cell targetMidKey = this.midKey.get();
+      if (targetMidKey != null) {
+        return targetMidKey;
+      }
+
+      if (midLeafBlockOffset >= 0) {
+        if (cachingBlockReader == null) {
+          throw new IOException(
+            "Have to read the middle leaf block but " + "no block reader available");
+        }
+
+        // Caching, using pread, assuming this is not a compaction.
+        HFileBlock midLeafBlock = cachingBlockReader.readBlock(midLeafBlockOffset,
+          midLeafBlockOnDiskSize, true, true, false, true, BlockType.LEAF_INDEX, null);
+        try {
+          byte[] bytes =
+            new PrefixTreeBlock(midLeafBlock.getBufferWithoutHeader()).getKey(midKeyEntry);
+          assert bytes != null;
+          targetMidKey = toKeyOnlyCell(bytes);
+        } finally {
+          midLeafBlock.release();
+        }
+      } else {
+        // The middle of the root-level index.
+        targetMidKey = getRootBlockKey(rootCount / 2);
+      }
+
+      this.midKey.set(targetMidKey);
+      return targetMidKey;
+    }
+
+    @Override
+    public BlockWithScanInfo loadDataBlockWithScanInfo(Cell key, HFileBlock currentBlock,
+      boolean cacheBlocks, boolean pread, boolean isCompaction,
+      DataBlockEncoding expectedDataBlockEncoding, HFile.CachingBlockReader cachingBlockReader)
+      throws IOException {
+      int rootLevelIndex = rootBlockContainingKey(key);
+      if (rootLevelIndex < 0 || rootLevelIndex >= rootCount) {
+        return null;
+      }
+
+      // the next indexed key
+      Cell nextIndexedKey = null;
+
+      // Read the next-level (intermediate or leaf) index block.
+      long currentOffset = root.getBlockOffset(rootLevelIndex);
+      int currentOnDiskSize = root.getOnDiskDataSize(rootLevelIndex);
+
+      if (rootLevelIndex < rootCount - 1) {
+        nextIndexedKey = getRootBlockKey(rootLevelIndex + 1);
+      } else {
+        nextIndexedKey = KeyValueScanner.NO_NEXT_INDEXED_KEY;
+      }
+
+      int lookupLevel = 1; // How many levels deep we are in our lookup.
+
+      // The deepest index block read which has an entry after the one we go down, retained until
+      // the lookup is over. Its key is only rebuilt once we know it is the next indexed key.
+      HFileBlock nextKeyBlock = null;
+      int nextKeyEntry = -1;
+      HFileBlock block = null;
+      try {
+        while (true) {
+          try {
+            // Must initialize it with null here, because if don't and once an exception happen in
+            // readBlock, then we'll release the previous assigned block twice in the finally block.
+            // (See HBASE-22422)
+            block = null;
+            if (currentBlock != null && currentBlock.getOffset() == currentOffset) {
+              // Avoid reading the same block again, even with caching turned off.
+              block = currentBlock;
+            } else {
+              // Call HFile's caching block reader API. We always cache index
+              // blocks, otherwise we might get terrible performance.
+              boolean shouldCache = cacheBlocks || (lookupLevel < searchTreeLevel);
+              BlockType expectedBlockType;
+              if (lookupLevel < searchTreeLevel - 1) {
+                expectedBlockType = BlockType.INTERMEDIATE_INDEX;
+              } else if (lookupLevel == searchTreeLevel - 1) {
+                expectedBlockType = BlockType.LEAF_INDEX;
+              } else {
+                // this also accounts for ENCODED_DATA
+                expectedBlockType = BlockType.DATA;
+              }
+              block = cachingBlockReader.readBlock(currentOffset, currentOnDiskSize, shouldCache,
+                pread, isCompaction, true, expectedBlockType, expectedDataBlockEncoding);
+            }
+
+            if (block == null) {
+              throw new IOException("Failed to read block at offset " + currentOffset
+                + ", onDiskSize=" + currentOnDiskSize);
+            }
+
+            // Found a data block, break the loop and check our level in the tree.
+            if (block.getBlockType().isData()) {
+              break;
+            }
+
+            // Not a data block. This must be a leaf-level or intermediate-level
+            // index block. We don't allow going deeper than searchTreeLevel.
+            if (++lookupLevel > searchTreeLevel) {
+              throw new IOException("Search Tree Level overflow: lookupLevel=" + lookupLevel
+                + ", searchTreeLevel=" + searchTreeLevel);
+            }
+
+            // Locate the entry corresponding to the given key in the non-root
+            // (leaf or intermediate-level) index block.
+            PrefixTreeBlock nonRoot = new PrefixTreeBlock(block.getBufferWithoutHeader());
+            int index = nonRoot.binarySearch(key, comparator);
+            if (index == -1) {
+              throw new IOException("The key " + CellUtil.getCellKeyAsString(key) + " is before the"
+                + " first key of the non-root index block " + block);
+            }
+
+            currentOffset = nonRoot.getBlockOffset(index);
+            currentOnDiskSize = nonRoot.getOnDiskDataSize(index);
+
+            // Only update next indexed key if there is a next indexed key in the current level
+            if (index + 1 < nonRoot.getNumEntries()) {
+              if (nextKeyBlock != null) {
+                nextKeyBlock.release();
+              }
+              nextKeyBlock = block.retain();
+              nextKeyEntry = index + 1;
+            }
+          } finally {
+            if (block != null && !block.getBlockType().isData()) {
+              // Release the block immediately if it is not the data block
+              block.release();
+            }
+          }
+        }
+        if (nextKeyBlock != null) {
+          nextIndexedKey = getNonRootIndexedKey(nextKeyBlock, nextKeyEntry);
+        }
+      } finally {
+        if (nextKeyBlock != null) {
+          nextKeyBlock.release();
+        }
+      }
+
+      if (lookupLevel != searchTreeLevel) {
+        assert block.getBlockType().isData();
+        // Though we have retrieved a data block we have found an issue
+        // in the retrieved data block. Hence returned the block so that
+        // the ref count can be decremented
+        if (block != null) {
+          block.release();
+        }
+        throw new IOException("Reached a data block at level " + lookupLevel
+          + " but the number of levels is " + searchTreeLevel);
+      }
+
+      // set the next indexed key for the current block.
+      return new BlockWithScanInfo(block, nextIndexedKey);
+    }
+
+    /**
+     * Returns the key of the given entry of a non-root index block, reusing the one of the last
+     * lookup when it ended on the same entry, as the lookups of the keys of a same data block do.
+     */
+    private Cell getNonRootIndexedKey(HFileBlock block, int entry) {
+      NextIndexedKey last = lastNextIndexedKey;
+      if (last != null && last.blockOffset == block.getOffset() && last.entry == entry) {
+        return last.key;
+      }
+      PrefixTreeBlock nonRoot = new PrefixTreeBlock(block.getBufferWithoutHeader());
+      Cell key = toKeyOnlyCell(nonRoot.getKey(entry));
+      lastNextIndexedKey = new NextIndexedKey(block.getOffset(), entry, key);
+      return key;
+    }
+
+    @Override
+    public int rootBlockContainingKey(Cell key) {
+      return root.binarySearch(key, comparator);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append("size=" + rootCount).append("\n");
+      for (int i = 0; i < rootCount; i++) {
+        sb.append("key=").append(getRootBlockKey(i)).append("\n  offset=")
+          .append(root.getBlockOffset(i)).append(", dataSize=" + root.getOnDiskDataSize(i))
+          .append("\n");
+      }
+      return sb.toString();
+    }
+  }
+}
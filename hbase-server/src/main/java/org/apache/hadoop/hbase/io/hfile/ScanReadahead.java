@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hbase.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Reads ahead the blocks of an {@link HFile} for a long scan. Once a scanner has read a number of
+ * blocks in a row, the next blocks are loaded into the block cache in the background, so the
+ * scanner finds them there instead of waiting for the file system block by block. The blocks are
+ * loaded in order by at most one task per scanner, which is handed a new window of blocks whenever
+ * the scanner has consumed half of the blocks loaded ahead of it.
+ * <p>
+ * Unlike {@link PrefetchExecutor}, which warms the whole file when it is opened, this only reads
+ * what a running scan is about to read. Readahead is only done for scanners which cache their
+ * blocks and are not used for compactions.
+ */
+@InterfaceAudience.Private
+public final class ScanReadahead {
+  private static final Logger LOG = LoggerFactory.getLogger(ScanReadahead.class);
+
+  /** Number of blocks to read ahead of a scanner, 0 to disable readahead */
+  public static final String READAHEAD_BLOCKS_KEY = "hbase.hfile.scan.readahead.blocks";
+  public static final int DEFAULT_READAHEAD_BLOCKS = 0;
+
+  /** Number of blocks a scanner has to read in a row before the readahead starts */
+  public static final String READAHEAD_THRESHOLD_KEY = "hbase.hfile.scan.readahead.threshold";
+  public static final int DEFAULT_READAHEAD_THRESHOLD = 4;
+
+  /** Number of threads shared by all scanners for reading ahead */
+  public static final String READAHEAD_THREADS_KEY = "hbase.hfile.scan.readahead.threads";
+  public static final int DEFAULT_READAHEAD_THREADS = 8;
+
+  /** Maximum number of readahead tasks waiting for a thread, more are dropped */
+  public static final String READAHEAD_QUEUE_SIZE_KEY = "hbase.hfile.scan.readahead.queue.size";
+  public static final int DEFAULT_READAHEAD_QUEUE_SIZE = 256;
+
+  private static final LongAdder BLOCKS_READ = new LongAdder();
+  private static final LongAdder HITS = new LongAdder();
+  private static final LongAdder WASTED = new LongAdder();
+  private static final LongAdder STALL_TIME_NANOS = new LongAdder();
+
+  /** Executor pool shared among all scanners */
+  private static final ThreadPoolExecutor READAHEAD_POOL;
+  static {
+    // Like the PrefetchExecutor pool, this is shared by all the readers of the process.
+    Configuration conf = HBaseConfiguration.create();
+    int threads = Math.max(1, conf.getInt(READAHEAD_THREADS_KEY, DEFAULT_READAHEAD_THREADS));
+    int queueSize =
+      Math.max(1, conf.getInt(READAHEAD_QUEUE_SIZE_KEY, DEFAULT_READAHEAD_QUEUE_SIZE));
+    READAHEAD_POOL = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<>(queueSize),
+      new ThreadFactoryBuilder().setNameFormat("hfile-scan-readahead-%d").setDaemon(true)
+        .setUncaughtExceptionHandler(Threads.LOGGING_EXCEPTION_HANDLER).build());
+    READAHEAD_POOL.allowCoreThreadTimeOut(true);
+  }
+
+  private final HFileReaderImpl reader;
+  private final int blocks;
+  private final int threshold;
+  private final long lastDataBlockOffset;
+
+  // Only accessed by the scanner.
+  private long expectedOffset = -1;
+  private int sequentialReads;
+  private Window window;
+
+  private ScanReadahead(HFileReaderImpl reader, int blocks, int threshold) {
+    this.reader = reader;
+    this.blocks = blocks;
+    this.threshold = Math.max(1, threshold);
+    this.lastDataBlockOffset = reader.getTrailer().getLastDataBlockOffset();
+  }
+
+  /**
+   * Returns the readahead for a new scanner of the given reader, or null if the scanner should not
+   * read ahead.
+   */
+  static ScanReadahead create(HFileReaderImpl reader, Configuration conf, boolean cacheBlocks,
+    boolean isCompaction) {
+    if (conf == null || !cacheBlocks || isCompaction) {
+      return null;
+    }
+    int blocks = conf.getInt(READAHEAD_BLOCKS_KEY, DEFAULT_READAHEAD_BLOCKS);
+    if (blocks <= 0) {
+      return null;
+    }
+    CacheConfig cacheConf = reader.cacheConf;
+    if (
+      !cacheConf.getBlockCache().isPresent() || !cacheConf.shouldCacheDataOnRead()
+        || !reader.cacheIfCompactionsOff()
+    ) {
+      // the blocks read ahead would have nowhere to go
+      return null;
+    }
+    return new ScanReadahead(reader, blocks,
+      conf.getInt(READAHEAD_THRESHOLD_KEY, DEFAULT_READAHEAD_THRESHOLD));
+  }
+
+  /**
+   * Called by the scanner before it reads the block at the given offset. If the block is being
+   * read ahead, waits until it is in the block cache.
+   */
+  void beforeRead(long offset) throws IOException {
+    if (offset != expectedOffset) {
+      // the scanner jumped, whatever was read ahead will not be used
+      sequentialReads = 0;
+      abandon();
+    }
+    sequentialReads++;
+    if (window != null) {
+      window.consume(offset);
+    }
+  }
+
+  /**
+   * Called by the scanner with every block it read in sequence. Starts reading ahead once the
+   * scanner has read enough blocks in a row.
+   */
+  void afterRead(HFileBlock block) {
+    expectedOffset = block.getOffset() + block.getOnDiskSizeWithHeader();
+    if (sequentialReads < threshold || expectedOffset > lastDataBlockOffset) {
+      return;
+    }
+    if (window == null) {
+      window = new Window();
+    }
+    window.maybeSchedule(expectedOffset, block.getNextBlockOnDiskSize());
+  }
+
+  /** Stops reading ahead, called when the scanner is closed. */
+  void close() {
+    abandon();
+    expectedOffset = -1;
+  }
+
+  private void abandon() {
+    if (window != null) {
+      window.cancel();
+      window = null;
+    }
+  }
+
+  /** Returns the number of blocks which were read ahead */
+  public static long getBlocksRead() {
+    return BLOCKS_READ.sum();
+  }
+
+  /** Returns the number of blocks a scanner found read ahead */
+  public static long getHits() {
+    return HITS.sum();
+  }
+
+  /** Returns the number of blocks which were read ahead but not used by the scanner */
+  public static long getWasted() {
+    return WASTED.sum();
+  }
+
+  /** Returns the time scanners spent waiting for blocks being read ahead, in milliseconds */
+  public static long getStallTime() {
+    return TimeUnit.NANOSECONDS.toMillis(STALL_TIME_NANOS.sum());
+  }
+
+  /**
+   * The blocks read ahead for a run of sequential reads of a scanner. The blocks are loaded in
+   * file order, so everything below {@code loadedUpTo} is in the block cache. The fields are
+   * guarded by the window itself, as the task and the scanner both touch them.
+   */
+  private final class Window implements Runnable {
+    private long nextOffset = -1;
+    private long nextOnDiskSize = -1;
+    private long loadedUpTo = -1;
+    private int loaded;
+    private int consumed;
+    private int requested;
+    private boolean running;
+    private boolean done;
+    private boolean cancelled;
+
+    synchronized void consume(long offset) throws IOException {
+      if (offset >= loadedUpTo && running) {
+        // the block is being read right now, reading it again would only add to the load
+        long start = System.nanoTime();
+        try {
+          while (offset >= loadedUpTo && running) {
+            wait();
+          }
+        } catch (InterruptedException e) {
+          throw (InterruptedIOException) new InterruptedIOException(
+            "Interrupted waiting for readahead of " + reader.getPath()).initCause(e);
+        } finally {
+          STALL_TIME_NANOS.add(System.nanoTime() - start);
+        }
+      }
+      if (offset < loadedUpTo) {
+        consumed++;
+        HITS.increment();
+      }
+    }
+
+    synchronized void maybeSchedule(long offset, long onDiskSize) {
+      if (running || done) {
+        return;
+      }
+      if (offset >= loadedUpTo) {
+        // the scanner caught up, continue from where it is
+        WASTED.add(loaded - consumed);
+        loaded = consumed = 0;
+        nextOffset = loadedUpTo = offset;
+        nextOnDiskSize = onDiskSize;
+      }
+      int ahead = loaded - consumed;
+      if (ahead > blocks / 2) {
+        return;
+      }
+      requested = blocks - ahead;
+      running = true;
+      try {
+        READAHEAD_POOL.execute(this);
+      } catch (RejectedExecutionException e) {
+        LOG.trace("Readahead of {} rejected", reader.getPath());
+        running = false;
+        requested = 0;
+      }
+    }
+
+    synchronized void cancel() {
+      cancelled = true;
+      WASTED.add(loaded - consumed);
+      loaded = consumed = 0;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          long offset;
+          long onDiskSize;
+          synchronized (this) {
+            if (cancelled || done || requested <= 0) {
+              return;
+            }
+            offset = nextOffset;
+            onDiskSize = nextOnDiskSize;
+          }
+          HFileBlock block;
+          try {
+            block = reader.readBlock(offset, onDiskSize, true, true, false, false, null,
+              reader.getEffectiveEncodingInCache(false));
+          } catch (IOException e) {
+            // the scanner will read the block itself and see the error, if any
+            LOG.debug("Failed readahead of block at {} of {}", offset, reader.getPath(), e);
+            synchronized (this) {
+              done = true;
+            }
+            return;
+          }
+          long next = offset + block.getOnDiskSizeWithHeader();
+          long nextSize = block.getNextBlockOnDiskSize();
+          block.release();
+          BLOCKS_READ.increment();
+          synchronized (this) {
+            if (cancelled) {
+              WASTED.increment();
+              return;
+            }
+            loaded++;
+            requested--;
+            loadedUpTo = nextOffset = next;
+            nextOnDiskSize = nextSize;
+            done = next > lastDataBlockOffset;
+            notifyAll();
+          }
+        }
+      } finally {
+        synchronized (this) {
+          running = false;
+          notifyAll();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * IO engine that stores data to files on the local file system like {@link FileIOEngine}, but
+ * writes asynchronously. Writes are queued and a small pool of IO threads takes them off the queue
+ * in batches, sorted by offset, so a writer thread of the {@link BucketCache} keeps many writes in
+ * flight instead of waiting for each of them in turn. {@link #sync()} waits for all the writes
+ * submitted by the calling thread before syncing the files, so the {@link BucketCache} still only
+ * publishes blocks which are on the media.
+ * <p>
+ * Reads are done in the calling thread, because {@link BucketCache#getBlock} needs the data right
+ * away and RPC handlers already issue their positional reads concurrently.
+ */
+@InterfaceAudience.Private
+public class AsyncFileIOEngine extends FileIOEngine {
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncFileIOEngine.class);
+
+  /** Number of threads doing the writes */
+  public static final String IO_THREADS_KEY = "hbase.bucketcache.ioengine.async.threads";
+  public static final int DEFAULT_IO_THREADS = 4;
+
+  /** Maximum number of writes an IO thread takes off the queue at once */
+  public static final String BATCH_SIZE_KEY = "hbase.bucketcache.ioengine.async.batch.size";
+  public static final int DEFAULT_BATCH_SIZE = 64;
+
+  private static final Comparator<WriteRequest> OFFSET_ORDER =
+    Comparator.comparingLong(r -> r.offset);
+
+  private final BlockingQueue<WriteRequest> queue = new LinkedBlockingQueue<>();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final ThreadLocal<List<CompletableFuture<Void>>> pendingWrites =
+    ThreadLocal.withInitial(ArrayList::new);
+  private final IOThread[] ioThreads;
+  private final int batchSize;
+  private final BucketCacheStats stats;
+  private volatile boolean running = true;
+
+  public AsyncFileIOEngine(Configuration conf, long capacity, boolean maintainPersistence,
+    BucketCacheStats stats, String... filePaths) throws IOException {
+    super(capacity, maintainPersistence, filePaths);
+    this.stats = stats;
+    this.batchSize = Math.max(1, conf.getInt(BATCH_SIZE_KEY, DEFAULT_BATCH_SIZE));
+    this.ioThreads = new IOThread[Math.max(1, conf.getInt(IO_THREADS_KEY, DEFAULT_IO_THREADS))];
+    for (int i = 0; i < ioThreads.length; i++) {
+      ioThreads[i] = new IOThread("BucketCacheAsyncIO-" + i);
+      ioThreads[i].start();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return super.toString() + ", ioThreads=" + ioThreads.length + ", batchSize=" + batchSize;
+  }
+
+  /**
+   * Queues a write of the data of the given byte buffer. The data is copied, so the buffer can be
+   * reused right away.
+   */
+  @Override
+  public void write(ByteBuffer srcBuffer, long offset) throws IOException {
+    ByteBuffer copy = ByteBuffer.allocate(srcBuffer.remaining());
+    copy.put(srcBuffer);
+    copy.flip();
+    submit(ByteBuff.wrap(copy), offset);
+  }
+
+  /**
+   * Queues a write of the data of the given buffer. The buffer is retained until the data is
+   * written, and must not be modified in the meantime.
+   */
+  @Override
+  public void write(ByteBuff srcBuff, long offset) throws IOException {
+    if (!srcBuff.hasRemaining()) {
+      return;
+    }
+    ByteBuff buff = srcBuff.duplicate();
+    buff.retain();
+    // Consume the source like a synchronous write would.
+    srcBuff.position(srcBuff.limit());
+    submit(buff, offset);
+  }
+
+  private void submit(ByteBuff buff, long offset) throws IOException {
+    if (!running) {
+      buff.release();
+      throw new IOException("IO engine " + this + " is shut down");
+    }
+    WriteRequest request = new WriteRequest(buff, offset);
+    pendingWrites.get().add(request.future);
+    if (stats != null) {
+      stats.asyncIOSubmitted(inFlight.incrementAndGet());
+    } else {
+      inFlight.incrementAndGet();
+    }
+    queue.add(request);
+  }
+
+  /**
+   * Waits for the writes submitted by the calling thread, then syncs the files.
+   */
+  @Override
+  public void sync() throws IOException {
+    List<CompletableFuture<Void>> pending = pendingWrites.get();
+    IOException failure = null;
+    try {
+      for (CompletableFuture<Void> future : pending) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause() instanceof IOException
+              ? (IOException) e.getCause()
+              : new IOException(e.getCause());
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      throw (InterruptedIOException) new InterruptedIOException(
+        "Interrupted while waiting for the writes to " + this).initCause(e);
+    } finally {
+      pending.clear();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    super.sync();
+  }
+
+  @Override
+  public void shutdown() {
+    running = false;
+    for (IOThread ioThread : ioThreads) {
+      ioThread.interrupt();
+    }
+    for (IOThread ioThread : ioThreads) {
+      try {
+        ioThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    List<WriteRequest> abandoned = new ArrayList<>();
+    queue.drainTo(abandoned);
+    for (WriteRequest request : abandoned) {
+      complete(request, new IOException("IO engine " + this + " is shut down"));
+    }
+    super.shutdown();
+  }
+
+  /** Returns the number of writes which are queued or being written */
+  int getInFlight() {
+    return inFlight.get();
+  }
+
+  private void complete(WriteRequest request, Throwable error) {
+    request.buff.release();
+    inFlight.decrementAndGet();
+    if (stats != null) {
+      stats.asyncIOCompleted(System.nanoTime() - request.submitTime);
+    }
+    if (error == null) {
+      request.future.complete(null);
+    } else {
+      request.future.completeExceptionally(error);
+    }
+  }
+
+  private static final class WriteRequest {
+    private final ByteBuff buff;
+    private final long offset;
+    private final long submitTime = System.nanoTime();
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    WriteRequest(ByteBuff buff, long offset) {
+      this.buff = buff;
+      this.offset = offset;
+    }
+  }
+
+  private final class IOThread extends Thread {
+    private final List<WriteRequest> batch = new ArrayList<>(batchSize);
+
+    IOThread(String name) {
+      super(name);
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (running) {
+        try {
+          batch.add(queue.take());
+        } catch (InterruptedException e) {
+          break;
+        }
+        queue.drainTo(batch, batchSize - 1);
+        // Writing in offset order turns neighbouring blocks into sequential IO.
+        batch.sort(OFFSET_ORDER);
+        for (WriteRequest request : batch) {
+          Throwable error = null;
+          try {
+            writeToFile(request.buff, request.offset);
+          } catch (Throwable t) {
+            error = t;
+          }
+          complete(request, error);
+        }
+        batch.clear();
+      }
+      LOG.debug("{} exiting", getName());
+    }
+  }
+}
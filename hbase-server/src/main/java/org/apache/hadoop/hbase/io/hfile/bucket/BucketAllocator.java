@@ -17,10 +17,12 @@
  */
 package org.apache.hadoop.hbase.io.hfile.bucket;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
@@ -42,6 +44,11 @@ import org.apache.hbase.thirdparty.org.apache.commons.collections4.map.LinkedMap
  * manages an array of buckets, each bucket is associated with a size and caches elements up to this
  * size. For a completely empty bucket, this size could be re-specified dynamically.
  * <p/>
+ * When learning size classes, the sizes of the allocated blocks are sampled and the sizes of the
+ * buckets, but the largest one, are periodically chosen again to lower the fragmentation, see
+ * {@link #learnSizeClasses()}. The buckets holding blocks of a former size take no block until they
+ * are empty, the cache moves their blocks away, see {@link #startEvacuation()}.
+ * <p/>
  * This class is not thread safe.
  */
 @InterfaceAudience.Private
@@ -62,8 +69,12 @@ public final class BucketAllocator {
 
     void reconfigure(int sizeIndex, int[] bucketSizes, long bucketCapacity) {
       Preconditions.checkElementIndex(sizeIndex, bucketSizes.length);
+      reconfigure(sizeIndex, bucketSizes[sizeIndex], bucketCapacity);
+    }
+
+    void reconfigure(int sizeIndex, int itemAllocationSize, long bucketCapacity) {
       this.sizeIndex = sizeIndex;
-      itemAllocationSize = bucketSizes[sizeIndex];
+      this.itemAllocationSize = itemAllocationSize;
       itemCount = (int) (bucketCapacity / (long) itemAllocationSize);
       freeCount = itemCount;
       usedCount = 0;
@@ -168,6 +179,9 @@ public final class BucketAllocator {
     // Free bucket means it has space to allocate a block;
     // Completely free bucket means it has no block.
     private LinkedMap bucketList, freeBuckets, completelyFreeBuckets;
+    // Draining bucket means it takes no block until it is completely free: its item size is the one
+    // of a former size class, or its blocks are being moved away.
+    private LinkedMap drainingBuckets;
     // only modified under synchronization, but also read outside it.
     private volatile long fragmentationBytes;
     private int sizeIndex;
@@ -176,6 +190,7 @@ public final class BucketAllocator {
       bucketList = new LinkedMap();
       freeBuckets = new LinkedMap();
       completelyFreeBuckets = new LinkedMap();
+      drainingBuckets = new LinkedMap();
       fragmentationBytes = 0;
       this.sizeIndex = sizeIndex;
     }
@@ -188,6 +203,21 @@ public final class BucketAllocator {
       completelyFreeBuckets.put(b, b);
     }
 
+    /**
+     * Adds a bucket restored with the given item size, which drains if it is not the one of this
+     * size class anymore.
+     */
+    synchronized void instantiateBucket(Bucket b, int itemAllocationSize) {
+      assert b.isUninstantiated() || b.isCompletelyFree();
+      if (itemAllocationSize == bucketSizes[sizeIndex]) {
+        instantiateBucket(b);
+        return;
+      }
+      b.reconfigure(sizeIndex, itemAllocationSize, bucketCapacity);
+      bucketList.put(b, b);
+      drainingBuckets.put(b, b);
+    }
+
     public int sizeIndex() {
       return sizeIndex;
     }
@@ -220,6 +250,79 @@ public final class BucketAllocator {
       if (!b.hasFreeSpace()) freeBuckets.remove(b);
     }
 
+    /**
+     * Called once the size of this class changed: its buckets holding blocks of the former size
+     * drain, the completely free ones take the new size.
+     */
+    void sizeChanged() {
+      int itemSize = bucketSizes[sizeIndex];
+      for (Object obj : bucketList.keySet()) {
+        Bucket b = (Bucket) obj;
+        if (b.getItemAllocationSize() == itemSize) {
+          continue;
+        }
+        if (b.isCompletelyFree()) {
+          b.reconfigure(sizeIndex, itemSize, bucketCapacity);
+        } else {
+          freeBuckets.remove(b);
+          drainingBuckets.put(b, b);
+        }
+      }
+    }
+
+    /**
+     * Picks the buckets whose blocks should be moved: the draining ones, and the least used ones,
+     * at most half used, for as long as the free items of the other buckets can take their blocks.
+     * The picked buckets drain, and the others are reordered so that the most used are filled
+     * first.
+     */
+    void evacuate(Set<Integer> result) {
+      List<Bucket> used = new ArrayList<>();
+      int freeItems = 0;
+      for (Object obj : freeBuckets.keySet()) {
+        Bucket b = (Bucket) obj;
+        if (!b.isCompletelyFree()) {
+          used.add(b);
+          freeItems += b.freeCount();
+        }
+      }
+      used.sort(Comparator.comparingInt(Bucket::usedCount));
+      int moved = 0;
+      int picked = 0;
+      for (Bucket b : used) {
+        if (
+          b.usedCount() * 2 > b.itemCount || moved + b.usedCount() > freeItems - b.freeCount()
+        ) {
+          break;
+        }
+        moved += b.usedCount();
+        freeItems -= b.freeCount();
+        freeBuckets.remove(b);
+        drainingBuckets.put(b, b);
+        picked++;
+      }
+      for (Bucket b : used.subList(picked, used.size())) {
+        freeBuckets.remove(b);
+        freeBuckets.put(b, b);
+      }
+      for (Object obj : drainingBuckets.keySet()) {
+        result.add(getBucketIndex(((Bucket) obj).getBaseOffset()));
+      }
+    }
+
+    /**
+     * Lets a bucket picked by {@link #evacuate(Set)} take blocks again, unless it holds blocks of
+     * a former size.
+     */
+    void stopEvacuation(Bucket b) {
+      if (drainingBuckets.containsKey(b) && b.getItemAllocationSize() == bucketSizes[sizeIndex]) {
+        drainingBuckets.remove(b);
+        if (b.hasFreeSpace()) {
+          freeBuckets.put(b, b);
+        }
+      }
+    }
+
     public Bucket findAndRemoveCompletelyFreeBucket() {
       Bucket b = null;
       assert bucketList.size() > 0;
@@ -250,6 +353,16 @@ public final class BucketAllocator {
       if (length < b.getItemAllocationSize()) {
         fragmentationBytes -= b.getItemAllocationSize() - length;
       }
+      if (drainingBuckets.containsKey(b)) {
+        if (b.isCompletelyFree()) {
+          // Takes blocks again, of the current size of this class
+          drainingBuckets.remove(b);
+          b.reconfigure(sizeIndex, bucketSizes, bucketCapacity);
+          freeBuckets.put(b, b);
+          completelyFreeBuckets.put(b, b);
+        }
+        return;
+      }
       if (!freeBuckets.containsKey(b)) freeBuckets.put(b, b);
       if (b.isCompletelyFree()) completelyFreeBuckets.put(b, b);
     }
@@ -288,7 +401,7 @@ public final class BucketAllocator {
   // The real block size in hfile maybe a little larger than the size we configured ,
   // so we need add extra 1024 bytes for fit.
   // TODO Support the view of block size distribution statistics
-  private static final int DEFAULT_BUCKET_SIZES[] =
+  static final int DEFAULT_BUCKET_SIZES[] =
     { 4 * 1024 + 1024, 8 * 1024 + 1024, 16 * 1024 + 1024, 32 * 1024 + 1024, 40 * 1024 + 1024,
       48 * 1024 + 1024, 56 * 1024 + 1024, 64 * 1024 + 1024, 96 * 1024 + 1024, 128 * 1024 + 1024,
       192 * 1024 + 1024, 256 * 1024 + 1024, 384 * 1024 + 1024, 512 * 1024 + 1024 };
@@ -307,7 +420,17 @@ public final class BucketAllocator {
    */
   static public final int FEWEST_ITEMS_IN_BUCKET = 4;
 
-  private final int[] bucketSizes;
+  /** The number of blocks to sample before the size classes are learned. */
+  static final int MIN_SAMPLES_TO_LEARN = 1000;
+
+  /** The fraction of the fragmentation the learned size classes must save to be adopted. */
+  static final double MIN_GAIN_TO_RESIZE = 0.1;
+
+  /** The granularity of the sampled block sizes and of the learned size classes. */
+  static final int SIZE_SAMPLE_GRANULARITY = 1024;
+
+  // Replaced, not modified, when the size classes are learned
+  private volatile int[] bucketSizes;
   private final int bigItemSize;
   // The capacity size for each bucket
   private final long bucketCapacity;
@@ -315,8 +438,17 @@ public final class BucketAllocator {
   private BucketSizeInfo[] bucketSizeInfos;
   private final long totalSize;
   private transient long usedSize = 0;
+  // The number and the total size of the allocated blocks, per SIZE_SAMPLE_GRANULARITY, when
+  // learning size classes
+  private final long[] sizeCounts;
+  private final long[] sizeSums;
 
   BucketAllocator(long availableSpace, int[] bucketSizes) throws BucketAllocatorException {
+    this(availableSpace, bucketSizes, false);
+  }
+
+  BucketAllocator(long availableSpace, int[] bucketSizes, boolean learnSizeClasses)
+    throws BucketAllocatorException {
     this.bucketSizes = bucketSizes == null ? DEFAULT_BUCKET_SIZES : bucketSizes;
     Arrays.sort(this.bucketSizes);
     this.bigItemSize = Ints.max(this.bucketSizes);
@@ -335,6 +467,9 @@ public final class BucketAllocator {
         .instantiateBucket(buckets[i]);
     }
     this.totalSize = ((long) buckets.length) * bucketCapacity;
+    int bins = (bigItemSize + SIZE_SAMPLE_GRANULARITY - 1) / SIZE_SAMPLE_GRANULARITY;
+    this.sizeCounts = learnSizeClasses ? new long[bins] : null;
+    this.sizeSums = learnSizeClasses ? new long[bins] : null;
     if (LOG.isInfoEnabled()) {
       LOG.info("Cache totalSize=" + this.totalSize + ", buckets=" + this.buckets.length
         + ", bucket capacity=" + this.bucketCapacity + "=(" + FEWEST_ITEMS_IN_BUCKET + "*"
@@ -352,7 +487,24 @@ public final class BucketAllocator {
    */
   BucketAllocator(long availableSpace, int[] bucketSizes, Map<BlockCacheKey, BucketEntry> map,
     LongAdder realCacheSize) throws BucketAllocatorException {
-    this(availableSpace, bucketSizes);
+    this(availableSpace, bucketSizes, false, map, realCacheSize, null);
+  }
+
+  /**
+   * Rebuild the allocator's data structures from a persisted map, with the item size each bucket
+   * had when persisted.
+   * @param bucketItemSizes the item size of each bucket, see {@link #getBucketItemSizes()}, or null
+   *                        to give each bucket the size of its first block
+   */
+  BucketAllocator(long availableSpace, int[] bucketSizes, boolean learnSizeClasses,
+    Map<BlockCacheKey, BucketEntry> map, LongAdder realCacheSize, int[] bucketItemSizes)
+    throws BucketAllocatorException {
+    this(availableSpace, bucketSizes, learnSizeClasses);
+    if (bucketItemSizes != null && bucketItemSizes.length != buckets.length) {
+      LOG.warn("Ignoring the item sizes of {} buckets, the cache has {} buckets",
+        bucketItemSizes.length, buckets.length);
+      bucketItemSizes = null;
+    }
 
     // each bucket has an offset, sizeindex. probably the buckets are too big
     // in our default state. so what we do is reconfigure them according to what
@@ -366,23 +518,27 @@ public final class BucketAllocator {
       Map.Entry<BlockCacheKey, BucketEntry> entry = iterator.next();
       long foundOffset = entry.getValue().offset();
       int foundLen = entry.getValue().getLength();
+      int bucketNo = (int) (foundOffset / bucketCapacity);
+      if (bucketNo < 0 || bucketNo >= buckets.length) {
+        insufficientCapacityCount++;
+        iterator.remove();
+        continue;
+      }
+      int itemSize = bucketItemSizes != null ? bucketItemSizes[bucketNo] : foundLen;
       int bucketSizeIndex = -1;
       for (int i = 0; i < this.bucketSizes.length; ++i) {
-        if (foundLen <= this.bucketSizes[i]) {
+        if (itemSize <= this.bucketSizes[i]) {
           bucketSizeIndex = i;
           break;
         }
       }
-      if (bucketSizeIndex == -1) {
+      if (bucketSizeIndex == -1 || foundLen > itemSize) {
         sizeNotMatchedCount++;
         iterator.remove();
         continue;
       }
-      int bucketNo = (int) (foundOffset / bucketCapacity);
-      if (bucketNo < 0 || bucketNo >= buckets.length) {
-        insufficientCapacityCount++;
-        iterator.remove();
-        continue;
+      if (bucketItemSizes == null) {
+        itemSize = this.bucketSizes[bucketSizeIndex];
       }
       Bucket b = buckets[bucketNo];
       if (reconfigured[bucketNo]) {
@@ -399,13 +555,16 @@ public final class BucketAllocator {
         BucketSizeInfo bsi = bucketSizeInfos[bucketSizeIndex];
         BucketSizeInfo oldbsi = bucketSizeInfos[b.sizeIndex()];
         oldbsi.removeBucket(b);
-        bsi.instantiateBucket(b);
+        bsi.instantiateBucket(b, itemSize);
         reconfigured[bucketNo] = true;
       }
       realCacheSize.add(foundLen);
       buckets[bucketNo].addAllocation(foundOffset);
       usedSize += buckets[bucketNo].getItemAllocationSize();
       bucketSizeInfos[bucketSizeIndex].blockAllocated(b);
+      if (foundLen < b.getItemAllocationSize()) {
+        bucketSizeInfos[bucketSizeIndex].fragmentationBytes += b.getItemAllocationSize() - foundLen;
+      }
     }
 
     if (sizeNotMatchedCount > 0) {
@@ -456,6 +615,11 @@ public final class BucketAllocator {
         + "; adjust BucketCache sizes " + BlockCacheFactory.BUCKET_CACHE_BUCKETS_KEY
         + " to accomodate if size seems reasonable and you want it cached.");
     }
+    if (sizeCounts != null) {
+      int bin = (blockSize - 1) / SIZE_SAMPLE_GRANULARITY;
+      sizeCounts[bin]++;
+      sizeSums[bin] += blockSize;
+    }
     long offset = bsi.allocateBlock(blockSize);
 
     // Ask caller to free up space and try again!
@@ -464,6 +628,146 @@ public final class BucketAllocator {
     return offset;
   }
 
+  /**
+   * Chooses the size classes again from the sizes of the blocks allocated since the last time, if
+   * enough were. The largest size is kept, and the other sizes are the multiples of
+   * {@link #SIZE_SAMPLE_GRANULARITY} which minimize the fragmentation of these blocks. They are
+   * adopted only if they save at least {@link #MIN_GAIN_TO_RESIZE} of the fragmentation of the
+   * current ones. The older samples count half as much on each call.
+   * @return true if the size classes changed
+   */
+  public synchronized boolean learnSizeClasses() {
+    if (sizeCounts == null) {
+      return false;
+    }
+    long samples = 0;
+    for (long count : sizeCounts) {
+      samples += count;
+    }
+    int classes = bucketSizes.length;
+    int bins = sizeCounts.length;
+    if (samples < MIN_SAMPLES_TO_LEARN || classes > bins) {
+      return false;
+    }
+    // prefix sums, so that the count and the size of the blocks of bins [a, b] are
+    // counts[b + 1] - counts[a] and sums[b + 1] - sums[a]
+    long[] counts = new long[bins + 1];
+    long[] sums = new long[bins + 1];
+    for (int i = 0; i < bins; i++) {
+      counts[i + 1] = counts[i] + sizeCounts[i];
+      sums[i + 1] = sums[i] + sizeSums[i];
+    }
+    // cost[k][b]: the least fragmentation of the blocks of bins [0, b] with k + 1 size classes, the
+    // largest being the upper bound of bin b, and from[k][b] the first bin of that largest class
+    long[][] cost = new long[classes][bins];
+    int[][] from = new int[classes][bins];
+    for (int b = 0; b < bins; b++) {
+      cost[0][b] = binUpperBound(b) * counts[b + 1] - sums[b + 1];
+    }
+    for (int k = 1; k < classes; k++) {
+      for (int b = k; b < bins; b++) {
+        long best = Long.MAX_VALUE;
+        for (int a = k; a <= b; a++) {
+          long c = cost[k - 1][a - 1] + binUpperBound(b) * (counts[b + 1] - counts[a])
+            - (sums[b + 1] - sums[a]);
+          if (c < best) {
+            best = c;
+            from[k][b] = a;
+          }
+        }
+        cost[k][b] = best;
+      }
+    }
+    int[] learned = new int[classes];
+    for (int k = classes - 1, b = bins - 1; k >= 0; b = from[k][b] - 1, k--) {
+      learned[k] = binUpperBound(b);
+    }
+    long learnedCost = cost[classes - 1][bins - 1];
+    long currentCost = 0;
+    for (int b = 0; b < bins; b++) {
+      BucketSizeInfo bsi = roundUpToBucketSizeInfo(binUpperBound(b));
+      currentCost += bucketSizes[bsi.sizeIndex()] * sizeCounts[b] - sizeSums[b];
+    }
+    for (int i = 0; i < bins; i++) {
+      sizeCounts[i] /= 2;
+      sizeSums[i] /= 2;
+    }
+    if (currentCost == 0 || learnedCost > (1 - MIN_GAIN_TO_RESIZE) * currentCost) {
+      return false;
+    }
+    LOG.info("Changing bucket sizes from {} to {}, expected fragmentation {} instead of {}",
+      Arrays.toString(bucketSizes), Arrays.toString(learned), learnedCost, currentCost);
+    int[] former = bucketSizes;
+    bucketSizes = learned;
+    for (int i = 0; i < classes; i++) {
+      if (former[i] != learned[i]) {
+        bucketSizeInfos[i].sizeChanged();
+      }
+    }
+    return true;
+  }
+
+  private int binUpperBound(int bin) {
+    return Math.min((bin + 1) * SIZE_SAMPLE_GRANULARITY, bigItemSize);
+  }
+
+  /**
+   * Returns the buckets whose blocks should be moved by the cache: the ones holding blocks of a
+   * former size, and the least used ones, of each size, whose blocks fit in the free space of the
+   * others. The returned buckets take no block until {@link #finishEvacuation(Set)}, or until they
+   * are empty.
+   */
+  public synchronized Set<Integer> startEvacuation() {
+    Set<Integer> result = new HashSet<>();
+    for (BucketSizeInfo bsi : bucketSizeInfos) {
+      bsi.evacuate(result);
+    }
+    return result;
+  }
+
+  /**
+   * Lets the buckets returned by {@link #startEvacuation()} which still hold blocks of their
+   * current size take blocks again.
+   */
+  public synchronized void finishEvacuation(Set<Integer> evacuated) {
+    for (int bucketNo : evacuated) {
+      Bucket b = buckets[bucketNo];
+      if (!b.isUninstantiated()) {
+        bucketSizeInfos[b.sizeIndex()].stopEvacuation(b);
+      }
+    }
+  }
+
+  /** Returns the current size classes. */
+  public int[] getBucketSizes() {
+    return bucketSizes.clone();
+  }
+
+  /** Returns the item size of each bucket, which may be the one of a former size class. */
+  public synchronized int[] getBucketItemSizes() {
+    int[] itemSizes = new int[buckets.length];
+    for (int i = 0; i < buckets.length; i++) {
+      itemSizes[i] = buckets[i].getItemAllocationSize();
+    }
+    return itemSizes;
+  }
+
+  /** Returns true if the size classes are learned from the sizes of the allocated blocks. */
+  public boolean isLearningSizeClasses() {
+    return sizeCounts != null;
+  }
+
+  /**
+   * Returns the space lost in the allocated items to blocks smaller than their item size.
+   */
+  public long getFragmentationBytes() {
+    long fragmentation = 0;
+    for (BucketSizeInfo bsi : bucketSizeInfos) {
+      fragmentation += bsi.fragmentationBytes;
+    }
+    return fragmentation;
+  }
+
   private Bucket grabGlobalCompletelyFreeBucket() {
     for (BucketSizeInfo bsi : bucketSizeInfos) {
       Bucket b = bsi.findAndRemoveCompletelyFreeBucket();
@@ -83,12 +83,14 @@ import org.apache.hadoop.hbase.util.IdReadWriteLockStrongRef;
 import org.apache.hadoop.hbase.util.IdReadWriteLockWithObjectPool;
 import org.apache.hadoop.hbase.util.IdReadWriteLockWithObjectPool.ReferenceType;
 import org.apache.hadoop.hbase.util.Pair;
+import org.apache.hadoop.hbase.util.ReflectionUtils;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.yetus.audience.InterfaceAudience;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.hbase.thirdparty.com.google.common.base.Preconditions;
+import org.apache.hbase.thirdparty.com.google.common.primitives.Ints;
 import org.apache.hbase.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.hadoop.hbase.shaded.protobuf.generated.BucketCacheProtos;
@@ -126,6 +128,59 @@ public class BucketCache implements BlockCache, HeapSize {
   private static final String STRONG_REF_KEY = "hbase.bucketcache.offsetlock.usestrongref";
   private static final boolean STRONG_REF_DEFAULT = false;
 
+  /**
+   * Keep the backingMap off-heap, see {@link OffHeapBackingMap}. Only used with IO engines which
+   * do not use shared memory.
+   */
+  static final String OFFHEAP_BACKING_MAP_KEY = "hbase.bucketcache.backingmap.offheap";
+  static final boolean OFFHEAP_BACKING_MAP_DEFAULT = false;
+
+  /**
+   * Learn the bucket sizes from the sizes of the cached blocks, see
+   * {@link BucketAllocator#learnSizeClasses()}, and periodically move the blocks out of the buckets
+   * of a former size and out of the least used buckets, see {@link #defragment()}.
+   */
+  static final String ADAPTIVE_ALLOCATOR_KEY = "hbase.bucketcache.allocator.adaptive";
+  static final boolean ADAPTIVE_ALLOCATOR_DEFAULT = false;
+
+  /** The period of the defragmentation, in seconds. */
+  static final String ADAPTIVE_ALLOCATOR_PERIOD_KEY = "hbase.bucketcache.allocator.adaptive.period";
+  static final int ADAPTIVE_ALLOCATOR_PERIOD_DEFAULT = 5 * 60;
+
+  /** The maximum number of blocks moved by each defragmentation. */
+  static final String DEFRAG_MAX_MOVES_KEY = "hbase.bucketcache.defrag.max.moves";
+  static final int DEFRAG_MAX_MOVES_DEFAULT = 10000;
+
+  /**
+   * The policy deciding which blocks are cached once the cache is full and which are evicted, see
+   * {@link BucketCacheEvictionPolicy}: "priority", the default, "TinyLFU", see
+   * {@link TinyLfuEvictionPolicy}, or the name of a class implementing it.
+   */
+  public static final String EVICTION_POLICY_KEY = "hbase.bucketcache.eviction.policy";
+  static final String EVICTION_POLICY_DEFAULT = "priority";
+
+  /**
+   * The size in bytes of the {@link DecompressedBlockTier} keeping the hottest blocks cached
+   * compressed decompressed too, 0 to disable it.
+   */
+  public static final String DECOMPRESSED_TIER_SIZE_KEY = "hbase.bucketcache.decompressed.size";
+  static final long DECOMPRESSED_TIER_SIZE_DEFAULT = 0;
+
+  /**
+   * Whether a persistent cache keeps its backingMap in a {@link MappedBucketIndex}, a memory mapped
+   * file next to the persistence file updated as the blocks are cached and evicted, rather than in
+   * the snapshots written to the persistence file.
+   */
+  public static final String MAPPED_INDEX_KEY = "hbase.bucketcache.persistence.mapped.index";
+  static final boolean MAPPED_INDEX_DEFAULT = false;
+
+  /** The size in bytes of the segments of the {@link MappedBucketIndex}. */
+  static final String MAPPED_INDEX_SEGMENT_SIZE_KEY =
+    "hbase.bucketcache.persistence.mapped.index.segment.size";
+  static final int MAPPED_INDEX_SEGMENT_SIZE_DEFAULT = 8 * 1024 * 1024;
+
+  static final String MAPPED_INDEX_SUFFIX = ".index";
+
   /** Priority buckets */
   static final float DEFAULT_SINGLE_FACTOR = 0.25f;
   static final float DEFAULT_MULTI_FACTOR = 0.50f;
@@ -155,6 +210,12 @@ public class BucketCache implements BlockCache, HeapSize {
 
   private AtomicBoolean backingMapValidated = new AtomicBoolean(false);
 
+  // The index kept in a memory mapped file when enabled, null otherwise
+  private transient volatile MappedBucketIndex mappedIndex;
+
+  // The backingMap when it is kept off-heap, null otherwise
+  private transient OffHeapBackingMap offHeapBackingMap;
+
   /**
    * Map of hFile -> Region -> File size. This map is used to track all files completed prefetch,
    * together with the region those belong to and the total cached size for the
@@ -254,6 +315,17 @@ public class BucketCache implements BlockCache, HeapSize {
   /** In-memory bucket size */
   private float memoryFactor;
 
+  private int defragMaxMoves;
+
+  private final BucketCacheEvictionPolicy evictionPolicy;
+
+  // null if disabled
+  private final DecompressedBlockTier decompressedTier;
+
+  // The size classes and the item size of each bucket read from the persistence file, if any
+  private int[] persistedBucketSizes;
+  private int[] persistedBucketItemSizes;
+
   private long bucketcachePersistInterval;
 
   private static final String FILE_VERIFY_ALGORITHM =
@@ -292,7 +364,7 @@ public class BucketCache implements BlockCache, HeapSize {
       this.offsetLock = new IdReadWriteLockWithObjectPool<>(ReferenceType.SOFT);
     }
     this.algorithm = conf.get(FILE_VERIFY_ALGORITHM, DEFAULT_FILE_VERIFY_ALGORITHM);
-    this.ioEngine = getIOEngineFromName(ioEngineName, capacity, persistencePath);
+    this.ioEngine = getIOEngineFromName(ioEngineName, capacity, persistencePath, conf);
     this.writerThreads = new WriterThread[writerThreadNum];
     long blockNumCapacity = capacity / blockSize;
     if (blockNumCapacity >= Integer.MAX_VALUE) {
@@ -309,6 +381,17 @@ public class BucketCache implements BlockCache, HeapSize {
     this.queueAdditionWaitTime =
       conf.getLong(QUEUE_ADDITION_WAIT_TIME, DEFAULT_QUEUE_ADDITION_WAIT_TIME);
     this.bucketcachePersistInterval = conf.getLong(BUCKETCACHE_PERSIST_INTERVAL_KEY, 1000);
+    boolean adaptiveAllocator = conf.getBoolean(ADAPTIVE_ALLOCATOR_KEY, ADAPTIVE_ALLOCATOR_DEFAULT);
+    this.defragMaxMoves = conf.getInt(DEFRAG_MAX_MOVES_KEY, DEFRAG_MAX_MOVES_DEFAULT);
+    this.evictionPolicy = createEvictionPolicy(
+      conf.get(EVICTION_POLICY_KEY, EVICTION_POLICY_DEFAULT), capacity / blockSize, conf);
+    long decompressedTierSize =
+      conf.getLong(DECOMPRESSED_TIER_SIZE_KEY, DECOMPRESSED_TIER_SIZE_DEFAULT);
+    this.decompressedTier = decompressedTierSize > 0
+      ? new DecompressedBlockTier(decompressedTierSize, blockSize,
+        conf.getInt(DecompressedBlockTier.MIN_FREQUENCY_KEY,
+          DecompressedBlockTier.MIN_FREQUENCY_DEFAULT))
+      : null;
 
     sanityCheckConfigs();
 
@@ -331,24 +414,45 @@ public class BucketCache implements BlockCache, HeapSize {
     assert writerQueues.size() == writerThreads.length;
     this.ramCache = new RAMCache();
 
-    this.backingMap = new ConcurrentHashMap<>((int) blockNumCapacity);
+    if (conf.getBoolean(OFFHEAP_BACKING_MAP_KEY, OFFHEAP_BACKING_MAP_DEFAULT)) {
+      if (ioEngine.usesSharedMemory()) {
+        LOG.warn("{} is not supported with IO engine {}, using an on-heap backingMap",
+          OFFHEAP_BACKING_MAP_KEY, ioEngine);
+      } else {
+        this.offHeapBackingMap = new OffHeapBackingMap(
+          conf.getInt(OffHeapBackingMap.STRIPES_KEY, OffHeapBackingMap.DEFAULT_STRIPES),
+          this::createRecycler);
+      }
+    }
+    this.backingMap = offHeapBackingMap != null
+      ? offHeapBackingMap
+      : new ConcurrentHashMap<>((int) blockNumCapacity);
 
     if (isCachePersistent()) {
       if (ioEngine instanceof FileIOEngine) {
         startBucketCachePersisterThread();
       }
+      File mappedIndexFile = new File(persistencePath + MAPPED_INDEX_SUFFIX);
+      if (conf.getBoolean(MAPPED_INDEX_KEY, MAPPED_INDEX_DEFAULT)) {
+        this.mappedIndex = new MappedBucketIndex(mappedIndexFile,
+          conf.getInt(MAPPED_INDEX_SEGMENT_SIZE_KEY, MAPPED_INDEX_SEGMENT_SIZE_DEFAULT));
+      } else if (mappedIndexFile.exists() && !mappedIndexFile.delete()) {
+        // Left by a run with the mapped index enabled, it is never read now
+        LOG.warn("Failed to delete the stale mapped index {} of the cache", mappedIndexFile);
+      }
       try {
-        retrieveFromFile(bucketSizes);
+        retrieveFromFile(bucketSizes, adaptiveAllocator);
       } catch (IOException ioex) {
         LOG.error("Can't restore from file[{}] because of ", persistencePath, ioex);
         backingMap.clear();
         fullyCachedFiles.clear();
         backingMapValidated.set(true);
-        bucketAllocator = new BucketAllocator(capacity, bucketSizes);
+        bucketAllocator = new BucketAllocator(capacity, bucketSizes, adaptiveAllocator);
         regionCachedSize.clear();
+        rewriteMappedIndex();
       }
     } else {
-      bucketAllocator = new BucketAllocator(capacity, bucketSizes);
+      bucketAllocator = new BucketAllocator(capacity, bucketSizes, adaptiveAllocator);
     }
     final String threadName = Thread.currentThread().getName();
     this.cacheEnabled = true;
@@ -364,6 +468,16 @@ public class BucketCache implements BlockCache, HeapSize {
     // every five minutes.
     this.scheduleThreadPool.scheduleAtFixedRate(new StatisticsThread(this), statThreadPeriod,
       statThreadPeriod, TimeUnit.SECONDS);
+    if (adaptiveAllocator) {
+      int period = conf.getInt(ADAPTIVE_ALLOCATOR_PERIOD_KEY, ADAPTIVE_ALLOCATOR_PERIOD_DEFAULT);
+      this.scheduleThreadPool.scheduleWithFixedDelay(() -> {
+        try {
+          defragment();
+        } catch (Throwable t) {
+          LOG.warn("Failed to defragment the bucket cache", t);
+        }
+      }, period, period, TimeUnit.SECONDS);
+    }
     LOG.info("Started bucket cache; ioengine=" + ioEngineName + ", capacity="
       + StringUtils.byteDesc(capacity) + ", blockSize=" + StringUtils.byteDesc(blockSize)
       + ", writerThreadNum=" + writerThreadNum + ", writerQLen=" + writerQLen + ", persistencePath="
@@ -424,9 +538,15 @@ public class BucketCache implements BlockCache, HeapSize {
    * Get the IOEngine from the IO engine name
    * @return the IOEngine
    */
-  private IOEngine getIOEngineFromName(String ioEngineName, long capacity, String persistencePath)
-    throws IOException {
-    if (ioEngineName.startsWith("file:") || ioEngineName.startsWith("files:")) {
+  private IOEngine getIOEngineFromName(String ioEngineName, long capacity, String persistencePath,
+    Configuration conf) throws IOException {
+    if (ioEngineName.startsWith("asyncfiles:")) {
+      // Same layout as 'files:', but writes are queued and done by a pool of IO threads.
+      String[] filePaths =
+        ioEngineName.substring(ioEngineName.indexOf(":") + 1).split(FileIOEngine.FILE_DELIMITER);
+      return new AsyncFileIOEngine(conf, capacity, persistencePath != null, cacheStats,
+        filePaths);
+    } else if (ioEngineName.startsWith("file:") || ioEngineName.startsWith("files:")) {
       // In order to make the usage simple, we only need the prefix 'files:' in
       // document whether one or multiple file(s), but also support 'file:' for
       // the compatibility
@@ -485,7 +605,22 @@ public class BucketCache implements BlockCache, HeapSize {
   @Override
   public void cacheBlock(BlockCacheKey cacheKey, Cacheable cachedItem, boolean inMemory,
     boolean waitWhenCache) {
-    cacheBlockWithWait(cacheKey, cachedItem, inMemory, waitWhenCache && queueAdditionWaitTime > 0);
+    cacheBlock(cacheKey, cachedItem, inMemory, waitWhenCache, false);
+  }
+
+  /**
+   * Cache the block with the specified name and buffer.
+   * @param cacheKey      block's cache key
+   * @param cachedItem    block buffer
+   * @param inMemory      if block is in-memory
+   * @param waitWhenCache if true, blocking wait when queue is full
+   * @param skipAdmission if true, cached without asking the eviction policy
+   */
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable cachedItem, boolean inMemory,
+    boolean waitWhenCache, boolean skipAdmission) {
+    cacheBlockWithWait(cacheKey, cachedItem, inMemory, waitWhenCache && queueAdditionWaitTime > 0,
+      skipAdmission);
   }
 
   /**
@@ -497,6 +632,17 @@ public class BucketCache implements BlockCache, HeapSize {
    */
   public void cacheBlockWithWait(BlockCacheKey cacheKey, Cacheable cachedItem, boolean inMemory,
     boolean wait) {
+    cacheBlockWithWait(cacheKey, cachedItem, inMemory, wait, false);
+  }
+
+  /**
+   * Cache the block to ramCache. Above the acceptable size, the eviction policy decides whether a
+   * block read on demand is worth caching, while the prefetched and cache-on-write blocks are
+   * always cached: they were not looked up yet, so they would never be admitted.
+   * @param skipAdmission if the block is cached before it is read, when it is prefetched or written
+   */
+  private void cacheBlockWithWait(BlockCacheKey cacheKey, Cacheable cachedItem, boolean inMemory,
+    boolean wait, boolean skipAdmission) {
     if (cacheEnabled) {
       if (backingMap.containsKey(cacheKey) || ramCache.containsKey(cacheKey)) {
         if (shouldReplaceExistingCacheBlock(cacheKey, cachedItem)) {
@@ -507,12 +653,28 @@ public class BucketCache implements BlockCache, HeapSize {
           }
           cacheBlockWithWaitInternal(cacheKey, cachedItem, inMemory, wait);
         }
-      } else {
+      } else if (
+        inMemory || skipAdmission || bucketAllocator.getUsedSize() < acceptableSize()
+          || evictionPolicy.admit(cacheKey)
+      ) {
         cacheBlockWithWaitInternal(cacheKey, cachedItem, inMemory, wait);
+      } else {
+        cacheStats.admissionRejected();
       }
     }
   }
 
+  private static BucketCacheEvictionPolicy createEvictionPolicy(String policy, long maxBlocks,
+    Configuration conf) {
+    if (policy.equalsIgnoreCase(EVICTION_POLICY_DEFAULT)) {
+      return new PriorityEvictionPolicy(maxBlocks, conf);
+    } else if (policy.equalsIgnoreCase("TinyLFU")) {
+      return new TinyLfuEvictionPolicy(maxBlocks, conf);
+    }
+    return ReflectionUtils.instantiateWithCustomCtor(policy,
+      new Class[] { long.class, Configuration.class }, new Object[] { maxBlocks, conf });
+  }
+
   protected boolean shouldReplaceExistingCacheBlock(BlockCacheKey cacheKey, Cacheable newBlock) {
     return BlockCacheUtil.shouldReplaceExistingCacheBlock(this, cacheKey, newBlock);
   }
@@ -578,6 +740,7 @@ public class BucketCache implements BlockCache, HeapSize {
     if (re != null) {
       if (updateCacheMetrics) {
         cacheStats.hit(caching, key.isPrimary(), key.getBlockType());
+        evictionPolicy.recordHit(key);
       }
       re.access(accessCount.incrementAndGet());
       return re.getData();
@@ -605,6 +768,7 @@ public class BucketCache implements BlockCache, HeapSize {
           if (updateCacheMetrics) {
             cacheStats.hit(caching, key.isPrimary(), key.getBlockType());
             cacheStats.ioHit(System.nanoTime() - start);
+            evictionPolicy.recordHit(key);
           }
           bucketEntry.access(accessCount.incrementAndGet());
           if (this.ioErrorStartTime > 0) {
@@ -616,7 +780,11 @@ public class BucketCache implements BlockCache, HeapSize {
         // When using file io engine persistent cache,
         // the cache map state might differ from the actual cache. If we reach this block,
         // we should remove the cache key entry from the backing map
-        backingMap.remove(key);
+        BucketEntry removed = backingMap.remove(key);
+        MappedBucketIndex index = mappedIndex;
+        if (removed != null && index != null) {
+          index.remove(key, removed);
+        }
         fullyCachedFiles.remove(key.getHfileName());
         LOG.debug("Failed to fetch block for cache key: {}.", key, hioex);
       } catch (IOException ioex) {
@@ -628,6 +796,9 @@ public class BucketCache implements BlockCache, HeapSize {
     }
     if (!repeat && updateCacheMetrics) {
       cacheStats.miss(caching, key.isPrimary(), key.getBlockType());
+      if (evictionPolicy.recordMiss(key)) {
+        cacheStats.ghostHit();
+      }
     }
     return null;
   }
@@ -639,6 +810,13 @@ public class BucketCache implements BlockCache, HeapSize {
     boolean evictedByEvictionProcess) {
     bucketEntry.markAsEvicted();
     blocksByHFile.remove(cacheKey);
+    MappedBucketIndex index = mappedIndex;
+    if (index != null) {
+      index.remove(cacheKey, bucketEntry);
+    }
+    if (decompressedTier != null) {
+      decompressedTier.evict(cacheKey);
+    }
     if (decrementBlockNumber) {
       this.blockNumber.decrement();
       if (ioEngine.isPersistent()) {
@@ -698,6 +876,151 @@ public class BucketCache implements BlockCache, HeapSize {
     realCacheSize.add(-1 * bucketEntry.getLength());
   }
 
+  /**
+   * Learns the bucket sizes again, then moves blocks out of the buckets of a former size, and out
+   * of the least used buckets of each size, so that these buckets become free for the sizes which
+   * need them. At most {@link #DEFRAG_MAX_MOVES_KEY} blocks are moved on each call. All the blocks
+   * are copied first, and the IOEngine is synced once before the backingMap points to the copies.
+   */
+  void defragment() {
+    if (!cacheEnabled) {
+      return;
+    }
+    if (bucketAllocator.learnSizeClasses()) {
+      cacheStats.sizeClassesChanged();
+    }
+    Set<Integer> evacuated = bucketAllocator.startEvacuation();
+    if (evacuated.isEmpty()) {
+      return;
+    }
+    List<Relocation> relocations = new ArrayList<>();
+    int moved = 0;
+    ByteBuffer metaBuff = ByteBuffer.allocate(HFileBlock.BLOCK_METADATA_SPACE);
+    try {
+      for (Map.Entry<BlockCacheKey, BucketEntry> entry : backingMap.entrySet()) {
+        if (relocations.size() >= defragMaxMoves || !cacheEnabled) {
+          break;
+        }
+        BucketEntry bucketEntry = entry.getValue();
+        if (evacuated.contains(bucketAllocator.getBucketIndex(bucketEntry.offset()))) {
+          Relocation relocation = copy(entry.getKey(), bucketEntry, metaBuff);
+          if (relocation != null) {
+            relocations.add(relocation);
+          }
+        }
+      }
+    } catch (CacheFullException cfe) {
+      LOG.debug("No space left to move blocks to, copied {} blocks", relocations.size());
+    } catch (IOException ioex) {
+      LOG.warn("Failed copying blocks in bucket cache, copied {} blocks", relocations.size(),
+        ioex);
+    } finally {
+      moved = publish(relocations);
+      bucketAllocator.finishEvacuation(evacuated);
+    }
+    LOG.debug("Moved {} blocks out of {} buckets", moved, evacuated.size());
+  }
+
+  /** A block copied to a new place of the IOEngine, not yet pointed to by the backingMap. */
+  private static final class Relocation {
+
+    final BlockCacheKey key;
+
+    final BucketEntry from;
+
+    final BucketEntry to;
+
+    Relocation(BlockCacheKey key, BucketEntry from, BucketEntry to) {
+      this.key = key;
+      this.from = from;
+      this.to = to;
+    }
+  }
+
+  /**
+   * Copies a block to a new place of the IOEngine. Blocks referenced by RPCs, or evicted or
+   * replaced meanwhile, are not copied.
+   * @return the copy, to be published with {@link #publish(List)}, or null if not copied
+   */
+  private Relocation copy(BlockCacheKey key, BucketEntry bucketEntry, ByteBuffer metaBuff)
+    throws IOException {
+    if (bucketEntry.isRpcRef()) {
+      return null;
+    }
+    Cacheable block;
+    ReentrantReadWriteLock lock = offsetLock.getLock(bucketEntry.offset());
+    lock.readLock().lock();
+    try {
+      if (!bucketEntry.equals(backingMap.get(key))) {
+        return null;
+      }
+      block = ioEngine.read(bucketEntry);
+      if (ioEngine.usesSharedMemory()) {
+        block.retain();
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    try {
+      RAMQueueEntry re = new RAMQueueEntry(key, block, bucketEntry.getAccessCounter(),
+        bucketEntry.getPriority() == BlockPriority.MEMORY,
+        isCachePersistent() && ioEngine instanceof FileIOEngine);
+      metaBuff.clear();
+      BucketEntry moved =
+        re.writeToCache(ioEngine, bucketAllocator, realCacheSize, this::createRecycler, metaBuff);
+      return moved != null ? new Relocation(key, bucketEntry, moved) : null;
+    } finally {
+      block.release();
+    }
+  }
+
+  /**
+   * Syncs the IOEngine once for all the copied blocks, then makes the backingMap point to every
+   * copy whose block was not evicted or replaced meanwhile. If the sync fails no copy is used.
+   * @return the number of blocks moved
+   */
+  private int publish(List<Relocation> relocations) {
+    if (relocations.isEmpty()) {
+      return 0;
+    }
+    try {
+      ioEngine.sync();
+    } catch (IOException ioex) {
+      LOG.warn("Failed syncing {} moved blocks in bucket cache", relocations.size(), ioex);
+      relocations.forEach(relocation -> relocation.to.markAsEvicted());
+      return 0;
+    }
+    int moved = 0;
+    for (Relocation relocation : relocations) {
+      BlockCacheKey key = relocation.key;
+      BucketEntry from = relocation.from;
+      BucketEntry to = relocation.to;
+      // Under the write lock of the new offset too, see putIntoBackingMap
+      boolean replaced = to.withWriteLock(offsetLock, () -> {
+        if (!from.withWriteLock(offsetLock, () -> backingMap.replace(key, from, to))) {
+          return false;
+        }
+        MappedBucketIndex index = mappedIndex;
+        if (index != null) {
+          index.put(key, to);
+        }
+        return true;
+      });
+      if (!replaced) {
+        // Evicted or cached again meanwhile
+        to.markAsEvicted();
+        continue;
+      }
+      from.markAsEvicted();
+      cacheStats.blockRelocated(to.getLength());
+      moved++;
+    }
+    if (moved > 0 && ioEngine.isPersistent()) {
+      setCacheInconsistent(true);
+    }
+    return moved;
+  }
+
   /**
    * Try to evict the block from {@link BlockCache} by force. We'll call this in few cases:<br>
    * 1. Close an HFile, and clear all cached blocks. <br>
@@ -861,7 +1184,12 @@ public class BucketCache implements BlockCache, HeapSize {
         : (StringUtils.formatPercent(cacheStats.getHitCachingRatio(), 2) + ", "))
       + "evictions=" + cacheStats.getEvictionCount() + ", " + "evicted="
       + cacheStats.getEvictedCount() + ", " + "evictedPerRun=" + cacheStats.evictedPerEviction()
-      + ", " + "allocationFailCount=" + cacheStats.getAllocationFailCount());
+      + ", " + "allocationFailCount=" + cacheStats.getAllocationFailCount()
+      + (decompressedTier == null
+        ? ""
+        : (", decompressedSize=" + StringUtils.byteDesc(decompressedTier.getSize())
+          + ", decompressedBlocks=" + decompressedTier.getBlockCount() + ", decompressedHits="
+          + decompressedTier.getHitCount())));
     cacheStats.reset();
 
     bucketAllocator.logDebugStatistics();
@@ -972,6 +1300,22 @@ public class BucketCache implements BlockCache, HeapSize {
       long bytesToFreeWithExtra =
         (long) Math.floor(bytesToFreeWithoutExtra * (1 + extraFreeFactor));
 
+      Comparator<Map.Entry<BlockCacheKey, BucketEntry>> evictionOrder =
+        evictionPolicy.getEvictionOrder(accessCount.get());
+      if (evictionOrder != null) {
+        // The policy orders all the blocks, whatever their priority
+        BucketEntryGroup group = new BucketEntryGroup(bytesToFreeWithExtra, blockSize, 0,
+          evictionOrder);
+        for (Map.Entry<BlockCacheKey, BucketEntry> bucketEntryWithKey : backingMap.entrySet()) {
+          group.add(bucketEntryWithKey);
+        }
+        long bytesFreed = group.free(bytesToFreeWithExtra);
+        freeEntireBuckets(DEFAULT_FREE_ENTIRE_BLOCK_FACTOR * bucketSizesAboveThresholdCount(1.0f));
+        LOG.debug("Bucket cache free space completed; freed={}, total={}",
+          StringUtils.byteDesc(bytesFreed), StringUtils.byteDesc(totalSize));
+        return;
+      }
+
       // Instantiate priority buckets
       BucketEntryGroup bucketSingle =
         new BucketEntryGroup(bytesToFreeWithExtra, blockSize, getPartitionSize(singleFactor));
@@ -1119,8 +1463,24 @@ public class BucketCache implements BlockCache, HeapSize {
    * @param bucketEntry Bucket entry to put into backingMap.
    */
   protected void putIntoBackingMap(BlockCacheKey key, BucketEntry bucketEntry) {
-    BucketEntry previousEntry = backingMap.put(key, bucketEntry);
-    blocksByHFile.add(key);
+    BucketEntry previousEntry;
+    MappedBucketIndex index = mappedIndex;
+    if (index == null) {
+      previousEntry = backingMap.put(key, bucketEntry);
+    } else {
+      // The evictions record the removal under the write lock of the offset, so taking it here
+      // appends the addition before the removal of an eviction racing with it. Otherwise the
+      // replay would bring back a block whose space may be reused already.
+      previousEntry = bucketEntry.withWriteLock(offsetLock, () -> {
+        BucketEntry previous = backingMap.put(key, bucketEntry);
+        index.put(key, bucketEntry);
+        return previous;
+      });
+    }
+    if (offHeapBackingMap == null) {
+      // the off-heap map keeps the blocks of each file itself
+      blocksByHFile.add(key);
+    }
     updateRegionCachedSize(key.getFilePath(), bucketEntry.getLength());
     if (previousEntry != null && previousEntry != bucketEntry) {
       previousEntry.withWriteLock(offsetLock, () -> {
@@ -1323,10 +1683,26 @@ public class BucketCache implements BlockCache, HeapSize {
     if (!isCachePersistent()) {
       throw new IOException("Attempt to persist non-persistent cache mappings!");
     }
+    MappedBucketIndex index = mappedIndex;
+    if (index != null) {
+      try {
+        if (index.needsRewrite(backingMap.size())) {
+          index.rewrite(backingMap);
+        }
+        index.force();
+      } catch (IOException e) {
+        LOG.warn("Failed to rewrite the mapped index of the cache, persisting the backingMap to {}"
+          + " from now on", persistencePath, e);
+        mappedIndex = null;
+        index.close();
+        index = null;
+      }
+    }
     File tempPersistencePath = new File(persistencePath + EnvironmentEdgeManager.currentTime());
     try (FileOutputStream fos = new FileOutputStream(tempPersistencePath, false)) {
       fos.write(ProtobufMagic.PB_MAGIC);
-      BucketProtoUtils.toPB(this).writeDelimitedTo(fos);
+      // The backingMap is kept in the mapped index when there is one
+      BucketProtoUtils.toPB(this, index == null).writeDelimitedTo(fos);
     } catch (IOException e) {
       LOG.error("Failed to persist bucket cache to file", e);
       throw e;
@@ -1351,15 +1727,17 @@ public class BucketCache implements BlockCache, HeapSize {
   /**
    * @see #persistToFile()
    */
-  private void retrieveFromFile(int[] bucketSizes) throws IOException {
+  private void retrieveFromFile(int[] bucketSizes, boolean adaptiveAllocator) throws IOException {
     LOG.info("Started retrieving bucket cache from file");
     File persistenceFile = new File(persistencePath);
     if (!persistenceFile.exists()) {
       LOG.warn("Persistence file missing! "
         + "It's ok if it's first run after enabling persistent cache.");
-      bucketAllocator = new BucketAllocator(cacheCapacity, bucketSizes, backingMap, realCacheSize);
+      bucketAllocator = new BucketAllocator(cacheCapacity, bucketSizes, adaptiveAllocator,
+        backingMap, realCacheSize, null);
       blockNumber.add(backingMap.size());
       backingMapValidated.set(true);
+      rewriteMappedIndex();
       return;
     }
     assert !cacheEnabled;
@@ -1379,7 +1757,22 @@ public class BucketCache implements BlockCache, HeapSize {
           "Persistence file does not start with protobuf magic number. " + persistencePath);
       }
       parsePB(BucketCacheProtos.BucketCacheEntry.parseDelimitedFrom(in));
-      bucketAllocator = new BucketAllocator(cacheCapacity, bucketSizes, backingMap, realCacheSize);
+      if (adaptiveAllocator && persistedBucketSizes != null) {
+        // Restore the learned size classes, the largest size must still be the configured one
+        int[] configured = bucketSizes != null ? bucketSizes : BucketAllocator.DEFAULT_BUCKET_SIZES;
+        if (
+          persistedBucketSizes.length == configured.length
+            && Ints.max(persistedBucketSizes) == Ints.max(configured)
+        ) {
+          bucketSizes = persistedBucketSizes;
+        } else {
+          persistedBucketItemSizes = null;
+        }
+      } else {
+        persistedBucketItemSizes = null;
+      }
+      bucketAllocator = new BucketAllocator(cacheCapacity, bucketSizes, adaptiveAllocator,
+        backingMap, realCacheSize, persistedBucketItemSizes);
       blockNumber.add(backingMap.size());
       LOG.info("Bucket cache retrieved from file successfully");
     }
@@ -1472,46 +1865,56 @@ public class BucketCache implements BlockCache, HeapSize {
     Pair<ConcurrentHashMap<BlockCacheKey, BucketEntry>, NavigableSet<BlockCacheKey>> pair =
       BucketProtoUtils.fromPB(proto.getDeserializersMap(), proto.getBackingMap(),
         this::createRecycler);
-    backingMap = pair.getFirst();
-    blocksByHFile = pair.getSecond();
+    // Whether the backingMap replayed from the mapped index is complete
+    boolean indexIntact = true;
+    boolean rewriteIndex = false;
+    boolean inMappedIndex = proto.getBackingMapInMappedIndex();
+    if (mappedIndex != null) {
+      if (inMappedIndex) {
+        indexIntact = mappedIndex.replay(pair.getFirst(), this::createRecycler);
+        pair.getSecond().addAll(pair.getFirst().keySet());
+        rewriteIndex = !indexIntact;
+      } else {
+        // Persisted before the mapped index was enabled, what it holds is stale
+        rewriteIndex = true;
+      }
+    }
+    if (offHeapBackingMap != null) {
+      offHeapBackingMap.clear();
+      offHeapBackingMap.putAll(pair.getFirst());
+    } else {
+      backingMap = pair.getFirst();
+      blocksByHFile = pair.getSecond();
+    }
     fullyCachedFiles.clear();
-    fullyCachedFiles.putAll(BucketProtoUtils.fromPB(proto.getCachedFilesMap()));
+    if (inMappedIndex && mappedIndex == null) {
+      // The mapped index is disabled since, so the blocks are lost and the files not cached any
+      // more
+      LOG.warn("The backingMap of the cache was kept in the mapped index, which is disabled now. "
+        + "Starting with an empty cache.");
+    } else {
+      fullyCachedFiles.putAll(BucketProtoUtils.fromPB(proto.getCachedFilesMap()));
+    }
+    if (proto.getBucketSizesCount() > 0) {
+      persistedBucketSizes = Ints.toArray(proto.getBucketSizesList());
+      persistedBucketItemSizes = Ints.toArray(proto.getBucketItemSizesList());
+    }
     if (proto.hasChecksum()) {
       try {
         ((PersistentIOEngine) ioEngine).verifyFileIntegrity(proto.getChecksum().toByteArray(),
           algorithm);
-        backingMapValidated.set(true);
+        if (indexIntact) {
+          backingMapValidated.set(true);
+        } else {
+          LOG.warn("The mapped index of the cache is damaged. We need to validate each cache key "
+            + "replayed from it, in a background thread.");
+          startBackingMapValidation();
+        }
       } catch (IOException e) {
         LOG.warn("Checksum for cache file failed. "
           + "We need to validate each cache key in the backing map. "
           + "This may take some time, so we'll do it in a background thread,");
-        Runnable cacheValidator = () -> {
-          while (bucketAllocator == null) {
-            try {
-              Thread.sleep(50);
-            } catch (InterruptedException ex) {
-              throw new RuntimeException(ex);
-            }
-          }
-          long startTime = EnvironmentEdgeManager.currentTime();
-          int totalKeysOriginally = backingMap.size();
-          for (Map.Entry<BlockCacheKey, BucketEntry> keyEntry : backingMap.entrySet()) {
-            try {
-              ((FileIOEngine) ioEngine).checkCacheTime(keyEntry.getValue());
-            } catch (IOException e1) {
-              LOG.debug("Check for key {} failed. Evicting.", keyEntry.getKey());
-              evictBlock(keyEntry.getKey());
-              fullyCachedFiles.remove(keyEntry.getKey().getHfileName());
-            }
-          }
-          backingMapValidated.set(true);
-          LOG.info("Finished validating {} keys in the backing map. Recovered: {}. This took {}ms.",
-            totalKeysOriginally, backingMap.size(),
-            (EnvironmentEdgeManager.currentTime() - startTime));
-        };
-        Thread t = new Thread(cacheValidator);
-        t.setDaemon(true);
-        t.start();
+        startBackingMapValidation();
       }
     } else {
       // if has not checksum, it means the persistence file is old format
@@ -1520,6 +1923,58 @@ public class BucketCache implements BlockCache, HeapSize {
     }
     updateRegionSizeMapWhileRetrievingFromFile();
     verifyCapacityAndClasses(proto.getCacheCapacity(), proto.getIoClass(), proto.getMapClass());
+    if (rewriteIndex) {
+      mappedIndex.rewrite(backingMap);
+    }
+  }
+
+  private void startBackingMapValidation() {
+    Runnable cacheValidator = () -> {
+      while (bucketAllocator == null) {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException ex) {
+          throw new RuntimeException(ex);
+        }
+      }
+      long startTime = EnvironmentEdgeManager.currentTime();
+      int totalKeysOriginally = backingMap.size();
+      for (Map.Entry<BlockCacheKey, BucketEntry> keyEntry : backingMap.entrySet()) {
+        try {
+          ((FileIOEngine) ioEngine).checkCacheTime(keyEntry.getValue());
+        } catch (IOException e1) {
+          LOG.debug("Check for key {} failed. Evicting.", keyEntry.getKey());
+          evictBlock(keyEntry.getKey());
+          fullyCachedFiles.remove(keyEntry.getKey().getHfileName());
+        }
+      }
+      backingMapValidated.set(true);
+      LOG.info("Finished validating {} keys in the backing map. Recovered: {}. This took {}ms.",
+        totalKeysOriginally, backingMap.size(),
+        (EnvironmentEdgeManager.currentTime() - startTime));
+    };
+    Thread t = new Thread(cacheValidator);
+    t.setDaemon(true);
+    t.start();
+  }
+
+  /**
+   * Starts the mapped index over from the backingMap, or stops using it if that fails, the
+   * backingMap being persisted to the persistence file then.
+   */
+  private void rewriteMappedIndex() {
+    MappedBucketIndex index = mappedIndex;
+    if (index == null) {
+      return;
+    }
+    try {
+      index.rewrite(backingMap);
+    } catch (IOException e) {
+      LOG.warn("Failed to rewrite the mapped index of the cache, persisting the backingMap to {}",
+        persistencePath, e);
+      mappedIndex = null;
+      index.close();
+    }
   }
 
   /**
@@ -1553,6 +2008,9 @@ public class BucketCache implements BlockCache, HeapSize {
     for (int i = 0; i < writerThreads.length; ++i)
       writerThreads[i].interrupt();
     this.ramCache.clear();
+    if (decompressedTier != null) {
+      decompressedTier.clear();
+    }
     if (!ioEngine.isPersistent() || persistencePath == null) {
       // If persistent ioengine and a path, we will serialize out the backingMap.
       this.backingMap.clear();
@@ -1588,6 +2046,9 @@ public class BucketCache implements BlockCache, HeapSize {
       } catch (InterruptedException e) {
         LOG.warn("Failed to persist data on exit", e);
       }
+      if (mappedIndex != null) {
+        mappedIndex.close();
+      }
     }
   }
 
@@ -1611,6 +2072,36 @@ public class BucketCache implements BlockCache, HeapSize {
     return this.bucketAllocator;
   }
 
+  /** Returns the heap saved by keeping the backingMap off-heap, 0 if it is on-heap */
+  public long getBackingMapHeapSaved() {
+    return offHeapBackingMap == null ? 0 : offHeapBackingMap.getHeapSaved();
+  }
+
+  /** Returns the off-heap memory used by the backingMap, 0 if it is on-heap */
+  public long getBackingMapOffHeapSize() {
+    return offHeapBackingMap == null ? 0 : offHeapBackingMap.getOffHeapSize();
+  }
+
+  /** Returns the space lost to blocks smaller than the bucket items holding them */
+  public long getFragmentationBytes() {
+    return bucketAllocator.getFragmentationBytes();
+  }
+
+  /** Returns the number of blocks moved between buckets by {@link #defragment()} */
+  public long getRelocatedBlockCount() {
+    return cacheStats.getRelocatedBlockCount();
+  }
+
+  /** Returns the number of blocks the eviction policy refused to cache */
+  public long getAdmissionRejectedCount() {
+    return cacheStats.getAdmissionRejectedCount();
+  }
+
+  /** Returns the number of misses on blocks the eviction policy remembers having evicted */
+  public long getGhostHitCount() {
+    return cacheStats.getGhostHitCount();
+  }
+
   @Override
   public long heapSize() {
     return this.heapSize.sum();
@@ -1670,6 +2161,9 @@ public class BucketCache implements BlockCache, HeapSize {
   }
 
   private Set<BlockCacheKey> getAllCacheKeysForFile(String hfileName) {
+    if (offHeapBackingMap != null) {
+      return offHeapBackingMap.keysOfFile(hfileName);
+    }
     return blocksByHFile.subSet(new BlockCacheKey(hfileName, Long.MIN_VALUE), true,
       new BlockCacheKey(hfileName, Long.MAX_VALUE), true);
   }
@@ -1691,6 +2185,13 @@ public class BucketCache implements BlockCache, HeapSize {
       totalSize = 0;
     }
 
+    public BucketEntryGroup(long bytesToFree, long blockSize, long bucketSize,
+      Comparator<Map.Entry<BlockCacheKey, BucketEntry>> order) {
+      this.bucketSize = bucketSize;
+      queue = new CachedEntryQueue(bytesToFree, blockSize, order);
+      totalSize = 0;
+    }
+
     public void add(Map.Entry<BlockCacheKey, BucketEntry> block) {
       totalSize += block.getValue().getLength();
       queue.add(block);
@@ -1706,6 +2207,7 @@ public class BucketCache implements BlockCache, HeapSize {
         BucketEntry be = entry.getValue();
         if (evictBucketEntryIfNoRpcReferenced(blockCacheKey, be)) {
           freedBytes += be.getLength();
+          evictionPolicy.recordEviction(blockCacheKey);
         }
         if (freedBytes >= toFree) {
           return freedBytes;
@@ -2170,4 +2672,41 @@ public class BucketCache implements BlockCache, HeapSize {
     }
 
   }
+
+  @Override
+  public HFileBlock getDecompressedBlock(BlockCacheKey cacheKey, boolean caching,
+    boolean updateCacheMetrics) {
+    if (!cacheEnabled || decompressedTier == null) {
+      return null;
+    }
+    HFileBlock block = decompressedTier.get(cacheKey);
+    if (block != null) {
+      // A hit on the compressed copy too, so that it is not evicted before the decompressed one
+      if (updateCacheMetrics) {
+        cacheStats.hit(caching, cacheKey.isPrimary(), cacheKey.getBlockType());
+        evictionPolicy.recordHit(cacheKey);
+      }
+      BucketEntry bucketEntry = backingMap.get(cacheKey);
+      if (bucketEntry != null) {
+        bucketEntry.access(accessCount.incrementAndGet());
+      }
+    }
+    return block;
+  }
+
+  @Override
+  public void cacheDecompressedBlock(BlockCacheKey cacheKey, HFileBlock block) {
+    if (cacheEnabled && decompressedTier != null && backingMap.containsKey(cacheKey)) {
+      decompressedTier.cache(cacheKey, block);
+      // The compressed block may have been evicted meanwhile, after it dropped the decompressed
+      // copy which was not there yet
+      if (!backingMap.containsKey(cacheKey)) {
+        decompressedTier.evict(cacheKey);
+      }
+    }
+  }
+
+  DecompressedBlockTier getDecompressedTier() {
+    return decompressedTier;
+  }
 }
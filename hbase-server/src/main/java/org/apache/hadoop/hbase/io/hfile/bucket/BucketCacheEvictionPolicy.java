@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.util.Comparator;
+import java.util.Map;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Decides which blocks the {@link BucketCache} caches once it is full, and which blocks it evicts
+ * to make room. Set with {@link BucketCache#EVICTION_POLICY_KEY}, implementations must have a
+ * constructor taking the number of blocks the cache can hold and the configuration.
+ * <p>
+ * Implementations are called concurrently by the readers of the cache.
+ */
+@InterfaceAudience.Private
+public interface BucketCacheEvictionPolicy {
+
+  /**
+   * Records a lookup of a block found in the cache.
+   */
+  void recordHit(BlockCacheKey key);
+
+  /**
+   * Records a lookup of a block not found in the cache.
+   * @return true if the block was evicted to make room not long ago, a ghost hit
+   */
+  boolean recordMiss(BlockCacheKey key);
+
+  /**
+   * Returns true if a block not in the cache should be cached, called only when the cache is above
+   * its acceptable size.
+   */
+  boolean admit(BlockCacheKey key);
+
+  /**
+   * Records a block evicted to make room.
+   */
+  void recordEviction(BlockCacheKey key);
+
+  /**
+   * Returns the order in which to evict blocks to make room, the greatest first, or null to evict
+   * from the single, multi and memory partitions of the cache by access time.
+   * @param accessCount the current value of the counter the access counters of the blocks are
+   *                    taken from
+   */
+  Comparator<Map.Entry<BlockCacheKey, BucketEntry>> getEvictionOrder(long accessCount);
+}
@@ -20,6 +20,7 @@ package org.apache.hadoop.hbase.io.hfile.bucket;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAdder;
 import org.apache.hadoop.hbase.io.hfile.CacheStats;
+import org.apache.hadoop.hbase.metrics.impl.FastLongHistogram;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.yetus.audience.InterfaceAudience;
 
@@ -36,6 +37,20 @@ public class BucketCacheStats extends CacheStats {
   /* Tracing failed Bucket Cache allocations. */
   private LongAdder allocationFailCount = new LongAdder();
 
+  /* Latency of the operations of an asynchronous IOEngine, in microseconds. */
+  private final FastLongHistogram asyncIOLatency = new FastLongHistogram();
+  /* Operations in flight in an asynchronous IOEngine, sampled when an operation is submitted. */
+  private final FastLongHistogram asyncIOQueueDepth = new FastLongHistogram();
+
+  /* Blocks moved by the defragmentation, and the changes of the bucket sizes. */
+  private final LongAdder relocatedBlockCount = new LongAdder();
+  private final LongAdder relocatedBytes = new LongAdder();
+  private final LongAdder sizeClassChangeCount = new LongAdder();
+
+  /* Blocks the eviction policy refused to cache, and misses on blocks it evicted not long ago. */
+  private final LongAdder admissionRejectedCount = new LongAdder();
+  private final LongAdder ghostHitCount = new LongAdder();
+
   BucketCacheStats() {
     super("BucketCache");
 
@@ -45,7 +60,12 @@ public class BucketCacheStats extends CacheStats {
   @Override
   public String toString() {
     return super.toString() + ", ioHitsPerSecond=" + getIOHitsPerSecond() + ", ioTimePerHit="
-      + getIOTimePerHit() + ", allocationFailCount=" + getAllocationFailCount();
+      + getIOTimePerHit() + ", allocationFailCount=" + getAllocationFailCount()
+      + ", asyncIOLatencyMean=" + asyncIOLatency.getMean() + ", asyncIOQueueDepthMean="
+      + asyncIOQueueDepth.getMean() + ", relocatedBlockCount=" + getRelocatedBlockCount()
+      + ", relocatedBytes=" + getRelocatedBytes() + ", sizeClassChangeCount="
+      + getSizeClassChangeCount() + ", admissionRejectedCount=" + getAdmissionRejectedCount()
+      + ", ghostHitCount=" + getGhostHitCount();
   }
 
   public void ioHit(long time) {
@@ -70,6 +90,8 @@ public class BucketCacheStats extends CacheStats {
     ioHitCount.reset();
     ioHitTime.reset();
     allocationFailCount.reset();
+    asyncIOLatency.snapshotAndReset();
+    asyncIOQueueDepth.snapshotAndReset();
   }
 
   public long getAllocationFailCount() {
@@ -79,4 +101,71 @@ public class BucketCacheStats extends CacheStats {
   public void allocationFailed() {
     allocationFailCount.increment();
   }
+
+  /**
+   * Records an operation submitted to an asynchronous IOEngine.
+   * @param queueDepth the number of operations in flight, including this one
+   */
+  public void asyncIOSubmitted(int queueDepth) {
+    asyncIOQueueDepth.add(queueDepth, 1);
+  }
+
+  /**
+   * Records an operation completed by an asynchronous IOEngine.
+   * @param latencyNanos the time from the submission to the completion of the operation
+   */
+  public void asyncIOCompleted(long latencyNanos) {
+    asyncIOLatency.add(TimeUnit.NANOSECONDS.toMicros(latencyNanos), 1);
+  }
+
+  /** Returns the latency histogram of asynchronous IOEngine operations, in microseconds */
+  public FastLongHistogram getAsyncIOLatency() {
+    return asyncIOLatency;
+  }
+
+  /** Returns the histogram of operations in flight in an asynchronous IOEngine */
+  public FastLongHistogram getAsyncIOQueueDepth() {
+    return asyncIOQueueDepth;
+  }
+
+  /** Records a block moved to another bucket by the defragmentation. */
+  public void blockRelocated(int length) {
+    relocatedBlockCount.increment();
+    relocatedBytes.add(length);
+  }
+
+  public long getRelocatedBlockCount() {
+    return relocatedBlockCount.sum();
+  }
+
+  public long getRelocatedBytes() {
+    return relocatedBytes.sum();
+  }
+
+  /** Records a change of the bucket sizes learned by the allocator. */
+  public void sizeClassesChanged() {
+    sizeClassChangeCount.increment();
+  }
+
+  public long getSizeClassChangeCount() {
+    return sizeClassChangeCount.sum();
+  }
+
+  /** Records a block the eviction policy refused to cache. */
+  public void admissionRejected() {
+    admissionRejectedCount.increment();
+  }
+
+  public long getAdmissionRejectedCount() {
+    return admissionRejectedCount.sum();
+  }
+
+  /** Records a miss on a block the eviction policy evicted not long ago. */
+  public void ghostHit() {
+    ghostHitCount.increment();
+  }
+
+  public long getGhostHitCount() {
+    return ghostHitCount.sum();
+  }
 }
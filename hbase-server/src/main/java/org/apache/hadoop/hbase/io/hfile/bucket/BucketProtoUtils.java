@@ -18,6 +18,7 @@
 package org.apache.hadoop.hbase.io.hfile.bucket;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
@@ -35,6 +36,7 @@ import org.apache.hadoop.hbase.io.hfile.HFileBlock;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.yetus.audience.InterfaceAudience;
 
+import org.apache.hbase.thirdparty.com.google.common.primitives.Ints;
 import org.apache.hbase.thirdparty.com.google.protobuf.ByteString;
 
 import org.apache.hadoop.hbase.shaded.protobuf.generated.BucketCacheProtos;
@@ -46,15 +48,32 @@ final class BucketProtoUtils {
   }
 
   static BucketCacheProtos.BucketCacheEntry toPB(BucketCache cache) {
-    return BucketCacheProtos.BucketCacheEntry.newBuilder().setCacheCapacity(cache.getMaxSize())
+    return toPB(cache, true);
+  }
+
+  /**
+   * @param withBackingMap false to leave the backingMap out, when it is kept in the
+   *                       {@link MappedBucketIndex}
+   */
+  static BucketCacheProtos.BucketCacheEntry toPB(BucketCache cache, boolean withBackingMap) {
+    BucketCacheProtos.BucketCacheEntry.Builder builder = BucketCacheProtos.BucketCacheEntry
+      .newBuilder().setCacheCapacity(cache.getMaxSize())
       .setIoClass(cache.ioEngine.getClass().getName())
       .setMapClass(cache.backingMap.getClass().getName())
       .putAllDeserializers(CacheableDeserializerIdManager.save())
       .putAllCachedFiles(toCachedPB(cache.fullyCachedFiles))
-      .setBackingMap(BucketProtoUtils.toPB(cache.backingMap))
+      .setBackingMap(BucketProtoUtils.toPB(withBackingMap
+        ? cache.backingMap
+        : Collections.<BlockCacheKey, BucketEntry> emptyMap()))
+      .setBackingMapInMappedIndex(!withBackingMap)
       .setChecksum(ByteString
-        .copyFrom(((PersistentIOEngine) cache.ioEngine).calculateChecksum(cache.getAlgorithm())))
-      .build();
+        .copyFrom(((PersistentIOEngine) cache.ioEngine).calculateChecksum(cache.getAlgorithm())));
+    BucketAllocator allocator = cache.getAllocator();
+    if (allocator.isLearningSizeClasses()) {
+      builder.addAllBucketSizes(Ints.asList(allocator.getBucketSizes()))
+        .addAllBucketItemSizes(Ints.asList(allocator.getBucketItemSizes()));
+    }
+    return builder.build();
   }
 
   private static BucketCacheProtos.BackingMap toPB(Map<BlockCacheKey, BucketEntry> backingMap) {
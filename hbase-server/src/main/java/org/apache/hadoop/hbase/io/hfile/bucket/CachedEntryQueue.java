@@ -40,6 +40,8 @@ public class CachedEntryQueue {
   private static final Comparator<Map.Entry<BlockCacheKey, BucketEntry>> COMPARATOR =
     (a, b) -> BucketEntry.COMPARATOR.compare(a.getValue(), b.getValue());
 
+  private final Comparator<Map.Entry<BlockCacheKey, BucketEntry>> comparator;
+
   private MinMaxPriorityQueue<Map.Entry<BlockCacheKey, BucketEntry>> queue;
 
   private long cacheSize;
@@ -50,13 +52,24 @@ public class CachedEntryQueue {
    * @param blockSize expected average size of blocks
    */
   public CachedEntryQueue(long maxSize, long blockSize) {
+    this(maxSize, blockSize, COMPARATOR);
+  }
+
+  /**
+   * @param maxSize    the target size of elements in the queue
+   * @param blockSize  expected average size of blocks
+   * @param comparator the order of the elements, the greatest are kept
+   */
+  public CachedEntryQueue(long maxSize, long blockSize,
+    Comparator<Map.Entry<BlockCacheKey, BucketEntry>> comparator) {
     Preconditions.checkArgument(blockSize > 0, "negative blockSize %s", blockSize);
     Preconditions.checkArgument(maxSize > 0, "negative maxSize %s", maxSize);
     int initialSize = (int) (maxSize / blockSize);
     if (initialSize == 0) {
       initialSize++;
     }
-    queue = MinMaxPriorityQueue.orderedBy(COMPARATOR).expectedSize(initialSize).create();
+    this.comparator = comparator;
+    queue = MinMaxPriorityQueue.orderedBy(comparator).expectedSize(initialSize).create();
     cacheSize = 0;
     this.maxSize = maxSize;
   }
@@ -78,8 +91,9 @@ public class CachedEntryQueue {
       queue.add(entry);
       cacheSize += entry.getValue().getLength();
     } else {
-      BucketEntry head = queue.peek().getValue();
-      if (BucketEntry.COMPARATOR.compare(entry.getValue(), head) > 0) {
+      Map.Entry<BlockCacheKey, BucketEntry> headEntry = queue.peek();
+      BucketEntry head = headEntry.getValue();
+      if (comparator.compare(entry, headEntry) > 0) {
         cacheSize += entry.getValue().getLength();
         cacheSize -= head.getLength();
         if (cacheSize > maxSize) {
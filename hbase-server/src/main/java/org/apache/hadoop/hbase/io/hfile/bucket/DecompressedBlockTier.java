@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.hadoop.hbase.io.ByteBuffAllocator;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.HFileBlock;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * A small off-heap tier of the {@link BucketCache} keeping decompressed copies of the blocks it
+ * caches compressed, see
+ * {@link org.apache.hadoop.hbase.io.hfile.CacheConfig#CACHE_DATA_BLOCKS_COMPRESSED_KEY}, so that
+ * the hits on the hottest blocks do not decompress them again.
+ * <p>
+ * A block decompressed on a hit is copied in the tier once it was looked up at least
+ * {@link #MIN_FREQUENCY_KEY} times, as counted by a frequency sketch. Once the tier is full, the
+ * least frequently looked up blocks, then the least recently looked up ones, are dropped. The
+ * copies are in direct buffers from a pool of the tier, given back to it once the tier and the
+ * readers are done with them, so the direct memory used is bounded by the pool and not by when
+ * the GC runs. The pool holds a quarter more than the size of the tier, for the copies dropped but
+ * still read. Once it is exhausted the copies are made on heap.
+ */
+@InterfaceAudience.Private
+public class DecompressedBlockTier {
+
+  /** The number of lookups of a block before it is kept decompressed. */
+  static final String MIN_FREQUENCY_KEY = "hbase.bucketcache.decompressed.min.frequency";
+  static final int MIN_FREQUENCY_DEFAULT = 2;
+
+  // Drop the blocks down to this fraction of the tier once it is full
+  private static final float DROP_TO_FACTOR = 0.9f;
+
+  // The extra room of the pool, for the copies dropped but still read
+  private static final float POOL_EXTRA_FACTOR = 0.25f;
+
+  private final long maxSize;
+
+  private final int minFrequency;
+
+  private final TinyLfuEvictionPolicy.FrequencySketch sketch;
+
+  private final ByteBuffAllocator allocator;
+
+  private final ConcurrentMap<BlockCacheKey, DecompressedBlock> blocks = new ConcurrentHashMap<>();
+
+  private final LongAdder size = new LongAdder();
+
+  private final AtomicLong accessCount = new AtomicLong();
+
+  private final ReentrantLock dropLock = new ReentrantLock();
+
+  private final LongAdder hitCount = new LongAdder();
+
+  private final LongAdder missCount = new LongAdder();
+
+  /**
+   * @param maxSize      the size of the tier, in bytes
+   * @param blockSize    the approximate size of the decompressed blocks
+   * @param minFrequency the number of lookups of a block before it is kept decompressed
+   */
+  DecompressedBlockTier(long maxSize, long blockSize, int minFrequency) {
+    this.maxSize = maxSize;
+    this.minFrequency = minFrequency;
+    // count the blocks of a few times the size of the tier
+    this.sketch = new TinyLfuEvictionPolicy.FrequencySketch(Math.max(4 * maxSize / blockSize, 16));
+    // a little larger than the blocks, so that a block with its header fits in one buffer, see
+    // ByteBuffAllocator#DEFAULT_BUFFER_SIZE
+    int bufSize = (int) Math.min(blockSize + blockSize / 64, Integer.MAX_VALUE);
+    int bufCount = (int) Math.min((long) (maxSize * (1 + POOL_EXTRA_FACTOR) / bufSize) + 1,
+      Integer.MAX_VALUE);
+    // subclassed as the constructor is protected
+    this.allocator = new ByteBuffAllocator(true, bufCount, bufSize, bufSize / 6) {
+    };
+  }
+
+  /**
+   * Returns the decompressed copy of the block, retained for the caller, or null if the tier does
+   * not keep it.
+   */
+  HFileBlock get(BlockCacheKey key) {
+    DecompressedBlock entry = blocks.computeIfPresent(key, (k, e) -> {
+      // retained before the entry can be dropped, which releases the copy
+      e.block.retain();
+      return e;
+    });
+    if (entry == null) {
+      missCount.increment();
+      return null;
+    }
+    sketch.increment(key);
+    entry.accessCounter = accessCount.incrementAndGet();
+    hitCount.increment();
+    return entry.block;
+  }
+
+  /**
+   * Offers the decompressed block read from the compressed copy of the {@link BucketCache}, copied
+   * in the tier if it is looked up often enough. The passed block is not retained.
+   */
+  void cache(BlockCacheKey key, HFileBlock block) {
+    sketch.increment(key);
+    int frequency = sketch.frequency(key);
+    int length = block.getBufferReadOnly().limit();
+    if (frequency < minFrequency || length > maxSize / 4 || blocks.containsKey(key)) {
+      return;
+    }
+    if (size.sum() + length > maxSize && !drop(length, frequency)) {
+      return;
+    }
+    DecompressedBlock entry = new DecompressedBlock(HFileBlock.deepClone(block, allocator), length);
+    entry.accessCounter = accessCount.incrementAndGet();
+    if (blocks.putIfAbsent(key, entry) == null) {
+      size.add(length);
+    } else {
+      entry.block.release();
+    }
+  }
+
+  /**
+   * Makes room for a block of the given length, dropping the least frequently looked up blocks
+   * first, but none looked up more often than the block, if no other thread is doing so.
+   * @return true if there is room for the block
+   */
+  private boolean drop(int length, int frequency) {
+    if (!dropLock.tryLock()) {
+      return false;
+    }
+    try {
+      long target = (long) (maxSize * DROP_TO_FACTOR) - length;
+      if (size.sum() <= target) {
+        return true;
+      }
+      // the frequencies and the access counters change while sorting, so sort a snapshot of them
+      List<Candidate> candidates = new ArrayList<>(blocks.size());
+      for (Map.Entry<BlockCacheKey, DecompressedBlock> e : blocks.entrySet()) {
+        candidates.add(new Candidate(e.getKey(), sketch.frequency(e.getKey()),
+          e.getValue().accessCounter, e.getValue().length));
+      }
+      candidates.sort(Comparator.<Candidate> comparingInt(c -> c.frequency)
+        .thenComparingLong(c -> c.accessCounter));
+      long toFree = size.sum() - target;
+      List<BlockCacheKey> victims = new ArrayList<>();
+      for (Candidate c : candidates) {
+        if (toFree <= 0 || c.frequency > frequency) {
+          break;
+        }
+        victims.add(c.key);
+        toFree -= c.length;
+      }
+      // Keep the blocks if dropping them does not make enough room
+      if (toFree > 0) {
+        return false;
+      }
+      victims.forEach(this::evict);
+      return true;
+    } finally {
+      dropLock.unlock();
+    }
+  }
+
+  /** Drops the decompressed copy of the block, if the tier keeps it. */
+  void evict(BlockCacheKey key) {
+    DecompressedBlock entry = blocks.remove(key);
+    if (entry != null) {
+      size.add(-entry.length);
+      entry.block.release();
+    }
+  }
+
+  void clear() {
+    for (BlockCacheKey key : blocks.keySet()) {
+      evict(key);
+    }
+  }
+
+  ByteBuffAllocator getAllocator() {
+    return allocator;
+  }
+
+  long getSize() {
+    return size.sum();
+  }
+
+  long getBlockCount() {
+    return blocks.size();
+  }
+
+  long getHitCount() {
+    return hitCount.sum();
+  }
+
+  long getMissCount() {
+    return missCount.sum();
+  }
+
+  private static final class Candidate {
+
+    private final BlockCacheKey key;
+
+    private final int frequency;
+
+    private final long accessCounter;
+
+    private final int length;
+
+    Candidate(BlockCacheKey key, int frequency, long accessCounter, int length) {
+      this.key = key;
+      this.frequency = frequency;
+      this.accessCounter = accessCounter;
+      this.length = length;
+    }
+  }
+
+  private static final class DecompressedBlock {
+
+    private final HFileBlock block;
+
+    private final int length;
+
+    private volatile long accessCounter;
+
+    DecompressedBlock(HFileBlock block, int length) {
+      this.block = block;
+      this.length = length;
+    }
+  }
+}
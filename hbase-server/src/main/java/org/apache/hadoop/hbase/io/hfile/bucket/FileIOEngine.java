@@ -240,6 +240,15 @@ public class FileIOEngine extends PersistentIOEngine {
 
   @Override
   public void write(ByteBuff srcBuff, long offset) throws IOException {
+    writeToFile(srcBuff, offset);
+  }
+
+  /**
+   * Transfers data from the given buffer to file in the calling thread.
+   * @param srcBuff the given buffer from which bytes are to be read
+   * @param offset  The offset in the file where the first byte to be written
+   */
+  final void writeToFile(ByteBuff srcBuff, long offset) throws IOException {
     if (!srcBuff.hasRemaining()) {
       return;
     }
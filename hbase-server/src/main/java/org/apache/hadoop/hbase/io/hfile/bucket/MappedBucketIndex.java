@@ -0,0 +1,374 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import org.apache.hadoop.hbase.io.ByteBuffAllocator;
+import org.apache.hadoop.hbase.io.ByteBuffAllocator.Recycler;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.BlockPriority;
+import org.apache.hadoop.hbase.io.hfile.BlockType;
+import org.apache.hadoop.hbase.io.hfile.HFileBlock;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The index of a persistent {@link BucketCache} kept up to date in a memory mapped file, so that a
+ * restart only has to replay the file instead of waiting for, and parsing, the snapshot of the
+ * whole backingMap written by {@link BucketCache#persistToFile()}.
+ * <p>
+ * Each block added to or removed from the backingMap is appended as a record to the file, which is
+ * made of segments of a fixed size, each starting with a header holding the length and the CRC32
+ * of its records. A segment failing its check ends the replay, the blocks replayed so far then have
+ * to be validated against the cache file. Once the file holds much more records than blocks in the
+ * cache, it is rewritten from the backingMap, the records appended meanwhile being appended to the
+ * new file too.
+ */
+@InterfaceAudience.Private
+class MappedBucketIndex implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(MappedBucketIndex.class);
+
+  private static final int SEGMENT_MAGIC = 0x42434958;
+  private static final int FORMAT_VERSION = 1;
+  // magic, version, length of the records, CRC32 of the records
+  static final int SEGMENT_HEADER_SIZE = 16;
+
+  private static final byte PUT = 1;
+  private static final byte REMOVE = 2;
+
+  // Rewrite the file once it holds twice as many records as blocks in the cache, or this many
+  private static final long MIN_RECORDS_TO_REWRITE = 100000;
+
+  private final File file;
+
+  private final int segmentSize;
+
+  private IndexFile current;
+
+  // The records appended while the file is rewritten, null otherwise
+  private List<ByteBuffer> pending;
+
+  // Set if a record could not be appended, the file has to be rewritten
+  private volatile boolean failed;
+
+  MappedBucketIndex(File file, int segmentSize) {
+    this.file = file;
+    this.segmentSize = segmentSize;
+  }
+
+  /**
+   * Replays the records of the file into the given map, and opens the file to append the next
+   * records.
+   * @return false if a segment failed its check, the blocks put in the map then have to be
+   *         validated, and the file has to be rewritten
+   */
+  synchronized boolean replay(Map<BlockCacheKey, BucketEntry> map,
+    Function<BucketEntry, Recycler> createRecycler) throws IOException {
+    current = new IndexFile(file, segmentSize);
+    long segments = current.channel.size() / segmentSize;
+    long replayed = 0;
+    for (int i = 0; i < segments; i++) {
+      MappedByteBuffer segment = current.map(i);
+      int magic = segment.getInt(0);
+      if (magic == 0) {
+        break;
+      }
+      int length = segment.getInt(8);
+      if (
+        magic != SEGMENT_MAGIC || segment.getInt(4) != FORMAT_VERSION || length < 0
+          || length > segmentSize - SEGMENT_HEADER_SIZE
+      ) {
+        LOG.warn("Bad header for segment {} of {}", i, file);
+        return false;
+      }
+      ByteBuffer records = segment.duplicate();
+      records.position(SEGMENT_HEADER_SIZE).limit(SEGMENT_HEADER_SIZE + length);
+      CRC32 crc = new CRC32();
+      crc.update(records.duplicate());
+      if ((int) crc.getValue() != segment.getInt(12)) {
+        LOG.warn("Checksum mismatch for segment {} of {}", i, file);
+        return false;
+      }
+      while (records.hasRemaining()) {
+        apply(records, map, createRecycler);
+        replayed++;
+      }
+      current.resume(i, segment, crc, length);
+    }
+    current.records = replayed;
+    LOG.info("Replayed {} records of {}, {} blocks", replayed, file, map.size());
+    return true;
+  }
+
+  private static void apply(ByteBuffer records, Map<BlockCacheKey, BucketEntry> map,
+    Function<BucketEntry, Recycler> createRecycler) {
+    byte type = records.get();
+    byte[] name = new byte[records.getShort()];
+    records.get(name);
+    long blockOffset = records.getLong();
+    long offset = records.getLong();
+    if (type == REMOVE) {
+      BlockCacheKey key = new BlockCacheKey(Bytes.toString(name), blockOffset);
+      BucketEntry entry = map.get(key);
+      // a block cached again meanwhile is at another offset
+      if (entry != null && entry.offset() == offset) {
+        map.remove(key);
+      }
+      return;
+    }
+    byte flags = records.get();
+    byte blockType = records.get();
+    int length = records.getInt();
+    int onDiskSizeWithHeader = records.getInt();
+    long accessCounter = records.getLong();
+    long cachedTime = records.getLong();
+    BlockCacheKey key = new BlockCacheKey(Bytes.toString(name), blockOffset, (flags & 1) != 0,
+      blockType < 0 ? null : BlockType.values()[blockType]);
+    BucketEntry entry = new BucketEntry(offset, length, onDiskSizeWithHeader, accessCounter,
+      cachedTime, (flags & 2) != 0, createRecycler, ByteBuffAllocator.HEAP);
+    entry.deserializerIndex = (byte) HFileBlock.BLOCK_DESERIALIZER.getDeserializerIdentifier();
+    map.put(key, entry);
+  }
+
+  /** Records a block added to the backingMap. */
+  void put(BlockCacheKey key, BucketEntry entry) {
+    // As for the snapshot, only the HFileBlocks are restored
+    if (entry.deserializerIndex == HFileBlock.BLOCK_DESERIALIZER.getDeserializerIdentifier()) {
+      append(encodePut(key, entry));
+    }
+  }
+
+  /** Records a block removed from the backingMap. */
+  void remove(BlockCacheKey key, BucketEntry entry) {
+    byte[] name = Bytes.toBytes(key.getHfileName());
+    ByteBuffer record = ByteBuffer.allocate(3 + name.length + 16);
+    record.put(REMOVE).putShort((short) name.length).put(name).putLong(key.getOffset())
+      .putLong(entry.offset());
+    record.flip();
+    append(record);
+  }
+
+  private static ByteBuffer encodePut(BlockCacheKey key, BucketEntry entry) {
+    byte[] name = Bytes.toBytes(key.getHfileName());
+    ByteBuffer record = ByteBuffer.allocate(3 + name.length + 42);
+    record.put(PUT).putShort((short) name.length).put(name).putLong(key.getOffset())
+      .putLong(entry.offset());
+    record.put((byte) ((key.isPrimary() ? 1 : 0)
+      | (entry.getPriority() == BlockPriority.MEMORY ? 2 : 0)));
+    record.put(key.getBlockType() == null ? -1 : (byte) key.getBlockType().ordinal());
+    record.putInt(entry.getLength()).putInt(entry.getOnDiskSizeWithHeader())
+      .putLong(entry.getAccessCounter()).putLong(entry.getCachedTime());
+    record.flip();
+    return record;
+  }
+
+  private synchronized void append(ByteBuffer record) {
+    if (pending != null) {
+      pending.add(record.duplicate());
+    }
+    if (current == null || failed) {
+      return;
+    }
+    try {
+      current.append(record);
+    } catch (IOException e) {
+      LOG.warn("Failed to append to {}, it will be rewritten", file, e);
+      failed = true;
+    }
+  }
+
+  /** Returns true if the file holds many more records than blocks, or missed some. */
+  boolean needsRewrite(int blocks) {
+    IndexFile index = current;
+    return failed || index == null
+      || index.records > Math.max(2L * blocks, MIN_RECORDS_TO_REWRITE);
+  }
+
+  /**
+   * Rewrites the file from the given map, the records appended meanwhile are appended to the new
+   * file once the map written.
+   */
+  void rewrite(Map<BlockCacheKey, BucketEntry> map) throws IOException {
+    synchronized (this) {
+      pending = new ArrayList<>();
+    }
+    File tmp = new File(file.getPath() + ".tmp");
+    IndexFile rewritten = null;
+    try {
+      if (tmp.exists() && !tmp.delete()) {
+        throw new IOException("Failed to delete " + tmp);
+      }
+      rewritten = new IndexFile(tmp, segmentSize);
+      rewritten.start();
+      for (Map.Entry<BlockCacheKey, BucketEntry> entry : map.entrySet()) {
+        BucketEntry bucketEntry = entry.getValue();
+        if (
+          bucketEntry.deserializerIndex
+              == HFileBlock.BLOCK_DESERIALIZER.getDeserializerIdentifier()
+        ) {
+          rewritten.append(encodePut(entry.getKey(), bucketEntry));
+        }
+      }
+      synchronized (this) {
+        for (ByteBuffer record : pending) {
+          rewritten.append(record);
+        }
+        rewritten.force();
+        if (!tmp.renameTo(file)) {
+          throw new IOException("Failed to rename " + tmp + " to " + file);
+        }
+        if (current != null) {
+          current.close();
+        }
+        current = rewritten;
+        rewritten = null;
+        failed = false;
+      }
+      LOG.debug("Rewrote {} with {} records", file, current.records);
+    } finally {
+      synchronized (this) {
+        pending = null;
+      }
+      if (rewritten != null) {
+        rewritten.close();
+      }
+    }
+  }
+
+  /** Flushes the records to the file. */
+  synchronized void force() {
+    if (current != null) {
+      current.force();
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (current != null) {
+      current.force();
+      current.close();
+      current = null;
+    }
+  }
+
+  /**
+   * An index file being appended to: only the segment the records are appended to is mapped.
+   */
+  private static final class IndexFile {
+
+    private final File file;
+
+    private final int segmentSize;
+
+    private final RandomAccessFile raf;
+
+    private final FileChannel channel;
+
+    private MappedByteBuffer segment;
+
+    private int segmentIndex = -1;
+
+    private CRC32 crc;
+
+    private long records;
+
+    IndexFile(File file, int segmentSize) throws IOException {
+      this.file = file;
+      this.segmentSize = segmentSize;
+      this.raf = new RandomAccessFile(file, "rw");
+      this.channel = raf.getChannel();
+    }
+
+    MappedByteBuffer map(int index) throws IOException {
+      return channel.map(FileChannel.MapMode.READ_WRITE, (long) index * segmentSize, segmentSize);
+    }
+
+    /** Appends to the segment with the given records, already checked. */
+    void resume(int index, MappedByteBuffer segment, CRC32 crc, int length) {
+      this.segmentIndex = index;
+      this.segment = segment;
+      this.crc = crc;
+      segment.position(SEGMENT_HEADER_SIZE + length);
+    }
+
+    void start() throws IOException {
+      if (segment == null) {
+        nextSegment();
+      }
+    }
+
+    private void nextSegment() throws IOException {
+      // force() only flushes the current segment, so flush the full one before moving on
+      force();
+      segmentIndex++;
+      segment = map(segmentIndex);
+      crc = new CRC32();
+      segment.putInt(0, SEGMENT_MAGIC);
+      segment.putInt(4, FORMAT_VERSION);
+      segment.putInt(8, 0);
+      segment.putInt(12, (int) crc.getValue());
+      segment.position(SEGMENT_HEADER_SIZE);
+    }
+
+    void append(ByteBuffer record) throws IOException {
+      if (record.remaining() > segmentSize - SEGMENT_HEADER_SIZE) {
+        throw new IOException("Record of " + record.remaining() + " bytes larger than a segment");
+      }
+      start();
+      if (segment.remaining() < record.remaining()) {
+        nextSegment();
+      }
+      int position = segment.position();
+      segment.put(record.duplicate());
+      ByteBuffer appended = segment.duplicate();
+      appended.position(position).limit(segment.position());
+      crc.update(appended);
+      // the length last, a record is replayed only once its checksum is updated too
+      segment.putInt(12, (int) crc.getValue());
+      segment.putInt(8, segment.position() - SEGMENT_HEADER_SIZE);
+      records++;
+    }
+
+    void force() {
+      if (segment != null) {
+        segment.force();
+      }
+    }
+
+    void close() {
+      try {
+        raf.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close {}", file, e);
+      }
+    }
+  }
+}
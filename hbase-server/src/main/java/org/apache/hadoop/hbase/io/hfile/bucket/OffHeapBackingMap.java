@@ -0,0 +1,782 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.io.ByteBuffAllocator;
+import org.apache.hadoop.hbase.io.ByteBuffAllocator.Recycler;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.BlockPriority;
+import org.apache.hadoop.hbase.io.hfile.BlockType;
+import org.apache.hadoop.hbase.nio.RefCnt;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * A map from {@link BlockCacheKey} to {@link BucketEntry} for the {@link BucketCache} which keeps
+ * its entries off-heap. The names of the files are replaced by an id, and each entry is a fixed
+ * size slot of primitives in one of several open-addressing tables, each in a direct buffer and
+ * guarded by its own lock. So a cache with tens of millions of blocks does not keep tens of
+ * millions of keys, entries and map nodes in the old generation.
+ * <p>
+ * The keys and entries returned by the map are created on demand. As a consequence two entries
+ * returned for the same key are equal, but not the same object, and each has its own reference
+ * count. This is only correct when the {@link IOEngine} does not use shared memory, as then the
+ * reference count of an entry only ever belongs to the {@link BucketCache} itself, see
+ * {@link BucketEntry#refCnt()}. Updates of the access counter of a returned entry are written
+ * through to the map.
+ * <p>
+ * The offsets of the blocks of each file are also kept, in a primitive set per file, so that the
+ * blocks of a file can be found without going through the whole map. Iterators are weakly
+ * consistent, like the ones of {@link ConcurrentHashMap}, but may miss or repeat an entry which
+ * is added or removed while iterating.
+ */
+@InterfaceAudience.Private
+public class OffHeapBackingMap extends AbstractMap<BlockCacheKey, BucketEntry>
+  implements ConcurrentMap<BlockCacheKey, BucketEntry> {
+
+  /** Number of independently locked tables, rounded up to a power of 2 */
+  public static final String STRIPES_KEY = "hbase.bucketcache.backingmap.offheap.stripes";
+  public static final int DEFAULT_STRIPES = 64;
+
+  private static final int INITIAL_STRIPE_CAPACITY = 1024;
+  private static final float LOAD_FACTOR = 0.7f;
+  private static final int ITERATOR_BATCH = 1024;
+
+  // Layout of a slot. The file id is 0 for a free slot and -1 for a removed one.
+  private static final int FILE_ID = 0;
+  private static final int FLAGS = 4;
+  private static final int BLOCK_TYPE = 5;
+  private static final int DESERIALIZER = 6;
+  private static final int LENGTH = 8;
+  private static final int ON_DISK_SIZE = 12;
+  private static final int BLOCK_OFFSET = 16;
+  private static final int BUCKET_OFFSET = 24;
+  private static final int ACCESS_COUNTER = 32;
+  private static final int CACHED_TIME = 40;
+  private static final int SLOT_SIZE = 48;
+
+  private static final int FREE = 0;
+  private static final int REMOVED = -1;
+  private static final byte PRIMARY = 1;
+  private static final byte IN_MEMORY = 2;
+  private static final BlockType[] BLOCK_TYPES = BlockType.values();
+
+  /**
+   * Heap used per entry by a {@link ConcurrentHashMap} backing map, not counting the key. Used to
+   * report the heap saved.
+   */
+  static final long ON_HEAP_ENTRY_OVERHEAD = ClassSize.align(ClassSize.estimateBase(
+    BucketEntry.class, false)) + ClassSize.align(ClassSize.estimateBase(RefCnt.class, false))
+    + ClassSize.ATOMIC_BOOLEAN + ClassSize.align(ClassSize.OBJECT + ClassSize.REFERENCE)
+    + ClassSize.CONCURRENT_HASHMAP_ENTRY + ClassSize.REFERENCE;
+
+  private final Stripe[] stripes;
+  private final Map<String, FileRef> filesByName = new ConcurrentHashMap<>();
+  private final Map<Integer, FileRef> filesById = new ConcurrentHashMap<>();
+  private final AtomicInteger nextFileId = new AtomicInteger(1);
+  private final Function<BucketEntry, Recycler> createRecycler;
+  private volatile ByteBuffAllocator allocator = ByteBuffAllocator.HEAP;
+
+  private final LongAdder size = new LongAdder();
+  private final LongAdder keysHeapSize = new LongAdder();
+  private final LongAdder filesHeapSize = new LongAdder();
+  private final LongAdder offHeapSize = new LongAdder();
+
+  /**
+   * @param stripes        number of tables, rounded up to a power of 2
+   * @param createRecycler used to create the recycler of the entries returned by the map
+   */
+  public OffHeapBackingMap(int stripes, Function<BucketEntry, Recycler> createRecycler) {
+    int n = Integer.highestOneBit(Math.max(1, Math.min(stripes, 1 << 16)) * 2 - 1);
+    this.stripes = new Stripe[n];
+    for (int i = 0; i < n; i++) {
+      this.stripes[i] = new Stripe();
+    }
+    this.createRecycler = createRecycler;
+  }
+
+  private static long hash(int fileId, long blockOffset) {
+    // murmur3 finalizer, the low bits pick the slot and the high bits the stripe
+    long h = blockOffset * 0x9E3779B97F4A7C15L + fileId;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private Stripe stripe(long hash) {
+    return stripes[(int) (hash >>> 48) & (stripes.length - 1)];
+  }
+
+  private static long keyHeapSize(String hfileName) {
+    return ClassSize
+      .align(BlockCacheKey.FIXED_OVERHEAD + ClassSize.STRING + 2 * hfileName.length());
+  }
+
+  @Override
+  public int size() {
+    return (int) Math.min(Integer.MAX_VALUE, size.sum());
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size.sum() <= 0;
+  }
+
+  @Override
+  public BucketEntry get(Object o) {
+    if (!(o instanceof BlockCacheKey)) {
+      return null;
+    }
+    BlockCacheKey key = (BlockCacheKey) o;
+    FileRef file = filesByName.get(key.getHfileName());
+    if (file == null) {
+      return null;
+    }
+    long hash = hash(file.id, key.getOffset());
+    Stripe stripe = stripe(hash);
+    stripe.lock.readLock().lock();
+    try {
+      int slot = stripe.find(file.id, key.getOffset(), hash);
+      return slot < 0 ? null : stripe.read(slot, key);
+    } finally {
+      stripe.lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean containsKey(Object o) {
+    if (!(o instanceof BlockCacheKey)) {
+      return false;
+    }
+    BlockCacheKey key = (BlockCacheKey) o;
+    FileRef file = filesByName.get(key.getHfileName());
+    if (file == null) {
+      return false;
+    }
+    long hash = hash(file.id, key.getOffset());
+    Stripe stripe = stripe(hash);
+    stripe.lock.readLock().lock();
+    try {
+      return stripe.find(file.id, key.getOffset(), hash) >= 0;
+    } finally {
+      stripe.lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public BucketEntry put(BlockCacheKey key, BucketEntry value) {
+    return doPut(key, value, true, null);
+  }
+
+  @Override
+  public BucketEntry putIfAbsent(BlockCacheKey key, BucketEntry value) {
+    return doPut(key, value, false, null);
+  }
+
+  @Override
+  public BucketEntry replace(BlockCacheKey key, BucketEntry value) {
+    BucketEntry previous = get(key);
+    return previous != null && replace(key, previous, value) ? previous : null;
+  }
+
+  @Override
+  public boolean replace(BlockCacheKey key, BucketEntry oldValue, BucketEntry newValue) {
+    return oldValue != null && doPut(key, newValue, true, oldValue) != null;
+  }
+
+  /**
+   * Puts the entry for the key.
+   * @param replace  whether to replace an existing entry
+   * @param expected if not null, only replace an existing entry which matches this one
+   * @return the previous entry
+   */
+  private BucketEntry doPut(BlockCacheKey key, BucketEntry value, boolean replace,
+    BucketEntry expected) {
+    allocator = value.allocator;
+    String name = key.getHfileName();
+    while (true) {
+      FileRef file = filesByName.computeIfAbsent(name, this::newFileRef);
+      long hash = hash(file.id, key.getOffset());
+      Stripe stripe = stripe(hash);
+      stripe.lock.writeLock().lock();
+      try {
+        synchronized (file) {
+          if (file.dead) {
+            // the last block of the file was just removed, try again with a new id
+            continue;
+          }
+          stripe.ensureCapacity();
+          int slot = stripe.find(file.id, key.getOffset(), hash);
+          if (slot >= 0) {
+            BucketEntry previous = stripe.read(slot, key);
+            if (replace && (expected == null || stripe.matches(slot, expected))) {
+              stripe.write(slot, file.id, key, value);
+            } else if (expected != null) {
+              return null;
+            }
+            return previous;
+          }
+          if (expected != null) {
+            return null;
+          }
+          long fileHeapSize = file.heapSize();
+          file.add(key.getOffset(), key.getFilePath());
+          filesHeapSize.add(file.heapSize() - fileHeapSize);
+          stripe.write(stripe.freeSlot(hash), file.id, key, value);
+          stripe.used++;
+          size.increment();
+          keysHeapSize.add(keyHeapSize(name));
+          return null;
+        }
+      } finally {
+        stripe.lock.writeLock().unlock();
+      }
+    }
+  }
+
+  @Override
+  public BucketEntry remove(Object key) {
+    return doRemove(key, null);
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    return value instanceof BucketEntry && doRemove(key, (BucketEntry) value) != null;
+  }
+
+  private BucketEntry doRemove(Object o, BucketEntry expected) {
+    if (!(o instanceof BlockCacheKey)) {
+      return null;
+    }
+    BlockCacheKey key = (BlockCacheKey) o;
+    FileRef file = filesByName.get(key.getHfileName());
+    if (file == null) {
+      return null;
+    }
+    long hash = hash(file.id, key.getOffset());
+    Stripe stripe = stripe(hash);
+    stripe.lock.writeLock().lock();
+    try {
+      int slot = stripe.find(file.id, key.getOffset(), hash);
+      if (slot < 0 || (expected != null && !stripe.matches(slot, expected))) {
+        return null;
+      }
+      BucketEntry previous = stripe.read(slot, key);
+      stripe.table.putInt(slot * SLOT_SIZE + FILE_ID, REMOVED);
+      stripe.used--;
+      stripe.removed++;
+      size.decrement();
+      keysHeapSize.add(-keyHeapSize(file.name));
+      synchronized (file) {
+        file.remove(key.getOffset());
+        if (file.count == 0) {
+          file.dead = true;
+          filesByName.remove(file.name, file);
+          filesById.remove(file.id);
+          filesHeapSize.add(-file.heapSize());
+        }
+      }
+      return previous;
+    } finally {
+      stripe.lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    for (Stripe stripe : stripes) {
+      stripe.lock.writeLock().lock();
+    }
+    try {
+      for (Stripe stripe : stripes) {
+        stripe.reset();
+      }
+      for (FileRef file : filesById.values()) {
+        synchronized (file) {
+          file.dead = true;
+        }
+      }
+      filesByName.clear();
+      filesById.clear();
+      size.reset();
+      keysHeapSize.reset();
+      filesHeapSize.reset();
+    } finally {
+      for (Stripe stripe : stripes) {
+        stripe.lock.writeLock().unlock();
+      }
+    }
+  }
+
+  /** Returns the keys of the blocks of the given file which are in the map */
+  Set<BlockCacheKey> keysOfFile(String hfileName) {
+    FileRef file = filesByName.get(hfileName);
+    if (file == null) {
+      return new HashSet<>();
+    }
+    long[] offsets;
+    synchronized (file) {
+      offsets = file.toArray();
+    }
+    Set<BlockCacheKey> keys = new HashSet<>(offsets.length * 2);
+    for (long offset : offsets) {
+      // only the name and offset matter to find the block
+      keys.add(new BlockCacheKey(hfileName, offset));
+    }
+    return keys;
+  }
+
+  /**
+   * Returns an estimate of the heap a {@link ConcurrentHashMap} with the same entries would use,
+   * minus the heap used by this map.
+   */
+  public long getHeapSaved() {
+    return size.sum() * ON_HEAP_ENTRY_OVERHEAD + keysHeapSize.sum() - filesHeapSize.sum();
+  }
+
+  /** Returns the size of the direct buffers of the tables */
+  public long getOffHeapSize() {
+    return offHeapSize.sum();
+  }
+
+  @Override
+  public Set<Map.Entry<BlockCacheKey, BucketEntry>> entrySet() {
+    return new AbstractSet<Map.Entry<BlockCacheKey, BucketEntry>>() {
+      @Override
+      public Iterator<Map.Entry<BlockCacheKey, BucketEntry>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return OffHeapBackingMap.this.size();
+      }
+
+      @Override
+      public void clear() {
+        OffHeapBackingMap.this.clear();
+      }
+    };
+  }
+
+  private FileRef newFileRef(String name) {
+    while (true) {
+      // ids may wrap around over the life of the cache, skip the reserved and the used ones
+      int id = nextFileId.getAndIncrement() & Integer.MAX_VALUE;
+      if (id == FREE) {
+        continue;
+      }
+      FileRef file = new FileRef(id, name);
+      if (filesById.putIfAbsent(id, file) == null) {
+        filesHeapSize.add(file.heapSize());
+        return file;
+      }
+    }
+  }
+
+  /**
+   * An entry of the map. It matches the entry it was created from, or that another entry created
+   * from the same slot, as long as the slot holds the same block.
+   */
+  private final class MappedEntry extends BucketEntry {
+    private final BlockCacheKey key;
+
+    MappedEntry(BlockCacheKey key, long offset, int length, int onDiskSizeWithHeader,
+      long accessCounter, long cachedTime, boolean inMemory, byte deserializerIndex) {
+      super(offset, length, onDiskSizeWithHeader, accessCounter, cachedTime, inMemory,
+        createRecycler, allocator);
+      this.key = key;
+      this.deserializerIndex = deserializerIndex;
+    }
+
+    @Override
+    void access(long accessCounter) {
+      super.access(accessCounter);
+      updateAccessCounter(key, offset(), accessCounter);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof MappedEntry)) {
+        return false;
+      }
+      MappedEntry e = (MappedEntry) o;
+      return offset() == e.offset() && getLength() == e.getLength()
+        && getCachedTime() == e.getCachedTime();
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(offset()) * 31 + Long.hashCode(getCachedTime());
+    }
+  }
+
+  private void updateAccessCounter(BlockCacheKey key, long bucketOffset, long accessCounter) {
+    FileRef file = filesByName.get(key.getHfileName());
+    if (file == null) {
+      return;
+    }
+    long hash = hash(file.id, key.getOffset());
+    Stripe stripe = stripe(hash);
+    // readers race to set the counter like they do on BucketEntry, the last one wins
+    stripe.lock.readLock().lock();
+    try {
+      int slot = stripe.find(file.id, key.getOffset(), hash);
+      if (slot >= 0 && stripe.table.getLong(slot * SLOT_SIZE + BUCKET_OFFSET) == bucketOffset) {
+        stripe.table.putLong(slot * SLOT_SIZE + ACCESS_COUNTER, accessCounter);
+      }
+    } finally {
+      stripe.lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * One of the tables. Removed slots are only reclaimed when the table is rebuilt, so the slots
+   * never move between two rebuilds.
+   */
+  private final class Stripe {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private ByteBuffer table;
+    private int mask;
+    private int used;
+    private int removed;
+
+    Stripe() {
+      allocate(INITIAL_STRIPE_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+      if (table != null) {
+        offHeapSize.add(-(long) table.capacity());
+      }
+      table = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+      offHeapSize.add(table.capacity());
+      mask = capacity - 1;
+    }
+
+    int capacity() {
+      return mask + 1;
+    }
+
+    void reset() {
+      allocate(INITIAL_STRIPE_CAPACITY);
+      used = 0;
+      removed = 0;
+    }
+
+    /** Returns the slot of the block, or -1 */
+    int find(int fileId, long blockOffset, long hash) {
+      int i = (int) hash & mask;
+      while (true) {
+        int base = i * SLOT_SIZE;
+        int id = table.getInt(base + FILE_ID);
+        if (id == FREE) {
+          return -1;
+        }
+        if (id == fileId && table.getLong(base + BLOCK_OFFSET) == blockOffset) {
+          return i;
+        }
+        i = (i + 1) & mask;
+      }
+    }
+
+    /** Returns the first free or removed slot for a block which is not in the table */
+    int freeSlot(long hash) {
+      int i = (int) hash & mask;
+      while (true) {
+        int id = table.getInt(i * SLOT_SIZE + FILE_ID);
+        if (id == FREE) {
+          return i;
+        }
+        if (id == REMOVED) {
+          removed--;
+          return i;
+        }
+        i = (i + 1) & mask;
+      }
+    }
+
+    /** Makes sure there is room for one more block, rebuilding the table if needed */
+    void ensureCapacity() {
+      int capacity = capacity();
+      if (used + removed + 1 <= capacity * LOAD_FACTOR) {
+        return;
+      }
+      // only grow if the table is really full, otherwise just drop the removed slots
+      int newCapacity = used + 1 > capacity * LOAD_FACTOR / 2 ? capacity * 2 : capacity;
+      if ((long) newCapacity * SLOT_SIZE > Integer.MAX_VALUE) {
+        throw new IllegalStateException("Too many blocks in one table, use more stripes");
+      }
+      ByteBuffer old = table;
+      int oldCapacity = capacity;
+      allocate(newCapacity);
+      for (int i = 0; i < oldCapacity; i++) {
+        int base = i * SLOT_SIZE;
+        int id = old.getInt(base + FILE_ID);
+        if (id == FREE || id == REMOVED) {
+          continue;
+        }
+        int slot = freeSlot(hash(id, old.getLong(base + BLOCK_OFFSET)));
+        for (int j = 0; j < SLOT_SIZE; j += Long.BYTES) {
+          table.putLong(slot * SLOT_SIZE + j, old.getLong(base + j));
+        }
+      }
+      removed = 0;
+    }
+
+    boolean matches(int slot, BucketEntry entry) {
+      int base = slot * SLOT_SIZE;
+      return table.getLong(base + BUCKET_OFFSET) == entry.offset()
+        && table.getInt(base + LENGTH) == entry.getLength()
+        && table.getLong(base + CACHED_TIME) == entry.getCachedTime();
+    }
+
+    void write(int slot, int fileId, BlockCacheKey key, BucketEntry value) {
+      int base = slot * SLOT_SIZE;
+      byte flags = (byte) ((key.isPrimary() ? PRIMARY : 0)
+        | (value.getPriority() == BlockPriority.MEMORY ? IN_MEMORY : 0));
+      table.putInt(base + FILE_ID, fileId);
+      table.put(base + FLAGS, flags);
+      table.put(base + BLOCK_TYPE,
+        (byte) (key.getBlockType() == null ? 0 : key.getBlockType().ordinal() + 1));
+      table.put(base + DESERIALIZER, value.deserializerIndex);
+      table.putInt(base + LENGTH, value.getLength());
+      table.putInt(base + ON_DISK_SIZE, value.getOnDiskSizeWithHeader());
+      table.putLong(base + BLOCK_OFFSET, key.getOffset());
+      table.putLong(base + BUCKET_OFFSET, value.offset());
+      table.putLong(base + ACCESS_COUNTER, value.getAccessCounter());
+      table.putLong(base + CACHED_TIME, value.getCachedTime());
+    }
+
+    BucketEntry read(int slot, BlockCacheKey key) {
+      int base = slot * SLOT_SIZE;
+      return new MappedEntry(key, table.getLong(base + BUCKET_OFFSET),
+        table.getInt(base + LENGTH), table.getInt(base + ON_DISK_SIZE),
+        table.getLong(base + ACCESS_COUNTER), table.getLong(base + CACHED_TIME),
+        (table.get(base + FLAGS) & IN_MEMORY) != 0, table.get(base + DESERIALIZER));
+    }
+
+    BlockCacheKey readKey(int slot, FileRef file) {
+      int base = slot * SLOT_SIZE;
+      long blockOffset = table.getLong(base + BLOCK_OFFSET);
+      boolean primary = (table.get(base + FLAGS) & PRIMARY) != 0;
+      int type = table.get(base + BLOCK_TYPE);
+      BlockType blockType = type == 0 ? null : BLOCK_TYPES[type - 1];
+      Path path = file.path;
+      return path != null
+        ? new BlockCacheKey(path, blockOffset, primary, blockType)
+        : new BlockCacheKey(file.name, blockOffset, primary, blockType);
+    }
+
+    /**
+     * Adds the entries of the slots from the given one to the batch, up to its size limit.
+     * @return the slot to continue from, or -1 when the end of the table is reached
+     */
+    int readBatch(int from, List<Map.Entry<BlockCacheKey, BucketEntry>> batch) {
+      lock.readLock().lock();
+      try {
+        int i = from;
+        for (; i < capacity() && batch.size() < ITERATOR_BATCH; i++) {
+          int id = table.getInt(i * SLOT_SIZE + FILE_ID);
+          if (id == FREE || id == REMOVED) {
+            continue;
+          }
+          FileRef file = filesById.get(id);
+          if (file != null) {
+            BlockCacheKey key = readKey(i, file);
+            batch.add(new SimpleImmutableEntry<>(key, read(i, key)));
+          }
+        }
+        return i < capacity() ? i : -1;
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+  }
+
+  private final class EntryIterator implements Iterator<Map.Entry<BlockCacheKey, BucketEntry>> {
+    private final List<Map.Entry<BlockCacheKey, BucketEntry>> batch = new ArrayList<>();
+    private int batchIndex;
+    private int stripeIndex;
+    private int slot;
+    private Map.Entry<BlockCacheKey, BucketEntry> last;
+
+    @Override
+    public boolean hasNext() {
+      while (batchIndex >= batch.size()) {
+        if (stripeIndex >= stripes.length) {
+          return false;
+        }
+        batch.clear();
+        batchIndex = 0;
+        slot = stripes[stripeIndex].readBatch(slot, batch);
+        if (slot < 0) {
+          stripeIndex++;
+          slot = 0;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public Map.Entry<BlockCacheKey, BucketEntry> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      last = batch.get(batchIndex++);
+      return last;
+    }
+
+    @Override
+    public void remove() {
+      if (last == null) {
+        throw new IllegalStateException();
+      }
+      OffHeapBackingMap.this.remove(last.getKey(), last.getValue());
+      last = null;
+    }
+  }
+
+  /**
+   * A file with blocks in the map. Also keeps the offsets of its blocks in a primitive
+   * open-addressing set. Guarded by itself.
+   */
+  private static final class FileRef {
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final long FIXED_OVERHEAD = ClassSize.align(ClassSize.OBJECT
+      + 3 * ClassSize.REFERENCE + 2 * Integer.BYTES + 1) + ClassSize.ARRAY;
+
+    private final int id;
+    private final String name;
+    private Path path;
+    private long[] offsets = newOffsets(8);
+    private int count;
+    private boolean dead;
+
+    FileRef(int id, String name) {
+      this.id = id;
+      this.name = name;
+    }
+
+    private static long[] newOffsets(int capacity) {
+      long[] offsets = new long[capacity];
+      Arrays.fill(offsets, EMPTY);
+      return offsets;
+    }
+
+    private static int home(long offset, int mask) {
+      return (int) (hash(0, offset) & mask);
+    }
+
+    long heapSize() {
+      return FIXED_OVERHEAD + ClassSize.align((long) offsets.length * Long.BYTES);
+    }
+
+    void add(long offset, Path filePath) {
+      if (path == null) {
+        path = filePath;
+      }
+      if ((count + 1) * 2 > offsets.length) {
+        long[] old = offsets;
+        offsets = newOffsets(old.length * 2);
+        for (long o : old) {
+          if (o != EMPTY) {
+            insert(o);
+          }
+        }
+      }
+      if (insert(offset)) {
+        count++;
+      }
+    }
+
+    private boolean insert(long offset) {
+      int mask = offsets.length - 1;
+      int i = home(offset, mask);
+      while (offsets[i] != EMPTY) {
+        if (offsets[i] == offset) {
+          return false;
+        }
+        i = (i + 1) & mask;
+      }
+      offsets[i] = offset;
+      return true;
+    }
+
+    void remove(long offset) {
+      int mask = offsets.length - 1;
+      int i = home(offset, mask);
+      while (offsets[i] != offset) {
+        if (offsets[i] == EMPTY) {
+          return;
+        }
+        i = (i + 1) & mask;
+      }
+      // shift back the following offsets which would not be found past the gap otherwise
+      int gap = i;
+      int j = i;
+      while (true) {
+        j = (j + 1) & mask;
+        long o = offsets[j];
+        if (o == EMPTY) {
+          break;
+        }
+        int h = home(o, mask);
+        boolean stays = gap <= j ? (gap < h && h <= j) : (gap < h || h <= j);
+        if (!stays) {
+          offsets[gap] = o;
+          gap = j;
+        }
+      }
+      offsets[gap] = EMPTY;
+      count--;
+    }
+
+    long[] toArray() {
+      long[] result = new long[count];
+      int n = 0;
+      for (long o : offsets) {
+        if (o != EMPTY) {
+          result[n++] = o;
+        }
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.util.Comparator;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * The default eviction policy of the {@link BucketCache}: every block is cached, and the least
+ * recently accessed blocks of the single, multi and memory partitions which are above their share
+ * of the cache are evicted first.
+ */
+@InterfaceAudience.Private
+public class PriorityEvictionPolicy implements BucketCacheEvictionPolicy {
+
+  public PriorityEvictionPolicy(long maxBlocks, Configuration conf) {
+  }
+
+  @Override
+  public void recordHit(BlockCacheKey key) {
+  }
+
+  @Override
+  public boolean recordMiss(BlockCacheKey key) {
+    return false;
+  }
+
+  @Override
+  public boolean admit(BlockCacheKey key) {
+    return true;
+  }
+
+  @Override
+  public void recordEviction(BlockCacheKey key) {
+  }
+
+  @Override
+  public Comparator<Map.Entry<BlockCacheKey, BucketEntry>> getEvictionOrder(long accessCount) {
+    return null;
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.BlockPriority;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * A scan resistant eviction policy for the {@link BucketCache}, after W-TinyLFU, see
+ * http://arxiv.org/pdf/1512.00727.pdf.
+ * <p>
+ * The lookups of blocks are counted in a compact frequency sketch, which halves its counts
+ * periodically so that it follows the changes of the working set. Once the cache is full, a block
+ * is cached only if it was looked up more often than the last block evicted to make room, so that
+ * the blocks read once by a scan do not replace the blocks read often. The blocks to evict are the
+ * least frequently looked up ones, then the least recently accessed ones, but for the most recently
+ * cached or accessed blocks, the window, which are evicted last so that new blocks get the time to
+ * be looked up again. Only the blocks read on demand go through the admission: the prefetched and
+ * the cache-on-write blocks were never looked up, so they are always cached, see
+ * {@code BucketCache#cacheBlockWithWait}.
+ * <p>
+ * The evicted blocks are remembered for a while, to count the lookups of blocks evicted too early,
+ * the ghost hits.
+ */
+@InterfaceAudience.Private
+public class TinyLfuEvictionPolicy implements BucketCacheEvictionPolicy {
+
+  /** The fraction of the blocks of the cache in the window. */
+  static final String WINDOW_FRACTION_KEY = "hbase.bucketcache.tinylfu.window.fraction";
+  static final float WINDOW_FRACTION_DEFAULT = 0.01f;
+
+  /** The number of evicted blocks remembered, as a fraction of the blocks of the cache. */
+  static final String GHOST_FRACTION_KEY = "hbase.bucketcache.tinylfu.ghost.fraction";
+  static final float GHOST_FRACTION_DEFAULT = 0.5f;
+
+  private final FrequencySketch sketch;
+
+  private final GhostFilter ghosts;
+
+  private final long windowBlocks;
+
+  // The frequency of the last block evicted to make room
+  private volatile int victimFrequency;
+
+  public TinyLfuEvictionPolicy(long maxBlocks, Configuration conf) {
+    maxBlocks = Math.max(maxBlocks, 1);
+    this.sketch = new FrequencySketch(maxBlocks);
+    this.ghosts = new GhostFilter(
+      Math.max((long) (maxBlocks * conf.getFloat(GHOST_FRACTION_KEY, GHOST_FRACTION_DEFAULT)), 1));
+    this.windowBlocks =
+      (long) (maxBlocks * conf.getFloat(WINDOW_FRACTION_KEY, WINDOW_FRACTION_DEFAULT));
+  }
+
+  @Override
+  public void recordHit(BlockCacheKey key) {
+    increment(key);
+  }
+
+  @Override
+  public boolean recordMiss(BlockCacheKey key) {
+    increment(key);
+    return ghosts.mightContain(key);
+  }
+
+  private void increment(BlockCacheKey key) {
+    if (sketch.increment(key)) {
+      victimFrequency >>>= 1;
+    }
+  }
+
+  @Override
+  public boolean admit(BlockCacheKey key) {
+    return sketch.frequency(key) > victimFrequency;
+  }
+
+  @Override
+  public void recordEviction(BlockCacheKey key) {
+    victimFrequency = sketch.frequency(key);
+    ghosts.add(key);
+  }
+
+  @Override
+  public Comparator<Map.Entry<BlockCacheKey, BucketEntry>> getEvictionOrder(long accessCount) {
+    long windowStart = accessCount - windowBlocks;
+    return Comparator
+      .<Map.Entry<BlockCacheKey, BucketEntry>> comparingInt(
+        e -> e.getValue().getAccessCounter() > windowStart
+          || e.getValue().getPriority() == BlockPriority.MEMORY ? 0 : 1)
+      .thenComparingInt(e -> -sketch.frequency(e.getKey()))
+      .thenComparingLong(e -> -e.getValue().getAccessCounter());
+  }
+
+  int frequency(BlockCacheKey key) {
+    return sketch.frequency(key);
+  }
+
+  private static int spread(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+
+  private static int indexOf(int hash, int i, int mask) {
+    long h = (hash + SEEDS[i]) * SEEDS[i];
+    h += h >>> 32;
+    return ((int) h) & mask;
+  }
+
+  private static int tableSize(long items) {
+    return Integer.highestOneBit((int) Math.min(Math.max(items - 1, 1), 1 << 30)) << 1;
+  }
+
+  private static final long[] SEEDS =
+    { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+  /**
+   * A count-min sketch of 4 bit counters, 16 per long, each item counted in 4 of them. The counts
+   * are halved once the number of increments reaches 10 times the number of items it is sized for.
+   */
+  static final class FrequencySketch {
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final AtomicLongArray table;
+
+    private final int mask;
+
+    private final long sampleSize;
+
+    private final AtomicLong size = new AtomicLong();
+
+    FrequencySketch(long items) {
+      int length = tableSize(items);
+      this.table = new AtomicLongArray(length);
+      this.mask = length - 1;
+      this.sampleSize = 10L * items;
+    }
+
+    int frequency(Object item) {
+      int hash = spread(item.hashCode());
+      int start = (hash & 3) << 2;
+      int frequency = Integer.MAX_VALUE;
+      for (int i = 0; i < 4; i++) {
+        int offset = (start + i) << 2;
+        int count = (int) ((table.get(indexOf(hash, i, mask)) >>> offset) & 0xfL);
+        frequency = Math.min(frequency, count);
+      }
+      return frequency;
+    }
+
+    /**
+     * Counts the item once more.
+     * @return true if the counts were halved
+     */
+    boolean increment(Object item) {
+      int hash = spread(item.hashCode());
+      int start = (hash & 3) << 2;
+      boolean added = false;
+      for (int i = 0; i < 4; i++) {
+        added |= incrementAt(indexOf(hash, i, mask), start + i);
+      }
+      if (added && size.incrementAndGet() >= sampleSize) {
+        long current = size.get();
+        if (current >= sampleSize && size.compareAndSet(current, current / 2)) {
+          reset();
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private boolean incrementAt(int index, int counter) {
+      int offset = counter << 2;
+      long mask = 0xfL << offset;
+      while (true) {
+        long value = table.get(index);
+        if ((value & mask) == mask) {
+          return false;
+        }
+        if (table.compareAndSet(index, value, value + (1L << offset))) {
+          return true;
+        }
+      }
+    }
+
+    private void reset() {
+      for (int i = 0; i < table.length(); i++) {
+        long value;
+        do {
+          value = table.get(i);
+        } while (!table.compareAndSet(i, value, (value >>> 1) & RESET_MASK));
+      }
+    }
+  }
+
+  /**
+   * Remembers about the given number of items, in two bloom filters of 8 bits per item: the items
+   * are added to the current one, which replaces the older one once full.
+   */
+  static final class GhostFilter {
+
+    private final long capacity;
+
+    private final int mask;
+
+    private volatile AtomicLongArray current;
+
+    private volatile AtomicLongArray previous;
+
+    private long count;
+
+    GhostFilter(long capacity) {
+      this.capacity = capacity;
+      int bits = tableSize(capacity * 8);
+      this.mask = bits - 1;
+      this.current = new AtomicLongArray(Math.max(bits >>> 6, 1));
+      this.previous = new AtomicLongArray(Math.max(bits >>> 6, 1));
+    }
+
+    synchronized void add(Object item) {
+      if (++count > capacity) {
+        previous = current;
+        current = new AtomicLongArray(previous.length());
+        count = 1;
+      }
+      int hash = spread(item.hashCode());
+      for (int i = 0; i < 2; i++) {
+        int bit = indexOf(hash, i, mask);
+        long word;
+        do {
+          word = current.get(bit >>> 6);
+        } while (!current.compareAndSet(bit >>> 6, word, word | (1L << bit)));
+      }
+    }
+
+    boolean mightContain(Object item) {
+      int hash = spread(item.hashCode());
+      return contains(current, hash) || contains(previous, hash);
+    }
+
+    private boolean contains(AtomicLongArray bits, int hash) {
+      for (int i = 0; i < 2; i++) {
+        int bit = indexOf(hash, i, mask);
+        if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -17,7 +17,9 @@
  */
 package org.apache.hadoop.hbase.ipc;
 
+import java.util.Map;
 import org.apache.hadoop.hbase.HBaseInterfaceAudience;
+import org.apache.hadoop.hbase.util.Pair;
 import org.apache.yetus.audience.InterfaceAudience;
 import org.apache.yetus.audience.InterfaceStability;
 
@@ -120,6 +122,11 @@ public class DelegatingRpcScheduler extends RpcScheduler {
     return delegate.getNumLifoModeSwitches();
   }
 
+  @Override
+  public Map<String, Pair<Long, Long>> getTenantQueueTimes() {
+    return delegate.getTenantQueueTimes();
+  }
+
   @Override
   public int getWriteQueueLength() {
     return 0;
@@ -17,6 +17,8 @@
  */
 package org.apache.hadoop.hbase.ipc;
 
+import java.util.Collections;
+import java.util.Map;
 import org.apache.hadoop.hbase.util.DirectMemoryUtils;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.yetus.audience.InterfaceAudience;
@@ -222,4 +224,12 @@ public class MetricsHBaseServerWrapperImpl implements MetricsHBaseServerWrapper
 
     return ((NettyRpcServer) server).getTotalAndMaxNettyOutboundBytes();
   }
+
+  @Override
+  public Map<String, Pair<Long, Long>> getTenantQueueTimes() {
+    if (!isServerStarted() || this.server.getScheduler() == null) {
+      return Collections.emptyMap();
+    }
+    return server.getScheduler().getTenantQueueTimes();
+  }
 }
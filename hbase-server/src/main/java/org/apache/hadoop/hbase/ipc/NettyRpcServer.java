@@ -123,6 +123,23 @@ public class NettyRpcServer extends RpcServer {
     "hbase.server.netty.writable.watermark.fatal";
   private static final int CHANNEL_WRITABLE_FATAL_WATERMARK_DEFAULT = 0;
 
+  /**
+   * Whether the cell block of a response references the memory of the cells read from off heap
+   * cached blocks instead of copying them. The blocks are kept until the response is written, so
+   * this needs the reservoir, and neither a compressor nor a codec other than the KeyValue ones.
+   */
+  public static final String ZERO_COPY_CELL_BLOCK_ENABLED =
+    "hbase.ipc.server.cellblock.zerocopy.enabled";
+  private static final boolean ZERO_COPY_CELL_BLOCK_ENABLED_DEFAULT = false;
+
+  /**
+   * The serialized size from which a cell is referenced rather than copied. Small cells are cheaper
+   * to copy than to add as a buffer of their own to the response.
+   */
+  public static final String ZERO_COPY_CELL_BLOCK_MIN_CELL_SIZE =
+    "hbase.ipc.server.cellblock.zerocopy.min.cell.size";
+  private static final int ZERO_COPY_CELL_BLOCK_MIN_CELL_SIZE_DEFAULT = 1024;
+
   private final InetSocketAddress bindAddress;
 
   private final CountDownLatch closed = new CountDownLatch(1);
@@ -142,6 +159,10 @@ public class NettyRpcServer extends RpcServer {
     super(server, name, services, bindAddress, conf, scheduler, reservoirEnabled);
     this.bindAddress = bindAddress;
     this.channelAllocator = getChannelAllocator(conf);
+    if (conf.getBoolean(ZERO_COPY_CELL_BLOCK_ENABLED, ZERO_COPY_CELL_BLOCK_ENABLED_DEFAULT)) {
+      this.zeroCopyCellBlockMinCellSize =
+        conf.getInt(ZERO_COPY_CELL_BLOCK_MIN_CELL_SIZE, ZERO_COPY_CELL_BLOCK_MIN_CELL_SIZE_DEFAULT);
+    }
     // Get the event loop group configuration from the server class if available.
     NettyEventLoopGroupConfig config = null;
     if (server instanceof HBaseServerBase) {
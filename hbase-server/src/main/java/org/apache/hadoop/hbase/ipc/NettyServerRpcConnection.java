@@ -20,9 +20,11 @@ package org.apache.hadoop.hbase.ipc;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import org.apache.hadoop.hbase.CellScanner;
 import org.apache.hadoop.hbase.ipc.RpcServer.CallCleanup;
 import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.nio.MultiByteBuff;
 import org.apache.hadoop.hbase.nio.SingleByteBuff;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.NettyFutureUtils;
@@ -84,7 +86,7 @@ class NettyServerRpcConnection extends ServerRpcConnection {
       return;
     }
     this.callCleanup = () -> buf.release();
-    ByteBuff byteBuff = new SingleByteBuff(buf.nioBuffer());
+    ByteBuff byteBuff = wrap(buf);
     try {
       processOneRpc(byteBuff);
     } catch (Exception e) {
@@ -95,6 +97,24 @@ class NettyServerRpcConnection extends ServerRpcConnection {
     }
   }
 
+  /**
+   * Wraps the request without copying it. The cells of the cell block are created over the
+   * returned buffer, so it points to the memory of the netty buffer, which is only released by the
+   * call cleanup once the call, and any WAL entry created from its cells, is done with it.
+   */
+  static ByteBuff wrap(ByteBuf buf) {
+    if (buf.nioBufferCount() == 1) {
+      return new SingleByteBuff(buf.nioBuffer());
+    }
+    // nioBuffer() would merge the components of a composite buffer into a new buffer
+    ByteBuffer[] buffers = buf.nioBuffers();
+    for (int i = 0; i < buffers.length; i++) {
+      // MultiByteBuff rewinds its items, so each of them has to start at the readable bytes
+      buffers[i] = buffers[i].slice();
+    }
+    return new MultiByteBuff(buffers);
+  }
+
   @Override
   public synchronized void close() {
     channel.close();
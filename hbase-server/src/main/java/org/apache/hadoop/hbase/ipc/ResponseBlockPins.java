@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.hbase.nio.HBaseReferenceCounted;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Keeps the blocks referenced by a response alive until the response has been written.
+ * <p>
+ * The callback of a call, which releases the blocks read by the call, runs once the response is
+ * built. When the cell block of the response references the memory of the cells instead of a copy,
+ * see {@link NettyRpcServer#ZERO_COPY_CELL_BLOCK_ENABLED}, the callback runs with pinning on for
+ * its thread, and the readers hand over the blocks they release with {@link #pin} instead. They
+ * are released by the call once the response is written to the socket.
+ */
+@InterfaceAudience.Private
+public final class ResponseBlockPins {
+
+  private static final ThreadLocal<List<HBaseReferenceCounted>> PINS = new ThreadLocal<>();
+
+  private ResponseBlockPins() {
+  }
+
+  static void begin() {
+    PINS.set(new ArrayList<>());
+  }
+
+  static List<HBaseReferenceCounted> end() {
+    List<HBaseReferenceCounted> pins = PINS.get();
+    PINS.remove();
+    return pins;
+  }
+
+  /**
+   * Returns true if the blocks released by the current thread may be referenced by a response not
+   * written yet, in which case they must be handed over with {@link #pin} instead of released.
+   */
+  public static boolean isPinning() {
+    return PINS.get() != null;
+  }
+
+  /**
+   * Hands over a reference to a block, released once the response is written.
+   */
+  public static void pin(HBaseReferenceCounted block) {
+    PINS.get().add(block);
+  }
+}
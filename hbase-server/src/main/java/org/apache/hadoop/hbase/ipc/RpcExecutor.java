@@ -20,11 +20,14 @@ package org.apache.hadoop.hbase.ipc;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.LongAdder;
@@ -36,6 +39,7 @@ import org.apache.hadoop.hbase.HBaseInterfaceAudience;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.conf.ConfigurationObserver;
 import org.apache.hadoop.hbase.util.BoundedPriorityBlockingQueue;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.hbase.util.ReflectionUtils;
 import org.apache.yetus.audience.InterfaceAudience;
@@ -67,12 +71,14 @@ public abstract class RpcExecutor {
   /**
    * The default, 'fifo', has the least friction but is dumb. If set to 'deadline', uses a priority
    * queue and de-prioritizes long-running scans. Sorting by priority comes at a cost, reduced
-   * throughput.
+   * throughput. If set to 'fair', the handlers are shared between users or namespaces, see
+   * {@link WeightedFairCallQueue}.
    */
   public static final String CALL_QUEUE_TYPE_CODEL_CONF_VALUE = "codel";
   public static final String CALL_QUEUE_TYPE_DEADLINE_CONF_VALUE = "deadline";
   public static final String CALL_QUEUE_TYPE_FIFO_CONF_VALUE = "fifo";
   public static final String CALL_QUEUE_TYPE_PLUGGABLE_CONF_VALUE = "pluggable";
+  public static final String CALL_QUEUE_TYPE_FAIR_CONF_VALUE = "fair";
   public static final String CALL_QUEUE_TYPE_CONF_KEY = "hbase.ipc.server.callqueue.type";
   public static final String CALL_QUEUE_TYPE_CONF_DEFAULT = CALL_QUEUE_TYPE_FIFO_CONF_VALUE;
 
@@ -92,6 +98,24 @@ public abstract class RpcExecutor {
   public static final int CALL_QUEUE_CODEL_DEFAULT_INTERVAL = 100;
   public static final double CALL_QUEUE_CODEL_DEFAULT_LIFO_THRESHOLD = 0.8;
 
+  // These are only used by the fair call queue
+  /** Whether the calls are shared between users, 'user', or namespaces, 'namespace'. */
+  public static final String CALL_QUEUE_FAIR_TENANT = "hbase.ipc.server.callqueue.fair.tenant";
+  public static final String CALL_QUEUE_FAIR_TENANT_USER = "user";
+  public static final String CALL_QUEUE_FAIR_TENANT_NAMESPACE = "namespace";
+  public static final String CALL_QUEUE_FAIR_TENANT_DEFAULT = CALL_QUEUE_FAIR_TENANT_USER;
+  /** Followed by the name of a user or namespace, the share of the handlers it gets, 1 if unset. */
+  public static final String CALL_QUEUE_FAIR_WEIGHT_PREFIX =
+    "hbase.ipc.server.callqueue.fair.weight.";
+  /** The number of tenants whose queue time is exported, the others are accounted together. */
+  public static final String CALL_QUEUE_FAIR_METRICS_MAX_TENANTS =
+    "hbase.ipc.server.callqueue.fair.metrics.max.tenants";
+  public static final int CALL_QUEUE_FAIR_METRICS_MAX_TENANTS_DEFAULT = 100;
+  /** The time after which the queue time of a tenant without calls is no longer exported. */
+  public static final String CALL_QUEUE_FAIR_METRICS_EXPIRY_MS =
+    "hbase.ipc.server.callqueue.fair.metrics.expiry.ms";
+  public static final long CALL_QUEUE_FAIR_METRICS_EXPIRY_MS_DEFAULT = 10 * 60 * 1000L;
+
   public static final String PLUGGABLE_CALL_QUEUE_CLASS_NAME =
     "hbase.ipc.server.callqueue.pluggable.queue.class.name";
   public static final String PLUGGABLE_CALL_QUEUE_WITH_FAST_PATH_ENABLED =
@@ -99,6 +123,8 @@ public abstract class RpcExecutor {
 
   private final LongAdder numGeneralCallsDropped = new LongAdder();
   private final LongAdder numLifoModeSwitches = new LongAdder();
+  private final ConcurrentMap<String, WeightedFairCallQueue.TenantQueueTime> tenantQueueTimes =
+    new ConcurrentHashMap<>();
 
   protected final int numCallQueues;
   protected final List<BlockingQueue<CallRunner>> queues;
@@ -168,6 +194,10 @@ public abstract class RpcExecutor {
       this.queueInitArgs = new Object[] { maxQueueLength, codelTargetDelay, codelInterval,
         codelLifoThreshold, numGeneralCallsDropped, numLifoModeSwitches };
       this.queueClass = AdaptiveLifoCoDelCallQueue.class;
+    } else if (isFairQueueType(callQueueType)) {
+      this.name += ".Fair";
+      this.queueInitArgs = new Object[] { maxQueueLength, conf, tenantQueueTimes };
+      this.queueClass = WeightedFairCallQueue.class;
     } else if (isPluggableQueueType(callQueueType)) {
       Optional<Class<? extends BlockingQueue<CallRunner>>> pluggableQueueClass =
         getPluggableQueueClass();
@@ -349,6 +379,10 @@ public abstract class RpcExecutor {
     return callQueueType.equals(CALL_QUEUE_TYPE_FIFO_CONF_VALUE);
   }
 
+  public static boolean isFairQueueType(final String callQueueType) {
+    return callQueueType.equals(CALL_QUEUE_TYPE_FAIR_CONF_VALUE);
+  }
+
   public static boolean isPluggableQueueType(String callQueueType) {
     return callQueueType.equals(CALL_QUEUE_TYPE_PLUGGABLE_CONF_VALUE);
   }
@@ -391,6 +425,22 @@ public abstract class RpcExecutor {
     return numLifoModeSwitches.longValue();
   }
 
+  /**
+   * Returns the number of calls and the total queue time in milliseconds of the calls dispatched
+   * per tenant, if the fair call queue is used. The tenants without calls dispatched since
+   * {@link #CALL_QUEUE_FAIR_METRICS_EXPIRY_MS} are dropped.
+   */
+  public Map<String, Pair<Long, Long>> getTenantQueueTimes() {
+    long expiry = conf.getLong(CALL_QUEUE_FAIR_METRICS_EXPIRY_MS,
+      CALL_QUEUE_FAIR_METRICS_EXPIRY_MS_DEFAULT);
+    long oldest = EnvironmentEdgeManager.currentTime() - expiry;
+    tenantQueueTimes.values().removeIf(queueTime -> queueTime.lastDispatchTime < oldest);
+    Map<String, Pair<Long, Long>> queueTimes = new HashMap<>();
+    tenantQueueTimes.forEach((tenant, queueTime) -> queueTimes.put(tenant,
+      new Pair<>(queueTime.calls.sum(), queueTime.queueTimeMs.sum())));
+    return queueTimes;
+  }
+
   public int getActiveHandlerCount() {
     return activeHandlerCount.get();
   }
@@ -97,6 +97,7 @@ public class RpcHandler extends Thread {
   private void run(CallRunner cr) {
     MonitoredRPCHandler status = RpcServer.getStatus();
     cr.setStatus(status);
+    long startNs = System.nanoTime();
     try {
       this.activeHandlerCount.incrementAndGet();
       cr.run();
@@ -124,6 +125,10 @@ public class RpcHandler extends Thread {
       }
     } finally {
       this.activeHandlerCount.decrementAndGet();
+      if (q instanceof WeightedFairCallQueue) {
+        // the fair queue shares the handlers by the time spent on the calls of each tenant
+        ((WeightedFairCallQueue) q).completed(cr, System.nanoTime() - startNs);
+      }
     }
   }
 }
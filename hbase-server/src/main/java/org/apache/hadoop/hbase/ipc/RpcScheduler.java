@@ -18,7 +18,10 @@
 package org.apache.hadoop.hbase.ipc;
 
 import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Map;
 import org.apache.hadoop.hbase.HBaseInterfaceAudience;
+import org.apache.hadoop.hbase.util.Pair;
 import org.apache.yetus.audience.InterfaceAudience;
 import org.apache.yetus.audience.InterfaceStability;
 
@@ -131,4 +134,12 @@ public abstract class RpcScheduler {
 
   /** Retrieves the number of active write rpc handler when use RWQueueRpcExecutor. */
   public abstract int getActiveScanRpcHandlerCount();
+
+  /**
+   * If the fair call queue is used, retrieves the number of calls and the total queue time in
+   * milliseconds of the calls dispatched per tenant; returns an empty map otherwise.
+   */
+  public Map<String, Pair<Long, Long>> getTenantQueueTimes() {
+    return Collections.emptyMap();
+  }
 }
@@ -112,6 +112,13 @@ public abstract class RpcServer implements RpcServerInterface, ConfigurationObse
 
   protected final CellBlockBuilder cellBlockBuilder;
 
+  /**
+   * The serialized size from which the cells read from cached blocks are referenced by the cell
+   * block of the response instead of copied, negative if they are always copied. Only set by the
+   * servers which release the responses once written.
+   */
+  protected int zeroCopyCellBlockMinCellSize = -1;
+
   protected static final String AUTH_FAILED_FOR = "Auth failed for ";
   protected static final String AUTH_SUCCESSFUL_FOR = "Auth successful for ";
   protected static final Logger AUDITLOG =
@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.hbase.ipc;
 
+import com.google.errorprone.annotations.RestrictedApi;
 import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.StatusCode;
 import io.opentelemetry.context.Scope;
@@ -30,13 +31,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.hbase.ByteBufferKeyValue;
 import org.apache.hadoop.hbase.CellScanner;
 import org.apache.hadoop.hbase.DoNotRetryIOException;
 import org.apache.hadoop.hbase.HBaseServerException;
+import org.apache.hadoop.hbase.SizeCachedByteBufferKeyValue;
+import org.apache.hadoop.hbase.SizeCachedNoTagsByteBufferKeyValue;
 import org.apache.hadoop.hbase.exceptions.RegionMovedException;
 import org.apache.hadoop.hbase.io.ByteBuffAllocator;
 import org.apache.hadoop.hbase.io.ByteBufferListOutputStream;
 import org.apache.hadoop.hbase.ipc.RpcServer.CallCleanup;
+import org.apache.hadoop.hbase.nio.HBaseReferenceCounted;
 import org.apache.hadoop.hbase.security.User;
 import org.apache.hadoop.hbase.trace.TraceUtil;
 import org.apache.hadoop.hbase.util.ByteBufferUtils;
@@ -93,6 +98,8 @@ public abstract class ServerCall<T extends ServerRpcConnection> implements RpcCa
   protected boolean isError;
   protected ByteBufferListOutputStream cellBlockStream = null;
   protected CallCleanup reqCleanup = null;
+  // The blocks referenced by the cell block, released with it once the response is written.
+  private List<HBaseReferenceCounted> pinnedBlocks = null;
 
   protected final User user;
   protected final InetAddress remoteAddress;
@@ -164,6 +171,10 @@ public abstract class ServerCall<T extends ServerRpcConnection> implements RpcCa
       this.cellBlockStream.releaseResources();
       this.cellBlockStream = null;
     }
+    if (this.pinnedBlocks != null) {
+      this.pinnedBlocks.forEach(HBaseReferenceCounted::release);
+      this.pinnedBlocks = null;
+    }
     // If the call was run successfuly, we might have already returned the BB
     // back to pool. No worries..Then inputCellBlock will be null
     cleanup();
@@ -285,6 +296,7 @@ public abstract class ServerCall<T extends ServerRpcConnection> implements RpcCa
       span.setStatus(StatusCode.OK);
     }
     BufferChain bc = null;
+    boolean referencedCells = false;
     try {
       ResponseHeader.Builder headerBuilder = ResponseHeader.newBuilder();
       // Call id.
@@ -298,8 +310,22 @@ public abstract class ServerCall<T extends ServerRpcConnection> implements RpcCa
       List<ByteBuffer> cellBlock = null;
       int cellBlockSize = 0;
       if (bbAllocator.isReservoirEnabled()) {
-        this.cellBlockStream = this.cellBlockBuilder.buildCellBlockStream(this.connection.codec,
-          this.connection.compressionCodec, cells, bbAllocator);
+        int minCellSize = this.connection.rpcServer.zeroCopyCellBlockMinCellSize;
+        if (
+          cells != null && minCellSize >= 0 && this.rpcCallback != null
+            && CellBlockBuilder.canReferenceCells(this.connection.codec,
+              this.connection.compressionCodec)
+        ) {
+          // Only the cells of blocks read by the call are referenced, the callback releases these
+          // blocks and is run with pinning on below. Memstore cells may be freed at any time.
+          referencedCells = true;
+          this.cellBlockStream = this.cellBlockBuilder.buildCellBlockStream(this.connection.codec,
+            cells, bbAllocator, kv -> isFromCachedBlock(kv) && kv.getBuffer().isDirect()
+              && kv.getSerializedSize() >= minCellSize);
+        } else {
+          this.cellBlockStream = this.cellBlockBuilder.buildCellBlockStream(this.connection.codec,
+            this.connection.compressionCodec, cells, bbAllocator);
+        }
         if (this.cellBlockStream != null) {
           cellBlock = this.cellBlockStream.getByteBuffers();
           cellBlockSize = this.cellBlockStream.size();
@@ -344,16 +370,34 @@ public abstract class ServerCall<T extends ServerRpcConnection> implements RpcCa
     // Once a response message is created and set to this.response, this Call can be treated as
     // done. The Responder thread will do the n/w write of this message back to client.
     if (this.rpcCallback != null) {
+      if (referencedCells) {
+        ResponseBlockPins.begin();
+      }
       try (Scope ignored = span.makeCurrent()) {
         this.rpcCallback.run();
       } catch (Exception e) {
         // Don't allow any exception here to kill this handler thread.
         RpcServer.LOG.warn("Exception while running the Rpc Callback.", e);
         TraceUtil.setError(span, e);
+      } finally {
+        if (referencedCells) {
+          this.pinnedBlocks = ResponseBlockPins.end();
+        }
       }
     }
   }
 
+  @RestrictedApi(explanation = "Should only be called in tests", link = "",
+      allowedOnPath = ".*/src/test/.*")
+  synchronized List<HBaseReferenceCounted> getPinnedBlocks() {
+    return pinnedBlocks;
+  }
+
+  private static boolean isFromCachedBlock(ByteBufferKeyValue kv) {
+    return kv instanceof SizeCachedByteBufferKeyValue
+      || kv instanceof SizeCachedNoTagsByteBufferKeyValue;
+  }
+
   static void setExceptionResponse(Throwable t, String errorMsg,
     ResponseHeader.Builder headerBuilder) {
     ExceptionResponse.Builder exceptionBuilder = ExceptionResponse.newBuilder();
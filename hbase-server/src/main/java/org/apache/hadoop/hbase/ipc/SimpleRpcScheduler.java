@@ -17,12 +17,14 @@
  */
 package org.apache.hadoop.hbase.ipc;
 
+import java.util.Map;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.Abortable;
 import org.apache.hadoop.hbase.HBaseInterfaceAudience;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.conf.ConfigurationObserver;
 import org.apache.hadoop.hbase.master.MasterAnnotationReadingPriorityFunction;
+import org.apache.hadoop.hbase.util.Pair;
 import org.apache.yetus.audience.InterfaceAudience;
 import org.apache.yetus.audience.InterfaceStability;
 
@@ -92,6 +94,7 @@ public class SimpleRpcScheduler extends RpcScheduler implements ConfigurationObs
     } else {
       if (
         RpcExecutor.isFifoQueueType(callQueueType) || RpcExecutor.isCodelQueueType(callQueueType)
+          || RpcExecutor.isFairQueueType(callQueueType)
           || RpcExecutor.isPluggableQueueWithFastPath(callQueueType, conf)
       ) {
         callExecutor = new FastPathBalancedQueueRpcExecutor("default.FPBQ", handlerCount,
@@ -163,7 +166,8 @@ public class SimpleRpcScheduler extends RpcScheduler implements ConfigurationObs
     String callQueueType =
       conf.get(RpcExecutor.CALL_QUEUE_TYPE_CONF_KEY, RpcExecutor.CALL_QUEUE_TYPE_CONF_DEFAULT);
     if (
-      RpcExecutor.isCodelQueueType(callQueueType) || RpcExecutor.isPluggableQueueType(callQueueType)
+      RpcExecutor.isCodelQueueType(callQueueType) || RpcExecutor.isFairQueueType(callQueueType)
+        || RpcExecutor.isPluggableQueueType(callQueueType)
     ) {
       callExecutor.onConfigurationChange(conf);
     }
@@ -301,6 +305,11 @@ public class SimpleRpcScheduler extends RpcScheduler implements ConfigurationObs
     return callExecutor.getNumLifoModeSwitches();
   }
 
+  @Override
+  public Map<String, Pair<Long, Long>> getTenantQueueTimes() {
+    return callExecutor.getTenantQueueTimes();
+  }
+
   @Override
   public int getWriteQueueLength() {
     return callExecutor.getWriteQueueLength();
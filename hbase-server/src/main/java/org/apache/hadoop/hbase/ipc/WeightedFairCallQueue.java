@@ -0,0 +1,589 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.NamespaceDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.conf.ConfigurationObserver;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hbase.thirdparty.com.google.protobuf.ByteString;
+import org.apache.hbase.thirdparty.com.google.protobuf.Message;
+
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ClientProtos.GetRequest;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ClientProtos.MultiRequest;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ClientProtos.MutateRequest;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.ClientProtos.ScanRequest;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.HBaseProtos.RegionSpecifier;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.HBaseProtos.RegionSpecifier.RegionSpecifierType;
+
+/**
+ * A call queue which shares the handlers between tenants, so that one tenant sending many long
+ * calls can not take all the handlers of the queue from the others.
+ * <p>
+ * The calls are queued per tenant, the user of the call or the namespace of the region it is sent
+ * to, and dispatched with deficit round robin over the time the handlers spend on the calls: each
+ * tenant with pending calls gets, in turn, {@link #QUANTUM_NS} of handler time per unit of weight
+ * before the next one is served. As the time a call takes is only known once it is done, every
+ * call dispatched is charged the average time of the calls of its tenant, and the difference with
+ * the time it really took is charged when it completes, see {@link #completed(CallRunner, long)}.
+ * A tenant sending long scans thus gets fewer calls dispatched per round than one sending short
+ * gets, and can not hold all the handlers while the others wait. The debt of a tenant is forgiven
+ * once it has no call queued nor running. Weights are set per tenant with
+ * {@link RpcExecutor#CALL_QUEUE_FAIR_WEIGHT_PREFIX} and can be changed online, tenants without a
+ * weight get 1. Within a tenant, calls with a priority above {@link HConstants#NORMAL_QOS} go
+ * before the others, in the order they came.
+ * <p>
+ * When keyed by namespace, calls which do not name a region, like the next calls of a scanner, are
+ * accounted to the tenant of their user.
+ * <p>
+ * The weights are not taken from the quota settings: these set throttling limits, not shares of
+ * the handlers, and the {@link org.apache.hadoop.hbase.quotas.QuotaCache} is only created once
+ * the region server is online, after its RPC scheduler. A namespace or user whose quota allows
+ * more requests than the others should be given a larger weight here too.
+ * <p>
+ * The queue time of the calls is accounted per tenant for at most
+ * {@link RpcExecutor#CALL_QUEUE_FAIR_METRICS_MAX_TENANTS} tenants, the calls of the other ones
+ * are accounted to {@link #OTHER_TENANTS}. The tenants without calls dispatched for a while are
+ * dropped, see {@link RpcExecutor#getTenantQueueTimes()}.
+ */
+@InterfaceAudience.Private
+public class WeightedFairCallQueue extends AbstractQueue<CallRunner>
+  implements BlockingQueue<CallRunner>, ConfigurationObserver {
+
+  private static final Logger LOG = LoggerFactory.getLogger(WeightedFairCallQueue.class);
+
+  static final String UNKNOWN_TENANT = "unknown";
+
+  /** The tenant the queue time is accounted to once too many tenants are accounted. */
+  static final String OTHER_TENANTS = "other";
+
+  /** The handler time a tenant gets per unit of weight in each round. */
+  static final long QUANTUM_NS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /**
+   * The number of calls and the total queue time of the calls dispatched for a tenant, shared by
+   * all the queues of an executor.
+   */
+  static final class TenantQueueTime {
+
+    final LongAdder calls = new LongAdder();
+
+    final LongAdder queueTimeMs = new LongAdder();
+
+    volatile long lastDispatchTime;
+  }
+
+  private static final class Tenant {
+
+    private final String name;
+
+    /** The calls with a priority above {@link HConstants#NORMAL_QOS}. */
+    private final ArrayDeque<CallRunner> priorityCalls = new ArrayDeque<>();
+
+    private final ArrayDeque<CallRunner> calls = new ArrayDeque<>();
+
+    /** The handler time this tenant can still use in the current round, negative if in debt. */
+    private long deficitNs;
+
+    /** The moving average of the time the calls of this tenant take. */
+    private long serviceTimeNs = QUANTUM_NS;
+
+    /** The calls dispatched and not completed yet. */
+    private int running;
+
+    Tenant(String name) {
+      this.name = name;
+    }
+
+    boolean hasCalls() {
+      return !priorityCalls.isEmpty() || !calls.isEmpty();
+    }
+
+    CallRunner peek() {
+      return !priorityCalls.isEmpty() ? priorityCalls.peekFirst() : calls.peekFirst();
+    }
+
+    CallRunner poll() {
+      return !priorityCalls.isEmpty() ? priorityCalls.pollFirst() : calls.pollFirst();
+    }
+
+    boolean remove(Object o) {
+      return priorityCalls.removeFirstOccurrence(o) || calls.removeFirstOccurrence(o);
+    }
+  }
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Condition notEmpty = lock.newCondition();
+
+  private final Condition notFull = lock.newCondition();
+
+  private final int capacity;
+
+  private final ConcurrentMap<String, TenantQueueTime> queueTimes;
+
+  /** The tenants with pending or running calls, only these are kept. */
+  private final Map<String, Tenant> tenants = new HashMap<>();
+
+  /** The tenants with pending calls, in the order they are served. */
+  private final ArrayDeque<Tenant> active = new ArrayDeque<>();
+
+  /** The tenants of the calls dispatched and not completed yet. */
+  private final Map<CallRunner, Tenant> running = new IdentityHashMap<>();
+
+  private int size;
+
+  private volatile boolean byNamespace;
+
+  private volatile Map<String, Integer> weights;
+
+  private volatile int maxAccountedTenants;
+
+  public WeightedFairCallQueue(int capacity, Configuration conf,
+    ConcurrentMap<String, TenantQueueTime> queueTimes) {
+    this.capacity = capacity;
+    this.queueTimes = queueTimes;
+    onConfigurationChange(conf);
+  }
+
+  @Override
+  public void onConfigurationChange(Configuration conf) {
+    String tenantType =
+      conf.get(RpcExecutor.CALL_QUEUE_FAIR_TENANT, RpcExecutor.CALL_QUEUE_FAIR_TENANT_DEFAULT);
+    Map<String, Integer> newWeights = new HashMap<>();
+    for (Map.Entry<String, String> e : conf
+      .getPropsWithPrefix(RpcExecutor.CALL_QUEUE_FAIR_WEIGHT_PREFIX).entrySet()) {
+      try {
+        newWeights.put(e.getKey(), Math.max(1, Integer.parseInt(e.getValue().trim())));
+      } catch (NumberFormatException nfe) {
+        LOG.warn("Ignoring invalid call queue weight {} for tenant {}", e.getValue(), e.getKey());
+      }
+    }
+    this.byNamespace = RpcExecutor.CALL_QUEUE_FAIR_TENANT_NAMESPACE.equals(tenantType);
+    this.weights = Collections.unmodifiableMap(newWeights);
+    this.maxAccountedTenants = conf.getInt(RpcExecutor.CALL_QUEUE_FAIR_METRICS_MAX_TENANTS,
+      RpcExecutor.CALL_QUEUE_FAIR_METRICS_MAX_TENANTS_DEFAULT);
+  }
+
+  int getWeight(String tenant) {
+    return weights.getOrDefault(tenant, 1);
+  }
+
+  /**
+   * Returns the namespace of the region the request is sent to, or null if the request does not
+   * name a region.
+   */
+  static String getNamespace(Message param) {
+    RegionSpecifier region = null;
+    if (param instanceof GetRequest) {
+      region = ((GetRequest) param).getRegion();
+    } else if (param instanceof MutateRequest) {
+      region = ((MutateRequest) param).getRegion();
+    } else if (param instanceof ScanRequest) {
+      ScanRequest request = (ScanRequest) param;
+      region = request.hasRegion() ? request.getRegion() : null;
+    } else if (param instanceof MultiRequest) {
+      MultiRequest request = (MultiRequest) param;
+      region = request.getRegionActionCount() > 0 ? request.getRegionAction(0).getRegion() : null;
+    }
+    if (region == null || region.getType() != RegionSpecifierType.REGION_NAME) {
+      return null;
+    }
+    // the region name starts with the table name, with its namespace if not the default one
+    ByteString name = region.getValue();
+    for (int i = 0, n = name.size(); i < n; i++) {
+      byte b = name.byteAt(i);
+      if (b == HConstants.DELIMITER) {
+        return NamespaceDescriptor.DEFAULT_NAMESPACE_NAME_STR;
+      }
+      if (b == TableName.NAMESPACE_DELIM) {
+        return i > 0 ? name.substring(0, i).toStringUtf8() : null;
+      }
+    }
+    return null;
+  }
+
+  String getTenant(CallRunner callRunner) {
+    RpcCall call = callRunner.getRpcCall();
+    if (byNamespace) {
+      String namespace = getNamespace(call.getParam());
+      if (namespace != null) {
+        return namespace;
+      }
+    }
+    return call.getRequestUserName().orElse(UNKNOWN_TENANT);
+  }
+
+  // must hold the lock
+  private void enqueue(CallRunner callRunner, String tenantName) {
+    Tenant tenant = tenants.get(tenantName);
+    if (tenant == null) {
+      tenant = new Tenant(tenantName);
+      tenants.put(tenantName, tenant);
+    }
+    if (!tenant.hasCalls()) {
+      active.addLast(tenant);
+    }
+    if (callRunner.getRpcCall().getPriority() > HConstants.NORMAL_QOS) {
+      tenant.priorityCalls.addLast(callRunner);
+    } else {
+      tenant.calls.addLast(callRunner);
+    }
+    size++;
+    notEmpty.signal();
+  }
+
+  // must hold the lock, returns the first active tenant after moving the ones in debt behind it
+  private Tenant nextTenant() {
+    for (int i = 0, n = active.size(); i < n; i++) {
+      Tenant tenant = active.peekFirst();
+      if (tenant.deficitNs > 0) {
+        return tenant;
+      }
+      tenant.deficitNs += getWeight(tenant.name) * QUANTUM_NS;
+      if (tenant.deficitNs > 0) {
+        return tenant;
+      }
+      active.addLast(active.pollFirst());
+    }
+    // every tenant is still in debt, give them all the rounds the least indebted one needs at once
+    long rounds = Long.MAX_VALUE;
+    for (Tenant tenant : active) {
+      rounds = Math.min(rounds, -tenant.deficitNs / (getWeight(tenant.name) * QUANTUM_NS) + 1);
+    }
+    for (Tenant tenant : active) {
+      tenant.deficitNs += rounds * getWeight(tenant.name) * QUANTUM_NS;
+    }
+    while (active.peekFirst().deficitNs <= 0) {
+      active.addLast(active.pollFirst());
+    }
+    return active.peekFirst();
+  }
+
+  // must hold the lock, and the queue must not be empty
+  private CallRunner dequeue(boolean dispatch) {
+    Tenant tenant = nextTenant();
+    CallRunner callRunner = tenant.poll();
+    if (dispatch) {
+      tenant.deficitNs -= tenant.serviceTimeNs;
+      tenant.running++;
+      running.put(callRunner, tenant);
+    }
+    if (!tenant.hasCalls()) {
+      active.pollFirst();
+      // no credit is kept while idle, the debt is kept until the running calls complete
+      tenant.deficitNs = Math.min(tenant.deficitNs, 0);
+      if (tenant.running == 0) {
+        tenants.remove(tenant.name);
+      }
+    } else if (tenant.deficitNs <= 0) {
+      active.addLast(active.pollFirst());
+    }
+    size--;
+    notFull.signal();
+    if (dispatch) {
+      account(tenant.name, callRunner);
+    }
+    return callRunner;
+  }
+
+  /**
+   * Called by the handler once it is done with a call taken from this queue, with the time it
+   * took. Charges the tenant of the call with the difference from the time charged when the call
+   * was dispatched.
+   */
+  public void completed(CallRunner callRunner, long serviceTimeNs) {
+    lock.lock();
+    try {
+      Tenant tenant = running.remove(callRunner);
+      if (tenant == null) {
+        // not dispatched from this queue
+        return;
+      }
+      tenant.running--;
+      tenant.deficitNs -= serviceTimeNs - tenant.serviceTimeNs;
+      tenant.serviceTimeNs += (serviceTimeNs - tenant.serviceTimeNs) / 8;
+      if (!tenant.hasCalls()) {
+        tenant.deficitNs = Math.min(tenant.deficitNs, 0);
+        if (tenant.running == 0) {
+          tenants.remove(tenant.name);
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void account(String tenantName, CallRunner callRunner) {
+    TenantQueueTime queueTime = queueTimes.get(tenantName);
+    if (queueTime == null) {
+      // bound the number of metrics exported
+      String name = queueTimes.size() < maxAccountedTenants ? tenantName : OTHER_TENANTS;
+      queueTime = queueTimes.computeIfAbsent(name, k -> new TenantQueueTime());
+    }
+    long now = EnvironmentEdgeManager.currentTime();
+    queueTime.calls.increment();
+    queueTime.queueTimeMs.add(now - callRunner.getRpcCall().getReceiveTime());
+    queueTime.lastDispatchTime = now;
+  }
+
+  // must hold the lock
+  private boolean removeCall(Object o) {
+    Iterator<Tenant> it = active.iterator();
+    while (it.hasNext()) {
+      Tenant tenant = it.next();
+      if (tenant.remove(o)) {
+        if (!tenant.hasCalls()) {
+          it.remove();
+          if (tenant.running == 0) {
+            tenants.remove(tenant.name);
+          }
+        }
+        size--;
+        notFull.signal();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean offer(CallRunner callRunner) {
+    Objects.requireNonNull(callRunner);
+    String tenant = getTenant(callRunner);
+    lock.lock();
+    try {
+      if (size >= capacity) {
+        return false;
+      }
+      enqueue(callRunner, tenant);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean offer(CallRunner callRunner, long timeout, TimeUnit unit)
+    throws InterruptedException {
+    Objects.requireNonNull(callRunner);
+    String tenant = getTenant(callRunner);
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (size >= capacity) {
+        if (nanos <= 0) {
+          return false;
+        }
+        nanos = notFull.awaitNanos(nanos);
+      }
+      enqueue(callRunner, tenant);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void put(CallRunner callRunner) throws InterruptedException {
+    Objects.requireNonNull(callRunner);
+    String tenant = getTenant(callRunner);
+    lock.lockInterruptibly();
+    try {
+      while (size >= capacity) {
+        notFull.await();
+      }
+      enqueue(callRunner, tenant);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public CallRunner take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (size == 0) {
+        notEmpty.await();
+      }
+      return dequeue(true);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public CallRunner poll() {
+    lock.lock();
+    try {
+      return size > 0 ? dequeue(true) : null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public CallRunner poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (size == 0) {
+        if (nanos <= 0) {
+          return null;
+        }
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+      return dequeue(true);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public CallRunner peek() {
+    lock.lock();
+    try {
+      return size > 0 ? active.peekFirst().peek() : null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.lock();
+    try {
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int remainingCapacity() {
+    lock.lock();
+    try {
+      return capacity - size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int drainTo(Collection<? super CallRunner> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super CallRunner> c, int maxElements) {
+    Objects.requireNonNull(c);
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+    lock.lock();
+    try {
+      int n = Math.min(size, maxElements);
+      for (int i = 0; i < n; i++) {
+        c.add(dequeue(false));
+      }
+      return n;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns an iterator over a snapshot of the queued calls, in no particular order. Its
+   * {@link Iterator#remove()} removes the call from the queue if it is still queued.
+   */
+  @Override
+  public Iterator<CallRunner> iterator() {
+    List<CallRunner> snapshot;
+    lock.lock();
+    try {
+      snapshot = new ArrayList<>(size);
+      for (Tenant tenant : active) {
+        snapshot.addAll(tenant.priorityCalls);
+        snapshot.addAll(tenant.calls);
+      }
+    } finally {
+      lock.unlock();
+    }
+    Iterator<CallRunner> it = snapshot.iterator();
+    return new Iterator<CallRunner>() {
+
+      private CallRunner last;
+
+      @Override
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      @Override
+      public CallRunner next() {
+        last = it.next();
+        return last;
+      }
+
+      @Override
+      public void remove() {
+        if (last == null) {
+          throw new IllegalStateException();
+        }
+        WeightedFairCallQueue.this.remove(last);
+        last = null;
+      }
+    };
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    if (o == null) {
+      return false;
+    }
+    lock.lock();
+    try {
+      return removeCall(o);
+    } finally {
+      lock.unlock();
+    }
+  }
+}
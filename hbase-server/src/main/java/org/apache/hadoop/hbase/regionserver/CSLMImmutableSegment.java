@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
+import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.util.ClassSize;
 import org.apache.yetus.audience.InterfaceAudience;
 
@@ -30,6 +31,11 @@ public class CSLMImmutableSegment extends ImmutableSegment {
   public static final long DEEP_OVERHEAD_CSLM =
     ImmutableSegment.DEEP_OVERHEAD + ClassSize.CONCURRENT_SKIPLISTMAP;
 
+  // the index is the one of the mutable segment this segment is built from
+  private final long indexEntrySize;
+  private final long indexEntryOnHeapSize;
+  private final long indexEntryOffHeapSize;
+
   /**
    * ------------------------------------------------------------------------ Copy C-tor to be used
    * when new CSLMImmutableSegment is being built from a Mutable one. This C-tor should be used when
@@ -37,6 +43,12 @@ public class CSLMImmutableSegment extends ImmutableSegment {
    */
   protected CSLMImmutableSegment(Segment segment, MemStoreSizing memstoreSizing) {
     super(segment);
+    MemStoreLAB memStoreLAB = getMemStoreLAB();
+    this.indexEntrySize = segment.indexEntrySize();
+    this.indexEntryOnHeapSize =
+      segment.indexEntryOnHeapSize(memStoreLAB == null || memStoreLAB.isOnHeap());
+    this.indexEntryOffHeapSize =
+      segment.indexEntryOffHeapSize(memStoreLAB != null && memStoreLAB.isOffHeap());
     // update the segment metadata heap size
     long indexOverhead = -MutableSegment.DEEP_OVERHEAD + DEEP_OVERHEAD_CSLM;
     incMemStoreSize(0, indexOverhead, 0, 0); // CSLM is always on-heap
@@ -45,9 +57,34 @@ public class CSLMImmutableSegment extends ImmutableSegment {
     }
   }
 
+  @Override
+  protected long indexEntryOnHeapSize(boolean onHeap) {
+    return indexEntryOnHeapSize;
+  }
+
+  @Override
+  protected long indexEntryOffHeapSize(boolean offHeap) {
+    return indexEntryOffHeapSize;
+  }
+
   @Override
   protected long indexEntrySize() {
-    return ClassSize.CONCURRENT_SKIPLISTMAP_ENTRY;
+    return indexEntrySize;
+  }
+
+  @Override
+  protected long keptCellHeapSize(Cell cell, boolean onHeap) {
+    // the Cells are charged as by the mutable segment this segment is built from
+    return getCellSet().getDelegatee() instanceof CellChunkSkipListMap
+      ? CellChunkMutableSegment.sideMapCellHeapSize(cell, onHeap)
+      : 0;
+  }
+
+  @Override
+  protected long keptCellOffHeapSize(Cell cell, boolean offHeap) {
+    return getCellSet().getDelegatee() instanceof CellChunkSkipListMap
+      ? CellChunkMutableSegment.sideMapCellOffHeapSize(cell, offHeap)
+      : 0;
   }
 
   @Override
@@ -61,14 +61,17 @@ public class CellArrayImmutableSegment extends ImmutableSegment {
     mss.incMemStoreSize(0, indexOverhead, 0, 0);
     int numOfCells = segment.getCellsCount();
     // build the new CellSet based on CellChunkMap and update the CellSet of this Segment
-    reinitializeCellSet(numOfCells, segment.getScanner(Long.MAX_VALUE), segment.getCellSet(),
-      action);
-    // arrange the meta-data size, decrease all meta-data sizes related to SkipList;
+    reinitializeCellSet(numOfCells, segment, mss, action);
+    // arrange the meta-data size, decrease all meta-data sizes related to the index of the
+    // segment, on-heap and off-heap as accounted when the cells were added to it;
     // add sizes of CellArrayMap entry (reinitializeCellSet doesn't take the care for the sizes)
-    long newSegmentSizeDelta =
-      numOfCells * (indexEntrySize() - ClassSize.CONCURRENT_SKIPLISTMAP_ENTRY);
-    incMemStoreSize(0, newSegmentSizeDelta, 0, 0);
-    mss.incMemStoreSize(0, newSegmentSizeDelta, 0, 0);
+    MemStoreLAB memStoreLAB = getMemStoreLAB();
+    boolean onHeap = memStoreLAB == null || memStoreLAB.isOnHeap();
+    boolean offHeap = memStoreLAB != null && memStoreLAB.isOffHeap();
+    long heapSizeDelta = numOfCells * (indexEntrySize() - segment.indexEntryOnHeapSize(onHeap));
+    long offHeapSizeDelta = -numOfCells * segment.indexEntryOffHeapSize(offHeap);
+    incMemStoreSize(0, heapSizeDelta, offHeapSizeDelta, 0);
+    mss.incMemStoreSize(0, heapSizeDelta, offHeapSizeDelta, 0);
   }
 
   @Override
@@ -134,8 +137,17 @@ public class CellArrayImmutableSegment extends ImmutableSegment {
   // Create CellSet based on CellChunkMap from current ConcurrentSkipListMap based CellSet
   // (without compacting iterator)
   // We do not consider cells bigger than chunks!
-  private void reinitializeCellSet(int numOfCells, KeyValueScanner segmentScanner,
-    CellSet oldCellSet, MemStoreCompactionStrategy.Action action) {
+  private void reinitializeCellSet(int numOfCells, CSLMImmutableSegment segment,
+    MemStoreSizing mss, MemStoreCompactionStrategy.Action action) {
+    KeyValueScanner segmentScanner = segment.getScanner(Long.MAX_VALUE);
+    CellSet oldCellSet = segment.getCellSet();
+    MemStoreLAB memStoreLAB = getMemStoreLAB();
+    boolean onHeap = memStoreLAB == null || memStoreLAB.isOnHeap();
+    boolean offHeap = memStoreLAB != null && memStoreLAB.isOffHeap();
+    // the sizes charged for the Cells kept apart by the index of the segment, see
+    // CellChunkMutableSegment, which the CellArrayMap charges as any other Cell
+    long keptHeapSize = 0;
+    long keptOffHeapSize = 0;
     Cell[] cells = new Cell[numOfCells]; // build the Cell Array
     Cell curCell;
     int idx = 0;
@@ -144,6 +156,8 @@ public class CellArrayImmutableSegment extends ImmutableSegment {
     try {
       while ((curCell = segmentScanner.next()) != null) {
         cells[idx++] = curCell;
+        keptHeapSize += segment.keptCellHeapSize(curCell, onHeap);
+        keptOffHeapSize += segment.keptCellOffHeapSize(curCell, offHeap);
         if (action == MemStoreCompactionStrategy.Action.FLATTEN_COUNT_UNIQUE_KEYS) {
           // counting number of unique keys
           if (prev != null) {
@@ -161,6 +175,8 @@ public class CellArrayImmutableSegment extends ImmutableSegment {
     } finally {
       segmentScanner.close();
     }
+    incMemStoreSize(0, -keptHeapSize, -keptOffHeapSize, 0);
+    mss.incMemStoreSize(0, -keptHeapSize, -keptOffHeapSize, 0);
     if (action != MemStoreCompactionStrategy.Action.FLATTEN_COUNT_UNIQUE_KEYS) {
       numUniqueKeys = CellSet.UNKNOWN_NUM_UNIQUES;
     }
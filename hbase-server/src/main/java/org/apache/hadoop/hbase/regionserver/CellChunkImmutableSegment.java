@@ -85,21 +85,17 @@ public class CellChunkImmutableSegment extends ImmutableSegment {
     }
     int numOfCells = segment.getCellsCount();
     // build the new CellSet based on CellChunkMap
-    reinitializeCellSet(numOfCells, segment.getScanner(Long.MAX_VALUE), segment.getCellSet(),
-      memstoreSizing, action);
-    // arrange the meta-data size, decrease all meta-data sizes related to SkipList;
+    reinitializeCellSet(numOfCells, segment, memstoreSizing, action);
+    // arrange the meta-data size, decrease all meta-data sizes related to the index of the
+    // segment, on-heap and off-heap as accounted when the cells were added to it;
     // add sizes of CellChunkMap entry, decrease also Cell object sizes
     // (reinitializeCellSet doesn't take the care for the sizes)
-    long newSegmentSizeDelta =
-      numOfCells * (indexEntrySize() - ClassSize.CONCURRENT_SKIPLISTMAP_ENTRY);
-    if (onHeap) {
-      incMemStoreSize(0, newSegmentSizeDelta, 0, 0);
-      memstoreSizing.incMemStoreSize(0, newSegmentSizeDelta, 0, 0);
-    } else {
-      incMemStoreSize(0, 0, newSegmentSizeDelta, 0);
-      memstoreSizing.incMemStoreSize(0, 0, newSegmentSizeDelta, 0);
-
-    }
+    long heapSizeDelta =
+      numOfCells * (indexEntryOnHeapSize(onHeap) - segment.indexEntryOnHeapSize(onHeap));
+    long offHeapSizeDelta =
+      numOfCells * (indexEntryOffHeapSize(!onHeap) - segment.indexEntryOffHeapSize(!onHeap));
+    incMemStoreSize(0, heapSizeDelta, offHeapSizeDelta, 0);
+    memstoreSizing.incMemStoreSize(0, heapSizeDelta, offHeapSizeDelta, 0);
   }
 
   @Override
@@ -199,10 +195,17 @@ public class CellChunkImmutableSegment extends ImmutableSegment {
   // Create CellSet based on CellChunkMap from current ConcurrentSkipListMap based CellSet
   // (without compacting iterator)
   // This is a service for not-flat immutable segments
-  private void reinitializeCellSet(int numOfCells, KeyValueScanner segmentScanner,
-    CellSet oldCellSet, MemStoreSizing memstoreSizing, MemStoreCompactionStrategy.Action action) {
+  private void reinitializeCellSet(int numOfCells, CSLMImmutableSegment segment,
+    MemStoreSizing memstoreSizing, MemStoreCompactionStrategy.Action action) {
+    KeyValueScanner segmentScanner = segment.getScanner(Long.MAX_VALUE);
+    CellSet oldCellSet = segment.getCellSet();
+    boolean onHeap = getMemStoreLAB().isOnHeap();
     Cell curCell;
     Chunk[] chunks = allocIndexChunks(numOfCells);
+    // the sizes charged for the Cells kept apart by the index of the segment, see
+    // CellChunkMutableSegment, no longer there once the Cells are in the CellChunkMap
+    long keptHeapSize = 0;
+    long keptOffHeapSize = 0;
 
     int currentChunkIdx = 0;
     int offsetInCurentChunk = ChunkCreator.SIZEOF_CHUNK_HEADER;
@@ -213,6 +216,8 @@ public class CellChunkImmutableSegment extends ImmutableSegment {
       while ((curCell = segmentScanner.next()) != null) {
         assert (curCell instanceof ExtendedCell);
         if (((ExtendedCell) curCell).getChunkId() == ExtendedCell.CELL_NOT_BASED_ON_CHUNK) {
+          keptHeapSize += segment.keptCellHeapSize(curCell, onHeap);
+          keptOffHeapSize += segment.keptCellOffHeapSize(curCell, !onHeap);
           // CellChunkMap assumes all cells are allocated on MSLAB.
           // Therefore, cells which are not allocated on MSLAB initially,
           // are copied into MSLAB here.
@@ -245,6 +250,8 @@ public class CellChunkImmutableSegment extends ImmutableSegment {
     } finally {
       segmentScanner.close();
     }
+    incMemStoreSize(0, -keptHeapSize, -keptOffHeapSize, 0);
+    memstoreSizing.incMemStoreSize(0, -keptHeapSize, -keptOffHeapSize, 0);
 
     CellChunkMap ccm = new CellChunkMap(getComparator(), chunks, 0, numOfCells, false);
     // update the CellSet of this Segment
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.ExtendedCell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * CellChunkMutableSegment is an active segment working with CellSet with
+ * {@link CellChunkSkipListMap} delegatee, whose index is in the chunks of the MSLAB, as the one of
+ * the {@link CellChunkImmutableSegment}, rather than in an object per Cell.
+ * <p>
+ * The Cells not allocated on the MSLAB, the upserted and the big ones, are kept as objects in the
+ * side map of the index, and charged as such: the Cell object, its data on-heap whatever the
+ * MSLAB, and its entry in the side map.
+ */
+@InterfaceAudience.Private
+public class CellChunkMutableSegment extends MutableSegment {
+
+  /** Whether the active segments are CellChunkMutableSegments, when the MSLAB is used. */
+  public static final String CHUNK_MAP_ENABLED_KEY =
+    "hbase.hregion.memstore.mutable.chunkmap.enabled";
+  public static final boolean CHUNK_MAP_ENABLED_DEFAULT = false;
+
+  // the links of a node kept on-heap, see CellChunkSkipListMap
+  private static final int INDEX_LINKS_SIZE = 2 * Bytes.SIZEOF_INT;
+
+  protected CellChunkMutableSegment(CellComparator comparator, MemStoreLAB memStoreLAB,
+    MemStoreSizing memstoreSizing) {
+    super(new CellSet(new CellChunkSkipListMap(comparator.getSimpleComparator(), memStoreLAB)),
+      comparator, memStoreLAB, memstoreSizing);
+  }
+
+  @Override
+  protected long indexEntryOnHeapSize(boolean onHeap) {
+    if (onHeap) {
+      return indexEntrySize();
+    }
+    // else the nodes are allocated off-heap, only their links are on-heap
+    return INDEX_LINKS_SIZE;
+  }
+
+  @Override
+  protected long indexEntryOffHeapSize(boolean offHeap) {
+    if (offHeap) {
+      return indexEntrySize() - INDEX_LINKS_SIZE;
+    }
+    // else the nodes are allocated on-heap
+    return 0;
+  }
+
+  @Override
+  protected long indexEntrySize() {
+    // the Cell objects are not kept, as in the CellChunkMap
+    return (long) CellChunkSkipListMap.NODE_SIZE + INDEX_LINKS_SIZE - KeyValue.FIXED_OVERHEAD;
+  }
+
+  @Override
+  protected long keptCellHeapSize(Cell cell, boolean onHeap) {
+    return sideMapCellHeapSize(cell, onHeap);
+  }
+
+  @Override
+  protected long keptCellOffHeapSize(Cell cell, boolean offHeap) {
+    return sideMapCellOffHeapSize(cell, offHeap);
+  }
+
+  /**
+   * Returns the heap size charged for a Cell of the side map on top of its index entry and of its
+   * data, 0 for the Cells on the MSLAB.
+   */
+  static long sideMapCellHeapSize(Cell cell, boolean onHeap) {
+    if (CellChunkSkipListMap.getChunkId(cell) != ExtendedCell.CELL_NOT_BASED_ON_CHUNK) {
+      return 0;
+    }
+    // the Cell object, not taken out by indexEntrySize, and its side map entry, and its data if
+    // not already charged on-heap
+    long size = KeyValue.FIXED_OVERHEAD + CellChunkSkipListMap.SIDE_MAP_ENTRY_SIZE;
+    return onHeap ? size : size - KeyValue.FIXED_OVERHEAD + cell.heapSize();
+  }
+
+  /**
+   * Returns the off-heap size charged for a Cell of the side map on top of its index entry and of
+   * its data, 0 for the Cells on the MSLAB.
+   */
+  static long sideMapCellOffHeapSize(Cell cell, boolean offHeap) {
+    if (!offHeap || CellChunkSkipListMap.getChunkId(cell) != ExtendedCell.CELL_NOT_BASED_ON_CHUNK) {
+      return 0;
+    }
+    // the data of the Cell is on-heap, only its node is off-heap
+    return KeyValue.FIXED_OVERHEAD - cell.heapSize();
+  }
+}
@@ -0,0 +1,969 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.apache.hadoop.hbase.ByteBufferKeyValue;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.ExtendedCell;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * CellChunkSkipListMap is a concurrent sorted map of Cells, used by the active segment, see
+ * {@link CellChunkMutableSegment}, which keeps the references to the Cells in chunks rather than
+ * in objects, as {@link CellChunkMap} does for the flat immutable segments.
+ * <p>
+ * It is a skip list, whose nodes are written in chunks taken from the MSLAB of the segment:
+ *
+ * <pre>
+ * ------------------------------------------------------------------------------------
+ *  integer      | integer      | integer     | long      | integer     | integer       |
+ *  4 bytes      | 4 bytes      | 4 bytes     | 8 bytes   | 4 bytes     | 4 bytes       |
+ *  chunkID of   | offset in B  | length of   | sequence  | height of   | index of the  |
+ *  chunk B with | where Cell's | Cell's      | ID of the | the node    | links of the  |
+ *  Cell data    | data starts  | data in B   | Cell      |             | upper levels  |
+ * ------------------------------------------------------------------------------------
+ * </pre>
+ *
+ * The links between the nodes, updated with compare-and-set, are ints in arrays allocated along
+ * each chunk, so that the map holds no object per Cell. Java 8 offers no compare-and-set on the
+ * memory of a direct buffer. The Cells which are not allocated on the MSLAB, like the big Cells or
+ * the Cells of an upsert, are kept in a side map instead.
+ * <p>
+ * A removed Cell is first marked as such in the link of level 0 of its node, which can then no
+ * longer change, and its node is unlinked by the next searches and iterations going through it,
+ * as in the lists of Harris. Once a node is unlinked from the level 0 its Cell is dropped from the
+ * side map, if there. The space of the node in its chunk is only reclaimed with the MSLAB, as the
+ * one of the data of the Cell: like the data, it is bounded by the Cells added to the segment.
+ * <p>
+ * As in {@link CellChunkMap}, the Cells are materialized from the chunks when compared or
+ * returned, so a Cell returned twice is not the same object, but for the Cells of the side map.
+ */
+@InterfaceAudience.Private
+public class CellChunkSkipListMap implements NavigableMap<Cell, Cell> {
+
+  /** The size in bytes of a node in a chunk. */
+  static final int NODE_SIZE = 5 * Bytes.SIZEOF_INT + Bytes.SIZEOF_LONG;
+
+  /** The heap size of the entry of a Cell in the side map, with its boxed node number. */
+  static final long SIDE_MAP_ENTRY_SIZE = ClassSize.CONCURRENT_HASHMAP_ENTRY + ClassSize.INTEGER;
+
+  private static final int MAX_HEIGHT = 16;
+
+  private static final int HEAD = -1;
+
+  private static final int NIL = Integer.MAX_VALUE;
+
+  // Set in the link of level 0 of a removed node
+  private static final int REMOVED = Integer.MIN_VALUE;
+
+  /**
+   * Returns the id of the chunk of the MSLAB with the data of the Cell, or
+   * {@link ExtendedCell#CELL_NOT_BASED_ON_CHUNK} if the Cell is kept in the side map.
+   */
+  static int getChunkId(Cell cell) {
+    return cell instanceof ByteBufferKeyValue
+      ? ((ExtendedCell) cell).getChunkId()
+      : ExtendedCell.CELL_NOT_BASED_ON_CHUNK;
+  }
+
+  private final Index index;
+
+  // The bounds of a sub map, null if unbounded
+  private final Cell lo;
+  private final boolean loInclusive;
+  private final Cell hi;
+  private final boolean hiInclusive;
+
+  private final boolean descending;
+
+  /**
+   * @param comparator  a tool for comparing cells
+   * @param memStoreLAB the MSLAB the chunks holding the nodes are taken from
+   */
+  public CellChunkSkipListMap(Comparator<? super Cell> comparator, MemStoreLAB memStoreLAB) {
+    this(new Index(comparator, memStoreLAB), null, false, null, false, false);
+  }
+
+  private CellChunkSkipListMap(Index index, Cell lo, boolean loInclusive, Cell hi,
+    boolean hiInclusive, boolean descending) {
+    this.index = index;
+    this.lo = lo;
+    this.loInclusive = loInclusive;
+    this.hi = hi;
+    this.hiInclusive = hiInclusive;
+    this.descending = descending;
+  }
+
+  private boolean tooLow(Cell cell) {
+    if (lo == null) {
+      return false;
+    }
+    int c = index.comparator.compare(cell, lo);
+    return c < 0 || (c == 0 && !loInclusive);
+  }
+
+  private boolean tooHigh(Cell cell) {
+    if (hi == null) {
+      return false;
+    }
+    int c = index.comparator.compare(cell, hi);
+    return c > 0 || (c == 0 && !hiInclusive);
+  }
+
+  private boolean inBounds(Cell cell) {
+    return !tooLow(cell) && !tooHigh(cell);
+  }
+
+  /** Returns the lowest Cell of the map, ascending order wise, or null */
+  private Cell lowest() {
+    Cell cell = lo == null ? index.ceiling(null, true) : index.ceiling(lo, loInclusive);
+    return cell == null || tooHigh(cell) ? null : cell;
+  }
+
+  /** Returns the highest Cell of the map, ascending order wise, or null */
+  private Cell highest() {
+    Cell cell = hi == null ? index.lower(null, true) : index.lower(hi, hiInclusive);
+    return cell == null || tooLow(cell) ? null : cell;
+  }
+
+  private Cell lower(Cell k, boolean inclusive) {
+    Cell cell = index.lower(k, inclusive);
+    return cell == null || !inBounds(cell) ? null : cell;
+  }
+
+  private Cell higher(Cell k, boolean inclusive) {
+    Cell cell = index.ceiling(k, inclusive);
+    return cell == null || !inBounds(cell) ? null : cell;
+  }
+
+  @Override
+  public Comparator<? super Cell> comparator() {
+    return index.comparator;
+  }
+
+  @Override
+  public int size() {
+    throw new UnsupportedOperationException("CellChunkSkipListMap.size() is time-consuming");
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return lowest() == null;
+  }
+
+  /** Returns the number of nodes still linked, removed or not, in the whole map. For tests. */
+  int getLinkedNodeCount() {
+    return index.getLinkedNodeCount();
+  }
+
+  /** Returns the number of Cells kept in the side map, in the whole map. For tests. */
+  int getHeapCellCount() {
+    return index.getHeapCellCount();
+  }
+
+  // ---------------- Sub-Maps ----------------
+  private NavigableMap<Cell, Cell> ascendingSubMap(Cell fromKey, boolean fromInclusive,
+    Cell toKey, boolean toInclusive) {
+    // keep the tighter bounds
+    if (fromKey == null || (lo != null && tooLow(fromKey))) {
+      fromKey = lo;
+      fromInclusive = loInclusive;
+    }
+    if (toKey == null || (hi != null && tooHigh(toKey))) {
+      toKey = hi;
+      toInclusive = hiInclusive;
+    }
+    return new CellChunkSkipListMap(index, fromKey, fromInclusive, toKey, toInclusive,
+      descending);
+  }
+
+  @Override
+  public NavigableMap<Cell, Cell> subMap(Cell fromKey, boolean fromInclusive, Cell toKey,
+    boolean toInclusive) {
+    return descending
+      ? ascendingSubMap(toKey, toInclusive, fromKey, fromInclusive)
+      : ascendingSubMap(fromKey, fromInclusive, toKey, toInclusive);
+  }
+
+  @Override
+  public NavigableMap<Cell, Cell> headMap(Cell toKey, boolean inclusive) {
+    return descending
+      ? ascendingSubMap(toKey, inclusive, null, false)
+      : ascendingSubMap(null, false, toKey, inclusive);
+  }
+
+  @Override
+  public NavigableMap<Cell, Cell> tailMap(Cell fromKey, boolean inclusive) {
+    return descending
+      ? ascendingSubMap(null, false, fromKey, inclusive)
+      : ascendingSubMap(fromKey, inclusive, null, false);
+  }
+
+  @Override
+  public NavigableMap<Cell, Cell> descendingMap() {
+    return new CellChunkSkipListMap(index, lo, loInclusive, hi, hiInclusive, !descending);
+  }
+
+  @Override
+  public NavigableMap<Cell, Cell> subMap(Cell k1, Cell k2) {
+    return this.subMap(k1, true, k2, false);
+  }
+
+  @Override
+  public NavigableMap<Cell, Cell> headMap(Cell k) {
+    return this.headMap(k, false);
+  }
+
+  @Override
+  public NavigableMap<Cell, Cell> tailMap(Cell k) {
+    return this.tailMap(k, true);
+  }
+
+  // -------------------------------- Key's getters --------------------------------
+  @Override
+  public Cell firstKey() {
+    Cell cell = descending ? highest() : lowest();
+    if (cell == null) {
+      throw new NoSuchElementException();
+    }
+    return cell;
+  }
+
+  @Override
+  public Cell lastKey() {
+    Cell cell = descending ? lowest() : highest();
+    if (cell == null) {
+      throw new NoSuchElementException();
+    }
+    return cell;
+  }
+
+  @Override
+  public Cell lowerKey(Cell k) {
+    return descending ? higher(k, false) : lower(k, false);
+  }
+
+  @Override
+  public Cell floorKey(Cell k) {
+    return descending ? higher(k, true) : lower(k, true);
+  }
+
+  @Override
+  public Cell ceilingKey(Cell k) {
+    return descending ? lower(k, true) : higher(k, true);
+  }
+
+  @Override
+  public Cell higherKey(Cell k) {
+    return descending ? lower(k, false) : higher(k, false);
+  }
+
+  @Override
+  public boolean containsKey(Object o) {
+    return get(o) != null;
+  }
+
+  @Override
+  public boolean containsValue(Object o) { // use containsKey(Object o) instead
+    throw new UnsupportedOperationException("Use containsKey(Object o) instead");
+  }
+
+  @Override
+  public Cell get(Object o) {
+    Cell k = (Cell) o;
+    if (!inBounds(k)) {
+      return null;
+    }
+    Cell cell = index.ceiling(k, true);
+    return cell == null || index.comparator.compare(cell, k) != 0 ? null : cell;
+  }
+
+  // -------------------------------- Entry's getters --------------------------------
+  private static Entry<Cell, Cell> entry(Cell cell) {
+    return cell == null ? null : new SimpleImmutableEntry<>(cell, cell);
+  }
+
+  @Override
+  public Entry<Cell, Cell> lowerEntry(Cell k) {
+    return entry(lowerKey(k));
+  }
+
+  @Override
+  public Entry<Cell, Cell> higherEntry(Cell k) {
+    return entry(higherKey(k));
+  }
+
+  @Override
+  public Entry<Cell, Cell> ceilingEntry(Cell k) {
+    return entry(ceilingKey(k));
+  }
+
+  @Override
+  public Entry<Cell, Cell> floorEntry(Cell k) {
+    return entry(floorKey(k));
+  }
+
+  @Override
+  public Entry<Cell, Cell> firstEntry() {
+    return entry(descending ? highest() : lowest());
+  }
+
+  @Override
+  public Entry<Cell, Cell> lastEntry() {
+    return entry(descending ? lowest() : highest());
+  }
+
+  @Override
+  public Entry<Cell, Cell> pollFirstEntry() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Entry<Cell, Cell> pollLastEntry() {
+    throw new UnsupportedOperationException();
+  }
+
+  // -------------------------------- Updates --------------------------------
+  /**
+   * Adds the Cell, replacing the equal one if any. The key and the value must be the same Cell.
+   */
+  @Override
+  public Cell put(Cell k, Cell v) {
+    return index.put(v);
+  }
+
+  @Override
+  public Cell remove(Object o) {
+    Cell k = (Cell) o;
+    if (!inBounds(k)) {
+      return null;
+    }
+    return index.remove(k);
+  }
+
+  @Override
+  public void clear() {
+    Iterator<Cell> it = new CellChunkSkipListIterator(false);
+    while (it.hasNext()) {
+      it.next();
+      it.remove();
+    }
+  }
+
+  @Override
+  public void putAll(Map<? extends Cell, ? extends Cell> map) {
+    throw new UnsupportedOperationException();
+  }
+
+  // -------------------------------- Sub-Sets --------------------------------
+  @Override
+  public NavigableSet<Cell> navigableKeySet() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public NavigableSet<Cell> descendingKeySet() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public NavigableSet<Cell> keySet() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Collection<Cell> values() {
+    return new CellChunkSkipListCollection();
+  }
+
+  @Override
+  public Set<Entry<Cell, Cell>> entrySet() {
+    throw new UnsupportedOperationException();
+  }
+
+  // -------------------------------- Iterator K --------------------------------
+  private final class CellChunkSkipListIterator implements Iterator<Cell> {
+    private final boolean reverse;
+    // the node of the next Cell, when iterating in ascending order
+    private int nextNode = NIL;
+    private Cell nextCell;
+    private int lastNode = NIL;
+    private Cell lastCell;
+
+    private CellChunkSkipListIterator(boolean reverse) {
+      this.reverse = reverse;
+      if (reverse) {
+        nextCell = highest();
+      } else {
+        advance(lo == null ? index.ceilingNode(null, true) : index.ceilingNode(lo, loInclusive));
+      }
+    }
+
+    // moves to the given node, or to the first node after it whose Cell is still there
+    private void advance(int node) {
+      while (node != NIL) {
+        Cell cell = index.getCell(node);
+        if (cell != null) {
+          nextNode = node;
+          nextCell = tooHigh(cell) ? null : cell;
+          return;
+        }
+        node = index.nextLiveNode(node);
+      }
+      nextNode = NIL;
+      nextCell = null;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextCell != null;
+    }
+
+    @Override
+    public Cell next() {
+      Cell result = nextCell;
+      if (result == null) {
+        throw new NoSuchElementException();
+      }
+      lastNode = nextNode;
+      lastCell = result;
+      if (reverse) {
+        nextCell = lower(result, false);
+      } else {
+        advance(index.nextLiveNode(nextNode));
+      }
+      return result;
+    }
+
+    @Override
+    public void remove() {
+      if (lastCell == null) {
+        throw new IllegalStateException();
+      }
+      if (reverse) {
+        index.remove(lastCell);
+      } else {
+        index.markRemoved(lastNode);
+      }
+      lastNode = NIL;
+      lastCell = null;
+    }
+  }
+
+  // -------------------------------- Collection --------------------------------
+  private final class CellChunkSkipListCollection implements Collection<Cell> {
+
+    @Override
+    public int size() {
+      return CellChunkSkipListMap.this.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return CellChunkSkipListMap.this.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+      CellChunkSkipListMap.this.clear();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return containsKey(o);
+    }
+
+    @Override
+    public Iterator<Cell> iterator() {
+      return new CellChunkSkipListIterator(descending);
+    }
+
+    @Override
+    public Object[] toArray() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] ts) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean add(Cell k) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+      return CellChunkSkipListMap.this.remove(o) != null;
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> collection) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Cell> collection) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> collection) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> collection) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  // -------------------------------- Skip list --------------------------------
+  /**
+   * The skip list shared by a map and its sub maps. The nodes are numbered in allocation order,
+   * node n being in chunk n / nodesPerChunk. A null Cell stands for the end of the list in the
+   * searches.
+   */
+  private static final class Index {
+
+    private final Comparator<? super Cell> comparator;
+
+    private final MemStoreLAB memStoreLAB;
+
+    private final ChunkCreator.ChunkType chunkType;
+
+    private final int nodesPerChunk;
+
+    private final AtomicIntegerArray head = new AtomicIntegerArray(MAX_HEIGHT);
+
+    private final AtomicInteger nodeCount = new AtomicInteger();
+
+    private volatile IndexChunk[] chunks = new IndexChunk[0];
+
+    // The Cells not allocated on the MSLAB, by node
+    private final Map<Integer, Cell> heapCells = new ConcurrentHashMap<>();
+
+    Index(Comparator<? super Cell> comparator, MemStoreLAB memStoreLAB) {
+      this.comparator = comparator;
+      this.memStoreLAB = memStoreLAB;
+      // use the smaller index chunks if there are
+      ChunkCreator chunkCreator = ChunkCreator.getInstance();
+      this.chunkType = chunkCreator.getChunkSize(ChunkCreator.ChunkType.INDEX_CHUNK) > 0
+        ? ChunkCreator.ChunkType.INDEX_CHUNK
+        : ChunkCreator.ChunkType.DATA_CHUNK;
+      this.nodesPerChunk =
+        (chunkCreator.getChunkSize(chunkType) - ChunkCreator.SIZEOF_CHUNK_HEADER) / NODE_SIZE;
+      for (int level = 0; level < MAX_HEIGHT; level++) {
+        head.set(level, NIL);
+      }
+    }
+
+    private IndexChunk chunk(int node) {
+      return chunks[node / nodesPerChunk];
+    }
+
+    private IndexChunk getOrAllocateChunk(int node) {
+      int i = node / nodesPerChunk;
+      IndexChunk[] current = chunks;
+      if (i < current.length && current[i] != null) {
+        return current[i];
+      }
+      synchronized (this) {
+        current = chunks;
+        if (i >= current.length) {
+          current = Arrays.copyOf(current, Math.max(i + 1, 2 * current.length));
+        }
+        for (int j = 0; j <= i; j++) {
+          if (current[j] == null) {
+            current[j] =
+              new IndexChunk(memStoreLAB.getNewExternalChunk(chunkType), nodesPerChunk);
+          }
+        }
+        chunks = current;
+        return current[i];
+      }
+    }
+
+    private int slot(int node) {
+      return node % nodesPerChunk;
+    }
+
+    private int nodeOffset(int node) {
+      return ChunkCreator.SIZEOF_CHUNK_HEADER + slot(node) * NODE_SIZE;
+    }
+
+    private int height(int node) {
+      return ByteBufferUtils.toInt(chunk(node).chunk.getData(),
+        nodeOffset(node) + 3 * Bytes.SIZEOF_INT + Bytes.SIZEOF_LONG);
+    }
+
+    private int upperIndex(int node) {
+      return ByteBufferUtils.toInt(chunk(node).chunk.getData(),
+        nodeOffset(node) + 4 * Bytes.SIZEOF_INT + Bytes.SIZEOF_LONG);
+    }
+
+    /**
+     * Returns the Cell of the node, null if it is not allocated on the MSLAB and the node was
+     * removed and unlinked.
+     */
+    Cell getCell(int node) {
+      ByteBuffer block = chunk(node).chunk.getData();
+      int offsetInBytes = nodeOffset(node);
+      int chunkId = ByteBufferUtils.toInt(block, offsetInBytes);
+      if (chunkId == ExtendedCell.CELL_NOT_BASED_ON_CHUNK) {
+        return heapCells.get(node);
+      }
+      Chunk chunk = ChunkCreator.getInstance().getChunk(chunkId);
+      if (chunk == null) {
+        // this should not happen
+        throw new IllegalArgumentException(
+          "In CellChunkSkipListMap, cell must be associated with chunk " + chunkId);
+      }
+      int offsetOfCell = ByteBufferUtils.toInt(block, offsetInBytes + Bytes.SIZEOF_INT);
+      int lengthOfCell = ByteBufferUtils.toInt(block, offsetInBytes + 2 * Bytes.SIZEOF_INT);
+      long cellSeqID = ByteBufferUtils.toLong(block, offsetInBytes + 3 * Bytes.SIZEOF_INT);
+      return new ByteBufferChunkKeyValue(chunk.getData(), offsetOfCell, lengthOfCell, cellSeqID);
+    }
+
+    private int next(int node, int level) {
+      if (node == HEAD) {
+        return head.get(level);
+      }
+      IndexChunk c = chunk(node);
+      if (level == 0) {
+        return c.next.get(slot(node)) & ~REMOVED;
+      }
+      return c.upper.get(upperIndex(node) + level - 1);
+    }
+
+    // Only for a node not linked at this level yet
+    private void setNext(int node, int level, int next) {
+      IndexChunk c = chunk(node);
+      if (level == 0) {
+        c.next.set(slot(node), next);
+      } else {
+        c.upper.set(upperIndex(node) + level - 1, next);
+      }
+    }
+
+    // Fails on the link of level 0 of a removed node, which can no longer change
+    private boolean casNext(int node, int level, int expect, int update) {
+      if (node == HEAD) {
+        return head.compareAndSet(level, expect, update);
+      }
+      IndexChunk c = chunk(node);
+      if (level > 0) {
+        return c.upper.compareAndSet(upperIndex(node) + level - 1, expect, update);
+      }
+      return c.next.compareAndSet(slot(node), expect, update);
+    }
+
+    /**
+     * Unlinks the removed node following the given one at the given level, returns false if the
+     * link changed meanwhile or the given node is removed too.
+     */
+    private boolean unlink(int pred, int level, int node) {
+      if (!casNext(pred, level, node, next(node, level))) {
+        return false;
+      }
+      if (level == 0) {
+        // only one thread can unlink a node from the level 0
+        heapCells.remove(node);
+      }
+      return true;
+    }
+
+    private boolean isRemoved(int node) {
+      return (chunk(node).next.get(slot(node)) & REMOVED) != 0;
+    }
+
+    /** Returns true if the node was marked as removed by this call */
+    boolean markRemoved(int node) {
+      IndexChunk c = chunk(node);
+      int slot = slot(node);
+      while (true) {
+        int link = c.next.get(slot);
+        if ((link & REMOVED) != 0) {
+          return false;
+        }
+        if (c.next.compareAndSet(slot, link, link | REMOVED)) {
+          return true;
+        }
+      }
+    }
+
+    private static int randomHeight() {
+      // each level is kept with a probability of 1/4
+      int random = ThreadLocalRandom.current().nextInt();
+      int height = 1;
+      while ((random & 3) == 0 && height < MAX_HEIGHT) {
+        random >>>= 2;
+        height++;
+      }
+      return height;
+    }
+
+    private int allocateNode(Cell cell) {
+      int node = nodeCount.getAndIncrement();
+      IndexChunk c = getOrAllocateChunk(node);
+      int height = randomHeight();
+      int upperIndex = 0;
+      if (height > 1) {
+        upperIndex = c.upperCount.getAndAdd(height - 1);
+        if (upperIndex + height - 1 > c.upper.length()) {
+          // no more room for the upper links in this chunk
+          height = 1;
+        }
+      }
+      ByteBuffer block = c.chunk.getData();
+      int offset = nodeOffset(node);
+      int dataChunkId = getChunkId(cell);
+      if (dataChunkId == ExtendedCell.CELL_NOT_BASED_ON_CHUNK) {
+        heapCells.put(node, cell);
+        offset = ByteBufferUtils.putInt(block, offset, dataChunkId);
+        offset += 2 * Bytes.SIZEOF_INT + Bytes.SIZEOF_LONG;
+      } else {
+        offset = ByteBufferUtils.putInt(block, offset, dataChunkId); // data chunk id
+        offset = ByteBufferUtils.putInt(block, offset, ((ByteBufferKeyValue) cell).getOffset());
+        offset = ByteBufferUtils.putInt(block, offset, cell.getSerializedSize()); // length
+        offset = ByteBufferUtils.putLong(block, offset, cell.getSequenceId()); // seqId
+      }
+      offset = ByteBufferUtils.putInt(block, offset, height);
+      ByteBufferUtils.putInt(block, offset, upperIndex);
+      return node;
+    }
+
+    /**
+     * Returns the last node before the given Cell, or not after it if inclusive, HEAD if none, and
+     * fills the predecessors and the successors of the Cell at each level if given. The removed
+     * nodes met are unlinked. A null Cell stands for the end of the list.
+     */
+    private int findPredecessor(Cell k, boolean inclusive, int[] preds, int[] succs) {
+      retry: while (true) {
+        int pred = HEAD;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+          int next = next(pred, level);
+          while (next != NIL) {
+            if (isRemoved(next)) {
+              if (unlink(pred, level, next)) {
+                next = next(pred, level);
+              } else if (level == 0 && pred != HEAD && isRemoved(pred)) {
+                // can not unlink through a removed node
+                continue retry;
+              } else {
+                next = next(pred, level);
+              }
+              continue;
+            }
+            if (k != null) {
+              Cell cell = getCell(next);
+              if (cell == null) {
+                // removed meanwhile
+                continue;
+              }
+              int c = comparator.compare(cell, k);
+              if (c > 0 || (c == 0 && !inclusive)) {
+                break;
+              }
+            }
+            pred = next;
+            next = next(pred, level);
+          }
+          if (level == 0 && pred != HEAD && isRemoved(pred)) {
+            // the nodes added after a removed one are linked to its predecessor
+            continue retry;
+          }
+          if (preds != null) {
+            preds[level] = pred;
+            succs[level] = next;
+          }
+        }
+        return pred;
+      }
+    }
+
+    /** Returns the first node not removed after the given one, NIL if none */
+    int nextLiveNode(int node) {
+      int next = next(node, 0);
+      while (next != NIL && isRemoved(next)) {
+        // fails if the given node is removed too, then just skip the removed ones
+        if (!unlink(node, 0, next)) {
+          next = next(next, 0);
+        } else {
+          next = next(node, 0);
+        }
+      }
+      return next;
+    }
+
+    /**
+     * Returns the first node not removed after the given Cell, or not before it if inclusive, NIL
+     * if none. A null Cell stands for the start of the list here.
+     */
+    int ceilingNode(Cell k, boolean inclusive) {
+      return nextLiveNode(k == null ? HEAD : findPredecessor(k, !inclusive, null, null));
+    }
+
+    /**
+     * Returns the Cell of the first node not removed after the given Cell, or not before it if
+     * inclusive, null if none. A null Cell stands for the start of the list here.
+     */
+    Cell ceiling(Cell k, boolean inclusive) {
+      while (true) {
+        int node = ceilingNode(k, inclusive);
+        if (node == NIL) {
+          return null;
+        }
+        Cell cell = getCell(node);
+        if (cell != null) {
+          return cell;
+        }
+      }
+    }
+
+    /**
+     * Returns the Cell of the last node not removed before the given Cell, or not after it if
+     * inclusive, null if none. A null Cell stands for the end of the list here.
+     */
+    Cell lower(Cell k, boolean inclusive) {
+      while (true) {
+        int node = findPredecessor(k, inclusive, null, null);
+        if (node == HEAD) {
+          return null;
+        }
+        // retry if removed meanwhile, the next search unlinks it
+        if (!isRemoved(node)) {
+          Cell cell = getCell(node);
+          if (cell != null) {
+            return cell;
+          }
+        }
+      }
+    }
+
+    /** Removes the given Cell, returns it or null if it is not there */
+    Cell remove(Cell k) {
+      while (true) {
+        int node = ceilingNode(k, true);
+        if (node == NIL) {
+          return null;
+        }
+        Cell cell = getCell(node);
+        if (cell == null) {
+          continue;
+        }
+        if (comparator.compare(cell, k) != 0) {
+          return null;
+        }
+        if (markRemoved(node)) {
+          return cell;
+        }
+      }
+    }
+
+    /** Adds the Cell and marks the equal ones as removed, returns the replaced Cell or null */
+    Cell put(Cell cell) {
+      int node = allocateNode(cell);
+      int height = height(node);
+      int[] preds = new int[MAX_HEIGHT];
+      int[] succs = new int[MAX_HEIGHT];
+      findPredecessor(cell, false, preds, succs);
+      for (int level = 0; level < height; level++) {
+        while (true) {
+          setNext(node, level, succs[level]);
+          if (casNext(preds[level], level, succs[level], node)) {
+            break;
+          }
+          findPredecessor(cell, false, preds, succs);
+        }
+        if (isRemoved(node)) {
+          // already replaced, no need to index it
+          break;
+        }
+      }
+      // the new node is linked before the equal ones
+      Cell previous = null;
+      for (int next = next(node, 0); next != NIL; next = next(next, 0)) {
+        Cell equal = getCell(next);
+        if (equal == null) {
+          continue;
+        }
+        if (comparator.compare(equal, cell) != 0) {
+          break;
+        }
+        if (markRemoved(next)) {
+          previous = equal;
+        }
+      }
+      return previous;
+    }
+
+    /** Returns the number of nodes linked at the level 0, removed or not. */
+    int getLinkedNodeCount() {
+      int count = 0;
+      for (int node = next(HEAD, 0); node != NIL; node = next(node, 0)) {
+        count++;
+      }
+      return count;
+    }
+
+    int getHeapCellCount() {
+      return heapCells.size();
+    }
+  }
+
+  /**
+   * A chunk holding nodes, with the links of the nodes: the link of level 0 of each node, and
+   * the links of the upper levels, allocated for a third of the nodes on average.
+   */
+  private static final class IndexChunk {
+
+    private final Chunk chunk;
+
+    private final AtomicIntegerArray next;
+
+    private final AtomicIntegerArray upper;
+
+    private final AtomicInteger upperCount = new AtomicInteger();
+
+    IndexChunk(Chunk chunk, int nodes) {
+      this.chunk = chunk;
+      this.next = new AtomicIntegerArray(nodes);
+      this.upper = new AtomicIntegerArray(nodes / 2 + MAX_HEIGHT);
+    }
+  }
+}
@@ -177,6 +177,7 @@ import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.hbase.util.ServerRegionReplicaUtil;
 import org.apache.hadoop.hbase.util.TableDescriptorChecker;
 import org.apache.hadoop.hbase.util.Threads;
+import org.apache.hadoop.hbase.wal.LoadAwareGroupingStrategy;
 import org.apache.hadoop.hbase.wal.WAL;
 import org.apache.hadoop.hbase.wal.WALEdit;
 import org.apache.hadoop.hbase.wal.WALFactory;
@@ -317,6 +318,9 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
   protected volatile long lastReplayedOpenRegionSeqId = -1L;
   protected volatile long lastReplayedCompactionSeqId = -1L;
 
+  /** Number of recovered edits applied to the memstores since the region was created. */
+  private long recoveredEditsApplied = 0;
+
   //////////////////////////////////////////////////////////////////////////////
   // Members
   //////////////////////////////////////////////////////////////////////////////
@@ -368,10 +372,13 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
 
   private BlockCache blockCache;
   private MobFileCache mobFileCache;
-  private final WAL wal;
+  private RowCache rowCache;
+  // Changes when the region moves to the WAL of another region group, see getReassignedWAL
+  private volatile WAL wal;
   private final HRegionFileSystem fs;
   protected final Configuration conf;
   private final Configuration baseConf;
+  private final boolean reassignWAL;
   private final int rowLockWaitDuration;
   static final int DEFAULT_ROWLOCK_WAIT_DURATION = 30000;
 
@@ -791,7 +798,8 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
 
     this.wal = wal;
     this.fs = fs;
-    this.mvcc = new MultiVersionConcurrencyControl(getRegionInfo().getShortNameToLog());
+    this.mvcc =
+      MultiVersionConcurrencyControl.create(confParam, getRegionInfo().getShortNameToLog());
 
     // 'conf' renamed to 'confParam' b/c we use this.conf in the constructor
     this.baseConf = confParam;
@@ -823,6 +831,10 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
 
     this.isLoadingCfsOnDemandDefault = conf.getBoolean(LOAD_CFS_ON_DEMAND_CONFIG_KEY, true);
     this.htableDescriptor = htd;
+    // The edits of a replicated region must stay in one WAL, so they are shipped in order
+    this.reassignWAL = wal != null && !htd.isMetaTable()
+      && RegionReplicaUtil.isDefaultReplica(getRegionInfo()) && !htd.hasGlobalReplicationScope()
+      && LoadAwareGroupingStrategy.isConfigured(confParam);
     Set<byte[]> families = this.htableDescriptor.getColumnFamilyNames();
     for (byte[] family : families) {
       if (!replicationScope.containsKey(family)) {
@@ -839,6 +851,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     if (this.rsServices != null) {
       this.blockCache = rsServices.getBlockCache().orElse(null);
       this.mobFileCache = rsServices.getMobFileCache().orElse(null);
+      this.rowCache = rsServices.getRowCache().orElse(null);
     }
     this.regionServicesForStores = new RegionServicesForStores(this, rsServices);
 
@@ -1592,6 +1605,14 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
    */
   public static final long MAX_FLUSH_PER_CHANGES = 1000000000; // 1G
 
+  /**
+   * Conf key for the maximum number of stores of a region written out in parallel during a flush.
+   * The default of 1 writes them one after the other on the flushing thread. With more threads the
+   * flush hooks of coprocessors may be invoked concurrently for different stores.
+   */
+  public static final String FLUSH_STORE_THREADS_MAX = "hbase.hregion.flush.store.threads.max";
+  public static final int DEFAULT_FLUSH_STORE_THREADS_MAX = 1;
+
   public static final String CLOSE_WAIT_ABORT = "hbase.regionserver.close.wait.abort";
   public static final boolean DEFAULT_CLOSE_WAIT_ABORT = true;
   public static final String CLOSE_WAIT_TIME = "hbase.regionserver.close.wait.time.ms";
@@ -2108,6 +2129,14 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     return this.wal;
   }
 
+  /**
+   * Returns whether the region keeps writing to the WAL it is opened with, while the other regions
+   * may move to the WAL of another region group.
+   */
+  boolean isWALPinned() {
+    return wal != null && !reassignWAL && LoadAwareGroupingStrategy.isConfigured(conf);
+  }
+
   public BlockCache getBlockCache() {
     return this.blockCache;
   }
@@ -2130,6 +2159,13 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     this.mobFileCache = mobFileCache;
   }
 
+  /**
+   * Only used for unit test which doesn't start region server.
+   */
+  void setRowCache(RowCache rowCache) {
+    this.rowCache = rowCache;
+  }
+
   /** Returns split policy for this region. */
   RegionSplitPolicy getSplitPolicy() {
     return this.splitPolicy;
@@ -2791,6 +2827,8 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
 
     // We have to take an update lock during snapshot, or else a write could end up in both snapshot
     // and memstore (makes it difficult to do atomic rows then)
+    // Get it before blocking the updates, as it may create the WAL
+    WAL reassignedWAL = getReassignedWAL(wal, storesToFlush);
     status.setStatus("Obtaining lock to block concurrent updates");
     // block waiting for the lock for internal flush
     this.updatesLock.writeLock().lock();
@@ -2857,6 +2895,14 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
         totalSizeOfFlushableStores.incMemStoreSize(snapshotSize);
         storeFlushableSize.put(name, snapshotSize);
       });
+
+      if (reassignedWAL != null) {
+        // All the edits of the region in the current WAL are in the snapshot, and this flush goes
+        // on with it, so the region leaves nothing unflushed there once the flush completes. The
+        // edits after the updates lock is released go to the new WAL.
+        LOG.info("Moving {} to WAL {}", this, reassignedWAL);
+        this.wal = reassignedWAL;
+      }
     } catch (IOException ex) {
       doAbortFlushToWAL(wal, flushOpSeqId, committedFiles);
       throw ex;
@@ -2871,6 +2917,27 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
       flushOpSeqId, flushedSeqId, totalSizeOfFlushableStores);
   }
 
+  /**
+   * Returns the WAL of the region group the region belongs to now, if it is not the one the region
+   * writes to and the region can move to it with this flush. The region only moves when all its
+   * stores are flushed, so that it has nothing left in the current WAL afterwards.
+   */
+  private WAL getReassignedWAL(WAL current, Collection<HStore> storesToFlush) {
+    if (
+      !reassignWAL || current == null || current != this.wal || rsServices == null
+        || writestate.readOnly || !isAllFamilies(storesToFlush)
+    ) {
+      return null;
+    }
+    try {
+      WAL next = rsServices.getWAL(getRegionInfo());
+      return next == null || next == current ? null : next;
+    } catch (IOException e) {
+      LOG.warn("Failed to get the WAL of the region group of {}, keeping {}", this, current, e);
+      return null;
+    }
+  }
+
   /**
    * Utility method broken out of internalPrepareFlushCache so that method is smaller.
    */
@@ -3012,15 +3079,16 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     // be part of the current running servers state.
     boolean compactionRequested = false;
     long flushedOutputFileSize = 0;
+    long writeTime;
+    long storeWriteTime;
     try {
       // A. Flush memstore to all the HStores.
       // Keep running vector of all store files that includes both old and the
       // just-made new flush store file. The new flushed file is still in the
       // tmp directory.
-
-      for (StoreFlushContext flush : storeFlushCtxs.values()) {
-        flush.flushCache(status);
-      }
+      long writeStartTime = EnvironmentEdgeManager.currentTime();
+      storeWriteTime = flushStores(storeFlushCtxs.values(), status);
+      writeTime = EnvironmentEdgeManager.currentTime() - writeStartTime;
 
       // Switch snapshot (in memstore) -> new hfile (thus causing
       // all the store scanners to reset/reseek).
@@ -3136,6 +3204,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     if (rsServices != null && rsServices.getMetrics() != null) {
       rsServices.getMetrics().updateFlush(getTableDescriptor().getTableName().getNameAsString(),
         time, mss.getDataSize(), flushedOutputFileSize);
+      rsServices.getMetrics().updateFlushStoreWriteTime(writeTime, storeWriteTime);
     }
 
     return new FlushResultImpl(compactionRequested
@@ -3143,6 +3212,64 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
       : FlushResult.Result.FLUSHED_NO_COMPACTION_NEEDED, flushOpSeqId);
   }
 
+  /**
+   * Writes the memstore snapshots of the given stores to files. Up to
+   * {@link #FLUSH_STORE_THREADS_MAX} stores are written in parallel; committing the files is left
+   * to the caller, which still does it one store at a time.
+   * @return the sum of the time spent writing each store, in milliseconds
+   */
+  private long flushStores(Collection<StoreFlushContext> flushes, MonitoredTask status)
+    throws IOException {
+    int maxThreads = Math.min(flushes.size(),
+      conf.getInt(FLUSH_STORE_THREADS_MAX, DEFAULT_FLUSH_STORE_THREADS_MAX));
+    if (maxThreads <= 1) {
+      long storeWriteTime = 0;
+      for (StoreFlushContext flush : flushes) {
+        long start = EnvironmentEdgeManager.currentTime();
+        flush.flushCache(status);
+        storeWriteTime += EnvironmentEdgeManager.currentTime() - start;
+      }
+      return storeWriteTime;
+    }
+
+    ThreadPoolExecutor storeFlusherThreadPool =
+      getOpenAndCloseThreadPool(maxThreads, "StoreFlusher-" + getRegionInfo().getShortNameToLog());
+    CompletionService<Long> completionService =
+      new ExecutorCompletionService<>(storeFlusherThreadPool);
+    for (StoreFlushContext flush : flushes) {
+      completionService.submit(() -> {
+        long start = EnvironmentEdgeManager.currentTime();
+        flush.flushCache(status);
+        return EnvironmentEdgeManager.currentTime() - start;
+      });
+    }
+    long storeWriteTime = 0;
+    Throwable failure = null;
+    try {
+      // Wait for all the stores, so that no flush is still writing when we fail the whole flush.
+      for (int i = 0; i < flushes.size(); i++) {
+        try {
+          storeWriteTime += completionService.take().get();
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      throw throwOnInterrupt(e);
+    } finally {
+      storeFlusherThreadPool.shutdownNow();
+    }
+    if (failure != null) {
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      }
+      throw new IOException(failure);
+    }
+    return storeWriteTime;
+  }
+
   /**
    * Method to safely get the next sequence number.
    * @return Next sequence number unassociated with any actual edit.
@@ -4863,6 +4990,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
 
       if (locked) {
         this.updatesLock.readLock().unlock();
+        invalidateRowCache(miniBatchOp);
       }
       releaseRowLocks(acquiredRowLocks);
 
@@ -5429,6 +5557,8 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
    */
   long replayRecoveredEditsIfAny(Map<byte[], Long> maxSeqIdInStores,
     final CancelableProgressable reporter, final MonitoredTask status) throws IOException {
+    long startTime = EnvironmentEdgeManager.currentTime();
+    long editsBefore = recoveredEditsApplied;
     long minSeqIdForTheRegion = -1;
     for (Long maxSeqIdInStore : maxSeqIdInStores.values()) {
       if (maxSeqIdInStore < minSeqIdForTheRegion || minSeqIdForTheRegion == -1) {
@@ -5510,6 +5640,11 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
         Stream.of(files).map(FileStatus::getPath).collect(Collectors.toList()));
     }
 
+    long edits = recoveredEditsApplied - editsBefore;
+    if (edits > 0 && rsServices != null && rsServices.getMetrics() != null) {
+      rsServices.getMetrics()
+        .updateRecoveredEditsReplay(EnvironmentEdgeManager.currentTime() - startTime, edits);
+    }
     return seqId;
   }
 
@@ -5600,6 +5735,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
       HStore store = null;
       boolean reported_once = false;
       ServerNonceManager ng = this.rsServices == null ? null : this.rsServices.getNonceManager();
+      RecoveredEditsReplayer replayer = RecoveredEditsReplayer.create(this, conf);
 
       try {
         // How many edits seen before we check elapsed time
@@ -5714,22 +5850,44 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
             }
             PrivateCellUtil.setSequenceId(cell, currentReplaySeqId);
 
-            restoreEdit(store, cell, memStoreSizing);
+            if (replayer != null) {
+              replayer.add(store, cell);
+            } else {
+              restoreEdit(store, cell, memStoreSizing);
+            }
             editsCount++;
           }
           MemStoreSize mss = memStoreSizing.getMemStoreSize();
           incMemStoreSize(mss);
-          flush = isFlushSize(this.memStoreSizing.getMemStoreSize());
+          if (replayer != null) {
+            // count the edits still queued to the appliers, as they will be in the memstore soon
+            MemStoreSize current = this.memStoreSizing.getMemStoreSize();
+            flush = current.getHeapSize() + current.getOffHeapSize() + replayer.getQueuedSize()
+                > getMemStoreFlushSize();
+          } else {
+            flush = isFlushSize(this.memStoreSizing.getMemStoreSize());
+          }
           if (flush) {
+            if (replayer != null) {
+              // the flush is done at the sequence id of this edit, so all of it must be applied
+              replayer.drain();
+            }
             internalFlushcache(null, currentEditSeqId, stores.values(), status, false,
               FlushLifeCycleTracker.DUMMY);
           }
         }
+        if (replayer != null) {
+          replayer.drain();
+        }
 
         if (coprocessorHost != null) {
           coprocessorHost.postReplayWALs(this.getRegionInfo(), edits);
         }
       } catch (EOFException eof) {
+        if (replayer != null) {
+          // keep what was read before the truncation, like the edits applied inline
+          replayer.drain();
+        }
         if (!conf.getBoolean(RECOVERED_EDITS_IGNORE_EOF, false)) {
           Path p = WALSplitUtil.moveAsideBadEditsFile(walFS, edits);
           msg = "EnLongAddered EOF. Most likely due to Master failure during "
@@ -5745,6 +5903,9 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
         // If the IOE resulted from bad file format,
         // then this problem is idempotent and retrying won't help
         if (ioe.getCause() instanceof ParseException) {
+          if (replayer != null) {
+            replayer.drain();
+          }
           Path p = WALSplitUtil.moveAsideBadEditsFile(walFS, edits);
           msg =
             "File corruption enLongAddered!  " + "Continuing, but renaming " + edits + " as " + p;
@@ -5756,7 +5917,12 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
           // checksum exception on one datanode, etc). throw & retry
           throw ioe;
         }
+      } finally {
+        if (replayer != null) {
+          replayer.close();
+        }
       }
+      recoveredEditsApplied += editsCount;
       if (reporter != null && !reported_once) {
         reporter.progress();
       }
@@ -7917,18 +8083,26 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
         return results;
       }
     }
-    Scan scan = new Scan(get);
-    if (scan.getLoadColumnFamiliesOnDemandValue() == null) {
-      scan.setLoadColumnFamiliesOnDemand(isLoadingCfsOnDemandDefault());
-    }
-    try (RegionScanner scanner = getScanner(scan, null, nonceGroup, nonce)) {
-      List<Cell> tmp = new ArrayList<>();
-      scanner.next(tmp);
-      // Copy EC to heap, then close the scanner.
-      // This can be an EXPENSIVE call. It may make an extra copy from offheap to onheap buffers.
-      // See more details in HBASE-26036.
-      for (Cell cell : tmp) {
-        results.add(CellUtil.cloneIfNecessary(cell));
+    RowCache.Lookup rowCacheLookup = lookupRowCache(get);
+    if (rowCacheLookup != null && rowCacheLookup.isHit()) {
+      results.addAll(rowCacheLookup.getCells());
+    } else {
+      Scan scan = new Scan(get);
+      if (scan.getLoadColumnFamiliesOnDemandValue() == null) {
+        scan.setLoadColumnFamiliesOnDemand(isLoadingCfsOnDemandDefault());
+      }
+      try (RegionScanner scanner = getScanner(scan, null, nonceGroup, nonce)) {
+        List<Cell> tmp = new ArrayList<>();
+        scanner.next(tmp);
+        if (rowCacheLookup != null) {
+          rowCacheLookup.populate(tmp);
+        }
+        // Copy EC to heap, then close the scanner.
+        // This can be an EXPENSIVE call. It may make an extra copy from offheap to onheap buffers.
+        // See more details in HBASE-26036.
+        for (Cell cell : tmp) {
+          results.add(CellUtil.cloneIfNecessary(cell));
+        }
       }
     }
 
@@ -7942,6 +8116,58 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     return results;
   }
 
+  /**
+   * Looks the given Get up in the region server's {@link RowCache}. Must be called before opening
+   * the scanner that serves the Get on a miss.
+   * @return null if the Get can not be served from the row cache, otherwise a lookup which either
+   *         holds the cached result or must be populated with the result read from the stores
+   */
+  RowCache.Lookup lookupRowCache(Get get) {
+    if (
+      rowCache == null || !RegionReplicaUtil.isDefaultReplica(getRegionInfo())
+        || !RowCache.isCacheable(get)
+    ) {
+      return null;
+    }
+    List<HStore> cacheStores = new ArrayList<>(get.numFamilies());
+    for (byte[] family : get.familySet()) {
+      HStore store = getStore(family);
+      if (store == null || !RowCache.isCacheable(store)) {
+        return null;
+      }
+      cacheStores.add(store);
+    }
+    return rowCache.lookup(get.getRow(), cacheStores);
+  }
+
+  /**
+   * Drops the row cache entries of the rows and families touched by a mini batch. Called once the
+   * mutations are visible to readers and before the row locks are released.
+   */
+  private void invalidateRowCache(MiniBatchOperationInProgress<Mutation> miniBatchOp) {
+    if (rowCache == null) {
+      return;
+    }
+    for (int i = 0; i < miniBatchOp.size(); i++) {
+      invalidateRowCache(miniBatchOp.getOperation(i));
+      Mutation[] cpMutations = miniBatchOp.getOperationsFromCoprocessors(i);
+      if (cpMutations != null) {
+        for (Mutation cpMutation : cpMutations) {
+          invalidateRowCache(cpMutation);
+        }
+      }
+    }
+  }
+
+  private void invalidateRowCache(Mutation mutation) {
+    for (byte[] family : mutation.getFamilyCellMap().keySet()) {
+      HStore store = stores.get(family);
+      if (store != null && store.isRowCacheEnabled()) {
+        rowCache.invalidate(store, mutation.getRow());
+      }
+    }
+  }
+
   void metricsUpdateForGet() {
     if (this.metricsRegion != null) {
       this.metricsRegion.updateGet();
@@ -394,6 +394,9 @@ public class HRegionServer extends HBaseServerBase<RSRpcServices>
   // The cache for mob files
   private MobFileCache mobFileCache;
 
+  // Cache for whole family Get results, null if disabled
+  private RowCache rowCache;
+
   /** The health check chore. */
   private HealthCheckChore healthCheckChore;
 
@@ -535,6 +538,7 @@ public class HRegionServer extends HBaseServerBase<RSRpcServices>
 
       blockCache = BlockCacheFactory.createBlockCache(conf);
       mobFileCache = new MobFileCache(conf);
+      rowCache = RowCache.create(conf);
 
       rsSnapshotVerifier = new RSSnapshotVerifier(conf);
 
@@ -2780,6 +2784,9 @@ public class HRegionServer extends HBaseServerBase<RSRpcServices>
   public void addRegion(HRegion region) {
     this.onlineRegions.put(region.getRegionInfo().getEncodedName(), region);
     configurationManager.registerObserver(region);
+    if (walFactory != null && region.isWALPinned()) {
+      walFactory.pinRegion(region.getRegionInfo(), region.getWAL());
+    }
   }
 
   private void addRegion(SortedMap<Long, Collection<HRegion>> sortedRegions, HRegion region,
@@ -3149,6 +3156,9 @@ public class HRegionServer extends HBaseServerBase<RSRpcServices>
     }
     this.regionFavoredNodesMap.remove(r.getRegionInfo().getEncodedName());
     configurationManager.deregisterObserver(r);
+    if (walFactory != null) {
+      walFactory.regionClosed(r.getRegionInfo());
+    }
     return toReturn != null;
   }
 
@@ -3387,6 +3397,15 @@ public class HRegionServer extends HBaseServerBase<RSRpcServices>
     return Optional.ofNullable(this.mobFileCache);
   }
 
+  /**
+   * May be null if the row cache is disabled or this is a master which does not carry tables.
+   * @return The cache for whole family Get results used by the regionserver.
+   */
+  @Override
+  public Optional<RowCache> getRowCache() {
+    return Optional.ofNullable(this.rowCache);
+  }
+
   CacheEvictionStats clearRegionBlockCache(Region region) {
     long evictedBlocks = 0;
 
@@ -247,6 +247,11 @@ public class HStore
 
   private final boolean warmup;
 
+  private final boolean rowCacheEnabled;
+
+  // Changed whenever the store files change so that stale row cache entries become unreachable.
+  private volatile long rowCacheGeneration = RowCache.nextGeneration();
+
   /**
    * Constructor
    * @param family    HColumnDescriptor for this column
@@ -296,6 +301,8 @@ public class HStore
     }
 
     this.warmup = warmup;
+    this.rowCacheEnabled =
+      conf.getBoolean(RowCache.ROW_CACHE_ENABLED_KEY, RowCache.DEFAULT_ROW_CACHE_ENABLED);
     this.storeEngine = createStoreEngine(this, this.conf, region.getCellComparator());
     storeEngine.initialize(warmup);
     // if require writing to tmp dir first, then we just return null, which indicate that we do not
@@ -524,6 +531,7 @@ public class HStore
   @Override
   public void refreshStoreFiles() throws IOException {
     storeEngine.refreshStoreFiles();
+    invalidateRowCache();
     postRefreshStoreFiles();
   }
 
@@ -533,6 +541,7 @@ public class HStore
    */
   public void refreshStoreFiles(Collection<String> newFiles) throws IOException {
     storeEngine.refreshStoreFiles(newFiles);
+    invalidateRowCache();
     postRefreshStoreFiles();
   }
 
@@ -716,6 +725,7 @@ public class HStore
     this.totalUncompressedBytes.addAndGet(r.getTotalUncompressedBytes());
     storeEngine.addStoreFiles(Lists.newArrayList(sf), () -> {
     });
+    invalidateRowCache();
     LOG.info("Loaded HFile " + sf.getFileInfo() + " into " + this);
     if (LOG.isTraceEnabled()) {
       String traceMessage = "BULK LOAD time,size,store size,store files ["
@@ -912,6 +922,7 @@ public class HStore
       } : () -> {
         HStoreFile.increaseStoreFilesRefeCount(sfs);
       });
+    invalidateRowCache();
     // notify to be called here - only in case of flushes
     try {
       notifyChangedReadersObservers(sfs);
@@ -1266,6 +1277,7 @@ public class HStore
         filesCompacting.removeAll(compactedFiles);
       }
     });
+    invalidateRowCache();
     // These may be null when the RS is shutting down. The space quota Chores will fix the Region
     // sizes later so it's not super-critical if we miss these.
     RegionServerServices rsServices = region.getRegionServerServices();
@@ -2103,6 +2115,29 @@ public class HStore
     return scanInfo;
   }
 
+  /**
+   * Returns true if Get results of this store may be kept in the region server's {@link RowCache}
+   */
+  boolean isRowCacheEnabled() {
+    return rowCacheEnabled;
+  }
+
+  /**
+   * Returns the generation that keys this store's entries in the {@link RowCache}
+   */
+  long getRowCacheGeneration() {
+    return rowCacheGeneration;
+  }
+
+  /**
+   * Drops all of this store's entries from the {@link RowCache}, by moving to a new generation.
+   */
+  void invalidateRowCache() {
+    if (rowCacheEnabled) {
+      rowCacheGeneration = RowCache.nextGeneration();
+    }
+  }
+
   /**
    * Set scan info, used by test
    * @param scanInfo new scan info to use for test
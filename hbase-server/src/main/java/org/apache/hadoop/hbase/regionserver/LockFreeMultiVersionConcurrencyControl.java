@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link MultiVersionConcurrencyControl} which does not serialize writers on a monitor. The
+ * ongoing writes are kept in a ring indexed by write number instead of a queue, the write number
+ * is taken with an atomic increment, and the read point is advanced by whichever completing writer
+ * manages to flag itself as the advancer; the others leave their completed entry for it to pick
+ * up. Readers only block when they actually have to wait for the read point.
+ * <p>
+ * The ordering guarantees are the same: the read point only moves forward, never past a write
+ * which is not complete, and the completion actions run in write number order before the read
+ * point passes their write. A {@link #begin(Runnable)} with an action still holds a lock while it
+ * takes its write number and runs the action, since the action has to see the write numbers in
+ * order, but plain {@link #begin()} calls do not take it.
+ */
+@InterfaceAudience.Private
+public class LockFreeMultiVersionConcurrencyControl extends MultiVersionConcurrencyControl {
+  private static final Logger LOG =
+    LoggerFactory.getLogger(LockFreeMultiVersionConcurrencyControl.class);
+
+  /** Maximum number of ongoing writes, rounded up to a power of 2. More writers wait. */
+  public static final String RING_SIZE_KEY = "hbase.hregion.mvcc.lockfree.ring.size";
+  public static final int DEFAULT_RING_SIZE = 1024;
+
+  private static final long STUCK_WARN_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final int SPINS = 64;
+  private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+  private static final long READ_WAIT_MILLIS = 10L;
+
+  private final AtomicReferenceArray<WriteEntry> ring;
+  private final int mask;
+  private final AtomicBoolean advancing = new AtomicBoolean(false);
+  private final ReentrantLock actionLock = new ReentrantLock();
+  private final AtomicInteger readWaiterCount = new AtomicInteger();
+  private final Object readWaiters = new Object();
+
+  public LockFreeMultiVersionConcurrencyControl() {
+    this(DEFAULT_RING_SIZE, null);
+  }
+
+  public LockFreeMultiVersionConcurrencyControl(Configuration conf, String regionName) {
+    this(conf.getInt(RING_SIZE_KEY, DEFAULT_RING_SIZE), regionName);
+  }
+
+  LockFreeMultiVersionConcurrencyControl(int ringSize, String regionName) {
+    super(regionName);
+    int size = Integer.highestOneBit(Math.max(2, Math.min(ringSize, 1 << 20)) * 2 - 1);
+    this.ring = new AtomicReferenceArray<>(size);
+    this.mask = size - 1;
+  }
+
+  @Override
+  boolean tryAdvanceTo(long newStartPoint, long expected) {
+    long currentRead = readPoint.get();
+    long currentWrite = writePoint.get();
+    if (currentRead != currentWrite) {
+      throw new RuntimeException("Already used this mvcc; currentRead=" + currentRead
+        + ", currentWrite=" + currentWrite + "; too late to tryAdvanceTo");
+    }
+    if (expected != NONE && expected != currentRead) {
+      return false;
+    }
+    if (newStartPoint < currentRead) {
+      return false;
+    }
+    if (!writePoint.compareAndSet(currentWrite, newStartPoint)) {
+      throw new RuntimeException("Already used this mvcc; currentRead=" + currentRead
+        + ", currentWrite=" + writePoint.get() + "; too late to tryAdvanceTo");
+    }
+    readPoint.set(newStartPoint);
+    // a write which began right after the CAS may have completed before the read point moved
+    advance();
+    return true;
+  }
+
+  /**
+   * Start a write transaction, see {@link MultiVersionConcurrencyControl#begin(Runnable)}. The
+   * {@code action} runs under a lock, so that the actions see the write numbers in order.
+   */
+  @Override
+  public WriteEntry begin(Runnable action) {
+    WriteEntry e;
+    actionLock.lock();
+    try {
+      e = new WriteEntry(writePoint.incrementAndGet());
+      action.run();
+    } finally {
+      actionLock.unlock();
+    }
+    publish(e);
+    return e;
+  }
+
+  @Override
+  public WriteEntry begin() {
+    WriteEntry e = new WriteEntry(writePoint.incrementAndGet());
+    publish(e);
+    return e;
+  }
+
+  /**
+   * Puts the entry in its slot of the ring, waiting for the write which had the slot before to be
+   * passed by the read point.
+   */
+  private void publish(WriteEntry e) {
+    long writeNumber = e.getWriteNumber();
+    int slot = (int) (writeNumber & mask);
+    long start = 0;
+    long lastWarn = 0;
+    for (int i = 0; readPoint.get() < writeNumber - ring.length(); i++) {
+      if (i < SPINS) {
+        Thread.yield();
+        continue;
+      }
+      long now = System.nanoTime();
+      if (start == 0) {
+        start = lastWarn = now;
+      } else if (now - lastWarn > STUCK_WARN_INTERVAL_NANOS) {
+        lastWarn = now;
+        LOG.warn("Waited {} ms for a free slot for write {}, {}",
+          TimeUnit.NANOSECONDS.toMillis(now - start), writeNumber, this);
+      }
+      LockSupport.parkNanos(PARK_NANOS);
+    }
+    ring.set(slot, e);
+  }
+
+  @Override
+  public boolean complete(WriteEntry writeEntry) {
+    writeEntry.markCompleted();
+    advance();
+    return readPoint.get() >= writeEntry.getWriteNumber();
+  }
+
+  /**
+   * Moves the read point over the completed writes following it. Only one thread advances at a
+   * time; a thread which finds another one advancing leaves, as the advancer checks again for
+   * completed writes after it stops advancing.
+   */
+  private void advance() {
+    while (true) {
+      if (!advancing.compareAndSet(false, true)) {
+        return;
+      }
+      boolean advanced = false;
+      try {
+        long r = readPoint.get();
+        while (true) {
+          int slot = (int) ((r + 1) & mask);
+          WriteEntry next = ring.get(slot);
+          if (next == null || next.getWriteNumber() != r + 1 || !next.isCompleted()) {
+            break;
+          }
+          next.runCompletionAction();
+          // free the slot before moving the read point, which lets a writer reuse it
+          ring.compareAndSet(slot, next, null);
+          readPoint.set(++r);
+          advanced = true;
+        }
+      } finally {
+        advancing.set(false);
+      }
+      if (advanced && readWaiterCount.get() > 0) {
+        synchronized (readWaiters) {
+          readWaiters.notifyAll();
+        }
+      }
+      long r = readPoint.get();
+      WriteEntry next = ring.get((int) ((r + 1) & mask));
+      if (next == null || next.getWriteNumber() != r + 1 || !next.isCompleted()) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  void waitForRead(WriteEntry e) {
+    long writeNumber = e.getWriteNumber();
+    for (int i = 0; i < SPINS; i++) {
+      if (readPoint.get() >= writeNumber) {
+        return;
+      }
+      Thread.yield();
+    }
+    boolean interrupted = false;
+    int count = 0;
+    readWaiterCount.incrementAndGet();
+    try {
+      synchronized (readWaiters) {
+        while (readPoint.get() < writeNumber) {
+          if (count % 100 == 0 && count > 0) {
+            long totalWaitTillNow = READ_WAIT_MILLIS * count;
+            LOG.warn("STUCK for : " + totalWaitTillNow + " millis. " + this);
+          }
+          count++;
+          try {
+            readWaiters.wait(READ_WAIT_MILLIS);
+          } catch (InterruptedException ie) {
+            // Finish the loop like the default implementation does, then reset the flag.
+            interrupted = true;
+          }
+        }
+      }
+    } finally {
+      readWaiterCount.decrementAndGet();
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
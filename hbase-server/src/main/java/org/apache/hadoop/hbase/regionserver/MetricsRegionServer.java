@@ -229,6 +229,14 @@ public class MetricsRegionServer {
 
   }
 
+  public void updateFlushStoreWriteTime(long wallTime, long storeTime) {
+    serverSource.updateFlushStoreWriteTime(wallTime, storeTime);
+  }
+
+  public void updateRecoveredEditsReplay(long t, long edits) {
+    serverSource.updateRecoveredEditsReplay(t, edits);
+  }
+
   public void updateCompaction(String table, boolean isMajor, long t, int inputFileCount,
     int outputFileCount, long inputBytes, long outputBytes) {
     serverSource.updateCompactionTime(isMajor, t);
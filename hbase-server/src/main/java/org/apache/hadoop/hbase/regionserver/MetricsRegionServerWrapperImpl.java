@@ -40,6 +40,7 @@ import org.apache.hadoop.hbase.io.asyncfs.monitor.ExcludeDatanodeManager;
 import org.apache.hadoop.hbase.io.hfile.BlockCache;
 import org.apache.hadoop.hbase.io.hfile.CacheStats;
 import org.apache.hadoop.hbase.io.hfile.CombinedBlockCache;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
 import org.apache.hadoop.hbase.mob.MobFileCache;
 import org.apache.hadoop.hbase.regionserver.wal.MetricsWALSource;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
@@ -68,6 +69,7 @@ class MetricsRegionServerWrapperImpl implements MetricsRegionServerWrapper {
   private BlockCache l1Cache = null;
   private BlockCache l2Cache = null;
   private MobFileCache mobFileCache;
+  private RowCache rowCache;
   private CacheStats cacheStats;
   private CacheStats l1Stats = null;
   private CacheStats l2Stats = null;
@@ -99,6 +101,7 @@ class MetricsRegionServerWrapperImpl implements MetricsRegionServerWrapper {
     this.regionServer = regionServer;
     initBlockCache();
     initMobFileCache();
+    this.rowCache = this.regionServer.getRowCache().orElse(null);
     this.excludeDatanodeManager = this.regionServer.getWalFactory().getExcludeDatanodeManager();
 
     this.period = regionServer.getConfiguration().getLong(HConstants.REGIONSERVER_METRICS_PERIOD,
@@ -364,6 +367,48 @@ class MetricsRegionServerWrapperImpl implements MetricsRegionServerWrapper {
     return this.l2Cache != null ? this.l2Cache.getBlockCount() : 0L;
   }
 
+  @Override
+  public long getL2CacheIndexHeapSaved() {
+    return this.l2Cache instanceof BucketCache
+      ? ((BucketCache) this.l2Cache).getBackingMapHeapSaved()
+      : 0L;
+  }
+
+  @Override
+  public long getL2CacheIndexOffHeapSize() {
+    return this.l2Cache instanceof BucketCache
+      ? ((BucketCache) this.l2Cache).getBackingMapOffHeapSize()
+      : 0L;
+  }
+
+  @Override
+  public long getL2CacheFragmentationBytes() {
+    return this.l2Cache instanceof BucketCache
+      ? ((BucketCache) this.l2Cache).getFragmentationBytes()
+      : 0L;
+  }
+
+  @Override
+  public long getL2CacheRelocatedBlockCount() {
+    return this.l2Cache instanceof BucketCache
+      ? ((BucketCache) this.l2Cache).getRelocatedBlockCount()
+      : 0L;
+  }
+
+  @Override
+  public long getL2CacheAdmissionRejectedCount() {
+    return this.l2Cache instanceof BucketCache
+      ? ((BucketCache) this.l2Cache).getAdmissionRejectedCount()
+      : 0L;
+  }
+
+  @Override
+  public long getL2CacheGhostHitCount() {
+    return this.l2Cache instanceof BucketCache
+      ? ((BucketCache) this.l2Cache).getGhostHitCount()
+      : 0L;
+  }
+
   public long getL2CacheEvictedCount() {
     return this.l2Stats != null ? this.l2Stats.getEvictedCount() : 0L;
   }
@@ -725,6 +770,31 @@ class MetricsRegionServerWrapperImpl implements MetricsRegionServerWrapper {
     return mobFileCacheHitRatio * 100;
   }
 
+  @Override
+  public long getRowCacheHitCount() {
+    return rowCache != null ? rowCache.getHitCount() : 0L;
+  }
+
+  @Override
+  public long getRowCacheMissCount() {
+    return rowCache != null ? rowCache.getMissCount() : 0L;
+  }
+
+  @Override
+  public long getRowCacheEvictedCount() {
+    return rowCache != null ? rowCache.getEvictedCount() : 0L;
+  }
+
+  @Override
+  public long getRowCacheCount() {
+    return rowCache != null ? rowCache.getCount() : 0L;
+  }
+
+  @Override
+  public long getRowCacheSize() {
+    return rowCache != null ? rowCache.getCurrentSize() : 0L;
+  }
+
   @Override
   public int getActiveScanners() {
     return regionServer.getRpcServices().getScannersCount();
@@ -20,6 +20,7 @@ package org.apache.hadoop.hbase.regionserver;
 import java.util.LinkedList;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicLong;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ClassSize;
 import org.apache.yetus.audience.InterfaceAudience;
@@ -33,6 +34,9 @@ import org.apache.hbase.thirdparty.com.google.common.base.MoreObjects.ToStringHe
  * Manages the read/write consistency. This provides an interface for readers to determine what
  * entries to ignore, and a mechanism for writers to obtain new write numbers, then "commit" the new
  * writes for readers to read (thus forming atomic transactions).
+ * <p>
+ * Use {@link #create(Configuration, String)} to get the implementation selected by configuration,
+ * see {@link LockFreeMultiVersionConcurrencyControl}.
  */
 @InterfaceAudience.Private
 public class MultiVersionConcurrencyControl {
@@ -48,6 +52,10 @@ public class MultiVersionConcurrencyControl {
    */
   public static final long NONE = -1;
 
+  /** Whether regions use {@link LockFreeMultiVersionConcurrencyControl} */
+  public static final String LOCK_FREE_KEY = "hbase.hregion.mvcc.lockfree";
+  public static final boolean DEFAULT_LOCK_FREE = false;
+
   // This is the pending queue of writes.
   //
   // TODO(eclark): Should this be an array of fixed size to
@@ -64,6 +72,16 @@ public class MultiVersionConcurrencyControl {
     this.regionName = regionName;
   }
 
+  /**
+   * Returns the MVCC implementation selected by the given configuration.
+   */
+  public static MultiVersionConcurrencyControl create(Configuration conf, String regionName) {
+    if (conf.getBoolean(LOCK_FREE_KEY, DEFAULT_LOCK_FREE)) {
+      return new LockFreeMultiVersionConcurrencyControl(conf, regionName);
+    }
+    return new MultiVersionConcurrencyControl(regionName);
+  }
+
   /**
    * Construct and set read point. Write point is uninitialized.
    */
@@ -267,22 +285,22 @@ public class MultiVersionConcurrencyControl {
   @InterfaceAudience.Private
   public static final class WriteEntry {
     private final long writeNumber;
-    private boolean completed = false;
+    private volatile boolean completed = false;
     /**
      * Will be called after completion, i.e, when being removed from the
      * {@link MultiVersionConcurrencyControl#writeQueue}.
      */
     private Optional<Runnable> completionAction = Optional.empty();
 
-    private WriteEntry(long writeNumber) {
+    WriteEntry(long writeNumber) {
       this.writeNumber = writeNumber;
     }
 
-    private void markCompleted() {
+    void markCompleted() {
       this.completed = true;
     }
 
-    private boolean isCompleted() {
+    boolean isCompleted() {
       return this.completed;
     }
 
@@ -291,7 +309,7 @@ public class MultiVersionConcurrencyControl {
       completionAction = Optional.of(action);
     }
 
-    private void runCompletionAction() {
+    void runCompletionAction() {
       completionAction.ifPresent(Runnable::run);
     }
 
@@ -2541,28 +2541,37 @@ public class RSRpcServices extends HBaseRpcServicesBase<HRegionServer>
           stale);
       }
     }
-    Scan scan = new Scan(get);
-    if (scan.getLoadColumnFamiliesOnDemandValue() == null) {
-      scan.setLoadColumnFamiliesOnDemand(region.isLoadingCfsOnDemandDefault());
-    }
-    RegionScannerImpl scanner = null;
-    try {
-      scanner = region.getScanner(scan);
-      scanner.next(results);
-    } finally {
-      if (scanner != null) {
-        if (closeCallBack == null) {
-          // If there is a context then the scanner can be added to the current
-          // RpcCallContext. The rpc callback will take care of closing the
-          // scanner, for eg in case
-          // of get()
-          context.setCallBack(scanner);
-        } else {
-          // The call is from multi() where the results from the get() are
-          // aggregated and then send out to the
-          // rpc. The rpccall back will close all such scanners created as part
-          // of multi().
-          closeCallBack.addScanner(scanner);
+    RowCache.Lookup rowCacheLookup = region.lookupRowCache(get);
+    if (rowCacheLookup != null && rowCacheLookup.isHit()) {
+      results.addAll(rowCacheLookup.getCells());
+    } else {
+      Scan scan = new Scan(get);
+      if (scan.getLoadColumnFamiliesOnDemandValue() == null) {
+        scan.setLoadColumnFamiliesOnDemand(region.isLoadingCfsOnDemandDefault());
+      }
+      RegionScannerImpl scanner = null;
+      try {
+        scanner = region.getScanner(scan);
+        int cpResultCount = results.size();
+        scanner.next(results);
+        if (rowCacheLookup != null) {
+          rowCacheLookup.populate(results.subList(cpResultCount, results.size()));
+        }
+      } finally {
+        if (scanner != null) {
+          if (closeCallBack == null) {
+            // If there is a context then the scanner can be added to the current
+            // RpcCallContext. The rpc callback will take care of closing the
+            // scanner, for eg in case
+            // of get()
+            context.setCallBack(scanner);
+          } else {
+            // The call is from multi() where the results from the get() are
+            // aggregated and then send out to the
+            // rpc. The rpccall back will close all such scanners created as part
+            // of multi().
+            closeCallBack.addScanner(scanner);
+          }
         }
       }
     }
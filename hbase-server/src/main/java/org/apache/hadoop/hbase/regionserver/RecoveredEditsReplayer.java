@@ -0,0 +1,256 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hbase.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Applies the cells of recovered edits to the stores of a region from several threads.
+ * <p>
+ * The recovered edits are still read and decoded by the thread opening the region, which does all
+ * the sequence id and region boundary checks and then hands each cell to
+ * {@link #add(HStore, Cell)}. Cells are buffered per store and applied in batches by a fixed set
+ * of applier threads. A store always goes to the same applier, so the cells of a store are added
+ * to its memstore in the order they were read, and different stores are filled in parallel.
+ * <p>
+ * {@link #drain()} waits for everything handed over so far to be in the memstores. It must be
+ * called before flushing, since the flush uses the sequence id of the last edit read. The size of
+ * the cells handed over but not in the memstores yet is given by {@link #getQueuedSize()}, to be
+ * added to the size of the memstores when deciding whether to flush.
+ */
+@InterfaceAudience.Private
+class RecoveredEditsReplayer implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RecoveredEditsReplayer.class);
+
+  /**
+   * Number of threads applying recovered edits to the stores of a region. The default of 1 applies
+   * them on the thread opening the region, as before.
+   */
+  static final String REPLAY_THREADS = "hbase.hregion.recovered.edits.replay.threads";
+  static final int DEFAULT_REPLAY_THREADS = 1;
+
+  /** Number of cells of a store to buffer before handing them to its applier. */
+  static final String REPLAY_BATCH_SIZE = "hbase.hregion.recovered.edits.replay.batch.size";
+  static final int DEFAULT_REPLAY_BATCH_SIZE = 1024;
+
+  /** Number of batches which can wait for each applier before the reader blocks. */
+  private static final int QUEUE_SIZE = 16;
+
+  private static final Batch POISON = new Batch(null, null, null);
+
+  private static final class Batch {
+    final HStore store;
+    final List<Cell> cells;
+    final CountDownLatch barrier;
+
+    Batch(HStore store, List<Cell> cells, CountDownLatch barrier) {
+      this.store = store;
+      this.cells = cells;
+      this.barrier = barrier;
+    }
+  }
+
+  private final HRegion region;
+  private final int batchSize;
+  private final List<BlockingQueue<Batch>> queues;
+  private final ExecutorService pool;
+  private final Map<HStore, List<Cell>> pending = new IdentityHashMap<>();
+  private final Map<HStore, BlockingQueue<Batch>> assignments = new IdentityHashMap<>();
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+  private final AtomicLong queuedSize = new AtomicLong();
+
+  private RecoveredEditsReplayer(HRegion region, int threads, int batchSize) {
+    this.region = region;
+    this.batchSize = batchSize;
+    this.queues = new ArrayList<>(threads);
+    this.pool = Executors.newFixedThreadPool(threads,
+      new ThreadFactoryBuilder()
+        .setNameFormat("RecoveredEditsReplay-" + region.getRegionInfo().getEncodedName() + "-%d")
+        .setDaemon(true).setUncaughtExceptionHandler(Threads.LOGGING_EXCEPTION_HANDLER).build());
+    for (int i = 0; i < threads; i++) {
+      BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+      queues.add(queue);
+      pool.execute(() -> apply(queue));
+    }
+  }
+
+  /**
+   * Returns a replayer for the given region, or null if the recovered edits should be applied on
+   * the calling thread because parallel replay is disabled or the region has a single store.
+   */
+  static RecoveredEditsReplayer create(HRegion region, Configuration conf) {
+    int threads = Math.min(conf.getInt(REPLAY_THREADS, DEFAULT_REPLAY_THREADS),
+      region.getStores().size());
+    if (threads <= 1) {
+      return null;
+    }
+    return new RecoveredEditsReplayer(region, threads,
+      Math.max(1, conf.getInt(REPLAY_BATCH_SIZE, DEFAULT_REPLAY_BATCH_SIZE)));
+  }
+
+  /**
+   * Queues the cell to be added to the memstore of the given store.
+   */
+  void add(HStore store, Cell cell) throws IOException {
+    List<Cell> cells = pending.get(store);
+    if (cells == null) {
+      cells = new ArrayList<>(batchSize);
+      pending.put(store, cells);
+    }
+    cells.add(cell);
+    queuedSize.addAndGet(cell.heapSize());
+    if (cells.size() >= batchSize) {
+      pending.remove(store);
+      dispatch(queueOf(store), new Batch(store, cells, null));
+    }
+  }
+
+  /**
+   * Waits until all the cells queued so far are in the memstores.
+   * @throws IOException if any of them could not be applied
+   */
+  void drain() throws IOException {
+    for (Map.Entry<HStore, List<Cell>> e : pending.entrySet()) {
+      dispatch(queueOf(e.getKey()), new Batch(e.getKey(), e.getValue(), null));
+    }
+    pending.clear();
+    CountDownLatch barrier = new CountDownLatch(queues.size());
+    for (BlockingQueue<Batch> queue : queues) {
+      dispatch(queue, new Batch(null, null, barrier));
+    }
+    try {
+      barrier.await();
+    } catch (InterruptedException e) {
+      throw (IOException) new InterruptedIOException(
+        "Interrupted replaying recovered edits of " + region).initCause(e);
+    }
+    checkFailure();
+  }
+
+  /**
+   * Returns the heap size of the cells queued and not added to the memstores yet.
+   */
+  long getQueuedSize() {
+    return queuedSize.get();
+  }
+
+  @Override
+  public void close() {
+    pending.clear();
+    queuedSize.set(0);
+    for (BlockingQueue<Batch> queue : queues) {
+      // the appliers may be gone already if one of them failed, do not block on a full queue
+      if (!queue.offer(POISON)) {
+        queue.clear();
+        queue.offer(POISON);
+      }
+    }
+    pool.shutdown();
+  }
+
+  private BlockingQueue<Batch> queueOf(HStore store) {
+    BlockingQueue<Batch> queue = assignments.get(store);
+    if (queue == null) {
+      queue = queues.get(assignments.size() % queues.size());
+      assignments.put(store, queue);
+    }
+    return queue;
+  }
+
+  private void dispatch(BlockingQueue<Batch> queue, Batch batch) throws IOException {
+    checkFailure();
+    try {
+      queue.put(batch);
+    } catch (InterruptedException e) {
+      throw (IOException) new InterruptedIOException(
+        "Interrupted replaying recovered edits of " + region).initCause(e);
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    Throwable t = failure.get();
+    if (t != null) {
+      throw t instanceof IOException ? (IOException) t
+        : new IOException("Failed replaying recovered edits of " + region, t);
+    }
+  }
+
+  private void apply(BlockingQueue<Batch> queue) {
+    for (;;) {
+      Batch batch;
+      try {
+        batch = queue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (batch == POISON) {
+        return;
+      }
+      if (batch.barrier != null) {
+        batch.barrier.countDown();
+        continue;
+      }
+      long size = 0;
+      for (Cell cell : batch.cells) {
+        size += cell.heapSize();
+      }
+      if (failure.get() != null) {
+        // drop the remaining edits, the region open is going to fail anyway
+        queuedSize.addAndGet(-size);
+        continue;
+      }
+      try {
+        MemStoreSizing memStoreSizing = new NonThreadSafeMemStoreSizing();
+        for (Cell cell : batch.cells) {
+          region.restoreEdit(batch.store, cell, memStoreSizing);
+        }
+        MemStoreSize mss = memStoreSizing.getMemStoreSize();
+        region.incMemStoreSize(mss.getDataSize(), mss.getHeapSize(), mss.getOffHeapSize(),
+          mss.getCellsCount());
+      } catch (Throwable t) {
+        LOG.warn("Failed applying recovered edits to {}", batch.store, t);
+        failure.compareAndSet(null, t);
+      } finally {
+        // once in the memstore size, so that it is always counted in one or the other
+        queuedSize.addAndGet(-size);
+      }
+    }
+  }
+}
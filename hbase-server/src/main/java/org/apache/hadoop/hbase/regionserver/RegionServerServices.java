@@ -274,6 +274,9 @@ public interface RegionServerServices extends Server, MutableOnlineRegions, Favo
   /** Returns The cache for mob files. */
   Optional<MobFileCache> getMobFileCache();
 
+  /** Returns The cache for Get results of whole families, if enabled. */
+  Optional<RowCache> getRowCache();
+
   /** Returns the {@link AccessChecker} */
   AccessChecker getAccessChecker();
 
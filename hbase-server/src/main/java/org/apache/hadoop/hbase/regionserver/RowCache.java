@@ -0,0 +1,355 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.PrivateCellUtil;
+import org.apache.hadoop.hbase.TagType;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.IsolationLevel;
+import org.apache.hadoop.hbase.io.HeapSize;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A region server wide cache of whole-family Get results, sitting in front of the block cache.
+ * <p>
+ * Entries are keyed by a per store generation and the row. A store takes a fresh generation when it
+ * is opened and whenever its set of store files changes (flush, compaction, bulk load), which makes
+ * every entry of the old generation unreachable without having to walk the cache. Writes invalidate
+ * the affected (store, row) entries once the mutation is visible to readers.
+ * <p>
+ * To stop a Get that read the row before a write from caching its now stale result, each key hashes
+ * to a stamp which is bumped on invalidation; a result is only cached if the stamp it saw before
+ * opening its scanner is unchanged.
+ * <p>
+ * The cache is disabled unless {@link #ROW_CACHE_SIZE_KEY} is set, and is only consulted for column
+ * families that have {@link #ROW_CACHE_ENABLED_KEY} set in their (or their table's) configuration.
+ */
+@InterfaceAudience.Private
+public class RowCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RowCache.class);
+
+  /** Maximum size of the row cache in bytes. 0, the default, disables the row cache. */
+  public static final String ROW_CACHE_SIZE_KEY = "hbase.regionserver.row.cache.size";
+
+  public static final long DEFAULT_ROW_CACHE_SIZE = 0L;
+
+  /** Family or table level switch for caching Get results of a column family. */
+  public static final String ROW_CACHE_ENABLED_KEY = "hbase.row.cache.enabled";
+
+  public static final boolean DEFAULT_ROW_CACHE_ENABLED = false;
+
+  private static final int STAMP_STRIPES = 1024;
+
+  private static final AtomicLong GENERATION = new AtomicLong();
+
+  private final Cache<RowCacheKey, List<Cell>> cache;
+  private final long maxSize;
+  private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+  private final Object[] stampLocks = new Object[STAMP_STRIPES];
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder evictedCount = new LongAdder();
+
+  RowCache(long maxSize) {
+    this.maxSize = maxSize;
+    this.cache = Caffeine.newBuilder().maximumWeight(maxSize)
+      .weigher((RowCacheKey key, List<Cell> value) -> (int) Math
+        .min(key.heapSize() + ClassSize.ARRAYLIST + cellsHeapSize(value), Integer.MAX_VALUE))
+      .removalListener((key, value, cause) -> {
+        if (cause.wasEvicted()) {
+          evictedCount.increment();
+        }
+      }).executor(Runnable::run).build();
+    for (int i = 0; i < STAMP_STRIPES; i++) {
+      stampLocks[i] = new Object();
+    }
+  }
+
+  /**
+   * Returns a row cache sized by {@link #ROW_CACHE_SIZE_KEY}, or null if it is disabled.
+   */
+  public static RowCache create(Configuration conf) {
+    long size = conf.getLong(ROW_CACHE_SIZE_KEY, DEFAULT_ROW_CACHE_SIZE);
+    if (size <= 0) {
+      return null;
+    }
+    LOG.info("Allocating row cache of size {}", StringUtils.byteDesc(size));
+    return new RowCache(size);
+  }
+
+  /**
+   * Returns a generation that has never been handed out before in this JVM.
+   */
+  static long nextGeneration() {
+    return GENERATION.incrementAndGet();
+  }
+
+  /**
+   * A Get can be served from the row cache if it asks for the latest version of whole families,
+   * without filters, time ranges or per family limits.
+   */
+  static boolean isCacheable(Get get) {
+    if (
+      get.getFilter() != null || get.getMaxVersions() != 1 || !get.getTimeRange().isAllTime()
+        || !get.getColumnFamilyTimeRange().isEmpty() || get.getMaxResultsPerColumnFamily() >= 0
+        || get.getRowOffsetPerColumnFamily() > 0
+        || get.getIsolationLevel() == IsolationLevel.READ_UNCOMMITTED || !get.hasFamilies()
+    ) {
+      return false;
+    }
+    for (NavigableSet<byte[]> qualifiers : get.getFamilyMap().values()) {
+      if (qualifiers != null && !qualifiers.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Whether results of the given store may be cached. Families with a TTL are excluded since
+   * cached cells would outlive their expiry.
+   */
+  static boolean isCacheable(HStore store) {
+    return store.isRowCacheEnabled() && store.getScanInfo().getTtl() == Long.MAX_VALUE;
+  }
+
+  /**
+   * Looks up the given row for all the given stores. The returned lookup either holds the cached
+   * cells, or can be used to populate the cache with the cells read from the stores.
+   * @param stores the stores of the requested families, in family order
+   */
+  Lookup lookup(byte[] row, List<HStore> stores) {
+    RowCacheKey[] keys = new RowCacheKey[stores.size()];
+    List<List<Cell>> cached = new ArrayList<>(keys.length);
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = new RowCacheKey(stores.get(i).getRowCacheGeneration(), row);
+      List<Cell> cells = cache.getIfPresent(keys[i]);
+      if (cells == null) {
+        missCount.increment();
+        long[] seenStamps = new long[keys.length];
+        for (int j = i + 1; j < keys.length; j++) {
+          keys[j] = new RowCacheKey(stores.get(j).getRowCacheGeneration(), row);
+        }
+        for (int j = 0; j < keys.length; j++) {
+          seenStamps[j] = stamps.get(stripe(keys[j]));
+        }
+        return new Lookup(stores, keys, seenStamps, null);
+      }
+      cached.add(cells);
+    }
+    hitCount.increment();
+    List<Cell> results;
+    if (cached.size() == 1) {
+      results = new ArrayList<>(cached.get(0));
+    } else {
+      int size = 0;
+      for (List<Cell> cells : cached) {
+        size += cells.size();
+      }
+      results = new ArrayList<>(size);
+      for (List<Cell> cells : cached) {
+        results.addAll(cells);
+      }
+    }
+    return new Lookup(stores, keys, null, results);
+  }
+
+  /**
+   * Invalidates the cached cells of the given row in the given store.
+   */
+  void invalidate(HStore store, byte[] row) {
+    RowCacheKey key = new RowCacheKey(store.getRowCacheGeneration(), row);
+    int stripe = stripe(key);
+    synchronized (stampLocks[stripe]) {
+      stamps.incrementAndGet(stripe);
+      cache.invalidate(key);
+    }
+  }
+
+  private void putIfUnchanged(RowCacheKey key, long seenStamp, List<Cell> cells) {
+    int stripe = stripe(key);
+    synchronized (stampLocks[stripe]) {
+      if (stamps.get(stripe) == seenStamp) {
+        cache.put(key, cells);
+      }
+    }
+  }
+
+  private static int stripe(RowCacheKey key) {
+    return (key.hashCode() & Integer.MAX_VALUE) % STAMP_STRIPES;
+  }
+
+  private static long cellsHeapSize(List<Cell> cells) {
+    long size = 0;
+    for (Cell cell : cells) {
+      size += ClassSize.REFERENCE + ((HeapSize) cell).heapSize();
+    }
+    return size;
+  }
+
+  public long getHitCount() {
+    return hitCount.sum();
+  }
+
+  public long getMissCount() {
+    return missCount.sum();
+  }
+
+  public long getEvictedCount() {
+    return evictedCount.sum();
+  }
+
+  /** Returns the approximate number of cached (store, row) entries */
+  public long getCount() {
+    return cache.estimatedSize();
+  }
+
+  /** Returns the approximate heap size of the cached entries, in bytes */
+  public long getCurrentSize() {
+    return cache.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L);
+  }
+
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * The outcome of {@link RowCache#lookup(byte[], List)}.
+   */
+  final class Lookup {
+
+    private final List<HStore> stores;
+    private final RowCacheKey[] keys;
+    private final long[] seenStamps;
+    private final List<Cell> cached;
+
+    private Lookup(List<HStore> stores, RowCacheKey[] keys, long[] seenStamps,
+      List<Cell> cached) {
+      this.stores = stores;
+      this.keys = keys;
+      this.seenStamps = seenStamps;
+      this.cached = cached;
+    }
+
+    boolean isHit() {
+      return cached != null;
+    }
+
+    /** Returns a copy of the cached cells, in the order a region scanner would return them */
+    List<Cell> getCells() {
+      return cached;
+    }
+
+    /**
+     * Caches the result of a Get that missed. The cells must be the complete result for the row,
+     * read by a scanner opened after {@link RowCache#lookup(byte[], List)} returned.
+     */
+    void populate(List<Cell> results) {
+      if (isHit()) {
+        return;
+      }
+      int pos = 0;
+      for (int i = 0; i < keys.length; i++) {
+        byte[] family = stores.get(i).getColumnFamilyDescriptor().getName();
+        List<Cell> cells = new ArrayList<>();
+        while (pos < results.size() && CellUtil.matchingFamily(results.get(pos), family)) {
+          Cell cell = results.get(pos++);
+          if (hasTTL(cell)) {
+            return;
+          }
+          // Always copy, the cell may point into a (possibly pooled or shared) block buffer.
+          KeyValue kv = KeyValueUtil.copyToNewKeyValue(cell);
+          cells.add(kv);
+        }
+        putIfUnchanged(keys[i], seenStamps[i],
+          cells.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(cells));
+      }
+    }
+  }
+
+  private static boolean hasTTL(Cell cell) {
+    return cell.getTagsLength() > 0
+      && PrivateCellUtil.getTag(cell, TagType.TTL_TAG_TYPE).isPresent();
+  }
+
+  /**
+   * Key of a row cache entry: the store generation and the row.
+   */
+  static final class RowCacheKey implements HeapSize {
+
+    private static final long FIXED_OVERHEAD =
+      ClassSize.align(ClassSize.OBJECT + ClassSize.REFERENCE + Bytes.SIZEOF_LONG + Bytes.SIZEOF_INT);
+
+    private final long generation;
+    private final byte[] row;
+    private final int hash;
+
+    RowCacheKey(long generation, byte[] row) {
+      this.generation = generation;
+      this.row = row;
+      this.hash = 31 * Long.hashCode(generation) + Bytes.hashCode(row);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof RowCacheKey)) {
+        return false;
+      }
+      RowCacheKey other = (RowCacheKey) obj;
+      return generation == other.generation && Bytes.equals(row, other.row);
+    }
+
+    @Override
+    public long heapSize() {
+      return FIXED_OVERHEAD + ClassSize.align(ClassSize.ARRAY + row.length);
+    }
+
+    @Override
+    public String toString() {
+      return "RowCacheKey{generation=" + generation + ", row=" + Bytes.toStringBinary(row) + "}";
+    }
+  }
+}
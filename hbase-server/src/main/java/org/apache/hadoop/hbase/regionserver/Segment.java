@@ -351,7 +351,7 @@ public abstract class Segment implements MemStoreSizing {
       if (memStoreLAB != null) {
         onHeap = memStoreLAB.isOnHeap();
       }
-      res += indexEntryOnHeapSize(onHeap);
+      res += indexEntryOnHeapSize(onHeap) + keptCellHeapSize(cell, onHeap);
       if (onHeap) {
         res += cell.heapSize();
       }
@@ -368,7 +368,7 @@ public abstract class Segment implements MemStoreSizing {
       if (memStoreLAB != null) {
         offHeap = memStoreLAB.isOffHeap();
       }
-      res += indexEntryOffHeapSize(offHeap);
+      res += indexEntryOffHeapSize(offHeap) + keptCellOffHeapSize(cell, offHeap);
       if (offHeap) {
         res += cell.heapSize();
       }
@@ -391,6 +391,23 @@ public abstract class Segment implements MemStoreSizing {
 
   protected abstract long indexEntrySize();
 
+  /**
+   * Returns the heap size to charge for the given Cell on top of its index entry and of its data,
+   * when the index keeps some Cells apart rather than in its entries, see
+   * {@link CellChunkMutableSegment}.
+   */
+  protected long keptCellHeapSize(Cell cell, boolean onHeap) {
+    return 0;
+  }
+
+  /**
+   * Returns the off-heap size to charge for the given Cell on top of its index entry and of its
+   * data, see {@link #keptCellHeapSize(Cell, boolean)}.
+   */
+  protected long keptCellOffHeapSize(Cell cell, boolean offHeap) {
+    return 0;
+  }
+
   /**
    * Returns a subset of the segment cell set, which starts with the given cell
    * @param firstCell a cell in the segment
@@ -138,7 +138,13 @@ public final class SegmentFactory {
 
   private MutableSegment generateMutableSegment(final Configuration conf, CellComparator comparator,
     MemStoreLAB memStoreLAB, MemStoreSizing memstoreSizing) {
-    // TBD use configuration to set type of segment
+    if (
+      conf != null && memStoreLAB != null && conf.getBoolean(
+        CellChunkMutableSegment.CHUNK_MAP_ENABLED_KEY,
+        CellChunkMutableSegment.CHUNK_MAP_ENABLED_DEFAULT)
+    ) {
+      return new CellChunkMutableSegment(comparator, memStoreLAB, memstoreSizing);
+    }
     CellSet set = new CellSet(comparator);
     return new MutableSegment(set, comparator, memStoreLAB, memstoreSizing);
   }
@@ -224,6 +224,7 @@ public class StoreFileReader {
     byte[] row = scan.getStartRow();
     switch (this.bloomFilterType) {
       case ROW:
+      case ROW_BINARY_FUSE:
         if (!scan.isGetScan()) {
           return true;
         }
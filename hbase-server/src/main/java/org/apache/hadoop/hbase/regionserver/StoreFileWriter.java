@@ -545,6 +545,7 @@ public class StoreFileWriter implements CellSink, ShipperListener {
         // init bloom context
         switch (bloomType) {
           case ROW:
+          case ROW_BINARY_FUSE:
             bloomContext =
               new RowBloomContext(generalBloomFilterWriter, fileContext.getCellComparator());
             break;
@@ -46,6 +46,7 @@ import org.apache.hadoop.hbase.regionserver.handler.ParallelSeekHandler;
 import org.apache.hadoop.hbase.regionserver.querymatcher.CompactionScanQueryMatcher;
 import org.apache.hadoop.hbase.regionserver.querymatcher.ScanQueryMatcher;
 import org.apache.hadoop.hbase.regionserver.querymatcher.UserScanQueryMatcher;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.yetus.audience.InterfaceAudience;
 import org.slf4j.Logger;
@@ -163,6 +164,9 @@ public class StoreScanner extends NonReversedNonLazyKeyValueScanner
   protected final long readPt;
   private boolean topChanged = false;
 
+  /** The exclusive right bound of the rows to compact, or null to compact to the end */
+  private byte[] compactionStopRow = null;
+
   /** An internal constructor. */
   private StoreScanner(HStore store, Scan scan, ScanInfo scanInfo, int numColumns, long readPt,
     boolean cacheBlocks, ScanType scanType) {
@@ -294,7 +298,27 @@ public class StoreScanner extends NonReversedNonLazyKeyValueScanner
    */
   public StoreScanner(HStore store, ScanInfo scanInfo, List<? extends KeyValueScanner> scanners,
     ScanType scanType, long smallestReadPoint, long earliestPutTs) throws IOException {
-    this(store, scanInfo, scanners, scanType, smallestReadPoint, earliestPutTs, null, null);
+    this(store, scanInfo, scanners, scanType, smallestReadPoint, earliestPutTs, null, null, null,
+      null);
+  }
+
+  /**
+   * Used for compactions that only rewrite a range of rows, see
+   * {@link org.apache.hadoop.hbase.regionserver.compactions.DefaultCompactor}.
+   * <p>
+   * Opens a scanner across specified StoreFiles, which returns the cells of the rows in the range
+   * only.
+   * @param store             who we scan
+   * @param scanners          ancillary scanners
+   * @param smallestReadPoint the readPoint that we should use for tracking versions
+   * @param startRow          The inclusive left bound of the range; can be EMPTY_START_ROW.
+   * @param stopRow           The exclusive right bound of the range; can be EMPTY_END_ROW.
+   */
+  public StoreScanner(HStore store, ScanInfo scanInfo, List<? extends KeyValueScanner> scanners,
+    ScanType scanType, long smallestReadPoint, long earliestPutTs, byte[] startRow, byte[] stopRow)
+    throws IOException {
+    this(store, scanInfo, scanners, scanType, smallestReadPoint, earliestPutTs, null, null,
+      startRow, stopRow);
   }
 
   /**
@@ -311,12 +335,12 @@ public class StoreScanner extends NonReversedNonLazyKeyValueScanner
     long smallestReadPoint, long earliestPutTs, byte[] dropDeletesFromRow, byte[] dropDeletesToRow)
     throws IOException {
     this(store, scanInfo, scanners, ScanType.COMPACT_RETAIN_DELETES, smallestReadPoint,
-      earliestPutTs, dropDeletesFromRow, dropDeletesToRow);
+      earliestPutTs, dropDeletesFromRow, dropDeletesToRow, null, null);
   }
 
   private StoreScanner(HStore store, ScanInfo scanInfo, List<? extends KeyValueScanner> scanners,
     ScanType scanType, long smallestReadPoint, long earliestPutTs, byte[] dropDeletesFromRow,
-    byte[] dropDeletesToRow) throws IOException {
+    byte[] dropDeletesToRow, byte[] startRow, byte[] stopRow) throws IOException {
     this(store, SCAN_FOR_COMPACTION, scanInfo, 0,
       store.getHRegion().getReadPoint(IsolationLevel.READ_COMMITTED), false, scanType);
     assert scanType != ScanType.USER_SCAN;
@@ -324,11 +348,18 @@ public class StoreScanner extends NonReversedNonLazyKeyValueScanner
       CompactionScanQueryMatcher.create(scanInfo, scanType, smallestReadPoint, earliestPutTs,
         oldestUnexpiredTS, now, dropDeletesFromRow, dropDeletesToRow, store.getCoprocessorHost());
 
+    if (stopRow != null && !Bytes.equals(stopRow, HConstants.EMPTY_END_ROW)) {
+      compactionStopRow = stopRow;
+    }
+
     // Filter the list of scanners using Bloom filters, time range, TTL, etc.
     scanners = selectScannersFrom(store, scanners);
 
     // Seek all scanners to the initial key
-    seekScanners(scanners, matcher.getStartKey(), false, parallelSeekEnabled);
+    Cell startKey = startRow == null || Bytes.equals(startRow, HConstants.EMPTY_START_ROW)
+      ? matcher.getStartKey()
+      : PrivateCellUtil.createFirstOnRow(startRow);
+    seekScanners(scanners, startKey, false, parallelSeekEnabled);
     addCurrentScanners(scanners);
     // Combine all seeked scanners with a heap
     resetKVHeap(scanners, comparator);
@@ -575,6 +606,14 @@ public class StoreScanner extends NonReversedNonLazyKeyValueScanner
     // rows. Else it is possible we are still traversing the same row so we must perform the row
     // comparison.
     if (!scannerContext.hasAnyLimit(LimitScope.BETWEEN_CELLS) || matcher.currentRow() == null) {
+      if (
+        compactionStopRow != null
+          && comparator.compareRows(cell, compactionStopRow, 0, compactionStopRow.length) >= 0
+      ) {
+        // We are compacting a range of rows only, and have reached its end.
+        close(false);// Do all cleanup except heap.close()
+        return scannerContext.setScannerState(NextState.NO_MORE_VALUES).hasMoreValues();
+      }
       this.countPerRow = 0;
       matcher.setToNewRow(cell);
     }
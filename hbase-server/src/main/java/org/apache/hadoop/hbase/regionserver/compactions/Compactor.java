@@ -31,6 +31,10 @@ import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
@@ -61,12 +65,14 @@ import org.apache.hadoop.hbase.regionserver.throttle.ThroughputController;
 import org.apache.hadoop.hbase.security.User;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.Threads;
 import org.apache.hadoop.util.StringUtils.TraditionalBinaryPrefix;
 import org.apache.yetus.audience.InterfaceAudience;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.hbase.thirdparty.com.google.common.io.Closeables;
+import org.apache.hbase.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * A compactor is a compaction algorithm associated a given policy. Base class also contains
@@ -397,6 +403,142 @@ public abstract class Compactor<T extends CellSink> {
     return commitWriter(writer, fd, request);
   }
 
+  /**
+   * Compacts the files of the request as several sub-compactions over adjacent ranges of rows,
+   * which run in parallel. Every sub-compaction has its own scanner over all the files of the
+   * request, which only returns the rows of its range, and its own writer. The writers are only
+   * committed once all the sub-compactions have succeeded, and all the new files are returned
+   * together, so they replace the compacted files as a single compaction.
+   * @param boundaries The boundaries of the ranges in ascending order, starting with
+   *                   EMPTY_START_ROW and ending with EMPTY_END_ROW.
+   */
+  protected final List<Path> compactRowRanges(final CompactionRequestImpl request,
+    List<byte[]> boundaries, CellSinkFactory<T> sinkFactory,
+    ThroughputController throughputController, User user) throws IOException {
+    FileDetails fd = getFileDetails(request.getFiles(), request.isAllFiles(), request.isMajor());
+    long smallestReadPoint = getSmallestReadPoint();
+    boolean dropCache =
+      request.isMajor() || request.isAllFiles() ? this.dropCacheMajor : this.dropCacheMinor;
+    ScanType scanType = defaultScannerFactory.getScanType(request);
+    ScanInfo scanInfo = preCompactScannerOpen(request, scanType, user);
+
+    int numRanges = boundaries.size() - 1;
+    ThreadPoolExecutor pool = Threads.getBoundedCachedThreadPool(numRanges, 30L, TimeUnit.SECONDS,
+      new ThreadFactoryBuilder()
+        .setNameFormat(store.getRegionInfo().getEncodedName() + "-" + store.getColumnFamilyName()
+          + "-compaction-range-%d")
+        .setDaemon(true).setUncaughtExceptionHandler(Threads.LOGGING_EXCEPTION_HANDLER).build());
+    List<CompactionProgress> progresses = new ArrayList<>(numRanges);
+    List<Future<T>> futures = new ArrayList<>(numRanges);
+    for (int i = 0; i < numRanges; i++) {
+      byte[] startRow = boundaries.get(i);
+      byte[] stopRow = boundaries.get(i + 1);
+      CompactionProgress progress = new CompactionProgress(fd.maxKeyCount / numRanges);
+      progresses.add(progress);
+      futures.add(pool.submit(() -> compactRowRange(request, startRow, stopRow, fd, scanInfo,
+        scanType, smallestReadPoint, dropCache, sinkFactory, throughputController, user,
+        progress)));
+    }
+    List<T> writers = new ArrayList<>(numRanges);
+    Throwable failure = null;
+    try {
+      // Wait for all the ranges, so that no writer is left behind when we fail the compaction.
+      for (Future<T> future : futures) {
+        try {
+          writers.add(future.get());
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      failure = (InterruptedIOException) new InterruptedIOException(
+        "Interrupted while waiting for the compaction of store " + store).initCause(e);
+    } finally {
+      pool.shutdownNow();
+    }
+    if (failure != null) {
+      for (T writer : writers) {
+        abortWriter(writer);
+      }
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      }
+      throw new IOException(failure);
+    }
+
+    CompactionProgress total = new CompactionProgress(0);
+    for (CompactionProgress progress : progresses) {
+      total.totalCompactingKVs += progress.totalCompactingKVs;
+      total.currentCompactedKVs += progress.currentCompactedKVs;
+      total.totalCompactedSize += progress.totalCompactedSize;
+    }
+    store.updateCompactedMetrics(request.isMajor(), total);
+
+    List<Path> newFiles = new ArrayList<>();
+    for (int i = 0; i < writers.size(); i++) {
+      try {
+        newFiles.addAll(commitWriter(writers.get(i), fd, request));
+      } catch (IOException e) {
+        for (int j = i + 1; j < writers.size(); j++) {
+          abortWriter(writers.get(j));
+        }
+        throw e;
+      }
+    }
+    return newFiles;
+  }
+
+  /**
+   * Compacts the rows in [startRow, stopRow) of the files of the request.
+   * @return The writer holding the compacted rows, which still has to be committed.
+   */
+  private T compactRowRange(CompactionRequestImpl request, byte[] startRow, byte[] stopRow,
+    FileDetails fd, ScanInfo scanInfo, ScanType scanType, long smallestReadPoint,
+    boolean dropCache, CellSinkFactory<T> sinkFactory, ThroughputController throughputController,
+    User user, CompactionProgress progress) throws IOException {
+    InternalScanner scanner = null;
+    boolean finished = false;
+    List<StoreFileScanner> scanners =
+      createFileScanners(request.getFiles(), smallestReadPoint, dropCache);
+    T writer = null;
+    progressSet.add(progress);
+    try {
+      scanner = postCompactScannerOpen(request, scanType, createScanner(store, scanInfo, scanners,
+        scanType, smallestReadPoint, fd.earliestPutTs, startRow, stopRow), user);
+      boolean cleanSeqId = false;
+      if (fd.minSeqIdToKeep > 0 && !store.getColumnFamilyDescriptor().isNewVersionBehavior()) {
+        // For mvcc-sensitive family, we never set mvcc to 0.
+        smallestReadPoint = Math.min(fd.minSeqIdToKeep, smallestReadPoint);
+        cleanSeqId = true;
+      }
+      writer = sinkFactory.createWriter(scanner, fd, dropCache, request.isMajor(),
+        request.getWriterCreationTracker());
+      finished = performCompaction(fd, scanner, writer, smallestReadPoint, cleanSeqId,
+        throughputController, request, progress);
+      if (!finished) {
+        throw new InterruptedIOException("Aborting compaction of rows ["
+          + Bytes.toStringBinary(startRow) + ", " + Bytes.toStringBinary(stopRow) + ") of store "
+          + store + " in region " + store.getRegionInfo().getRegionNameAsString()
+          + " because it was interrupted.");
+      }
+    } finally {
+      if (scanner == null) {
+        for (StoreFileScanner sfs : scanners) {
+          sfs.close();
+        }
+      } else {
+        Closeables.close(scanner, true);
+      }
+      if (!finished && writer != null) {
+        abortWriter(writer);
+      }
+      progressSet.remove(progress);
+    }
+    return writer;
+  }
+
   protected abstract List<Path> commitWriter(T writer, FileDetails fd,
     CompactionRequestImpl request) throws IOException;
 
@@ -560,6 +702,23 @@ public abstract class Compactor<T extends CellSink> {
       dropDeletesFromRow, dropDeletesToRow);
   }
 
+  /**
+   * @param store             The store.
+   * @param scanners          Store file scanners.
+   * @param scanType          Scan type.
+   * @param smallestReadPoint Smallest MVCC read point.
+   * @param earliestPutTs     Earliest put across all files.
+   * @param startRow          Compact rows starting with this row, inclusive.
+   * @param stopRow           Compact rows ending with this row, exclusive.
+   * @return A compaction scanner.
+   */
+  protected InternalScanner createScanner(HStore store, ScanInfo scanInfo,
+    List<StoreFileScanner> scanners, ScanType scanType, long smallestReadPoint, long earliestPutTs,
+    byte[] startRow, byte[] stopRow) throws IOException {
+    return new StoreScanner(store, scanInfo, scanners, scanType, smallestReadPoint, earliestPutTs,
+      startRow, stopRow);
+  }
+
   /**
    * Return the aggregate progress for all currently active compactions.
    */
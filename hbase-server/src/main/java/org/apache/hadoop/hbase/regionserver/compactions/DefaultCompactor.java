@@ -18,12 +18,19 @@
 package org.apache.hadoop.hbase.regionserver.compactions;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Consumer;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.regionserver.HStore;
+import org.apache.hadoop.hbase.regionserver.HStoreFile;
 import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.StoreFileReader;
 import org.apache.hadoop.hbase.regionserver.StoreFileWriter;
 import org.apache.hadoop.hbase.regionserver.throttle.ThroughputController;
 import org.apache.hadoop.hbase.security.User;
@@ -39,8 +46,30 @@ import org.slf4j.LoggerFactory;
 public class DefaultCompactor extends Compactor<StoreFileWriter> {
   private static final Logger LOG = LoggerFactory.getLogger(DefaultCompactor.class);
 
+  /**
+   * The number of row ranges a major compaction is split into. The ranges are compacted in
+   * parallel, each one into its own file. The number of ranges is kept below
+   * {@link CompactionConfiguration#HBASE_HSTORE_COMPACTION_MIN_KEY}, so the new files are not
+   * selected for a minor compaction right away. Set to 1 to compact in a single pass.
+   */
+  public static final String PARALLEL_COMPACTION_RANGES_KEY =
+    "hbase.hstore.compaction.parallel.ranges";
+  public static final int DEFAULT_PARALLEL_COMPACTION_RANGES = 1;
+
+  /** Major compactions of fewer bytes than this are not split into row ranges. */
+  public static final String PARALLEL_COMPACTION_MIN_SIZE_KEY =
+    "hbase.hstore.compaction.parallel.min.size";
+  public static final long DEFAULT_PARALLEL_COMPACTION_MIN_SIZE = 1024L * 1024 * 1024;
+
+  private final int parallelCompactionRanges;
+  private final long parallelCompactionMinSize;
+
   public DefaultCompactor(Configuration conf, HStore store) {
     super(conf, store);
+    this.parallelCompactionRanges =
+      conf.getInt(PARALLEL_COMPACTION_RANGES_KEY, DEFAULT_PARALLEL_COMPACTION_RANGES);
+    this.parallelCompactionMinSize =
+      conf.getLong(PARALLEL_COMPACTION_MIN_SIZE_KEY, DEFAULT_PARALLEL_COMPACTION_MIN_SIZE);
   }
 
   private final CellSinkFactory<StoreFileWriter> writerFactory =
@@ -59,9 +88,57 @@ public class DefaultCompactor extends Compactor<StoreFileWriter> {
    */
   public List<Path> compact(final CompactionRequestImpl request,
     ThroughputController throughputController, User user) throws IOException {
+    List<byte[]> boundaries = getRowRangeBoundaries(request);
+    if (boundaries.size() > 2) {
+      LOG.debug("Compacting {} in {} row ranges", store, boundaries.size() - 1);
+      return compactRowRanges(request, boundaries, writerFactory, throughputController, user);
+    }
     return compact(request, defaultScannerFactory, writerFactory, throughputController, user);
   }
 
+  /**
+   * Picks the boundaries of the row ranges to compact in parallel from the data block index of the
+   * largest file of the request. Only major compactions are split, a minor compaction of all the
+   * files is not.
+   * @return The boundaries, starting with EMPTY_START_ROW and ending with EMPTY_END_ROW, or an
+   *         empty list if the request should be compacted in a single pass.
+   */
+  List<byte[]> getRowRangeBoundaries(CompactionRequestImpl request) {
+    if (
+      parallelCompactionRanges < 2 || !request.isMajor()
+        || request.getSize() < parallelCompactionMinSize
+    ) {
+      return Collections.emptyList();
+    }
+    int ranges = Math.min(parallelCompactionRanges,
+      store.getStoreEngine().getCompactionPolicy().getConf().getMinFilesToCompact() - 1);
+    if (ranges < 2) {
+      return Collections.emptyList();
+    }
+    StoreFileReader largest = null;
+    for (HStoreFile file : request.getFiles()) {
+      StoreFileReader reader = file.getReader();
+      if (reader != null && (largest == null || reader.length() > largest.length())) {
+        largest = reader;
+      }
+    }
+    if (largest == null) {
+      return Collections.emptyList();
+    }
+    List<byte[]> boundaries = new ArrayList<>(ranges + 1);
+    boundaries.add(HConstants.EMPTY_START_ROW);
+    // Several blocks may start in the same row, but a row can not be split.
+    Cell prevKey = largest.getFirstKey().orElse(null);
+    for (Cell key : largest.getHFileReader().getSplitKeys(ranges - 1)) {
+      if (prevKey == null || store.getComparator().compareRows(key, prevKey) > 0) {
+        boundaries.add(CellUtil.cloneRow(key));
+        prevKey = key;
+      }
+    }
+    boundaries.add(HConstants.EMPTY_END_ROW);
+    return boundaries;
+  }
+
   @Override
   protected List<Path> commitWriter(StoreFileWriter writer, FileDetails fd,
     CompactionRequestImpl request) throws IOException {
@@ -31,6 +31,7 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.codec.Codec;
 import org.apache.hadoop.hbase.io.asyncfs.monitor.StreamSlowMonitor;
@@ -44,6 +45,7 @@ import org.apache.hadoop.hbase.security.User;
 import org.apache.hadoop.hbase.util.CommonFSUtils;
 import org.apache.hadoop.hbase.util.CommonFSUtils.StreamLacksCapabilityException;
 import org.apache.hadoop.hbase.util.EncryptionTest;
+import org.apache.hadoop.hbase.wal.WAL.Entry;
 import org.apache.yetus.audience.InterfaceAudience;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -224,6 +226,21 @@ public abstract class AbstractProtobufLogWriter {
     }
   }
 
+  /**
+   * Writes the cells of the entry with the cell encoder, at once if it is a
+   * {@link WALCellCodec.BatchEncoder}.
+   */
+  protected final void writeCells(Entry entry) throws IOException {
+    if (cellEncoder instanceof WALCellCodec.BatchEncoder) {
+      ((WALCellCodec.BatchEncoder) cellEncoder).write(entry.getKey().getTableName(),
+        entry.getEdit().getCells());
+      return;
+    }
+    for (Cell cell : entry.getEdit().getCells()) {
+      cellEncoder.write(cell);
+    }
+  }
+
   void setWALTrailer(WALTrailer walTrailer) {
     this.trailer = walTrailer;
   }
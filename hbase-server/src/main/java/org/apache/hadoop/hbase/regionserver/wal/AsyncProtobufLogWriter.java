@@ -30,7 +30,6 @@ import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.exceptions.TimeoutIOException;
 import org.apache.hadoop.hbase.io.ByteBufferWriter;
@@ -138,9 +137,7 @@ public class AsyncProtobufLogWriter extends AbstractProtobufLogWriter
       throw new AssertionError("should not happen", e);
     }
     try {
-      for (Cell cell : entry.getEdit().getCells()) {
-        cellEncoder.write(cell);
-      }
+      writeCells(entry);
     } catch (IOException e) {
       throw new AssertionError("should not happen", e);
     }
@@ -0,0 +1,789 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.PrivateCellUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.io.ByteBuffInputStream;
+import org.apache.hadoop.hbase.io.compress.DictionaryCache;
+import org.apache.hadoop.hbase.io.util.StreamUtils;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link WALCellCodec} which encodes all the cells of a WAL entry as one columnar batch. The
+ * rows, families, qualifiers, timestamps, types, values and tags of the cells are each written
+ * together:
+ * <ul>
+ * <li>rows are prefix-coded against the previous row of the batch,</li>
+ * <li>families and qualifiers are replaced by their index in a dictionary, pre-trained for the
+ * table and loaded with {@link DictionaryCache}, or in the entries already seen in the batch,</li>
+ * <li>timestamps are delta-coded as zig-zag varints and types are run-length coded.</li>
+ * </ul>
+ * A batch does not depend on anything written before it, so the WAL readers can still seek to any
+ * entry without resetting any state, and the decoder builds all the cells of a batch in a single
+ * backing array.
+ * <p>
+ * Dictionaries are set per table with {@link #DICTIONARY_KEY}{@code .<table>}, or for all tables
+ * with {@link #DICTIONARY_KEY}, and can be made with {@link #trainDictionary(Iterable, int)}. A
+ * batch records the checksum of the dictionary it was written with, so the readers need the same
+ * dictionaries configured. To use the codec, set {@link WALCellCodec#WAL_CELL_CODEC_CLASS_KEY} to
+ * this class. WAL compression, if enabled, still applies to the WAL keys only.
+ */
+@InterfaceAudience.Private
+public class ColumnarWALCellCodec extends WALCellCodec {
+  private static final Logger LOG = LoggerFactory.getLogger(ColumnarWALCellCodec.class);
+
+  /**
+   * Path of the dictionary for all tables, in the {@link DictionaryCache} syntax. Append
+   * {@code .<table>} for the dictionary of one table.
+   */
+  public static final String DICTIONARY_KEY = "hbase.regionserver.wal.codec.columnar.dictionary";
+
+  /** Maximum number of entries of a dictionary made by {@link #trainDictionary} */
+  public static final int MAX_DICTIONARY_ENTRIES = 32767;
+
+  private static final int NO_DICTIONARY = 0;
+  private static final int LITERAL = 0;
+
+  /** Dictionaries by path, shared by all the codecs of the process */
+  private static final Map<String, Dictionary> DICTIONARIES = new ConcurrentHashMap<>();
+
+  private final Configuration conf;
+
+  /**
+   * <b>All subclasses must implement a no argument constructor</b>
+   */
+  public ColumnarWALCellCodec() {
+    super();
+    this.conf = new Configuration(false);
+  }
+
+  public ColumnarWALCellCodec(Configuration conf, CompressionContext compression) {
+    super(conf, compression);
+    this.conf = conf;
+  }
+
+  @Override
+  public Decoder getDecoder(InputStream is) {
+    return new ColumnarDecoder(is, conf);
+  }
+
+  @Override
+  public Decoder getDecoder(ByteBuff buf) {
+    return getDecoder(new ByteBuffInputStream(buf));
+  }
+
+  @Override
+  public Encoder getEncoder(OutputStream os) {
+    return new ColumnarEncoder(os, conf);
+  }
+
+  /**
+   * Builds a dictionary of the most frequent families and qualifiers of the given cells, for
+   * example from a sample of the WALs of a table. The result can be stored anywhere
+   * {@link DictionaryCache} loads from.
+   */
+  public static byte[] trainDictionary(Iterable<Cell> cells, int maxEntries) throws IOException {
+    Map<String, long[]> counts = new HashMap<>();
+    for (Cell cell : cells) {
+      // ISO-8859-1 maps every byte to one char and back
+      counts.computeIfAbsent(new String(CellUtil.cloneFamily(cell), StandardCharsets.ISO_8859_1),
+        k -> new long[1])[0]++;
+      counts.computeIfAbsent(
+        new String(CellUtil.cloneQualifier(cell), StandardCharsets.ISO_8859_1),
+        k -> new long[1])[0]++;
+    }
+    List<Map.Entry<String, long[]>> sorted = new ArrayList<>(counts.entrySet());
+    sorted.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+    int n = Math.min(sorted.size(), Math.min(maxEntries, MAX_DICTIONARY_ENTRIES));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StreamUtils.writeRawVInt32(out, n);
+    for (int i = 0; i < n; i++) {
+      byte[] entry = sorted.get(i).getKey().getBytes(StandardCharsets.ISO_8859_1);
+      StreamUtils.writeRawVInt32(out, entry.length);
+      out.write(entry);
+    }
+    return out.toByteArray();
+  }
+
+  private static Dictionary loadDictionary(Configuration conf, String path) throws IOException {
+    Dictionary dict = DICTIONARIES.get(path);
+    if (dict == null) {
+      byte[] bytes = DictionaryCache.getDictionary(conf, path);
+      if (bytes == null) {
+        return null;
+      }
+      dict = new Dictionary(bytes);
+      Dictionary existing = DICTIONARIES.putIfAbsent(path, dict);
+      if (existing != null) {
+        dict = existing;
+      }
+      LOG.info("Loaded WAL dictionary {} with {} entries, id={}", path, dict.entries.size(),
+        dict.id);
+    }
+    return dict;
+  }
+
+  private static void writeVLong(OutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * A pre-trained dictionary of families and qualifiers. Its id is the checksum of its content.
+   */
+  static final class Dictionary {
+    final int id;
+    final EntryTable entries = new EntryTable();
+
+    Dictionary(byte[] bytes) throws IOException {
+      CRC32 crc = new CRC32();
+      crc.update(bytes, 0, bytes.length);
+      int sum = (int) crc.getValue();
+      this.id = sum == NO_DICTIONARY ? 1 : sum;
+      BatchReader reader = new BatchReader();
+      reader.reset(bytes, bytes.length);
+      int n = reader.readVInt();
+      for (int i = 0; i < n; i++) {
+        int length = reader.readVInt();
+        entries.add(Arrays.copyOfRange(bytes, reader.pos, reader.pos + length), 0, length);
+        reader.pos += length;
+      }
+    }
+  }
+
+  /**
+   * An append-only list of byte arrays with a hash index to find them.
+   */
+  static final class EntryTable {
+    private byte[][] arrays = new byte[16][];
+    private int[] offsets = new int[16];
+    private int[] lengths = new int[16];
+    private int[] index = newIndex(32);
+    private int size;
+
+    private static int[] newIndex(int capacity) {
+      int[] index = new int[capacity];
+      Arrays.fill(index, -1);
+      return index;
+    }
+
+    int size() {
+      return size;
+    }
+
+    void clear() {
+      if (size > 0) {
+        Arrays.fill(index, -1);
+        Arrays.fill(arrays, 0, size, null);
+        size = 0;
+      }
+    }
+
+    /** Adds the entry, which must not be modified afterwards, and returns its index */
+    int add(byte[] array, int offset, int length) {
+      if (size == arrays.length) {
+        arrays = Arrays.copyOf(arrays, size * 2);
+        offsets = Arrays.copyOf(offsets, size * 2);
+        lengths = Arrays.copyOf(lengths, size * 2);
+      }
+      if ((size + 1) * 2 > index.length) {
+        index = newIndex(index.length * 2);
+        for (int i = 0; i < size; i++) {
+          insert(i);
+        }
+      }
+      arrays[size] = array;
+      offsets[size] = offset;
+      lengths[size] = length;
+      insert(size);
+      return size++;
+    }
+
+    private void insert(int i) {
+      int mask = index.length - 1;
+      int slot = Bytes.hashCode(arrays[i], offsets[i], lengths[i]) & mask;
+      while (index[slot] >= 0) {
+        slot = (slot + 1) & mask;
+      }
+      index[slot] = i;
+    }
+
+    /** Returns the index of the entry, or -1 */
+    int find(byte[] array, int offset, int length) {
+      int mask = index.length - 1;
+      int slot = Bytes.hashCode(array, offset, length) & mask;
+      for (int i; (i = index[slot]) >= 0; slot = (slot + 1) & mask) {
+        if (
+          Bytes.equals(arrays[i], offsets[i], lengths[i], array, offset, length)
+        ) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  /** A ByteArrayOutputStream which exposes its buffer */
+  private static final class Column extends ByteArrayOutputStream {
+    Column(int size) {
+      super(size);
+    }
+
+    byte[] buffer() {
+      return buf;
+    }
+  }
+
+  static class ColumnarEncoder implements WALCellCodec.BatchEncoder {
+    private final OutputStream out;
+    private final Configuration conf;
+    private final Map<TableName, Dictionary> dictionaries = new HashMap<>();
+    private final Column header = new Column(16);
+    private final Column rows = new Column(256);
+    private final Column families = new Column(64);
+    private final Column qualifiers = new Column(256);
+    private final Column timestamps = new Column(256);
+    private final Column types = new Column(16);
+    private final Column lengths = new Column(256);
+    private final Column values = new Column(4096);
+    private final Column tags = new Column(16);
+    private final List<Column> columns = Arrays.asList(rows, families, qualifiers, timestamps,
+      types, lengths, values, tags);
+    // families and qualifiers seen in the current batch, kept in the column buffers
+    private final EntryTable batchFamilies = new EntryTable();
+    private final EntryTable batchQualifiers = new EntryTable();
+    private byte[] row = new byte[64];
+    private byte[] previousRow = new byte[64];
+    private byte[] scratch = new byte[64];
+
+    ColumnarEncoder(OutputStream out, Configuration conf) {
+      this.out = out;
+      this.conf = conf;
+    }
+
+    private Dictionary getDictionary(TableName tableName) throws IOException {
+      if (tableName == null) {
+        return null;
+      }
+      if (dictionaries.containsKey(tableName)) {
+        return dictionaries.get(tableName);
+      }
+      String path = conf.get(DICTIONARY_KEY + "." + tableName.getNameAsString(),
+        conf.get(DICTIONARY_KEY));
+      Dictionary dict = path == null || path.isEmpty() ? null : loadDictionary(conf, path);
+      dictionaries.put(tableName, dict);
+      return dict;
+    }
+
+    @Override
+    public void write(Cell cell) throws IOException {
+      write(null, Collections.singletonList(cell));
+    }
+
+    @Override
+    public void write(TableName tableName, List<Cell> cells) throws IOException {
+      if (cells.isEmpty()) {
+        return;
+      }
+      Dictionary dict = getDictionary(tableName);
+      for (Column column : columns) {
+        column.reset();
+      }
+      batchFamilies.clear();
+      batchQualifiers.clear();
+      int previousRowLength = 0;
+      long previousTimestamp = 0;
+      byte runType = 0;
+      int runLength = 0;
+      int runs = 0;
+      for (int i = 0; i < cells.size(); i++) {
+        Cell cell = cells.get(i);
+        // rows
+        int rowLength = cell.getRowLength();
+        if (row.length < rowLength) {
+          row = new byte[rowLength * 2];
+        }
+        CellUtil.copyRowTo(cell, row, 0);
+        int shared = 0;
+        int max = Math.min(rowLength, previousRowLength);
+        while (shared < max && row[shared] == previousRow[shared]) {
+          shared++;
+        }
+        StreamUtils.writeRawVInt32(rows, shared);
+        StreamUtils.writeRawVInt32(rows, rowLength - shared);
+        rows.write(row, shared, rowLength - shared);
+        byte[] swap = previousRow;
+        previousRow = row;
+        row = swap;
+        previousRowLength = rowLength;
+        // families and qualifiers
+        int familyLength = cell.getFamilyLength();
+        ensureScratch(familyLength);
+        CellUtil.copyFamilyTo(cell, scratch, 0);
+        writeToken(families, familyLength, dict, batchFamilies);
+        int qualifierLength = cell.getQualifierLength();
+        ensureScratch(qualifierLength);
+        CellUtil.copyQualifierTo(cell, scratch, 0);
+        writeToken(qualifiers, qualifierLength, dict, batchQualifiers);
+        // timestamps
+        long timestamp = cell.getTimestamp();
+        writeVLong(timestamps, zigZag(i == 0 ? timestamp : timestamp - previousTimestamp));
+        previousTimestamp = timestamp;
+        // types
+        byte type = cell.getTypeByte();
+        if (runLength > 0 && type == runType) {
+          runLength++;
+        } else {
+          if (runLength > 0) {
+            types.write(runType);
+            StreamUtils.writeRawVInt32(types, runLength);
+            runs++;
+          }
+          runType = type;
+          runLength = 1;
+        }
+        // values and tags
+        int valueLength = cell.getValueLength();
+        int tagsLength = cell.getTagsLength();
+        StreamUtils.writeRawVInt32(lengths, valueLength);
+        StreamUtils.writeRawVInt32(lengths, tagsLength);
+        PrivateCellUtil.writeValue(values, cell, valueLength);
+        if (tagsLength > 0) {
+          PrivateCellUtil.writeTags(tags, cell, tagsLength);
+        }
+      }
+      types.write(runType);
+      StreamUtils.writeRawVInt32(types, runLength);
+      runs++;
+
+      header.reset();
+      StreamUtils.writeRawVInt32(header, cells.size());
+      StreamUtils.writeInt(header, dict == null ? NO_DICTIONARY : dict.id);
+      StreamUtils.writeRawVInt32(header, runs);
+      int bodyLength = header.size();
+      for (Column column : columns) {
+        bodyLength += column.size();
+      }
+      StreamUtils.writeRawVInt32(out, bodyLength);
+      header.writeTo(out);
+      for (Column column : columns) {
+        column.writeTo(out);
+      }
+    }
+
+    private void ensureScratch(int length) {
+      if (scratch.length < length) {
+        scratch = new byte[length * 2];
+      }
+    }
+
+    /**
+     * Writes the token of the family or qualifier in the scratch buffer: its index plus one in the
+     * dictionary followed by the entries of the batch, or {@link #LITERAL} followed by the bytes.
+     */
+    private void writeToken(Column column, int length, Dictionary dict, EntryTable batchEntries)
+      throws IOException {
+      int dictSize = 0;
+      if (dict != null) {
+        int i = dict.entries.find(scratch, 0, length);
+        if (i >= 0) {
+          StreamUtils.writeRawVInt32(column, i + 1);
+          return;
+        }
+        dictSize = dict.entries.size();
+      }
+      int i = batchEntries.find(scratch, 0, length);
+      if (i >= 0) {
+        StreamUtils.writeRawVInt32(column, dictSize + i + 1);
+        return;
+      }
+      StreamUtils.writeRawVInt32(column, LITERAL);
+      StreamUtils.writeRawVInt32(column, length);
+      int offset = column.size();
+      column.write(scratch, 0, length);
+      // the bytes stay where they are in the column until the next batch
+      batchEntries.add(column.buffer(), offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+  }
+
+  /** Reads varints and fixed size integers from a batch. */
+  static final class BatchReader {
+    byte[] buf;
+    int pos;
+    int limit;
+
+    void reset(byte[] buf, int limit) {
+      this.buf = buf;
+      this.pos = 0;
+      this.limit = limit;
+    }
+
+    private byte next() throws IOException {
+      if (pos >= limit) {
+        throw new IOException("Corrupt WAL entry batch, read past its end");
+      }
+      return buf[pos++];
+    }
+
+    int readVInt() throws IOException {
+      return (int) readVLong();
+    }
+
+    long readVLong() throws IOException {
+      long result = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte b = next();
+        result |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return result;
+        }
+      }
+      throw new IOException("Malformed varint in WAL entry batch");
+    }
+
+    int readInt() throws IOException {
+      if (pos + Bytes.SIZEOF_INT > limit) {
+        throw new IOException("Corrupt WAL entry batch, read past its end");
+      }
+      int value = Bytes.toInt(buf, pos);
+      pos += Bytes.SIZEOF_INT;
+      return value;
+    }
+
+    int skip(int length) throws IOException {
+      if (length < 0 || pos + length > limit) {
+        throw new IOException("Corrupt WAL entry batch, read past its end");
+      }
+      int start = pos;
+      pos += length;
+      return start;
+    }
+  }
+
+  static class ColumnarDecoder implements Decoder {
+    private final InputStream in;
+    private final Configuration conf;
+    private final Map<Integer, Dictionary> dictionaries = new HashMap<>();
+    private final BatchReader reader = new BatchReader();
+    private byte[] body = new byte[4096];
+    private Cell[] cells = new Cell[16];
+    private int count;
+    private int next;
+    private Cell current;
+
+    // per cell state while decoding a batch
+    private int[] rowShared = new int[16];
+    private int[] rowSuffixOffsets = new int[16];
+    private int[] rowLengths = new int[16];
+    private byte[][] familyArrays = new byte[16][];
+    private int[] familyOffsets = new int[16];
+    private int[] familyLengths = new int[16];
+    private byte[][] qualifierArrays = new byte[16][];
+    private int[] qualifierOffsets = new int[16];
+    private int[] qualifierLengths = new int[16];
+    private long[] timestamps = new long[16];
+    private byte[] types = new byte[16];
+    private int[] valueLengths = new int[16];
+    private int[] tagsLengths = new int[16];
+    private final EntryTable batchEntries = new EntryTable();
+
+    ColumnarDecoder(InputStream in, Configuration conf) {
+      this.in = in;
+      this.conf = conf;
+    }
+
+    @Override
+    public boolean advance() throws IOException {
+      if (next >= count) {
+        int first = in.read();
+        if (first == -1) {
+          return false;
+        }
+        readBatch(first);
+      }
+      current = cells[next];
+      cells[next++] = null;
+      return true;
+    }
+
+    @Override
+    public Cell current() {
+      return current;
+    }
+
+    private Dictionary getDictionary(int id) throws IOException {
+      if (id == NO_DICTIONARY) {
+        return null;
+      }
+      Dictionary dict = dictionaries.get(id);
+      if (dict != null) {
+        return dict;
+      }
+      // load all the configured dictionaries to find the one the batch was written with
+      for (Map.Entry<String, String> e : conf) {
+        if (e.getKey().startsWith(DICTIONARY_KEY) && !e.getValue().isEmpty()) {
+          Dictionary d = loadDictionary(conf, e.getValue());
+          if (d != null) {
+            dictionaries.put(d.id, d);
+          }
+        }
+      }
+      dict = dictionaries.get(id);
+      if (dict == null) {
+        throw new IOException("No WAL dictionary configured with id " + id
+          + ", check the " + DICTIONARY_KEY + " settings");
+      }
+      return dict;
+    }
+
+    private int readRawVInt(int first) throws IOException {
+      int result = first & 0x7F;
+      int b = first;
+      for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+        if (shift > 28) {
+          throw new IOException("Malformed varint for the length of a WAL entry batch");
+        }
+        b = in.read();
+        if (b == -1) {
+          throw new EOFException("Partial WAL entry batch");
+        }
+        result |= (b & 0x7F) << shift;
+      }
+      return result;
+    }
+
+    private void readBatch(int first) throws IOException {
+      int length = readRawVInt(first);
+      if (length < 0) {
+        throw new IOException("Invalid length of a WAL entry batch: " + length);
+      }
+      if (body.length < length) {
+        body = new byte[Math.max(length, body.length * 2)];
+      }
+      for (int n = 0; n < length;) {
+        int read = in.read(body, n, length - n);
+        if (read < 0) {
+          throw new EOFException("Partial WAL entry batch, read " + n + " of " + length);
+        }
+        n += read;
+      }
+      reader.reset(body, length);
+      int n = reader.readVInt();
+      if (n <= 0) {
+        throw new IOException("Invalid cell count in WAL entry batch: " + n);
+      }
+      Dictionary dict = getDictionary(reader.readInt());
+      int runs = reader.readVInt();
+      ensureCapacity(n);
+
+      // rows
+      for (int i = 0; i < n; i++) {
+        rowShared[i] = reader.readVInt();
+        int suffix = reader.readVInt();
+        rowSuffixOffsets[i] = reader.skip(suffix);
+        rowLengths[i] = rowShared[i] + suffix;
+        if (rowShared[i] > (i == 0 ? 0 : rowLengths[i - 1]) || rowLengths[i] > Short.MAX_VALUE) {
+          throw new IOException("Corrupt row in WAL entry batch");
+        }
+      }
+      // families and qualifiers, the bytes are either in the dictionary or in the batch
+      batchEntries.clear();
+      for (int i = 0; i < n; i++) {
+        readToken(dict, i, familyArrays, familyOffsets, familyLengths);
+      }
+      batchEntries.clear();
+      for (int i = 0; i < n; i++) {
+        readToken(dict, i, qualifierArrays, qualifierOffsets, qualifierLengths);
+      }
+      // timestamps
+      long timestamp = 0;
+      for (int i = 0; i < n; i++) {
+        timestamp = i == 0
+          ? unZigZag(reader.readVLong())
+          : timestamp + unZigZag(reader.readVLong());
+        timestamps[i] = timestamp;
+      }
+      // types
+      for (int r = 0, i = 0; r < runs; r++) {
+        byte type = buf(reader.skip(1));
+        int run = reader.readVInt();
+        if (run <= 0 || i + run > n) {
+          throw new IOException("Corrupt types in WAL entry batch");
+        }
+        Arrays.fill(types, i, i + run, type);
+        i += run;
+      }
+      // lengths
+      long total = 0;
+      for (int i = 0; i < n; i++) {
+        valueLengths[i] = reader.readVInt();
+        tagsLengths[i] = reader.readVInt();
+        if (valueLengths[i] < 0 || tagsLengths[i] < 0 || familyLengths[i] > Byte.MAX_VALUE) {
+          throw new IOException("Corrupt lengths in WAL entry batch");
+        }
+        total += serializedSize(i);
+      }
+      if (total > Integer.MAX_VALUE) {
+        throw new IOException("WAL entry batch too large: " + total);
+      }
+      int valuesOffset = reader.pos;
+      int tagsOffset = valuesOffset;
+      for (int i = 0; i < n; i++) {
+        tagsOffset += valueLengths[i];
+      }
+      reader.skip(tagsOffset - valuesOffset);
+
+      // build all the cells in one array
+      byte[] backing = new byte[(int) total];
+      int pos = 0;
+      int previousRowOffset = 0;
+      for (int i = 0; i < n; i++) {
+        int start = pos;
+        int rowLength = rowLengths[i];
+        int keyLength = KeyValue.ROW_LENGTH_SIZE + rowLength + KeyValue.FAMILY_LENGTH_SIZE
+          + familyLengths[i] + qualifierLengths[i] + KeyValue.TIMESTAMP_TYPE_SIZE;
+        pos = Bytes.putInt(backing, pos, keyLength);
+        pos = Bytes.putInt(backing, pos, valueLengths[i]);
+        pos = Bytes.putShort(backing, pos, (short) rowLength);
+        int rowOffset = pos;
+        System.arraycopy(backing, previousRowOffset, backing, pos, rowShared[i]);
+        pos = Bytes.putBytes(backing, pos + rowShared[i], body, rowSuffixOffsets[i],
+          rowLength - rowShared[i]);
+        previousRowOffset = rowOffset;
+        pos = Bytes.putByte(backing, pos, (byte) familyLengths[i]);
+        pos = Bytes.putBytes(backing, pos, familyArrays[i], familyOffsets[i], familyLengths[i]);
+        pos = Bytes.putBytes(backing, pos, qualifierArrays[i], qualifierOffsets[i],
+          qualifierLengths[i]);
+        pos = Bytes.putLong(backing, pos, timestamps[i]);
+        pos = Bytes.putByte(backing, pos, types[i]);
+        pos = Bytes.putBytes(backing, pos, body, valuesOffset, valueLengths[i]);
+        valuesOffset += valueLengths[i];
+        if (tagsLengths[i] > 0) {
+          pos = Bytes.putAsShort(backing, pos, tagsLengths[i]);
+          pos = Bytes.putBytes(backing, pos, body, reader.skip(tagsLengths[i]), tagsLengths[i]);
+        }
+        cells[i] = new KeyValue(backing, start, pos - start);
+      }
+      // do not keep the dictionary or batch arrays alive
+      Arrays.fill(familyArrays, 0, n, null);
+      Arrays.fill(qualifierArrays, 0, n, null);
+      count = n;
+      next = 0;
+    }
+
+    private byte buf(int offset) {
+      return body[offset];
+    }
+
+    private long serializedSize(int i) {
+      long size = KeyValue.KEYVALUE_INFRASTRUCTURE_SIZE + KeyValue.ROW_LENGTH_SIZE + rowLengths[i]
+        + KeyValue.FAMILY_LENGTH_SIZE + familyLengths[i] + qualifierLengths[i]
+        + KeyValue.TIMESTAMP_TYPE_SIZE + valueLengths[i];
+      if (tagsLengths[i] > 0) {
+        size += KeyValue.TAGS_LENGTH_SIZE + tagsLengths[i];
+      }
+      return size;
+    }
+
+    private void readToken(Dictionary dict, int i, byte[][] arrays, int[] offsets, int[] lengths)
+      throws IOException {
+      int token = reader.readVInt();
+      int dictSize = dict == null ? 0 : dict.entries.size();
+      if (token == LITERAL) {
+        int length = reader.readVInt();
+        int offset = reader.skip(length);
+        batchEntries.add(body, offset, length);
+        arrays[i] = body;
+        offsets[i] = offset;
+        lengths[i] = length;
+      } else if (token <= dictSize) {
+        EntryTable entries = dict.entries;
+        arrays[i] = entries.arrays[token - 1];
+        offsets[i] = entries.offsets[token - 1];
+        lengths[i] = entries.lengths[token - 1];
+      } else if (token - dictSize <= batchEntries.size()) {
+        int j = token - dictSize - 1;
+        arrays[i] = batchEntries.arrays[j];
+        offsets[i] = batchEntries.offsets[j];
+        lengths[i] = batchEntries.lengths[j];
+      } else {
+        throw new IOException("Invalid dictionary token in WAL entry batch: " + token);
+      }
+    }
+
+    private void ensureCapacity(int n) {
+      if (cells.length >= n) {
+        return;
+      }
+      int size = Math.max(n, cells.length * 2);
+      cells = Arrays.copyOf(cells, size);
+      rowShared = new int[size];
+      rowSuffixOffsets = new int[size];
+      rowLengths = new int[size];
+      familyArrays = new byte[size][];
+      familyOffsets = new int[size];
+      familyLengths = new int[size];
+      qualifierArrays = new byte[size][];
+      qualifierOffsets = new int[size];
+      qualifierLengths = new int[size];
+      timestamps = new long[size];
+      types = new byte[size];
+      valueLengths = new int[size];
+      tagsLengths = new int[size];
+    }
+  }
+}
@@ -25,7 +25,6 @@ import org.apache.hadoop.fs.FSDataOutputStreamBuilder;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.StreamCapabilities;
-import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.io.asyncfs.monitor.StreamSlowMonitor;
 import org.apache.hadoop.hbase.util.AtomicUtils;
 import org.apache.hadoop.hbase.util.CommonFSUtils;
@@ -56,10 +55,8 @@ public class ProtobufLogWriter extends AbstractProtobufLogWriter implements FSHL
   public void append(Entry entry) throws IOException {
     entry.getKey().getBuilder(compressor).setFollowingKvCount(entry.getEdit().size()).build()
       .writeDelimitedTo(output);
-    for (Cell cell : entry.getEdit().getCells()) {
-      // cellEncoder must assume little about the stream, since we write PB and cells in turn.
-      cellEncoder.write(cell);
-    }
+    // cellEncoder must assume little about the stream, since we write PB and cells in turn.
+    writeCells(entry);
     length.set(output.getPos());
   }
 
@@ -21,12 +21,14 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.HBaseInterfaceAudience;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValueUtil;
 import org.apache.hadoop.hbase.PrivateCellUtil;
+import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.codec.BaseDecoder;
 import org.apache.hadoop.hbase.codec.BaseEncoder;
 import org.apache.hadoop.hbase.codec.Codec;
@@ -121,6 +123,18 @@ public class WALCellCodec implements Codec {
       new Object[] { conf, compression });
   }
 
+  /**
+   * An {@link Encoder} which can write all the cells of a WAL entry at once. The WAL writers pass
+   * the whole edit to it instead of its cells one by one.
+   */
+  public interface BatchEncoder extends Encoder {
+    /**
+     * Writes the cells of one WAL entry. They must be decoded as the same number of cells.
+     * @param tableName the table of the entry
+     */
+    void write(TableName tableName, List<Cell> cells) throws IOException;
+  }
+
   public interface ByteStringCompressor {
     ByteString compress(byte[] data, Enum dictIndex) throws IOException;
   }
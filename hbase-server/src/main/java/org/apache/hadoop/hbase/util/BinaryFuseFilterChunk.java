@@ -0,0 +1,376 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.util;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * The basic building block for the
+ * {@link org.apache.hadoop.hbase.io.hfile.CompoundBinaryFuseFilter}: a 4-wise binary fuse filter
+ * (Graf and Lemire, "Binary Fuse Filters: Fast and Smaller Than Xor Filters", 2022).
+ * <p>
+ * Unlike a Bloom filter, a fuse filter can not be populated incrementally. Keys are collected as
+ * 64-bit hashes while the chunk is being filled and the fingerprint array is only computed by
+ * {@link #build()}, once the set of keys is final. A key is reported as present when the xor of the
+ * fingerprints stored at its four locations equals its own fingerprint, so a lookup touches four
+ * bytes of the chunk regardless of the target error rate. The space used is about
+ * {@code 1.075 * fingerprintBits} bits per key for large chunks, against
+ * {@code 1.44 * log2(1 / errorRate)} for a Bloom filter with the same false positive rate.
+ * <p>
+ * Serialized layout: seed (long), segment length (int), segment count (int), followed by the
+ * fingerprints, bit-packed little endian with {@link #PADDING} trailing bytes so that every
+ * fingerprint can be read with a single three byte load.
+ */
+@InterfaceAudience.Private
+public class BinaryFuseFilterChunk implements BloomFilterBase {
+
+  /** Number of locations every key is mapped to */
+  static final int ARITY = 4;
+
+  /** The largest supported fingerprint, so that a fingerprint spans at most three bytes */
+  public static final int MAX_FINGERPRINT_BITS = 16;
+
+  /** Size of the per-chunk header holding the seed and the segment layout */
+  static final int HEADER_SIZE = Bytes.SIZEOF_LONG + 2 * Bytes.SIZEOF_INT;
+
+  /** Trailing bytes so that the last fingerprint can be read with a three byte load */
+  static final int PADDING = 2;
+
+  /** Upper bound for the segment length, the hash provides 18 bits per segment offset */
+  private static final int MAX_SEGMENT_LENGTH = 1 << 18;
+
+  /** Number of seeds tried before giving up on building the filter */
+  private static final int MAX_ATTEMPTS = 100;
+
+  /** Hash type */
+  private final int hashType;
+  /** Hash Function */
+  private final Hash hash;
+  /** Bits per fingerprint */
+  private final int fingerprintBits;
+  /** Max keys expected for the chunk */
+  private final int maxKeys;
+
+  /** Hashes of the keys added so far, released once the chunk is built */
+  private long[] keys;
+  /** Keys currently in the chunk */
+  private int keyCount;
+
+  private long seed;
+  private int segmentLength;
+  private int segmentCount;
+  /** Bit-packed fingerprints, only set once the chunk is built */
+  private byte[] fingerprints;
+
+  public BinaryFuseFilterChunk(int maxKeys, int fingerprintBits, int hashType) {
+    if (fingerprintBits < 1 || fingerprintBits > MAX_FINGERPRINT_BITS) {
+      throw new IllegalArgumentException("Invalid fingerprint bits: " + fingerprintBits);
+    }
+    if (maxKeys <= 0) {
+      throw new IllegalArgumentException("maxKeys must be > 0: " + maxKeys);
+    }
+    this.hashType = hashType;
+    this.hash = Hash.getInstance(hashType);
+    if (hash == null) {
+      throw new IllegalArgumentException("Invalid hash type: " + hashType);
+    }
+    this.fingerprintBits = fingerprintBits;
+    this.maxKeys = maxKeys;
+    this.keys = new long[maxKeys];
+  }
+
+  /**
+   * Returns the number of fingerprint bits needed to get a false positive rate no higher than the
+   * given one.
+   */
+  public static int computeFingerprintBits(double errorRate) {
+    int bits = (int) Math.ceil(-Math.log(errorRate) / Math.log(2));
+    return Math.max(1, Math.min(MAX_FINGERPRINT_BITS, bits));
+  }
+
+  /**
+   * Returns the largest number of keys whose filter fits into the given number of bytes.
+   */
+  public static int computeMaxKeys(int byteSize, int fingerprintBits) {
+    int low = 1;
+    int high = Math.max(1, (int) Math.min(Integer.MAX_VALUE, byteSize * 8L / fingerprintBits));
+    while (low < high) {
+      int mid = low + (high - low + 1) / 2;
+      if (computeByteSize(mid, fingerprintBits) <= byteSize) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Returns the serialized size of a chunk holding the given number of keys.
+   */
+  public static long computeByteSize(int keyCount, int fingerprintBits) {
+    int segLength = segmentLength(keyCount);
+    long arrayLength = (long) (segmentCount(keyCount, segLength) + ARITY - 1) * segLength;
+    return HEADER_SIZE + (arrayLength * fingerprintBits + 7) / 8 + PADDING;
+  }
+
+  private static int segmentLength(int keyCount) {
+    if (keyCount <= 1) {
+      return 4;
+    }
+    int length = 1 << (int) Math.floor(Math.log(keyCount) / Math.log(2.91) - 0.5);
+    return Math.min(length, MAX_SEGMENT_LENGTH);
+  }
+
+  private static int segmentCount(int keyCount, int segLength) {
+    // The overhead shrinks towards 1.075 as the number of keys grows
+    double sizeFactor =
+      Math.max(1.075, 0.77 + 0.305 * Math.log(600000) / Math.log(Math.max(keyCount, 2)));
+    long capacity = (long) (keyCount * sizeFactor);
+    return (int) Math.max(1, (capacity + segLength - 1) / segLength - (ARITY - 1));
+  }
+
+  public void add(byte[] buf, int offset, int len) {
+    add(new ByteArrayHashKey(buf, offset, len));
+  }
+
+  public void add(Cell cell) {
+    add(new RowBloomHashKey(cell));
+  }
+
+  private <T> void add(HashKey<T> hashKey) {
+    if (fingerprints != null) {
+      throw new IllegalStateException("Chunk has already been built");
+    }
+    if (keyCount >= maxKeys) {
+      throw new IllegalStateException("Chunk is full: maxKeys=" + maxKeys);
+    }
+    keys[keyCount++] = hash64(hash, hashKey);
+  }
+
+  /**
+   * Combines two passes of the configured 32-bit hash into the 64-bit key the filter is built on,
+   * the same way Bloom filter chunks derive their two hash functions.
+   */
+  public static <T> long hash64(Hash hash, HashKey<T> hashKey) {
+    int hash1 = hash.hash(hashKey, 0);
+    int hash2 = hash.hash(hashKey, hash1);
+    return ((long) hash1 << 32) | (hash2 & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Computes the fingerprint array from the keys added so far. No keys can be added afterwards.
+   */
+  public void build() {
+    if (fingerprints != null) {
+      return;
+    }
+    // A key added twice would never be peeled, so drop duplicates first.
+    Arrays.sort(keys, 0, keyCount);
+    int n = 0;
+    for (int i = 0; i < keyCount; i++) {
+      if (n == 0 || keys[i] != keys[n - 1]) {
+        keys[n++] = keys[i];
+      }
+    }
+
+    segmentLength = segmentLength(n);
+    segmentCount = segmentCount(n, segmentLength);
+    int arrayLength = (segmentCount + ARITY - 1) * segmentLength;
+    int[] counts = new int[arrayLength];
+    long[] xorHashes = new long[arrayLength];
+    int[] queue = new int[arrayLength];
+    long[] stackHashes = new long[n];
+    int[] stackIndexes = new int[n];
+
+    long rng = 0x726b2b9d438b9d4dL;
+    int peeled = 0;
+    for (int attempt = 0; attempt < MAX_ATTEMPTS && peeled < n; attempt++) {
+      rng += 0x9e3779b97f4a7c15L;
+      seed = mix(rng);
+      Arrays.fill(counts, 0);
+      Arrays.fill(xorHashes, 0);
+      for (int i = 0; i < n; i++) {
+        long h = mix(keys[i] + seed);
+        for (int j = 0; j < ARITY; j++) {
+          int loc = location(h, j, segmentLength, segmentCount);
+          counts[loc]++;
+          xorHashes[loc] ^= h;
+        }
+      }
+      // Repeatedly remove keys that are the only one mapped to some location.
+      int queueSize = 0;
+      for (int i = 0; i < arrayLength; i++) {
+        if (counts[i] == 1) {
+          queue[queueSize++] = i;
+        }
+      }
+      peeled = 0;
+      while (queueSize > 0) {
+        int loc = queue[--queueSize];
+        if (counts[loc] != 1) {
+          continue;
+        }
+        long h = xorHashes[loc];
+        stackHashes[peeled] = h;
+        stackIndexes[peeled] = loc;
+        peeled++;
+        for (int j = 0; j < ARITY; j++) {
+          int other = location(h, j, segmentLength, segmentCount);
+          counts[other]--;
+          xorHashes[other] ^= h;
+          if (counts[other] == 1) {
+            queue[queueSize++] = other;
+          }
+        }
+      }
+    }
+    if (peeled < n) {
+      throw new IllegalStateException(
+        "Failed to build binary fuse filter for " + n + " keys after " + MAX_ATTEMPTS + " attempts");
+    }
+
+    fingerprints = new byte[(int) (((long) arrayLength * fingerprintBits + 7) / 8) + PADDING];
+    // Assign in reverse peeling order, so the location of each key is still free when we get to it.
+    for (int i = n - 1; i >= 0; i--) {
+      long h = stackHashes[i];
+      int value = fingerprint(h, fingerprintBits);
+      for (int j = 0; j < ARITY; j++) {
+        value ^= getFingerprint(location(h, j, segmentLength, segmentCount));
+      }
+      setFingerprint(stackIndexes[i], value);
+    }
+    keyCount = n;
+    keys = null;
+  }
+
+  public void writeChunk(DataOutput out) throws IOException {
+    if (fingerprints == null) {
+      throw new IllegalStateException("Chunk has not been built");
+    }
+    out.writeLong(seed);
+    out.writeInt(segmentLength);
+    out.writeInt(segmentCount);
+    out.write(fingerprints);
+  }
+
+  /**
+   * Checks whether the key with the given 64-bit hash may be in the chunk serialized at the given
+   * offset.
+   */
+  public static boolean contains(long keyHash, ByteBuff buf, int offset, int fingerprintBits) {
+    long seed = buf.getLong(offset);
+    int segLength = buf.getInt(offset + Bytes.SIZEOF_LONG);
+    int segCount = buf.getInt(offset + Bytes.SIZEOF_LONG + Bytes.SIZEOF_INT);
+    int fingerprintsOffset = offset + HEADER_SIZE;
+    long h = mix(keyHash + seed);
+    int value = fingerprint(h, fingerprintBits);
+    for (int j = 0; j < ARITY; j++) {
+      long bitPos = (long) location(h, j, segLength, segCount) * fingerprintBits;
+      int pos = fingerprintsOffset + (int) (bitPos >>> 3);
+      int word =
+        (buf.get(pos) & 0xFF) | (buf.get(pos + 1) & 0xFF) << 8 | (buf.get(pos + 2) & 0xFF) << 16;
+      value ^= word >>> (bitPos & 7);
+    }
+    return (value & ((1 << fingerprintBits) - 1)) == 0;
+  }
+
+  /**
+   * Maps a hash to its j-th location. The first location is spread over all segments but the last
+   * {@link #ARITY} - 1, each following location falls into the next segment, at an offset taken
+   * from a different part of the hash.
+   */
+  private static int location(long h, int j, int segLength, int segCount) {
+    int loc = (int) (((h >>> 32) * ((long) segCount * segLength)) >>> 32) + j * segLength;
+    if (j > 0) {
+      loc ^= (int) (h >>> (18 * (j - 1))) & (segLength - 1);
+    }
+    return loc;
+  }
+
+  private static int fingerprint(long h, int fingerprintBits) {
+    return (int) (h ^ (h >>> 32)) & ((1 << fingerprintBits) - 1);
+  }
+
+  /** The murmur3 64-bit finalizer */
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private int getFingerprint(int index) {
+    long bitPos = (long) index * fingerprintBits;
+    int pos = (int) (bitPos >>> 3);
+    int word = (fingerprints[pos] & 0xFF) | (fingerprints[pos + 1] & 0xFF) << 8
+      | (fingerprints[pos + 2] & 0xFF) << 16;
+    return (word >>> (bitPos & 7)) & ((1 << fingerprintBits) - 1);
+  }
+
+  private void setFingerprint(int index, int value) {
+    long bitPos = (long) index * fingerprintBits;
+    int pos = (int) (bitPos >>> 3);
+    int shift = (int) (bitPos & 7);
+    int word = (fingerprints[pos] & 0xFF) | (fingerprints[pos + 1] & 0xFF) << 8
+      | (fingerprints[pos + 2] & 0xFF) << 16;
+    int mask = ((1 << fingerprintBits) - 1) << shift;
+    word = (word & ~mask) | ((value << shift) & mask);
+    fingerprints[pos] = (byte) word;
+    fingerprints[pos + 1] = (byte) (word >>> 8);
+    fingerprints[pos + 2] = (byte) (word >>> 16);
+  }
+
+  public boolean isBuilt() {
+    return fingerprints != null;
+  }
+
+  public int getHashType() {
+    return hashType;
+  }
+
+  public int getFingerprintBits() {
+    return fingerprintBits;
+  }
+
+  @Override
+  public long getKeyCount() {
+    return keyCount;
+  }
+
+  @Override
+  public long getMaxKeys() {
+    return maxKeys;
+  }
+
+  /** Returns the serialized size of the chunk once built, or the size it is expected to take */
+  @Override
+  public long getByteSize() {
+    if (fingerprints != null) {
+      return HEADER_SIZE + fingerprints.length;
+    }
+    return computeByteSize(Math.max(keyCount, 1), fingerprintBits);
+  }
+}
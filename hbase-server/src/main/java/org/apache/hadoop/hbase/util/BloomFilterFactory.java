@@ -23,6 +23,8 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.CellComparatorImpl;
 import org.apache.hadoop.hbase.io.hfile.BloomFilterMetrics;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.CompoundBinaryFuseFilter;
+import org.apache.hadoop.hbase.io.hfile.CompoundBinaryFuseFilterWriter;
 import org.apache.hadoop.hbase.io.hfile.CompoundBloomFilter;
 import org.apache.hadoop.hbase.io.hfile.CompoundBloomFilterBase;
 import org.apache.hadoop.hbase.io.hfile.CompoundBloomFilterWriter;
@@ -96,6 +98,9 @@ public final class BloomFilterFactory {
       case CompoundBloomFilterBase.VERSION:
         return new CompoundBloomFilter(meta, reader, metrics);
 
+      case CompoundBloomFilterBase.BINARY_FUSE_VERSION:
+        return new CompoundBinaryFuseFilter(meta, reader, metrics);
+
       default:
         throw new IllegalArgumentException("Bad bloom filter format version " + version);
     }
@@ -155,6 +160,13 @@ public final class BloomFilterFactory {
 
     float err = getErrorRate(conf);
 
+    if (bloomType == BloomType.ROW_BINARY_FUSE) {
+      CompoundBinaryFuseFilterWriter fuseWriter = new CompoundBinaryFuseFilterWriter(
+        getBloomBlockSize(conf), err, Hash.getHashType(conf), cacheConf.shouldCacheBloomsOnWrite());
+      writer.addInlineBlockWriter(fuseWriter);
+      return fuseWriter;
+    }
+
     // In case of row/column Bloom filter lookups, each lookup is an OR if two
     // separate lookups. Therefore, if each lookup's false positive rate is p,
     // the resulting false positive rate is err = 1 - (1 - p)^2, and
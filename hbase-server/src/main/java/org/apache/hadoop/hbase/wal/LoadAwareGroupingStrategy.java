@@ -0,0 +1,423 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.wal;
+
+import static org.apache.hadoop.hbase.util.ConcurrentMapUtils.computeIfAbsent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.CompatibilitySingletonFactory;
+import org.apache.hadoop.hbase.regionserver.wal.MetricsWALSource;
+import org.apache.hadoop.hbase.regionserver.wal.WALActionsListener;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.wal.RegionGroupingProvider.RegionGroupingStrategy;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A WAL grouping strategy which follows the write load instead of assigning regions to a fixed
+ * number of groups. It watches the bytes appended to the WAL of each group, per region, and the
+ * sync latency of each group, and every "hbase.wal.regiongrouping.loadaware.rebalance.interval":
+ * <ul>
+ * <li>sizes the number of groups so that each carries about
+ * "hbase.wal.regiongrouping.loadaware.group.target.throughput" bytes per second, adding one more
+ * when the syncs of a group take longer than
+ * "hbase.wal.regiongrouping.loadaware.sync.latency.target.ms",</li>
+ * <li>moves regions from the groups carrying more than the average load to the least loaded
+ * ones.</li>
+ * </ul>
+ * A region keeps writing to the WAL it has until its next flush of all its stores, when it picks
+ * up the WAL of its new group, see {@code HRegion#internalPrepareFlushCache}. The groups which are
+ * not used any more only keep their WAL until it is rolled and archived. The regions which can not
+ * move, as the replicated ones, the secondary replicas or the hbase:meta ones, are pinned to the
+ * group they are opened in, see {@link #pinRegion(byte[], String)}.
+ */
+@InterfaceAudience.Private
+public class LoadAwareGroupingStrategy implements RegionGroupingStrategy {
+  private static final Logger LOG = LoggerFactory.getLogger(LoadAwareGroupingStrategy.class);
+
+  static final String MIN_GROUPS = "hbase.wal.regiongrouping.loadaware.min.groups";
+  static final int DEFAULT_MIN_GROUPS = 2;
+  static final String MAX_GROUPS = "hbase.wal.regiongrouping.loadaware.max.groups";
+  static final int DEFAULT_MAX_GROUPS = 16;
+  static final String GROUP_TARGET_THROUGHPUT =
+    "hbase.wal.regiongrouping.loadaware.group.target.throughput";
+  static final long DEFAULT_GROUP_TARGET_THROUGHPUT = 16L * 1024 * 1024;
+  static final String SYNC_LATENCY_TARGET_MS =
+    "hbase.wal.regiongrouping.loadaware.sync.latency.target.ms";
+  static final long DEFAULT_SYNC_LATENCY_TARGET_MS = 20;
+  static final String REBALANCE_INTERVAL = "hbase.wal.regiongrouping.loadaware.rebalance.interval";
+  static final long DEFAULT_REBALANCE_INTERVAL = 60000;
+  static final String IMBALANCE_THRESHOLD =
+    "hbase.wal.regiongrouping.loadaware.imbalance.threshold";
+  static final float DEFAULT_IMBALANCE_THRESHOLD = 0.2f;
+  static final String MAX_MOVES = "hbase.wal.regiongrouping.loadaware.max.moves";
+  static final int DEFAULT_MAX_MOVES = 8;
+
+  /**
+   * Returns whether the regions may move to another WAL with the given configuration, that is
+   * whether this strategy is the configured one.
+   */
+  public static boolean isConfigured(Configuration conf) {
+    String strategy = conf.get(RegionGroupingProvider.REGION_GROUPING_STRATEGY);
+    return RegionGroupingProvider.Strategies.loadaware.name().equals(strategy)
+      || LoadAwareGroupingStrategy.class.getName().equals(strategy);
+  }
+
+  /**
+   * The load of a group, as seen by the listener added to its WAL provider.
+   */
+  static final class Group implements WALActionsListener {
+    final String name;
+    final int index;
+    private final MetricsWALSource metrics;
+    private final LongAdder appendedBytes = new LongAdder();
+    private final LongAdder syncCount = new LongAdder();
+    private final LongAdder syncNanos = new LongAdder();
+    // keyed by the encoded region name array of the WAL keys, which is the same array for all the
+    // appends of a region, so the lookups do not hash the names
+    private volatile ConcurrentMap<byte[], LongAdder> regionBytes = new ConcurrentHashMap<>();
+
+    // updated by the rebalancing
+    double bytesPerSecond;
+    double syncLatencyMillis;
+    int regionCount;
+
+    Group(String name, int index, MetricsWALSource metrics) {
+      this.name = name;
+      this.index = index;
+      this.metrics = metrics;
+    }
+
+    void recordAppend(byte[] encodedRegionName, long size) {
+      appendedBytes.add(size);
+      computeIfAbsent(regionBytes, encodedRegionName, LongAdder::new).add(size);
+    }
+
+    @Override
+    public void postAppend(long entryLen, long elapsedTimeMillis, WALKey logKey, WALEdit logEdit) {
+      recordAppend(logKey.getEncodedRegionName(), entryLen);
+    }
+
+    @Override
+    public void postSync(long timeInNanos, int handlerSyncs) {
+      syncCount.increment();
+      syncNanos.add(timeInNanos);
+      metrics.incrementSyncTime(name, timeInNanos / 1000000L);
+    }
+
+    /**
+     * Takes the load since the last call, adding the bytes per second of each region to the map.
+     */
+    void collect(double seconds, Map<String, Double> regionRates) {
+      ConcurrentMap<byte[], LongAdder> regions = regionBytes;
+      regionBytes = new ConcurrentHashMap<>();
+      bytesPerSecond = appendedBytes.sumThenReset() / seconds;
+      long syncs = syncCount.sumThenReset();
+      long nanos = syncNanos.sumThenReset();
+      syncLatencyMillis = syncs == 0 ? 0 : nanos / 1e6 / syncs;
+      for (Map.Entry<byte[], LongAdder> e : regions.entrySet()) {
+        regionRates.merge(Bytes.toString(e.getKey()), e.getValue().sum() / seconds, Double::sum);
+      }
+    }
+  }
+
+  private final ConcurrentMap<String, String> assignments = new ConcurrentHashMap<>();
+  // the regions which keep the group they are assigned to
+  private final Set<String> pinned = ConcurrentHashMap.newKeySet();
+  private final ConcurrentMap<String, Group> groupsByName = new ConcurrentHashMap<>();
+  private final List<Group> groups = new ArrayList<>();
+  private final AtomicLong lastRebalance = new AtomicLong();
+  private MetricsWALSource metrics;
+  private String providerId;
+  private int minGroups;
+  private int maxGroups;
+  private long targetThroughput;
+  private long syncLatencyTarget;
+  private long rebalanceInterval;
+  private float imbalanceThreshold;
+  private int maxMoves;
+  private volatile int activeGroups;
+
+  @Override
+  public void init(Configuration config, String providerId) {
+    this.providerId = providerId;
+    this.minGroups = Math.max(1, config.getInt(MIN_GROUPS, DEFAULT_MIN_GROUPS));
+    this.maxGroups = Math.max(minGroups, config.getInt(MAX_GROUPS, DEFAULT_MAX_GROUPS));
+    this.targetThroughput =
+      Math.max(1, config.getLong(GROUP_TARGET_THROUGHPUT, DEFAULT_GROUP_TARGET_THROUGHPUT));
+    this.syncLatencyTarget = config.getLong(SYNC_LATENCY_TARGET_MS, DEFAULT_SYNC_LATENCY_TARGET_MS);
+    this.rebalanceInterval = config.getLong(REBALANCE_INTERVAL, DEFAULT_REBALANCE_INTERVAL);
+    this.imbalanceThreshold = config.getFloat(IMBALANCE_THRESHOLD, DEFAULT_IMBALANCE_THRESHOLD);
+    this.maxMoves = config.getInt(MAX_MOVES, DEFAULT_MAX_MOVES);
+    this.metrics = CompatibilitySingletonFactory.getInstance(MetricsWALSource.class);
+    synchronized (this) {
+      resize(minGroups);
+    }
+    lastRebalance.set(EnvironmentEdgeManager.currentTime());
+  }
+
+  @Override
+  public String group(byte[] identifier, byte[] namespace) {
+    maybeRebalance();
+    String region = Bytes.toString(identifier);
+    String group = assignments.get(region);
+    if (group == null) {
+      synchronized (this) {
+        group = assignments.get(region);
+        if (group == null) {
+          Group g = pickGroupForNewRegion();
+          g.regionCount++;
+          group = g.name;
+          assignments.put(region, group);
+        }
+      }
+    }
+    return group;
+  }
+
+  @Override
+  public void providerCreated(String group, WALProvider provider) {
+    Group g = groupsByName.get(group);
+    if (g != null) {
+      provider.addWALActionsListener(g);
+    }
+  }
+
+  @Override
+  public void pinRegion(byte[] identifier, String group) {
+    String region = Bytes.toString(identifier);
+    Group g = groupsByName.get(group);
+    synchronized (this) {
+      pinned.add(region);
+      if (g == null) {
+        return;
+      }
+      // the region may have been moved since it got its WAL
+      String previous = assignments.put(region, group);
+      if (!group.equals(previous)) {
+        g.regionCount++;
+        forgetRegion(previous);
+      }
+    }
+  }
+
+  @Override
+  public void regionClosed(byte[] identifier) {
+    String region = Bytes.toString(identifier);
+    synchronized (this) {
+      pinned.remove(region);
+      forgetRegion(assignments.remove(region));
+    }
+  }
+
+  private void forgetRegion(String group) {
+    Group g = group == null ? null : groupsByName.get(group);
+    if (g != null && g.regionCount > 0) {
+      g.regionCount--;
+    }
+  }
+
+  boolean isAssigned(byte[] identifier) {
+    return assignments.containsKey(Bytes.toString(identifier));
+  }
+
+  int getActiveGroups() {
+    return activeGroups;
+  }
+
+  Group getGroup(String name) {
+    return groupsByName.get(name);
+  }
+
+  private void resize(int count) {
+    for (int i = groups.size(); i < count; i++) {
+      Group g = new Group(providerId + GROUP_NAME_DELIMITER + "regiongroup-" + i, i, metrics);
+      groups.add(g);
+      groupsByName.put(g.name, g);
+    }
+    activeGroups = count;
+  }
+
+  /**
+   * New regions have no load yet, so they go to the group with the least regions among those which
+   * are not above the average load. The least loaded group is always one of them, even when the
+   * rounding of the average puts it above, or when the rates are not numbers.
+   */
+  private Group pickGroupForNewRegion() {
+    int active = activeGroups;
+    double average = 0;
+    Group leastLoaded = groups.get(0);
+    for (int i = 0; i < active; i++) {
+      Group g = groups.get(i);
+      average += g.bytesPerSecond;
+      if (g.bytesPerSecond < leastLoaded.bytesPerSecond) {
+        leastLoaded = g;
+      }
+    }
+    average /= active;
+    Group best = leastLoaded;
+    for (int i = 0; i < active; i++) {
+      Group g = groups.get(i);
+      if (g.bytesPerSecond <= average && g.regionCount < best.regionCount) {
+        best = g;
+      }
+    }
+    return best;
+  }
+
+  private void maybeRebalance() {
+    long now = EnvironmentEdgeManager.currentTime();
+    long last = lastRebalance.get();
+    if (now - last < rebalanceInterval || !lastRebalance.compareAndSet(last, now)) {
+      return;
+    }
+    synchronized (this) {
+      rebalance(Math.max(1, now - last) / 1000.0);
+    }
+  }
+
+  private void rebalance(double seconds) {
+    // the load of each group and region since the last rebalancing
+    Map<String, Double> regionRates = new HashMap<>();
+    double total = 0;
+    double maxSyncLatency = 0;
+    for (Group g : groups) {
+      g.collect(seconds, regionRates);
+      total += g.bytesPerSecond;
+      maxSyncLatency = Math.max(maxSyncLatency, g.syncLatencyMillis);
+    }
+
+    // size the number of groups to the load, adding one when the syncs get slow, and removing at
+    // most one at a time
+    int active = activeGroups;
+    int wanted = (int) Math.ceil(total / targetThroughput);
+    if (maxSyncLatency > syncLatencyTarget) {
+      wanted = Math.max(wanted, active + 1);
+    } else if (wanted < active) {
+      wanted = active - 1;
+    }
+    wanted = Math.min(maxGroups, Math.max(minGroups, wanted));
+    if (wanted != active) {
+      LOG.info("Changing the number of WAL groups of {} from {} to {}, appending {} bytes/s, "
+        + "max sync latency {} ms", providerId, active, wanted, (long) total, maxSyncLatency);
+      resize(wanted);
+      active = wanted;
+    }
+
+    // the projected load of the active groups, and the regions of the groups not used any more
+    double[] load = new double[active];
+    List<List<String>> regionsOfGroup = new ArrayList<>(active);
+    for (int i = 0; i < active; i++) {
+      regionsOfGroup.add(new ArrayList<>());
+      groups.get(i).regionCount = 0;
+    }
+    List<String> orphans = new ArrayList<>();
+    for (Map.Entry<String, String> e : assignments.entrySet()) {
+      Group g = groupsByName.get(e.getValue());
+      boolean movable = !pinned.contains(e.getKey());
+      if (g.index < active) {
+        load[g.index] += regionRates.getOrDefault(e.getKey(), 0.0);
+        if (movable) {
+          regionsOfGroup.get(g.index).add(e.getKey());
+        }
+        g.regionCount++;
+      } else if (movable) {
+        orphans.add(e.getKey());
+      }
+    }
+    int moves = 0;
+    orphans.sort((a, b) -> Double.compare(regionRates.getOrDefault(b, 0.0),
+      regionRates.getOrDefault(a, 0.0)));
+    for (String region : orphans) {
+      int to = argMin(load);
+      move(region, to, regionRates.getOrDefault(region, 0.0), load, regionsOfGroup);
+      moves++;
+    }
+
+    // move the regions from the busiest group to the idlest one, as long as it lowers the peak
+    double average = total / active;
+    for (int i = 0; i < maxMoves; i++) {
+      int from = argMax(load);
+      int to = argMin(load);
+      if (from == to || load[from] <= average * (1 + imbalanceThreshold)) {
+        break;
+      }
+      String candidate = null;
+      double candidateRate = 0;
+      for (String region : regionsOfGroup.get(from)) {
+        double rate = regionRates.getOrDefault(region, 0.0);
+        if (rate > candidateRate && rate < load[from] - load[to]) {
+          candidate = region;
+          candidateRate = rate;
+        }
+      }
+      if (candidate == null) {
+        break;
+      }
+      regionsOfGroup.get(from).remove(candidate);
+      groups.get(from).regionCount--;
+      load[from] -= candidateRate;
+      move(candidate, to, candidateRate, load, regionsOfGroup);
+      moves++;
+    }
+    if (moves > 0) {
+      LOG.info("Moved {} regions between the {} WAL groups of {}", moves, active, providerId);
+      metrics.incrementGroupRegionMoves(moves);
+    }
+  }
+
+  private void move(String region, int to, double rate, double[] load,
+    List<List<String>> regionsOfGroup) {
+    Group g = groups.get(to);
+    assignments.put(region, g.name);
+    regionsOfGroup.get(to).add(region);
+    g.regionCount++;
+    load[to] += rate;
+  }
+
+  private static int argMin(double[] values) {
+    int min = 0;
+    for (int i = 1; i < values.length; i++) {
+      if (values[i] < values[min]) {
+        min = i;
+      }
+    }
+    return min;
+  }
+
+  private static int argMax(double[] values) {
+    int max = 0;
+    for (int i = 1; i < values.length; i++) {
+      if (values[i] > values[max]) {
+        max = i;
+      }
+    }
+    return max;
+  }
+}
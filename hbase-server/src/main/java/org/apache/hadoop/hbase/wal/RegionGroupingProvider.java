@@ -21,6 +21,7 @@ import static org.apache.hadoop.hbase.wal.AbstractFSWALProvider.META_WAL_PROVIDE
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.Lock;
@@ -47,6 +48,9 @@ import org.slf4j.LoggerFactory;
  * "bounded".</li>
  * <li><em>identity</em> : each region belongs to its own group.</li>
  * <li><em>bounded</em> : bounded number of groups and region evenly assigned to each group.</li>
+ * <li><em>namespace</em> : one group per namespace.</li>
+ * <li><em>loadaware</em> : a number of groups following the write load, with regions moved from
+ * the busiest groups to the idlest ones, see {@link LoadAwareGroupingStrategy}.</li>
  * </ul>
  * Optionally, a FQCN to a custom implementation may be given.
  */
@@ -66,6 +70,26 @@ public class RegionGroupingProvider extends AbstractWALProvider {
     String group(final byte[] identifier, byte[] namespace);
 
     void init(Configuration config, String providerId);
+
+    /**
+     * Called when the WAL provider of a group is created, before any of its WALs. Strategies which
+     * watch the groups can add their listeners here.
+     */
+    default void providerCreated(String group, WALProvider provider) {
+    }
+
+    /**
+     * Called when a region which must keep writing to the WAL of the given group is opened.
+     * Strategies which move the regions between the groups must leave it where it is.
+     */
+    default void pinRegion(byte[] identifier, String group) {
+    }
+
+    /**
+     * Called when a region is closed, so that the strategy can forget about it.
+     */
+    default void regionClosed(byte[] identifier) {
+    }
   }
 
   /**
@@ -75,7 +99,8 @@ public class RegionGroupingProvider extends AbstractWALProvider {
     defaultStrategy(BoundedGroupingStrategy.class),
     identity(IdentityGroupingStrategy.class),
     bounded(BoundedGroupingStrategy.class),
-    namespace(NamespaceGroupingStrategy.class);
+    namespace(NamespaceGroupingStrategy.class),
+    loadaware(LoadAwareGroupingStrategy.class);
 
     final Class<? extends RegionGroupingStrategy> clazz;
 
@@ -165,6 +190,7 @@ public class RegionGroupingProvider extends AbstractWALProvider {
     provider.init(factory, conf,
       META_WAL_PROVIDER_ID.equals(providerId) ? META_WAL_PROVIDER_ID : group, this.abortable);
     provider.addWALActionsListener(new MetricsWAL());
+    strategy.providerCreated(group, provider);
     return provider;
   }
 
@@ -227,6 +253,32 @@ public class RegionGroupingProvider extends AbstractWALProvider {
     return getWAL(group);
   }
 
+  /**
+   * Tells the strategy that the given region keeps writing to the given WAL, whatever group it is
+   * assigned to later.
+   */
+  void pinRegion(RegionInfo region, WAL wal) {
+    if (strategy == null || META_WAL_PROVIDER_ID.equals(providerId)) {
+      return;
+    }
+    for (Map.Entry<String, WALProvider> e : cached.entrySet()) {
+      if (e.getValue().getWALs().contains(wal)) {
+        strategy.pinRegion(region.getEncodedNameAsBytes(), e.getKey());
+        return;
+      }
+    }
+  }
+
+  /**
+   * Tells the strategy that the given region is closed.
+   */
+  void regionClosed(RegionInfo region) {
+    if (strategy == null || META_WAL_PROVIDER_ID.equals(providerId)) {
+      return;
+    }
+    strategy.regionClosed(region.getEncodedNameAsBytes());
+  }
+
   @Override
   protected List<WAL> getWALs0() {
     return cached.values().stream().flatMap(p -> p.getWALs().stream()).collect(Collectors.toList());
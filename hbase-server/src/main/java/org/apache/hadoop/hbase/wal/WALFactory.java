@@ -552,6 +552,39 @@ public class WALFactory {
    * If you already have a WALFactory, you should favor the instance method. Uses defaults.
    * @return a writer that won't overwrite files. Caller must close.
    */
+  /**
+   * Tells the WAL provider of the given region, when it groups the regions, that the region must
+   * keep writing to the given WAL.
+   */
+  public void pinRegion(RegionInfo region, WAL wal) {
+    RegionGroupingProvider grouping = getRegionGroupingProvider(region);
+    if (grouping != null) {
+      grouping.pinRegion(region, wal);
+    }
+  }
+
+  /**
+   * Tells the WAL provider of the given region, when it groups the regions, that the region is
+   * closed.
+   */
+  public void regionClosed(RegionInfo region) {
+    RegionGroupingProvider grouping = getRegionGroupingProvider(region);
+    if (grouping != null) {
+      grouping.regionClosed(region);
+    }
+  }
+
+  private RegionGroupingProvider getRegionGroupingProvider(RegionInfo region) {
+    // same as getWAL, the hbase:meta and hbase:replication regions have their own providers
+    if (
+      region == null || (RegionReplicaUtil.isDefaultReplica(region) && (region.isMetaRegion()
+        || ReplicationStorageFactory.isReplicationQueueTable(conf, region.getTable())))
+    ) {
+      return null;
+    }
+    return provider instanceof RegionGroupingProvider ? (RegionGroupingProvider) provider : null;
+  }
+
   public static Writer createWALWriter(final FileSystem fs, final Path path,
     final Configuration configuration) throws IOException {
     return FSHLogProvider.createWriter(configuration, fs, path, false);
@@ -481,6 +481,26 @@ public class TestAsyncNonMetaRegionLocator {
     }
   }
 
+  @Test
+  public void testPrefetchRegionLocations() throws Exception {
+    createMultiRegionTable();
+    assertEquals(SPLIT_KEYS.length + 1,
+      locator.prefetchRegionLocations(TABLE_NAME, EMPTY_START_ROW, EMPTY_END_ROW).get().intValue());
+    assertEquals(SPLIT_KEYS.length + 1, locator.getNumberOfCachedRegionLocations(TABLE_NAME));
+    for (byte[] startKey : getStartKeys()) {
+      assertNotNull(locator.getRegionLocationInCache(TABLE_NAME, startKey));
+    }
+
+    // a range, from the middle of a region to the start of another one
+    locator.clearCache(TABLE_NAME);
+    assertEquals(3, locator
+      .prefetchRegionLocations(TABLE_NAME, Bytes.toBytes("350"), SPLIT_KEYS[5]).get().intValue());
+    for (int i = 2; i < 5; i++) {
+      assertNotNull(locator.getRegionLocationInCache(TABLE_NAME, SPLIT_KEYS[i]));
+    }
+    assertNull(locator.getRegionLocationInCache(TABLE_NAME, SPLIT_KEYS[5]));
+  }
+
   @Test
   public void testDoNotCacheLocationWithNullServerNameWhenGetAllLocations() throws Exception {
     createMultiRegionTable();
@@ -41,6 +41,26 @@ public class TestMetricsIO {
       public long getChecksumFailures() {
         return 40;
       }
+
+      @Override
+      public long getScanReadaheadBlocks() {
+        return 50;
+      }
+
+      @Override
+      public long getScanReadaheadHits() {
+        return 45;
+      }
+
+      @Override
+      public long getScanReadaheadWasted() {
+        return 5;
+      }
+
+      @Override
+      public long getScanReadaheadStallTime() {
+        return 10;
+      }
     });
 
     metrics.updateFsReadTime(100);
@@ -53,6 +73,10 @@ public class TestMetricsIO {
     metrics.updateFsWriteTime(600);
 
     HELPER.assertCounter("fsChecksumFailureCount", 40, metrics.getMetricsSource());
+    HELPER.assertCounter("scanReadaheadBlockCount", 50, metrics.getMetricsSource());
+    HELPER.assertCounter("scanReadaheadHitCount", 45, metrics.getMetricsSource());
+    HELPER.assertCounter("scanReadaheadWastedCount", 5, metrics.getMetricsSource());
+    HELPER.assertCounter("scanReadaheadStallTime", 10, metrics.getMetricsSource());
 
     HELPER.assertCounter("fsReadTime_numOps", 2, metrics.getMetricsSource());
     HELPER.assertCounter("fsPReadTime_numOps", 1, metrics.getMetricsSource());
@@ -0,0 +1,307 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.ByteBufferKeyValue;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparatorImpl;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseTestingUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.PrivateCellUtil;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.encoding.IndexBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.HFileBlockIndex.BlockIndexReader;
+import org.apache.hadoop.hbase.io.hfile.PrefixTreeIndexBlockEncoder.PrefixTreeBlock;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.nio.SingleByteBuff;
+import org.apache.hadoop.hbase.regionserver.KeyValueScanner;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Round-trip and seek-compatibility tests of {@link IndexBlockEncoding#PREFIX_TREE} against
+ * {@link IndexBlockEncoding#NONE}.
+ */
+@Category({ IOTests.class, MediumTests.class })
+public class TestPrefixTreeIndexBlockEncoding {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestPrefixTreeIndexBlockEncoding.class);
+
+  private static final HBaseTestingUtil TEST_UTIL = new HBaseTestingUtil();
+
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+
+  private static final int NUM_ROWS = 3000;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Random rand;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = TEST_UTIL.getConfiguration();
+    fs = FileSystem.get(conf);
+    rand = new Random(20220517);
+  }
+
+  /**
+   * Composite row keys sharing long prefixes, like tenant/entity/padding keys. Every even row is a
+   * proper prefix of the row that follows it.
+   */
+  private static byte[] compositeRow(int i) {
+    String row = String.format("tenant-%04d|entity-%06d", i / 1000, i / 2);
+    if (i % 2 == 1) {
+      row += "|" + StringUtils.repeat('x', 150);
+    }
+    return Bytes.toBytes(row);
+  }
+
+  private List<byte[]> createIndexKeys(int numEntries) {
+    List<byte[]> keys = new ArrayList<>(numEntries);
+    for (int i = 0; i < numEntries; i++) {
+      byte[] row = compositeRow(i);
+      // Some entries share the same row and only differ in the qualifier.
+      int numQualifiers = i % 5 == 0 ? 3 : 1;
+      for (int j = 0; j < numQualifiers; j++) {
+        keys.add(new KeyValue(row, FAMILY, Bytes.toBytes("q" + j), 1000L - j,
+          KeyValue.Type.Put).getKey());
+      }
+    }
+    return keys;
+  }
+
+  private static BlockIndexChunk createChunk(List<byte[]> keys) {
+    BlockIndexChunk chunk = new HFileBlockIndex.BlockIndexChunkImpl();
+    for (int i = 0; i < keys.size(); i++) {
+      chunk.add(keys.get(i), 1000L * i, 100 + i);
+    }
+    return chunk;
+  }
+
+  private static ByteBuff encode(HFileIndexBlockEncoder encoder, BlockIndexChunk chunk,
+    boolean root) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    encoder.encode(chunk, root, new DataOutputStream(baos));
+    return new SingleByteBuff(ByteBuffer.wrap(baos.toByteArray()));
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    for (int numEntries : new int[] { 0, 1, 2, 17, 300, 2000 }) {
+      List<byte[]> keys = createIndexKeys(numEntries);
+      BlockIndexChunk chunk = createChunk(keys);
+      ByteBuff encoded = encode(PrefixTreeIndexBlockEncoder.INSTANCE, chunk, false);
+      PrefixTreeBlock block = new PrefixTreeBlock(encoded);
+      assertEquals(keys.size(), block.getNumEntries());
+      assertEquals(encoded.limit(), block.getEncodedLength());
+      for (int i = 0; i < keys.size(); i++) {
+        assertArrayEquals(keys.get(i), block.getKey(i));
+        assertEquals(chunk.getBlockOffset(i), block.getBlockOffset(i));
+        assertEquals(chunk.getOnDiskDataSize(i), block.getOnDiskDataSize(i));
+        Cell key = new KeyValue.KeyOnlyKeyValue(keys.get(i), 0, keys.get(i).length);
+        assertEquals(i, block.binarySearch(key, CellComparatorImpl.COMPARATOR));
+      }
+      assertNull(block.getKey(keys.size()));
+      if (numEntries > 0) {
+        assertTrue("Prefix tree should be smaller than the flat index",
+          encoded.limit() < chunk.getNonRootSize());
+      }
+    }
+  }
+
+  @Test
+  public void testSearchCompatibleWithNone() throws IOException {
+    List<byte[]> keys = createIndexKeys(1000);
+    BlockIndexChunk chunk = createChunk(keys);
+    ByteBuff none = encode(NoOpIndexBlockEncoder.INSTANCE, chunk, false);
+    PrefixTreeBlock prefixTree =
+      new PrefixTreeBlock(encode(PrefixTreeIndexBlockEncoder.INSTANCE, chunk, false));
+
+    List<Cell> probes = new ArrayList<>();
+    for (int i = -1; i <= 1001; i++) {
+      byte[] row = compositeRow(Math.max(0, i));
+      probes.add(PrivateCellUtil.createFirstOnRow(row));
+      probes.add(PrivateCellUtil.createLastOnRow(row));
+      probes.add(KeyValueUtil.createFirstOnRow(Bytes.copy(row, 0, row.length - 1)));
+      probes.add(KeyValueUtil.createFirstOnRow(Bytes.add(row, new byte[] { 0 })));
+      probes.add(new KeyValue(row, FAMILY, Bytes.toBytes("q1"), rand.nextInt(2000),
+        KeyValue.Type.Put));
+      KeyValue kv = new KeyValue(row, FAMILY, Bytes.toBytes("q" + rand.nextInt(4)), 999L,
+        KeyValue.Type.Put);
+      probes.add(new ByteBufferKeyValue(ByteBuffer.wrap(kv.getBuffer()), kv.getOffset(),
+        kv.getLength()));
+    }
+    probes.add(KeyValueUtil.createFirstOnRow(new byte[0]));
+    probes.add(KeyValueUtil.createFirstOnRow(Bytes.toBytes("tenant-")));
+    probes.add(KeyValueUtil.createFirstOnRow(Bytes.toBytes("zzz")));
+
+    for (Cell probe : probes) {
+      assertEquals("Probe " + probe,
+        BlockIndexReader.binarySearchNonRootIndex(probe, none, CellComparatorImpl.COMPARATOR),
+        prefixTree.binarySearch(probe, CellComparatorImpl.COMPARATOR));
+    }
+  }
+
+  private Path writeHFile(String name, IndexBlockEncoding encoding, List<KeyValue> kvs)
+    throws IOException {
+    Path path = new Path(TEST_UTIL.getDataTestDir(), name);
+    HFileContext context =
+      new HFileContextBuilder().withBlockSize(1024).withIndexBlockEncoding(encoding).build();
+    try (HFile.Writer writer = HFile.getWriterFactory(conf, new CacheConfig(conf))
+      .withPath(fs, path).withFileContext(context).create()) {
+      for (KeyValue kv : kvs) {
+        writer.append(kv);
+      }
+    }
+    return path;
+  }
+
+  @Test
+  public void testSeekCompatibleWithNone() throws IOException {
+    conf.setInt(HFileBlockIndex.MAX_CHUNK_SIZE_KEY, 2048);
+    List<KeyValue> kvs = new ArrayList<>();
+    for (int i = 0; i < NUM_ROWS; i++) {
+      byte[] row = compositeRow(i);
+      for (int j = 0; j < (i % 5 == 0 ? 3 : 1); j++) {
+        kvs.add(new KeyValue(row, FAMILY, Bytes.toBytes("q" + j), 1000L,
+          Bytes.toBytes(rand.nextLong())));
+      }
+    }
+    Path nonePath = writeHFile("none_index", IndexBlockEncoding.NONE, kvs);
+    Path prefixTreePath = writeHFile("prefix_tree_index", IndexBlockEncoding.PREFIX_TREE, kvs);
+
+    CacheConfig cacheConf = new CacheConfig(conf);
+    try (HFile.Reader none = HFile.createReader(fs, nonePath, cacheConf, true, conf);
+      HFile.Reader prefixTree = HFile.createReader(fs, prefixTreePath, cacheConf, true, conf)) {
+      assertTrue(none.getTrailer().getNumDataIndexLevels() > 2);
+      assertEquals(none.getTrailer().getNumDataIndexLevels(),
+        prefixTree.getTrailer().getNumDataIndexLevels());
+      assertTrue(prefixTree.getTrailer().getUncompressedDataIndexSize()
+          < none.getTrailer().getUncompressedDataIndexSize());
+      assertEquals(IndexBlockEncoding.PREFIX_TREE,
+        HFileIndexBlockEncoderImpl.createFromFileInfo(prefixTree.getHFileInfo())
+          .getIndexBlockEncoding());
+      assertEquals(0, CellComparatorImpl.COMPARATOR.compare(none.getFirstKey().get(),
+        prefixTree.getFirstKey().get()));
+      assertEquals(0,
+        CellComparatorImpl.COMPARATOR.compare(none.midKey().get(), prefixTree.midKey().get()));
+
+      for (boolean pread : new boolean[] { false, true }) {
+        HFileScanner noneScanner = none.getScanner(conf, true, pread);
+        HFileScanner prefixTreeScanner = prefixTree.getScanner(conf, true, pread);
+        for (int i = 0; i < kvs.size(); i++) {
+          KeyValue kv = kvs.get(i);
+          assertEquals(0, prefixTreeScanner.seekTo(kv));
+          assertEquals(0, CellComparatorImpl.COMPARATOR.compare(kv, prefixTreeScanner.getCell()));
+          assertSameSeek(noneScanner, prefixTreeScanner, PrivateCellUtil.createFirstOnRow(
+            kv.getRowArray(), kv.getRowOffset(), kv.getRowLength()));
+          assertSameSeek(noneScanner, prefixTreeScanner, PrivateCellUtil.createLastOnRow(
+            kv.getRowArray(), kv.getRowOffset(), kv.getRowLength()));
+          assertEquals(noneScanner.seekBefore(kv), prefixTreeScanner.seekBefore(kv));
+        }
+        assertSameSeek(noneScanner, prefixTreeScanner,
+          KeyValueUtil.createFirstOnRow(Bytes.toBytes("a")));
+        assertSameSeek(noneScanner, prefixTreeScanner,
+          KeyValueUtil.createFirstOnRow(Bytes.toBytes("zzz")));
+      }
+    }
+  }
+
+  private static void assertSameSeek(HFileScanner expected, HFileScanner actual, Cell key)
+    throws IOException {
+    int expectedResult = expected.seekTo(key);
+    assertEquals("Seek to " + key, expectedResult, actual.seekTo(key));
+    if (expectedResult != -1) {
+      assertEquals(0, CellComparatorImpl.COMPARATOR.compare(expected.getCell(), actual.getCell()));
+      assertSameNextIndexedKey(expected.getNextIndexedKey(), actual.getNextIndexedKey());
+    }
+  }
+
+  private static void assertSameNextIndexedKey(Cell expected, Cell actual) {
+    if (expected == KeyValueScanner.NO_NEXT_INDEXED_KEY) {
+      assertSame(expected, actual);
+    } else {
+      assertEquals(0, CellComparatorImpl.COMPARATOR.compare(expected, actual));
+    }
+  }
+
+  @Test
+  public void testNextIndexedKeyReused() throws IOException {
+    conf.setInt(HFileBlockIndex.MAX_CHUNK_SIZE_KEY, 2048);
+    List<KeyValue> kvs = new ArrayList<>();
+    for (int i = 0; i < NUM_ROWS; i++) {
+      kvs.add(new KeyValue(compositeRow(i), FAMILY, Bytes.toBytes("q"), 1000L,
+        Bytes.toBytes(rand.nextLong())));
+    }
+    Path path = writeHFile("prefix_tree_next_key", IndexBlockEncoding.PREFIX_TREE, kvs);
+    try (HFile.Reader reader = HFile.createReader(fs, path, new CacheConfig(conf), true, conf)) {
+      assertTrue(reader.getTrailer().getNumDataIndexLevels() > 2);
+      BlockIndexReader index = reader.getDataBlockIndexReader();
+      Cell previous = null;
+      HFileBlock previousBlock = null;
+      for (KeyValue kv : kvs) {
+        BlockWithScanInfo info = index.loadDataBlockWithScanInfo(kv, null, true, true, false,
+          DataBlockEncoding.NONE, reader);
+        HFileBlock block = info.getHFileBlock();
+        try {
+          Cell next = info.getNextIndexedKey();
+          if (next != KeyValueScanner.NO_NEXT_INDEXED_KEY) {
+            assertTrue(CellComparatorImpl.COMPARATOR.compare(kv, next) < 0);
+          }
+          // the lookups ending in the same data block share its next indexed key
+          if (previousBlock != null && previousBlock.getOffset() == block.getOffset()) {
+            assertSame(previous, next);
+          }
+          previous = next;
+        } finally {
+          if (previousBlock != null) {
+            previousBlock.release();
+          }
+          previousBlock = block;
+        }
+      }
+      previousBlock.release();
+    }
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseTestingUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TestName;
+
+/**
+ * Test reading ahead the blocks of long scans, see {@link ScanReadahead}.
+ */
+@Category({ IOTests.class, MediumTests.class })
+public class TestScanReadahead {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestScanReadahead.class);
+
+  private static final HBaseTestingUtil TEST_UTIL = new HBaseTestingUtil();
+
+  private static final int NUM_ROWS = 5000;
+  private static final int DATA_BLOCK_SIZE = 1024;
+  private static final int READAHEAD_BLOCKS = 8;
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  @Rule
+  public TestName name = new TestName();
+
+  private Configuration conf;
+  private FileSystem fs;
+  private CacheConfig cacheConf;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setInt(ScanReadahead.READAHEAD_BLOCKS_KEY, READAHEAD_BLOCKS);
+    conf.setInt(ScanReadahead.READAHEAD_THRESHOLD_KEY, 2);
+    fs = FileSystem.get(conf);
+    cacheConf = new CacheConfig(conf, BlockCacheFactory.createBlockCache(conf));
+  }
+
+  private static byte[] row(int i) {
+    return Bytes.toBytes(String.format("row-%06d", i));
+  }
+
+  private static byte[] value(int i) {
+    return Bytes.toBytes("value-" + i);
+  }
+
+  private HFile.Reader writeAndOpen() throws IOException {
+    Path path = new Path(TEST_UTIL.getDataTestDir(name.getMethodName()), "hfile");
+    HFileContext context = new HFileContextBuilder().withBlockSize(DATA_BLOCK_SIZE).build();
+    HFile.Writer writer = HFile.getWriterFactory(conf, new CacheConfig(conf)).withPath(fs, path)
+      .withFileContext(context).create();
+    try {
+      for (int i = 0; i < NUM_ROWS; i++) {
+        writer.append(new KeyValue(row(i), FAMILY, QUALIFIER, 1L, value(i)));
+      }
+    } finally {
+      writer.close();
+    }
+    return HFile.createReader(fs, path, cacheConf, true, conf);
+  }
+
+  @Test
+  public void testFullScan() throws IOException {
+    long hits = ScanReadahead.getHits();
+    long blocksRead = ScanReadahead.getBlocksRead();
+    HFile.Reader reader = writeAndOpen();
+    try {
+      HFileScanner scanner = reader.getScanner(conf, true, true);
+      try {
+        assertTrue(scanner.seekTo());
+        int count = 0;
+        do {
+          Cell cell = scanner.getCell();
+          assertArrayEquals(row(count), CellUtil.cloneRow(cell));
+          assertArrayEquals(value(count), CellUtil.cloneValue(cell));
+          count++;
+        } while (scanner.next());
+        assertEquals(NUM_ROWS, count);
+      } finally {
+        scanner.close();
+      }
+      // most of the blocks were read ahead and found by the scanner
+      long dataBlocks = reader.getTrailer().getDataIndexCount();
+      assertTrue("Only " + dataBlocks + " data blocks", dataBlocks > 4 * READAHEAD_BLOCKS);
+      assertTrue(ScanReadahead.getBlocksRead() - blocksRead > dataBlocks / 2);
+      assertTrue(ScanReadahead.getHits() - hits > dataBlocks / 2);
+    } finally {
+      reader.close(true);
+    }
+  }
+
+  @Test
+  public void testSeekAbandonsReadahead() throws Exception {
+    HFile.Reader reader = writeAndOpen();
+    try {
+      long blocksRead = ScanReadahead.getBlocksRead();
+      long wasted;
+      HFileScanner scanner = reader.getScanner(conf, true, true);
+      try {
+        assertTrue(scanner.seekTo());
+        // read a few blocks in a row, so that the readahead starts
+        for (int i = 0; i < 100; i++) {
+          assertTrue(scanner.next());
+        }
+        TEST_UTIL.waitFor(30000,
+          () -> ScanReadahead.getBlocksRead() - blocksRead >= READAHEAD_BLOCKS);
+        wasted = ScanReadahead.getWasted();
+        // jump to the end of the file, the blocks read ahead in between are not used
+        KeyValue last = new KeyValue(row(NUM_ROWS - 1), FAMILY, QUALIFIER, 1L, value(0));
+        assertEquals(0, scanner.seekTo(last));
+        assertArrayEquals(value(NUM_ROWS - 1), CellUtil.cloneValue(scanner.getCell()));
+      } finally {
+        scanner.close();
+      }
+      assertTrue(ScanReadahead.getWasted() > wasted);
+    } finally {
+      reader.close(true);
+    }
+  }
+
+  @Test
+  public void testNoReadaheadForCompactions() throws IOException {
+    HFile.Reader reader = writeAndOpen();
+    try {
+      HFileReaderImpl impl = (HFileReaderImpl) reader;
+      assertNull(ScanReadahead.create(impl, conf, true, true));
+      assertNull(ScanReadahead.create(impl, conf, false, false));
+      Configuration disabled = new Configuration(conf);
+      disabled.setInt(ScanReadahead.READAHEAD_BLOCKS_KEY, 0);
+      assertNull(ScanReadahead.create(impl, disabled, true, false));
+    } finally {
+      reader.close(true);
+    }
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.io.ByteBuffAllocator;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.HFileBlockPair;
+import org.apache.hadoop.hbase.io.hfile.Cacheable;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the learning of the bucket sizes and the moving of blocks out of buckets.
+ */
+@Category({ IOTests.class, SmallTests.class })
+public class TestAdaptiveBucketAllocator {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestAdaptiveBucketAllocator.class);
+
+  private static final long CAPACITY = 64L * 1024 * 1024;
+
+  private static final int[] BUCKET_SIZES = { 8 * 1024, 16 * 1024, 64 * 1024 };
+
+  // items of 8K per bucket
+  private static final int ITEMS = BucketAllocator.FEWEST_ITEMS_IN_BUCKET * 8;
+
+  @Test
+  public void testLearnSizeClasses() throws Exception {
+    BucketAllocator allocator = new BucketAllocator(CAPACITY, BUCKET_SIZES.clone(), true);
+    assertTrue(allocator.isLearningSizeClasses());
+    List<Long> offsets = new ArrayList<>();
+    for (int i = 0; i < BucketAllocator.MIN_SAMPLES_TO_LEARN - 1; i++) {
+      offsets.add(allocator.allocateBlock(3000));
+    }
+    // not enough samples yet
+    assertFalse(allocator.learnSizeClasses());
+    offsets.add(allocator.allocateBlock(3000));
+    assertEquals(BucketAllocator.MIN_SAMPLES_TO_LEARN * (8 * 1024 - 3000L),
+      allocator.getFragmentationBytes());
+
+    assertTrue(allocator.learnSizeClasses());
+    int[] sizes = allocator.getBucketSizes();
+    assertEquals(BUCKET_SIZES.length, sizes.length);
+    assertEquals(64 * 1024, sizes[sizes.length - 1]);
+    assertEquals(3072, allocator.roundUpToBucketSizeInfo(3000).statistics().itemSize());
+
+    // the buckets holding blocks of the former size take no more blocks
+    Set<Integer> formerBuckets = new HashSet<>();
+    for (long offset : offsets) {
+      formerBuckets.add(allocator.getBucketIndex(offset));
+    }
+    long offset = allocator.allocateBlock(3000);
+    int bucket = allocator.getBucketIndex(offset);
+    assertFalse(formerBuckets.contains(bucket));
+    assertEquals(3072, allocator.getBucketItemSizes()[bucket]);
+
+    // and take the new size of their class once empty
+    for (long former : offsets) {
+      allocator.freeBlock(former, 3000);
+    }
+    assertEquals(3072 - 3000, allocator.getFragmentationBytes());
+    for (int former : formerBuckets) {
+      assertEquals(sizes[0], allocator.getBucketItemSizes()[former]);
+    }
+
+    // the halved samples are not enough to learn again
+    assertFalse(allocator.learnSizeClasses());
+  }
+
+  @Test
+  public void testNotLearningByDefault() throws Exception {
+    BucketAllocator allocator = new BucketAllocator(CAPACITY, BUCKET_SIZES.clone());
+    assertFalse(allocator.isLearningSizeClasses());
+    for (int i = 0; i < BucketAllocator.MIN_SAMPLES_TO_LEARN; i++) {
+      allocator.allocateBlock(3000);
+    }
+    assertFalse(allocator.learnSizeClasses());
+    assertEquals(8 * 1024, allocator.getBucketSizes()[0]);
+  }
+
+  @Test
+  public void testRestoreItemSizes() throws Exception {
+    BucketAllocator allocator = new BucketAllocator(CAPACITY, BUCKET_SIZES.clone(), true);
+    Map<BlockCacheKey, BucketEntry> map = new HashMap<>();
+    for (int i = 0; i < BucketAllocator.MIN_SAMPLES_TO_LEARN; i++) {
+      long offset = allocator.allocateBlock(3000);
+      map.put(new BlockCacheKey("file", i), new BucketEntry(offset, 3000, 3000, 0, false,
+        e -> ByteBuffAllocator.NONE, ByteBuffAllocator.HEAP));
+    }
+    assertTrue(allocator.learnSizeClasses());
+    int[] itemSizes = allocator.getBucketItemSizes();
+
+    BucketAllocator restored = new BucketAllocator(CAPACITY, allocator.getBucketSizes(), true,
+      map, new LongAdder(), itemSizes);
+    assertEquals(BucketAllocator.MIN_SAMPLES_TO_LEARN, map.size());
+    assertEquals(allocator.getUsedSize(), restored.getUsedSize());
+    assertEquals(allocator.getFragmentationBytes(), restored.getFragmentationBytes());
+    for (BucketEntry entry : map.values()) {
+      int bucket = restored.getBucketIndex(entry.offset());
+      assertEquals(8 * 1024, restored.getBucketItemSizes()[bucket]);
+    }
+  }
+
+  @Test
+  public void testEvacuation() throws Exception {
+    BucketAllocator allocator = new BucketAllocator(CAPACITY, BUCKET_SIZES.clone());
+    Map<Integer, List<Long>> byBucket = new HashMap<>();
+    for (int i = 0; i < 3 * ITEMS; i++) {
+      long offset = allocator.allocateBlock(8 * 1024);
+      byBucket.computeIfAbsent(allocator.getBucketIndex(offset), k -> new ArrayList<>())
+        .add(offset);
+    }
+    assertEquals(3, byBucket.size());
+    List<Integer> buckets = new ArrayList<>(byBucket.keySet());
+    // one bucket stays full, one keeps 20 blocks and one keeps 4 blocks
+    int busy = buckets.get(1);
+    int idle = buckets.get(2);
+    for (long offset : byBucket.get(busy).subList(20, ITEMS)) {
+      allocator.freeBlock(offset, 8 * 1024);
+    }
+    for (long offset : byBucket.get(idle).subList(4, ITEMS)) {
+      allocator.freeBlock(offset, 8 * 1024);
+    }
+
+    Set<Integer> evacuated = allocator.startEvacuation();
+    assertEquals(1, evacuated.size());
+    assertTrue(evacuated.contains(idle));
+    // the blocks moved out of the idle bucket go to the busy one
+    for (int i = 0; i < 4; i++) {
+      assertEquals(busy, allocator.getBucketIndex(allocator.allocateBlock(8 * 1024)));
+    }
+    for (long offset : byBucket.get(idle).subList(0, 4)) {
+      allocator.freeBlock(offset, 8 * 1024);
+    }
+    allocator.finishEvacuation(evacuated);
+    assertEquals((ITEMS + 20 + 4) * 8 * 1024L, allocator.getUsedSize());
+    // the idle bucket is completely free again
+    assertEquals(1,
+      allocator.roundUpToBucketSizeInfo(8 * 1024).statistics().completelyFreeBuckets());
+  }
+
+  @Test
+  public void testDefragment() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setBoolean(BucketCache.ADAPTIVE_ALLOCATOR_KEY, true);
+    BucketCache cache = new BucketCache("offheap", CAPACITY, 8 * 1024,
+      new int[] { 4 * 1024, 64 * 1024 }, BucketCache.DEFAULT_WRITER_THREADS,
+      BucketCache.DEFAULT_WRITER_QUEUE_ITEMS, null, BucketCache.DEFAULT_ERROR_TOLERATION_DURATION,
+      conf);
+    try {
+      // 64 items of 4K per bucket, fill one bucket and a half
+      HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(2048, 100);
+      for (HFileBlockPair block : blocks) {
+        cache.cacheBlock(block.getBlockName(), block.getBlock());
+      }
+      TestBucketCache.waitUntilAllFlushedToBucket(cache);
+      Map<Integer, List<BlockCacheKey>> byBucket = new HashMap<>();
+      for (HFileBlockPair block : blocks) {
+        BucketEntry entry = cache.backingMap.get(block.getBlockName());
+        byBucket.computeIfAbsent(cache.getAllocator().getBucketIndex(entry.offset()),
+          k -> new ArrayList<>()).add(block.getBlockName());
+      }
+      assertEquals(2, byBucket.size());
+      int full = byBucket.entrySet().stream().filter(e -> e.getValue().size() == 64)
+        .mapToInt(Map.Entry::getKey).findFirst().getAsInt();
+      // keep 4 blocks in the full bucket
+      for (BlockCacheKey key : byBucket.get(full).subList(4, 64)) {
+        assertTrue(cache.evictBlock(key));
+      }
+
+      cache.defragment();
+      assertEquals(4, cache.getRelocatedBlockCount());
+      int checked = 0;
+      for (HFileBlockPair block : blocks) {
+        BucketEntry entry = cache.backingMap.get(block.getBlockName());
+        if (entry == null) {
+          continue;
+        }
+        assertNotEquals(full, cache.getAllocator().getBucketIndex(entry.offset()));
+        assertBlockEquals(block.getBlock(), cache.getBlock(block.getBlockName(), false, false,
+          false));
+        checked++;
+      }
+      assertEquals(40, checked);
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  private static void assertBlockEquals(Cacheable expected, Cacheable actual) {
+    try {
+      ByteBuffer expectedBuffer = ByteBuffer.allocate(expected.getSerializedLength());
+      expected.serialize(expectedBuffer, true);
+      ByteBuffer actualBuffer = ByteBuffer.allocate(actual.getSerializedLength());
+      actual.serialize(actualBuffer, true);
+      assertEquals(expectedBuffer.rewind(), actualBuffer.rewind());
+    } finally {
+      actual.release();
+    }
+  }
+}
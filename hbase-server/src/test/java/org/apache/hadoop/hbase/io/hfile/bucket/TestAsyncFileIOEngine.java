@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.apache.hadoop.hbase.io.hfile.bucket.TestByteBufferIOEngine.createBucketEntry;
+import static org.apache.hadoop.hbase.io.hfile.bucket.TestByteBufferIOEngine.getByteBuff;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.nio.RefCnt;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Basic test for {@link AsyncFileIOEngine}
+ */
+@Category({ IOTests.class, SmallTests.class })
+public class TestAsyncFileIOEngine {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestAsyncFileIOEngine.class);
+
+  private static final long TOTAL_CAPACITY = 6 * 1024 * 1024; // 6 MB
+  private static final String[] FILE_PATHS =
+    { "testAsyncFileIOEngine1", "testAsyncFileIOEngine2", "testAsyncFileIOEngine3" };
+  private static final long SIZE_PER_FILE = TOTAL_CAPACITY / FILE_PATHS.length; // 2 MB per File
+
+  private BucketCacheStats stats;
+  private AsyncFileIOEngine ioEngine;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setInt(AsyncFileIOEngine.IO_THREADS_KEY, 2);
+    conf.setInt(AsyncFileIOEngine.BATCH_SIZE_KEY, 8);
+    stats = new BucketCacheStats();
+    ioEngine = new AsyncFileIOEngine(conf, TOTAL_CAPACITY, false, stats, FILE_PATHS);
+  }
+
+  @After
+  public void cleanUp() {
+    ioEngine.shutdown();
+    for (String filePath : FILE_PATHS) {
+      File file = new File(filePath);
+      if (file.exists()) {
+        file.delete();
+      }
+    }
+  }
+
+  private static byte[] randomBytes(int len) {
+    byte[] data = new byte[len];
+    ThreadLocalRandom.current().nextBytes(data);
+    return data;
+  }
+
+  private byte[] read(long offset, int len) throws IOException {
+    BucketEntry be = createBucketEntry(offset, len);
+    ioEngine.read(be);
+    ByteBuff buff = getByteBuff(be);
+    byte[] data = new byte[len];
+    buff.get(data);
+    return data;
+  }
+
+  @Test
+  public void testBatchedWrites() throws IOException {
+    int blockSize = 4096;
+    int numBlocks = 200;
+    long stride = TOTAL_CAPACITY / numBlocks;
+    List<byte[]> blocks = new ArrayList<>();
+    List<Long> offsets = new ArrayList<>();
+    // write in reverse offset order, the IO threads sort each batch
+    for (int i = numBlocks - 1; i >= 0; i--) {
+      offsets.add(i * stride);
+    }
+    // and some blocks crossing a file boundary
+    for (int i = 1; i < FILE_PATHS.length; i++) {
+      offsets.add(i * SIZE_PER_FILE - blockSize / 2);
+    }
+    for (long offset : offsets) {
+      byte[] data = randomBytes(blockSize);
+      ioEngine.write(ByteBuffer.wrap(data), offset);
+      blocks.add(data);
+    }
+    ioEngine.sync();
+    assertEquals(0, ioEngine.getInFlight());
+    assertEquals(offsets.size(), stats.getAsyncIOQueueDepth().getCount());
+    assertEquals(offsets.size(), stats.getAsyncIOLatency().getCount());
+    for (int i = 0; i < offsets.size(); i++) {
+      assertArrayEquals(blocks.get(i), read(offsets.get(i), blockSize));
+    }
+  }
+
+  @Test
+  public void testSourceBufferCanBeReused() throws IOException {
+    byte[] data = randomBytes(100);
+    ByteBuffer buffer = ByteBuffer.allocate(100);
+    buffer.put(data).flip();
+    ioEngine.write(buffer, 0);
+    // the buffer is consumed and can be reused right away
+    assertEquals(0, buffer.remaining());
+    buffer.clear();
+    buffer.put(randomBytes(100)).flip();
+    ioEngine.sync();
+    assertArrayEquals(data, read(0, 100));
+  }
+
+  @Test
+  public void testSourceBuffIsRetainedUntilWritten() throws IOException {
+    AtomicInteger recycled = new AtomicInteger();
+    byte[] data = randomBytes(1000);
+    ByteBuff buff =
+      ByteBuff.wrap(ByteBuffer.wrap(data), RefCnt.create(() -> recycled.incrementAndGet()));
+    ioEngine.write(buff, SIZE_PER_FILE - 10);
+    assertEquals(0, buff.remaining());
+    // the caller is done with the buffer, the engine still holds it
+    buff.release();
+    ioEngine.sync();
+    assertEquals(1, recycled.get());
+    assertArrayEquals(data, read(SIZE_PER_FILE - 10, data.length));
+  }
+
+  @Test
+  public void testWriteAfterShutdown() throws IOException {
+    ioEngine.shutdown();
+    try {
+      ioEngine.write(ByteBuffer.wrap(randomBytes(10)), 0);
+      fail("Should not accept writes after shutdown");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.io.ByteBuffAllocator;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.HFileBlockPair;
+import org.apache.hadoop.hbase.io.hfile.HFileBlock;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the admission and the dropping of the blocks of the {@link DecompressedBlockTier}.
+ */
+@Category({ IOTests.class, SmallTests.class })
+public class TestDecompressedBlockTier {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestDecompressedBlockTier.class);
+
+  private static final int BLOCK_SIZE = 4096;
+
+  @Test
+  public void testAdmission() {
+    DecompressedBlockTier tier = new DecompressedBlockTier(16 * BLOCK_SIZE, 1024, 2);
+    HFileBlock block = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 1)[0].getBlock();
+    BlockCacheKey key = new BlockCacheKey("file", 0);
+
+    tier.cache(key, block);
+    assertNull(tier.get(key));
+    // kept once looked up twice
+    tier.cache(key, block);
+    ByteBuff buf = block.getBufferReadOnly();
+    assertEquals(buf.limit(), tier.getSize());
+    HFileBlock decompressed = tier.get(key);
+    assertNotNull(decompressed);
+    ByteBuff copy = decompressed.getBufferReadOnly();
+    assertFalse(copy.hasArray());
+    assertArrayEquals(buf.toBytes(0, buf.limit()), copy.toBytes(0, copy.limit()));
+    assertEquals(1, tier.getHitCount());
+    assertEquals(1, tier.getMissCount());
+
+    // still readable by the reader once dropped
+    assertEquals(2, decompressed.refCnt());
+    tier.evict(key);
+    assertEquals(0, tier.getSize());
+    assertNull(tier.get(key));
+    assertEquals(1, decompressed.refCnt());
+    decompressed.release();
+    // the buffers of the copy are back in the pool of the tier
+    ByteBuffAllocator allocator = tier.getAllocator();
+    assertTrue(allocator.getUsedBufferCount() > 0);
+    assertEquals(allocator.getUsedBufferCount(), allocator.getFreeBufferCount());
+  }
+
+  @Test
+  public void testDropLeastFrequent() {
+    DecompressedBlockTier tier = new DecompressedBlockTier(4 * BLOCK_SIZE, 1024, 2);
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 5);
+    BlockCacheKey[] keys = new BlockCacheKey[blocks.length];
+    for (int i = 0; i < 4; i++) {
+      keys[i] = new BlockCacheKey("file", i);
+      tier.cache(keys[i], blocks[i].getBlock());
+      tier.cache(keys[i], blocks[i].getBlock());
+    }
+    assertEquals(4, tier.getBlockCount());
+    // the first three blocks are looked up twice more
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 2; j++) {
+        tier.get(keys[i]).release();
+      }
+    }
+
+    // not looked up as often as the blocks to drop
+    keys[4] = new BlockCacheKey("file", 4);
+    for (int i = 0; i < 3; i++) {
+      tier.cache(keys[4], blocks[4].getBlock());
+    }
+    assertEquals(4, tier.getBlockCount());
+    assertNull(tier.get(keys[4]));
+
+    // the least frequently, then least recently looked up blocks are dropped
+    tier.cache(keys[4], blocks[4].getBlock());
+    assertEquals(3, tier.getBlockCount());
+    assertNull(tier.get(keys[0]));
+    assertNull(tier.get(keys[3]));
+    for (int i : new int[] { 1, 2, 4 }) {
+      tier.get(keys[i]).release();
+    }
+  }
+
+  @Test
+  public void testConcurrentDrop() throws Exception {
+    DecompressedBlockTier tier = new DecompressedBlockTier(8 * BLOCK_SIZE, 1024, 1);
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 64);
+    AtomicReference<Throwable> error = new AtomicReference<>();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      int seed = t;
+      threads[t] = new Thread(() -> {
+        try {
+          // the frequencies and the access counters change while the blocks are dropped
+          for (int i = 0; i < 2000; i++) {
+            int j = (i * 31 + seed * 7) % blocks.length;
+            BlockCacheKey key = new BlockCacheKey("file", j);
+            tier.cache(key, blocks[j].getBlock());
+            HFileBlock block = tier.get(key);
+            if (block != null) {
+              block.release();
+            }
+          }
+        } catch (Throwable e) {
+          error.compareAndSet(null, e);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(error.get());
+    tier.clear();
+  }
+
+  @Test
+  public void testBucketCacheDecompressedTier() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setLong(BucketCache.DECOMPRESSED_TIER_SIZE_KEY, 16 * BLOCK_SIZE);
+    BucketCache cache = new BucketCache("offheap", 32L * 1024 * 1024, 8 * 1024,
+      new int[] { 8 * 1024, 64 * 1024 }, BucketCache.DEFAULT_WRITER_THREADS,
+      BucketCache.DEFAULT_WRITER_QUEUE_ITEMS, null, BucketCache.DEFAULT_ERROR_TOLERATION_DURATION,
+      conf);
+    try {
+      HFileBlockPair pair = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 1)[0];
+      BlockCacheKey key = pair.getBlockName();
+      // only the blocks in the cache are kept decompressed
+      cache.cacheDecompressedBlock(key, pair.getBlock());
+      cache.cacheDecompressedBlock(key, pair.getBlock());
+      assertNull(cache.getDecompressedBlock(key, true, true));
+
+      cache.cacheBlock(key, pair.getBlock());
+      TestBucketCache.waitUntilAllFlushedToBucket(cache);
+      cache.cacheDecompressedBlock(key, pair.getBlock());
+      cache.cacheDecompressedBlock(key, pair.getBlock());
+      HFileBlock decompressed = cache.getDecompressedBlock(key, true, true);
+      assertNotNull(decompressed);
+      decompressed.release();
+      assertEquals(1, cache.getStats().getHitCount());
+
+      // dropped with the compressed block
+      cache.evictBlock(key);
+      assertNull(cache.getDecompressedBlock(key, true, true));
+      assertEquals(0, cache.getDecompressedTier().getSize());
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  @Test
+  public void testEvictedWhileCachingDecompressed() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setLong(BucketCache.DECOMPRESSED_TIER_SIZE_KEY, 16 * BLOCK_SIZE);
+    BucketCache cache = new BucketCache("offheap", 32L * 1024 * 1024, 8 * 1024,
+      new int[] { 8 * 1024, 64 * 1024 }, BucketCache.DEFAULT_WRITER_THREADS,
+      BucketCache.DEFAULT_WRITER_QUEUE_ITEMS, null, BucketCache.DEFAULT_ERROR_TOLERATION_DURATION,
+      conf);
+    try {
+      HFileBlockPair pair = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 1)[0];
+      BlockCacheKey key = pair.getBlockName();
+      for (int i = 0; i < 50; i++) {
+        cache.cacheBlock(key, pair.getBlock());
+        TestBucketCache.waitUntilAllFlushedToBucket(cache);
+        Thread evictor = new Thread(() -> cache.evictBlock(key));
+        evictor.start();
+        cache.cacheDecompressedBlock(key, pair.getBlock());
+        cache.cacheDecompressedBlock(key, pair.getBlock());
+        evictor.join();
+        // whatever the interleaving, no decompressed copy outlives the compressed block
+        assertNull(cache.getDecompressedBlock(key, false, false));
+        assertEquals(0, cache.getDecompressedTier().getSize());
+      }
+    } finally {
+      cache.shutdown();
+    }
+  }
+}
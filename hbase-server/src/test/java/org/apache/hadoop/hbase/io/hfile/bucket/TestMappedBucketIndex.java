@@ -0,0 +1,300 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HBaseTestingUtil;
+import org.apache.hadoop.hbase.io.ByteBuffAllocator;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.BlockPriority;
+import org.apache.hadoop.hbase.io.hfile.BlockType;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.HFileBlockPair;
+import org.apache.hadoop.hbase.io.hfile.HFileBlock;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the replay, the damage detection and the rewrite of the {@link MappedBucketIndex}, and the
+ * restart of a {@link BucketCache} from it.
+ */
+@Category({ IOTests.class, SmallTests.class })
+public class TestMappedBucketIndex {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestMappedBucketIndex.class);
+
+  // four records of the test blocks per segment
+  private static final int SEGMENT_SIZE = 256;
+
+  private final HBaseTestingUtil testUtil = new HBaseTestingUtil();
+
+  private Path testDir;
+
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    testDir = testUtil.getDataTestDir();
+    testUtil.getTestFileSystem().mkdirs(testDir);
+    file = new File(testDir.toString(), "bucket.persistence.index");
+  }
+
+  @After
+  public void tearDown() {
+    testUtil.cleanupTestDir();
+  }
+
+  @Test
+  public void testReplay() throws Exception {
+    BlockCacheKey first = new BlockCacheKey("file", 0, true, BlockType.DATA);
+    BlockCacheKey second = new BlockCacheKey("file", 1, false, BlockType.LEAF_INDEX);
+    BlockCacheKey third = new BlockCacheKey("file", 2, true, BlockType.DATA);
+    try (MappedBucketIndex index = new MappedBucketIndex(file, SEGMENT_SIZE)) {
+      assertTrue(index.replay(new HashMap<>(), e -> ByteBuffAllocator.NONE));
+      index.put(first, entry(0, true));
+      index.put(second, entry(1, false));
+      index.put(third, entry(2, false));
+      index.remove(second, entry(1, false));
+      // cached again before the previous entry is recorded as evicted
+      index.put(first, entry(3, false));
+      index.remove(first, entry(0, true));
+    }
+
+    Map<BlockCacheKey, BucketEntry> map = new HashMap<>();
+    try (MappedBucketIndex index = new MappedBucketIndex(file, SEGMENT_SIZE)) {
+      assertTrue(index.replay(map, e -> ByteBuffAllocator.NONE));
+    }
+    assertEquals(2, map.size());
+    assertNull(map.get(second));
+    BucketEntry entry = map.get(first);
+    assertNotNull(entry);
+    assertEquals(3 * 1024, entry.offset());
+    assertEquals(BlockPriority.MULTI, entry.getPriority());
+    assertEquals(1000, entry.getCachedTime());
+    assertEquals(2 * 1024, map.get(third).offset());
+    BlockCacheKey restored = map.keySet().stream().filter(first::equals).findFirst().get();
+    assertTrue(restored.isPrimary());
+    assertEquals(BlockType.DATA, restored.getBlockType());
+  }
+
+  @Test
+  public void testDamagedSegment() throws Exception {
+    try (MappedBucketIndex index = new MappedBucketIndex(file, SEGMENT_SIZE)) {
+      assertTrue(index.replay(new HashMap<>(), e -> ByteBuffAllocator.NONE));
+      for (int i = 0; i < 8; i++) {
+        index.put(new BlockCacheKey("file", i), entry(i, false));
+      }
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(SEGMENT_SIZE + MappedBucketIndex.SEGMENT_HEADER_SIZE + 10);
+      raf.write(0xff);
+    }
+
+    // the blocks of the first segment are replayed
+    Map<BlockCacheKey, BucketEntry> map = new HashMap<>();
+    try (MappedBucketIndex index = new MappedBucketIndex(file, SEGMENT_SIZE)) {
+      assertFalse(index.replay(map, e -> ByteBuffAllocator.NONE));
+    }
+    assertEquals(4, map.size());
+    assertNotNull(map.get(new BlockCacheKey("file", 3)));
+  }
+
+  @Test
+  public void testRewrite() throws Exception {
+    Map<BlockCacheKey, BucketEntry> live = new HashMap<>();
+    try (MappedBucketIndex index = new MappedBucketIndex(file, SEGMENT_SIZE)) {
+      assertTrue(index.replay(new HashMap<>(), e -> ByteBuffAllocator.NONE));
+      for (int i = 0; i < 20; i++) {
+        BlockCacheKey key = new BlockCacheKey("file", i);
+        BucketEntry entry = entry(i, false);
+        index.put(key, entry);
+        if (i % 5 == 0) {
+          live.put(key, entry);
+        } else {
+          index.remove(key, entry);
+        }
+      }
+      long length = file.length();
+      index.rewrite(live);
+      assertTrue(file.length() < length);
+      // appended to the rewritten file
+      BlockCacheKey key = new BlockCacheKey("file", 20);
+      index.put(key, entry(20, false));
+      live.put(key, entry(20, false));
+    }
+
+    Map<BlockCacheKey, BucketEntry> map = new HashMap<>();
+    try (MappedBucketIndex index = new MappedBucketIndex(file, SEGMENT_SIZE)) {
+      assertTrue(index.replay(map, e -> ByteBuffAllocator.NONE));
+    }
+    assertEquals(live.keySet(), map.keySet());
+  }
+
+  @Test
+  public void testRestartFromMappedIndex() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setBoolean(BucketCache.MAPPED_INDEX_KEY, true);
+    String persistencePath = testDir + "/bucket.persistence";
+    BucketCache cache = newBucketCache(conf);
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(8 * 1024, 4);
+    for (HFileBlockPair block : blocks) {
+      cache.cacheBlock(block.getBlockName(), block.getBlock());
+    }
+    TestBucketCache.waitUntilAllFlushedToBucket(cache);
+    cache.evictBlock(blocks[0].getBlockName());
+    cache.shutdown();
+    assertTrue(new File(persistencePath + BucketCache.MAPPED_INDEX_SUFFIX).exists());
+
+    cache = newBucketCache(conf);
+    try {
+      assertTrue(cache.getBackingMapValidated().get());
+      assertEquals(3, cache.backingMap.size());
+      assertNull(cache.getBlock(blocks[0].getBlockName(), false, false, false));
+      for (int i = 1; i < blocks.length; i++) {
+        assertNotNull(cache.getBlock(blocks[i].getBlockName(), false, false, false));
+      }
+    } finally {
+      cache.shutdown();
+    }
+
+    // the persistence file does not hold the blocks
+    assertTrue(new File(persistencePath + BucketCache.MAPPED_INDEX_SUFFIX).delete());
+    cache = newBucketCache(conf);
+    try {
+      assertEquals(0, cache.backingMap.size());
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  @Test
+  public void testEvictionRacingPutReplayed() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setBoolean(BucketCache.MAPPED_INDEX_KEY, true);
+    BucketCache cache = newBucketCache(conf);
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(8 * 1024, 40);
+    Map<BlockCacheKey, BucketEntry> live;
+    try {
+      // evict each block as soon as the writer puts it into the backingMap
+      Thread evictor = new Thread(() -> {
+        for (HFileBlockPair block : blocks) {
+          while (!cache.backingMap.containsKey(block.getBlockName())) {
+            Thread.yield();
+          }
+          cache.evictBlock(block.getBlockName());
+        }
+      });
+      evictor.start();
+      for (HFileBlockPair block : blocks) {
+        cache.cacheBlock(block.getBlockName(), block.getBlock());
+      }
+      evictor.join();
+      // reuse the freed space
+      for (HFileBlockPair block : CacheTestUtils.generateHFileBlocks(8 * 1024, 4)) {
+        cache.cacheBlock(block.getBlockName(), block.getBlock());
+      }
+      TestBucketCache.waitUntilAllFlushedToBucket(cache);
+      live = new HashMap<>(cache.backingMap);
+    } finally {
+      cache.shutdown();
+    }
+
+    cache = newBucketCache(conf);
+    try {
+      assertTrue(cache.getBackingMapValidated().get());
+      assertEquals(live.keySet(), cache.backingMap.keySet());
+      for (Map.Entry<BlockCacheKey, BucketEntry> e : live.entrySet()) {
+        assertEquals(e.getValue().offset(), cache.backingMap.get(e.getKey()).offset());
+      }
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  @Test
+  public void testStaleMappedIndexNotReplayed() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setBoolean(BucketCache.MAPPED_INDEX_KEY, true);
+    File index = new File(testDir + "/bucket.persistence" + BucketCache.MAPPED_INDEX_SUFFIX);
+    File staleIndex = new File(testDir + "/stale.index");
+    BucketCache cache = newBucketCache(conf);
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(8 * 1024, 4);
+    for (HFileBlockPair block : blocks) {
+      cache.cacheBlock(block.getBlockName(), block.getBlock());
+    }
+    TestBucketCache.waitUntilAllFlushedToBucket(cache);
+    cache.shutdown();
+    Files.copy(index.toPath(), staleIndex.toPath());
+
+    // without the mapped index, the blocks kept in it are lost and the index is deleted
+    conf.setBoolean(BucketCache.MAPPED_INDEX_KEY, false);
+    cache = newBucketCache(conf);
+    try {
+      assertFalse(index.exists());
+      assertEquals(0, cache.backingMap.size());
+    } finally {
+      cache.shutdown();
+    }
+
+    // the empty backingMap is in the persistence file, so an index left over is not replayed
+    Files.copy(staleIndex.toPath(), index.toPath());
+    conf.setBoolean(BucketCache.MAPPED_INDEX_KEY, true);
+    cache = newBucketCache(conf);
+    try {
+      assertEquals(0, cache.backingMap.size());
+      assertNull(cache.getBlock(blocks[0].getBlockName(), false, false, false));
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  private BucketCache newBucketCache(Configuration conf) throws Exception {
+    return new BucketCache("file:" + testDir + "/bucket.cache", 32L * 1024 * 1024, 8 * 1024,
+      new int[] { 16 * 1024 }, BucketCache.DEFAULT_WRITER_THREADS,
+      BucketCache.DEFAULT_WRITER_QUEUE_ITEMS, testDir + "/bucket.persistence",
+      BucketCache.DEFAULT_ERROR_TOLERATION_DURATION, conf);
+  }
+
+  private static BucketEntry entry(long offset, boolean inMemory) {
+    BucketEntry entry = new BucketEntry(offset * 1024, 1024, 1024, offset, 1000, inMemory,
+      e -> ByteBuffAllocator.NONE, ByteBuffAllocator.HEAP);
+    entry.setDeserializerReference(HFileBlock.BLOCK_DESERIALIZER);
+    return entry;
+  }
+}
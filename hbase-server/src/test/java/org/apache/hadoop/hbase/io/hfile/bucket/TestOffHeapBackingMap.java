@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HBaseTestingUtil;
+import org.apache.hadoop.hbase.io.ByteBuffAllocator;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.BlockPriority;
+import org.apache.hadoop.hbase.io.hfile.BlockType;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.HFileBlockPair;
+import org.apache.hadoop.hbase.io.hfile.Cacheable;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests for {@link OffHeapBackingMap}
+ */
+@Category({ IOTests.class, SmallTests.class })
+public class TestOffHeapBackingMap {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestOffHeapBackingMap.class);
+
+  private final AtomicInteger recycled = new AtomicInteger();
+  private OffHeapBackingMap map;
+
+  @Before
+  public void setUp() {
+    recycled.set(0);
+    map = new OffHeapBackingMap(4, e -> () -> recycled.incrementAndGet());
+  }
+
+  private static BucketEntry entry(long bucketOffset, int length, boolean inMemory) {
+    BucketEntry entry = new BucketEntry(bucketOffset, length, length + 33, 7, bucketOffset + 1,
+      inMemory, e -> () -> {
+      }, ByteBuffAllocator.HEAP);
+    entry.deserializerIndex = 3;
+    return entry;
+  }
+
+  @Test
+  public void testPutGetRemove() {
+    BlockCacheKey key = new BlockCacheKey("file-a", 1024, true, BlockType.DATA);
+    assertNull(map.put(key, entry(4096, 100, true)));
+    assertEquals(1, map.size());
+    assertTrue(map.containsKey(new BlockCacheKey("file-a", 1024)));
+    assertFalse(map.containsKey(new BlockCacheKey("file-a", 1025)));
+    assertFalse(map.containsKey(new BlockCacheKey("file-b", 1024)));
+
+    BucketEntry be = map.get(key);
+    assertEquals(4096, be.offset());
+    assertEquals(100, be.getLength());
+    assertEquals(133, be.getOnDiskSizeWithHeader());
+    assertEquals(7, be.getAccessCounter());
+    assertEquals(4097, be.getCachedTime());
+    assertEquals(BlockPriority.MEMORY, be.getPriority());
+    assertEquals(3, be.deserializerIndex);
+    // entries created from the same slot are equal
+    assertEquals(be, map.get(key));
+
+    // the key comes back with its block type and replica flag
+    Map.Entry<BlockCacheKey, BucketEntry> e = map.entrySet().iterator().next();
+    assertEquals(BlockType.DATA, e.getKey().getBlockType());
+    assertTrue(e.getKey().isPrimary());
+
+    // replacing the entry returns the previous one
+    BucketEntry previous = map.put(key, entry(8192, 200, false));
+    assertEquals(4096, previous.offset());
+    assertEquals(1, map.size());
+    assertEquals(BlockPriority.MULTI, map.get(key).getPriority());
+
+    // a stale entry does not remove the current one
+    assertFalse(map.remove(key, previous));
+    assertTrue(map.remove(key, map.get(key)));
+    assertNull(map.get(key));
+    assertTrue(map.isEmpty());
+    assertTrue(map.keysOfFile("file-a").isEmpty());
+  }
+
+  @Test
+  public void testAccessCounterIsWrittenThrough() {
+    BlockCacheKey key = new BlockCacheKey("file-a", 0);
+    map.put(key, entry(0, 100, false));
+    map.get(key).access(42);
+    assertEquals(42, map.get(key).getAccessCounter());
+  }
+
+  @Test
+  public void testManyEntries() {
+    int files = 10;
+    int blocksPerFile = 5000;
+    Map<BlockCacheKey, Long> expected = new HashMap<>();
+    for (int f = 0; f < files; f++) {
+      Path path = new Path("/hbase/data/default/t/region-" + f + "/cf/file-" + f);
+      for (int b = 0; b < blocksPerFile; b++) {
+        BlockCacheKey key = new BlockCacheKey(path, b * 65536L, true, BlockType.DATA);
+        long bucketOffset = (long) (f * blocksPerFile + b) * 1024;
+        map.put(key, entry(bucketOffset, 1000, false));
+        expected.put(key, bucketOffset);
+      }
+    }
+    assertEquals(files * blocksPerFile, map.size());
+    assertTrue(map.getOffHeapSize() > 0);
+    assertTrue(map.getHeapSaved() > 0);
+    for (Map.Entry<BlockCacheKey, Long> e : expected.entrySet()) {
+      assertEquals(e.getValue().longValue(), map.get(e.getKey()).offset());
+    }
+
+    // the blocks of one file can be found without scanning the map
+    Set<BlockCacheKey> keys = map.keysOfFile("file-3");
+    assertEquals(blocksPerFile, keys.size());
+    for (BlockCacheKey key : keys) {
+      assertNotNull(map.remove(key));
+    }
+    assertTrue(map.keysOfFile("file-3").isEmpty());
+    assertEquals((files - 1) * blocksPerFile, map.size());
+
+    // iterate over the whole map, removing every other entry
+    int seen = 0;
+    for (Iterator<Map.Entry<BlockCacheKey, BucketEntry>> it = map.entrySet().iterator(); it
+      .hasNext();) {
+      Map.Entry<BlockCacheKey, BucketEntry> e = it.next();
+      assertEquals(expected.get(e.getKey()).longValue(), e.getValue().offset());
+      assertNotNull(e.getKey().getFilePath());
+      if (seen++ % 2 == 0) {
+        it.remove();
+      }
+    }
+    assertEquals((files - 1) * blocksPerFile, seen);
+    assertEquals(seen / 2, map.size());
+
+    map.clear();
+    assertTrue(map.isEmpty());
+    assertFalse(map.entrySet().iterator().hasNext());
+    assertEquals(0, map.getHeapSaved());
+  }
+
+  @Test
+  public void testRemovedEntryIsRecycledOnce() {
+    BlockCacheKey key = new BlockCacheKey("file-a", 0);
+    map.put(key, entry(0, 100, false));
+    BucketEntry removed = map.remove(key);
+    assertTrue(removed.markAsEvicted());
+    assertEquals(1, recycled.get());
+    assertNull(map.remove(key));
+  }
+
+  @Test
+  public void testBucketCacheWithOffHeapBackingMap() throws Exception {
+    HBaseTestingUtil util = new HBaseTestingUtil();
+    Path testDir = util.getDataTestDir("testBucketCacheWithOffHeapBackingMap");
+    util.getTestFileSystem().mkdirs(testDir);
+    Configuration conf = HBaseConfiguration.create();
+    conf.setBoolean(BucketCache.OFFHEAP_BACKING_MAP_KEY, true);
+    BucketCache cache = new BucketCache("file:" + testDir + "/bucket.cache", 32 * 1024 * 1024,
+      8192, null, 1, 64, null, 60 * 1000, conf);
+    try {
+      assertTrue(cache.backingMap instanceof OffHeapBackingMap);
+      HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(8192, 20);
+      for (HFileBlockPair block : blocks) {
+        cache.cacheBlock(block.getBlockName(), block.getBlock());
+      }
+      TestBucketCache.waitUntilAllFlushedToBucket(cache);
+      assertEquals(blocks.length, cache.getBlockCount());
+      assertTrue(cache.getBackingMapHeapSaved() > 0);
+      for (HFileBlockPair block : blocks) {
+        Cacheable cached = cache.getBlock(block.getBlockName(), true, false, true);
+        try {
+          assertEquals(block.getBlock(), cached);
+        } finally {
+          cached.release();
+        }
+      }
+      long used = cache.getAllocator().getUsedSize();
+      assertTrue(used > 0);
+      for (HFileBlockPair block : blocks) {
+        assertTrue(cache.evictBlock(block.getBlockName()));
+      }
+      assertEquals(0, cache.getBlockCount());
+      assertEquals(0, cache.getAllocator().getUsedSize());
+    } finally {
+      cache.shutdown();
+      util.cleanupTestDir();
+    }
+  }
+}
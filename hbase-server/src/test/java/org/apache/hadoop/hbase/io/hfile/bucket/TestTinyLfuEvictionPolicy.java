@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.io.ByteBuffAllocator;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.HFileBlockPair;
+import org.apache.hadoop.hbase.testclassification.IOTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the frequency counting, the admission and the eviction order of the
+ * {@link TinyLfuEvictionPolicy}.
+ */
+@Category({ IOTests.class, SmallTests.class })
+public class TestTinyLfuEvictionPolicy {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestTinyLfuEvictionPolicy.class);
+
+  private static final int MAX_BLOCKS = 1024;
+
+  private final Configuration conf = HBaseConfiguration.create();
+
+  @Test
+  public void testFrequencySketch() {
+    TinyLfuEvictionPolicy.FrequencySketch sketch =
+      new TinyLfuEvictionPolicy.FrequencySketch(MAX_BLOCKS);
+    BlockCacheKey key = new BlockCacheKey("file", 0);
+    assertEquals(0, sketch.frequency(key));
+    for (int i = 0; i < 10; i++) {
+      sketch.increment(key);
+    }
+    assertEquals(10, sketch.frequency(key));
+    // the counters saturate
+    for (int i = 0; i < 10; i++) {
+      sketch.increment(key);
+    }
+    assertEquals(15, sketch.frequency(key));
+
+    // the counts are halved after 10 increments per block
+    boolean reset = false;
+    for (int i = 1; !reset; i++) {
+      reset = sketch.increment(new BlockCacheKey("other", i));
+    }
+    assertEquals(7, sketch.frequency(key));
+  }
+
+  @Test
+  public void testAdmission() {
+    TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy(MAX_BLOCKS, conf);
+    BlockCacheKey hot = new BlockCacheKey("file", 0);
+    BlockCacheKey cold = new BlockCacheKey("file", 1);
+    for (int i = 0; i < 5; i++) {
+      policy.recordHit(hot);
+    }
+    policy.recordEviction(hot);
+
+    // a block read once by a scan does not replace a block read often
+    assertFalse(policy.recordMiss(cold));
+    assertFalse(policy.admit(cold));
+    for (int i = 0; i < 5; i++) {
+      policy.recordMiss(cold);
+    }
+    assertTrue(policy.admit(cold));
+  }
+
+  @Test
+  public void testGhostHits() {
+    TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy(MAX_BLOCKS, conf);
+    BlockCacheKey evicted = new BlockCacheKey("file", 0);
+    policy.recordEviction(evicted);
+    assertTrue(policy.recordMiss(evicted));
+    assertFalse(policy.recordMiss(new BlockCacheKey("file", 1)));
+
+    // the evicted blocks are forgotten after two generations of evictions
+    for (int i = 1; i <= MAX_BLOCKS; i++) {
+      policy.recordEviction(new BlockCacheKey("other", i));
+    }
+    assertFalse(policy.recordMiss(evicted));
+  }
+
+  @Test
+  public void testEvictionOrder() {
+    conf.setFloat(TinyLfuEvictionPolicy.WINDOW_FRACTION_KEY, 0.01f);
+    TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy(MAX_BLOCKS, conf);
+    Map.Entry<BlockCacheKey, BucketEntry> frequent = entry(0, 1, false);
+    Map.Entry<BlockCacheKey, BucketEntry> rare = entry(1, 2, false);
+    Map.Entry<BlockCacheKey, BucketEntry> rareOlder = entry(2, 1, false);
+    Map.Entry<BlockCacheKey, BucketEntry> inMemory = entry(3, 1, true);
+    Map.Entry<BlockCacheKey, BucketEntry> recent = entry(4, 100, false);
+    for (int i = 0; i < 3; i++) {
+      policy.recordHit(frequent.getKey());
+    }
+    policy.recordHit(rare.getKey());
+    policy.recordHit(rareOlder.getKey());
+
+    // blocks accessed after 90 are in the window of 10 blocks
+    CachedEntryQueue queue =
+      new CachedEntryQueue(1024 * 1024, 1024, policy.getEvictionOrder(100));
+    List<Map.Entry<BlockCacheKey, BucketEntry>> entries = new ArrayList<>();
+    entries.add(recent);
+    entries.add(inMemory);
+    entries.add(frequent);
+    entries.add(rare);
+    entries.add(rareOlder);
+    entries.forEach(queue::add);
+    assertEquals(rareOlder, queue.pollLast());
+    assertEquals(rare, queue.pollLast());
+    assertEquals(frequent, queue.pollLast());
+    assertEquals(inMemory, queue.pollLast());
+    assertEquals(recent, queue.pollLast());
+    assertNull(queue.pollLast());
+  }
+
+  @Test
+  public void testPriorityPolicyByDefault() {
+    PriorityEvictionPolicy policy = new PriorityEvictionPolicy(MAX_BLOCKS, conf);
+    Comparator<Map.Entry<BlockCacheKey, BucketEntry>> order = policy.getEvictionOrder(0);
+    assertNull(order);
+    assertTrue(policy.admit(new BlockCacheKey("file", 0)));
+  }
+
+  @Test
+  public void testAdmissionInBucketCache() throws Exception {
+    conf.set(BucketCache.EVICTION_POLICY_KEY, "TinyLFU");
+    // every block is cached above the acceptable size
+    conf.setFloat(BucketCache.ACCEPT_FACTOR_CONFIG_NAME, 0);
+    conf.setFloat(BucketCache.MIN_FACTOR_CONFIG_NAME, 0);
+    // the blocks stay in the RAM cache, they would be evicted once written to the buckets
+    BucketCache cache = new BucketCache("offheap", 32L * 1024 * 1024, 8 * 1024,
+      new int[] { 4 * 1024, 64 * 1024 }, BucketCache.DEFAULT_WRITER_THREADS,
+      BucketCache.DEFAULT_WRITER_QUEUE_ITEMS, null, BucketCache.DEFAULT_ERROR_TOLERATION_DURATION,
+      conf) {
+      @Override
+      protected void startWriterThreads() {
+        // intentional noop
+      }
+    };
+    try {
+      HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(2048, 3);
+      // never looked up
+      cache.cacheBlock(blocks[0].getBlockName(), blocks[0].getBlock());
+      assertEquals(1, cache.getAdmissionRejectedCount());
+      assertNull(cache.getBlock(blocks[0].getBlockName(), true, false, true));
+
+      assertNull(cache.getBlock(blocks[1].getBlockName(), true, false, true));
+      cache.cacheBlock(blocks[1].getBlockName(), blocks[1].getBlock());
+      assertEquals(1, cache.getAdmissionRejectedCount());
+      assertNotNull(cache.getBlock(blocks[1].getBlockName(), true, false, true));
+
+      // prefetched or cache-on-write, never looked up but cached
+      cache.cacheBlock(blocks[2].getBlockName(), blocks[2].getBlock(), false, false, true);
+      assertEquals(1, cache.getAdmissionRejectedCount());
+      assertNotNull(cache.getBlock(blocks[2].getBlockName(), true, false, true));
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  private static Map.Entry<BlockCacheKey, BucketEntry> entry(long offset, long accessCounter,
+    boolean inMemory) {
+    return new SimpleEntry<>(new BlockCacheKey("file", offset), new BucketEntry(offset * 1024,
+      1024, 1024, accessCounter, inMemory, e -> ByteBuffAllocator.NONE, ByteBuffAllocator.HEAP));
+  }
+}
@@ -17,6 +17,8 @@
  */
 package org.apache.hadoop.hbase.ipc;
 
+import java.util.Collections;
+import java.util.Map;
 import org.apache.hadoop.hbase.util.Pair;
 
 public class MetricsHBaseServerWrapperStub implements MetricsHBaseServerWrapper {
@@ -134,4 +136,9 @@ public class MetricsHBaseServerWrapperStub implements MetricsHBaseServerWrapper
   public Pair<Long, Long> getTotalAndMaxNettyOutboundBytes() {
     return Pair.newPair(100L, 5L);
   }
+
+  @Override
+  public Map<String, Pair<Long, Long>> getTenantQueueTimes() {
+    return Collections.singletonMap("tenant", Pair.newPair(10L, 200L));
+  }
 }
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.codec.Codec;
+import org.apache.hadoop.hbase.codec.KeyValueCodec;
+import org.apache.hadoop.hbase.io.ByteBuffAllocator;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.nio.MultiByteBuff;
+import org.apache.hadoop.hbase.testclassification.RPCTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import org.apache.hbase.thirdparty.io.netty.buffer.ByteBuf;
+import org.apache.hbase.thirdparty.io.netty.buffer.CompositeByteBuf;
+import org.apache.hbase.thirdparty.io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Checks that the cells of a request are created over the netty buffer it was read into, and that
+ * the buffer goes back to the pool once, when neither the call nor the WAL need it anymore.
+ */
+@Category({ RPCTests.class, SmallTests.class })
+public class TestNettyServerRpcConnectionBuffers {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestNettyServerRpcConnectionBuffers.class);
+
+  private static final PooledByteBufAllocator ALLOC = new PooledByteBufAllocator(true);
+
+  private static byte[] cellBlock(int cells) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Codec.Encoder encoder = new KeyValueCodec().getEncoder(bos);
+    for (int i = 0; i < cells; i++) {
+      encoder.write(new KeyValue(Bytes.toBytes(i), Bytes.toBytes("f"), Bytes.toBytes("q"),
+        Bytes.toBytes("value-" + i)));
+    }
+    encoder.flush();
+    return bos.toByteArray();
+  }
+
+  private static NettyServerCall createCall(ByteBuf buf) {
+    return new NettyServerCall(1, null, null, null, null, null, null, 0, null, 0, 0,
+      ByteBuffAllocator.HEAP, null, () -> buf.release());
+  }
+
+  @Test
+  public void testCompositeBufferIsNotCopied() throws IOException {
+    byte[] block = cellBlock(10);
+    int split = block.length / 2;
+    CompositeByteBuf buf = ALLOC.compositeDirectBuffer();
+    buf.addComponent(true, ALLOC.directBuffer().writeBytes(block, 0, split));
+    buf.addComponent(true, ALLOC.directBuffer().writeBytes(block, split, block.length - split));
+    try {
+      ByteBuff byteBuff = NettyServerRpcConnection.wrap(buf);
+      assertTrue(byteBuff instanceof MultiByteBuff);
+      assertEquals(block.length, byteBuff.remaining());
+      // a change to the netty buffer shows through, so nothing was copied
+      buf.setByte(block.length - 1, block[block.length - 1] + 1);
+      assertEquals((byte) (block[block.length - 1] + 1), byteBuff.get(block.length - 1));
+      buf.setByte(block.length - 1, block[block.length - 1]);
+
+      Codec.Decoder decoder = new KeyValueCodec().getDecoder(byteBuff);
+      for (int i = 0; i < 10; i++) {
+        assertTrue(decoder.advance());
+        Cell cell = decoder.current();
+        assertTrue(CellUtil.matchingRows(cell, Bytes.toBytes(i)));
+        assertTrue(CellUtil.matchingValue(cell, Bytes.toBytes("value-" + i)));
+      }
+      assertFalse(decoder.advance());
+    } finally {
+      buf.release();
+    }
+  }
+
+  @Test
+  public void testRequestBufferReleasedOnce() throws IOException {
+    ByteBuf buf = ALLOC.directBuffer().writeBytes(cellBlock(1));
+    NettyServerCall call = createCall(buf);
+    call.cleanup();
+    assertEquals(0, buf.refCnt());
+    // cleanup is called more than once, the buffer must not be released again
+    call.cleanup();
+    assertEquals(0, buf.refCnt());
+  }
+
+  @Test
+  public void testRequestBufferRetainedByWAL() throws IOException {
+    ByteBuf buf = ALLOC.directBuffer().writeBytes(cellBlock(1));
+    NettyServerCall call = createCall(buf);
+    // the cells are in the memstore, but the WAL entry still points to the request
+    call.retainByWAL();
+    call.retainByWAL();
+    call.cleanup();
+    assertEquals(1, buf.refCnt());
+    call.releaseByWAL();
+    assertEquals(1, buf.refCnt());
+    call.releaseByWAL();
+    assertEquals(0, buf.refCnt());
+    call.cleanup();
+    assertEquals(0, buf.refCnt());
+  }
+}
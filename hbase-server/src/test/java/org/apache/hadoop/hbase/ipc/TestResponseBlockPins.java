@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.apache.hadoop.hbase.io.ByteBuffAllocator.BUFFER_SIZE_KEY;
+import static org.apache.hadoop.hbase.io.ByteBuffAllocator.MAX_BUFFER_COUNT_KEY;
+import static org.apache.hadoop.hbase.io.ByteBuffAllocator.MIN_ALLOCATE_SIZE_KEY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.ByteBufferKeyValue;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseCommonTestingUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.codec.KeyValueCodec;
+import org.apache.hadoop.hbase.io.ByteBuffAllocator;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileContext;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.io.hfile.HFileScanner;
+import org.apache.hadoop.hbase.nio.HBaseReferenceCounted;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.testclassification.RPCTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Checks that, with {@link NettyRpcServer#ZERO_COPY_CELL_BLOCK_ENABLED}, the blocks released by the
+ * callback of a call are kept until the response is written, i.e, until {@link ServerCall#done()},
+ * and then go back to the pool of the allocator.
+ */
+@Category({ RPCTests.class, MediumTests.class })
+public class TestResponseBlockPins {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestResponseBlockPins.class);
+
+  private static final HBaseCommonTestingUtil UTIL = new HBaseCommonTestingUtil();
+
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  private static final int ROWS = 20;
+
+  // large enough to be referenced, and a few of them per block
+  private static final int VALUE_SIZE = 2048;
+
+  private Configuration conf;
+
+  private FileSystem fs;
+
+  private Path path;
+
+  private ByteBuffAllocator allocator;
+
+  private HFile.Reader reader;
+
+  private ServerRpcConnection connection;
+
+  private static byte[] row(int i) {
+    return Bytes.toBytes(String.format("row-%03d", i));
+  }
+
+  private static byte[] value(int i) {
+    byte[] value = new byte[VALUE_SIZE];
+    Bytes.putInt(value, 0, i);
+    return value;
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    conf = UTIL.getConfiguration();
+    conf.setBoolean(NettyRpcServer.ZERO_COPY_CELL_BLOCK_ENABLED, true);
+    // all the blocks are read in a single pooled direct buffer
+    conf.setInt(BUFFER_SIZE_KEY, 64 * 1024);
+    conf.setInt(MAX_BUFFER_COUNT_KEY, 64);
+    conf.setInt(MIN_ALLOCATE_SIZE_KEY, 0);
+    allocator = ByteBuffAllocator.create(conf, true);
+    fs = FileSystem.get(conf);
+    path = new Path(UTIL.getDataTestDir(), "hfile");
+    HFileContext context = new HFileContextBuilder().withBlockSize(8 * 1024).build();
+    try (HFile.Writer writer = new HFile.WriterFactory(conf, new CacheConfig(conf))
+      .withPath(fs, path).withFileContext(context).create()) {
+      for (int i = 0; i < ROWS; i++) {
+        writer.append(new KeyValue(row(i), FAMILY, QUALIFIER, value(i)));
+      }
+    }
+    // no block cache, the blocks are read in buffers of the allocator
+    reader =
+      HFile.createReader(fs, path, new CacheConfig(conf, null, null, allocator), true, conf);
+
+    RpcServer rpcServer = mock(RpcServer.class);
+    when(rpcServer.getConf()).thenReturn(conf);
+    rpcServer.zeroCopyCellBlockMinCellSize = 1024;
+    connection = mock(ServerRpcConnection.class,
+      withSettings().useConstructor(rpcServer).defaultAnswer(CALLS_REAL_METHODS));
+    connection.codec = new KeyValueCodec();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    reader.close();
+    allocator.clean();
+    UTIL.cleanupTestDir();
+  }
+
+  private ServerCall<ServerRpcConnection> createCall() {
+    return new ServerCall<ServerRpcConnection>(1, null, null, null, null, null, connection, 0,
+      null, 0, 0, allocator, new CellBlockBuilder(conf), null) {
+
+      @Override
+      public void sendResponseIfReady() throws IOException {
+      }
+    };
+  }
+
+  private int buffersInUse() {
+    return allocator.getTotalBufferCount() - allocator.getFreeBufferCount();
+  }
+
+  private static void assertReferenced(Cell cell) {
+    // a cell of an off heap block, which the response references instead of copying it
+    assertTrue(cell instanceof ByteBufferKeyValue);
+    assertTrue(((ByteBufferKeyValue) cell).getBuffer().isDirect());
+  }
+
+  /**
+   * A get closes its scanner in the callback, which releases all the blocks of the scanner.
+   */
+  @Test
+  public void testGet() throws IOException {
+    int inUse = buffersInUse();
+    HFileScanner scanner = reader.getScanner(conf, false, true, false);
+    int row = ROWS / 2;
+    assertEquals(0, scanner.seekTo(new KeyValue(row(row), FAMILY, QUALIFIER, value(row))));
+    Cell cell = scanner.getCell();
+    assertReferenced(cell);
+
+    ServerCall<ServerRpcConnection> call = createCall();
+    call.setCallBack(scanner::close);
+    List<Cell> cells = new ArrayList<>();
+    cells.add(cell);
+    call.setResponse(null, CellUtil.createCellScanner(cells), null, null);
+    // the scanner is closed, but the response still references the block of the cell
+    List<HBaseReferenceCounted> pinned = call.getPinnedBlocks();
+    assertNotNull(pinned);
+    assertFalse(pinned.isEmpty());
+    for (HBaseReferenceCounted block : pinned) {
+      assertTrue(block.refCnt() > 0);
+    }
+    assertTrue(buffersInUse() > inUse);
+    assertArrayEquals(value(row), CellUtil.cloneValue(cell));
+
+    call.done();
+    for (HBaseReferenceCounted block : pinned) {
+      assertEquals(0, block.refCnt());
+    }
+    assertEquals(inUse, buffersInUse());
+  }
+
+  /**
+   * A scan which goes on ships its scanner in the callback, which releases the blocks it is done
+   * with, and keeps the current one with one more reference for the response.
+   */
+  @Test
+  public void testScan() throws IOException {
+    int inUse = buffersInUse();
+    HFileScanner scanner = reader.getScanner(conf, false, true, false);
+    assertTrue(scanner.seekTo());
+    List<Cell> cells = new ArrayList<>();
+    // enough cells to span more than one block
+    int read = ROWS / 2;
+    for (int i = 0; i < read; i++) {
+      Cell cell = scanner.getCell();
+      assertReferenced(cell);
+      cells.add(cell);
+      assertTrue(scanner.next());
+    }
+
+    ServerCall<ServerRpcConnection> call = createCall();
+    call.setCallBack(scanner::shipped);
+    call.setResponse(null, CellUtil.createCellScanner(cells), null, null);
+    List<HBaseReferenceCounted> pinned = call.getPinnedBlocks();
+    assertNotNull(pinned);
+    // the blocks the scanner is done with, and its current block
+    assertTrue(pinned.size() > 1);
+    for (HBaseReferenceCounted block : pinned) {
+      assertTrue(block.refCnt() > 0);
+    }
+    // referenced by both the scanner and the response
+    HBaseReferenceCounted current = pinned.get(pinned.size() - 1);
+    assertEquals(2, current.refCnt());
+    for (int i = 0; i < read; i++) {
+      assertArrayEquals(value(i), CellUtil.cloneValue(cells.get(i)));
+    }
+
+    call.done();
+    for (HBaseReferenceCounted block : pinned.subList(0, pinned.size() - 1)) {
+      assertEquals(0, block.refCnt());
+    }
+    // still used by the scanner, which goes on from where it was
+    assertEquals(1, current.refCnt());
+    assertArrayEquals(row(read), CellUtil.cloneRow(scanner.getCell()));
+    assertArrayEquals(value(read), CellUtil.cloneValue(scanner.getCell()));
+    assertTrue(buffersInUse() > inUse);
+
+    scanner.close();
+    assertEquals(0, current.refCnt());
+    assertEquals(inUse, buffersInUse());
+  }
+}
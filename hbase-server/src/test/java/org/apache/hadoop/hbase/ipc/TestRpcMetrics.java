@@ -92,6 +92,8 @@ public class TestRpcMetrics {
     HELPER.assertGauge("nettyDirectMemoryUsage", 100, serverSource);
     HELPER.assertGauge("nettyTotalPendingOutboundBytes", 100, serverSource);
     HELPER.assertGauge("nettyMaxPendingOutboundBytes", 5, serverSource);
+    HELPER.assertCounter("tenant_tenant_numCalls", 10, serverSource);
+    HELPER.assertCounter("tenant_tenant_queueCallTimeSum", 200, serverSource);
   }
 
   /**
@@ -151,7 +151,16 @@ public class TestSimpleRpcScheduler {
 
   @Test
   public void testCallQueueInfo() throws IOException, InterruptedException {
+    checkCallQueueInfo();
+  }
+
+  @Test
+  public void testFairCallQueueInfo() throws IOException, InterruptedException {
+    conf.set(RpcExecutor.CALL_QUEUE_TYPE_CONF_KEY, RpcExecutor.CALL_QUEUE_TYPE_FAIR_CONF_VALUE);
+    checkCallQueueInfo();
+  }
 
+  private void checkCallQueueInfo() throws IOException, InterruptedException {
     PriorityFunction qosFunction = mock(PriorityFunction.class);
     RpcScheduler scheduler = new SimpleRpcScheduler(conf, 0, 0, 0, qosFunction, 0);
 
@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.testclassification.RPCTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import org.apache.hbase.thirdparty.com.google.protobuf.Message;
+
+import org.apache.hadoop.hbase.shaded.protobuf.RequestConverter;
+
+@Category({ RPCTests.class, SmallTests.class })
+public class TestWeightedFairCallQueue {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestWeightedFairCallQueue.class);
+
+  private static final byte[] ROW = Bytes.toBytes("row");
+
+  private Configuration conf;
+
+  private ConcurrentMap<String, WeightedFairCallQueue.TenantQueueTime> queueTimes;
+
+  @Before
+  public void setUp() {
+    conf = HBaseConfiguration.create();
+    queueTimes = new ConcurrentHashMap<>();
+  }
+
+  private static CallRunner createCall(String user, int priority, Message param) {
+    ServerCall call = mock(ServerCall.class);
+    when(call.getRequestUserName()).thenReturn(Optional.ofNullable(user));
+    when(call.getPriority()).thenReturn(priority);
+    when(call.getParam()).thenReturn(param);
+    when(call.getReceiveTime()).thenReturn(EnvironmentEdgeManager.currentTime());
+    CallRunner task = mock(CallRunner.class);
+    when(task.getRpcCall()).thenReturn(call);
+    when(task.toString()).thenReturn(user);
+    return task;
+  }
+
+  private static CallRunner createCall(String user) {
+    return createCall(user, HConstants.NORMAL_QOS, null);
+  }
+
+  private static String takeAll(WeightedFairCallQueue queue) throws InterruptedException {
+    StringBuilder sb = new StringBuilder();
+    while (queue.size() > 0) {
+      sb.append(queue.take());
+    }
+    return sb.toString();
+  }
+
+  private static byte[] regionName(String table) {
+    return RegionInfoBuilder.newBuilder(TableName.valueOf(table)).build().getRegionName();
+  }
+
+  @Test
+  public void testRoundRobin() throws Exception {
+    WeightedFairCallQueue queue = new WeightedFairCallQueue(100, conf, queueTimes);
+    for (int i = 0; i < 6; i++) {
+      assertTrue(queue.offer(createCall("a")));
+    }
+    assertTrue(queue.offer(createCall("b")));
+    assertTrue(queue.offer(createCall("b")));
+    assertTrue(queue.offer(createCall(null)));
+    assertEquals(9, queue.size());
+    // the calls of b and of the unknown user do not wait behind all the calls of a
+    assertEquals("abunknownabaaaa", takeAll(queue));
+    assertEquals(6, queueTimes.get("a").calls.sum());
+    assertEquals(2, queueTimes.get("b").calls.sum());
+    assertEquals(1, queueTimes.get(WeightedFairCallQueue.UNKNOWN_TENANT).calls.sum());
+  }
+
+  @Test
+  public void testWeights() throws Exception {
+    conf.setInt(RpcExecutor.CALL_QUEUE_FAIR_WEIGHT_PREFIX + "a", 3);
+    WeightedFairCallQueue queue = new WeightedFairCallQueue(100, conf, queueTimes);
+    assertEquals(3, queue.getWeight("a"));
+    assertEquals(1, queue.getWeight("b"));
+    for (int i = 0; i < 6; i++) {
+      queue.offer(createCall("a"));
+    }
+    for (int i = 0; i < 3; i++) {
+      queue.offer(createCall("b"));
+    }
+    assertEquals("aaabaaabb", takeAll(queue));
+
+    // weights can be changed online
+    conf.setInt(RpcExecutor.CALL_QUEUE_FAIR_WEIGHT_PREFIX + "a", 1);
+    conf.setInt(RpcExecutor.CALL_QUEUE_FAIR_WEIGHT_PREFIX + "b", 2);
+    queue.onConfigurationChange(conf);
+    for (int i = 0; i < 3; i++) {
+      queue.offer(createCall("a"));
+      queue.offer(createCall("b"));
+    }
+    assertEquals("abbaba", takeAll(queue));
+  }
+
+  @Test
+  public void testPriority() throws Exception {
+    WeightedFairCallQueue queue = new WeightedFairCallQueue(100, conf, queueTimes);
+    queue.offer(createCall("a"));
+    queue.offer(createCall("a"));
+    CallRunner high = createCall("a", HConstants.HIGH_QOS, null);
+    CallRunner high2 = createCall("a", HConstants.HIGH_QOS, null);
+    queue.offer(high);
+    queue.offer(high2);
+    assertEquals(high, queue.peek());
+    // the high priority calls keep their order
+    assertEquals(high, queue.poll());
+    assertEquals(high2, queue.poll());
+    assertEquals("aa", takeAll(queue));
+  }
+
+  @Test
+  public void testServiceTime() throws Exception {
+    WeightedFairCallQueue queue = new WeightedFairCallQueue(100, conf, queueTimes);
+    CallRunner a1 = createCall("a");
+    queue.offer(a1);
+    queue.offer(createCall("a"));
+    for (int i = 0; i < 3; i++) {
+      queue.offer(createCall("b"));
+    }
+    assertEquals(a1, queue.take());
+    // a long call of a, its tenant is in debt until b got as much handler time
+    queue.completed(a1, 20 * WeightedFairCallQueue.QUANTUM_NS);
+    assertEquals("bbba", takeAll(queue));
+    // calls not taken from the queue are ignored
+    queue.completed(createCall("b"), 20 * WeightedFairCallQueue.QUANTUM_NS);
+  }
+
+  @Test
+  public void testCapacity() throws Exception {
+    WeightedFairCallQueue queue = new WeightedFairCallQueue(2, conf, queueTimes);
+    assertTrue(queue.offer(createCall("a")));
+    assertTrue(queue.offer(createCall("b")));
+    assertFalse(queue.offer(createCall("c")));
+    assertFalse(queue.offer(createCall("c"), 10, TimeUnit.MILLISECONDS));
+    assertEquals(0, queue.remainingCapacity());
+    assertEquals("ab", takeAll(queue));
+    assertNull(queue.poll());
+    assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    assertNull(queue.peek());
+  }
+
+  @Test
+  public void testIteratorAndRemove() throws Exception {
+    WeightedFairCallQueue queue = new WeightedFairCallQueue(100, conf, queueTimes);
+    CallRunner a1 = createCall("a");
+    CallRunner b1 = createCall("b");
+    queue.offer(a1);
+    queue.offer(createCall("a"));
+    queue.offer(b1);
+    assertEquals(3, queue.stream().count());
+
+    assertTrue(queue.remove(b1));
+    assertFalse(queue.remove(b1));
+    Iterator<CallRunner> it = queue.iterator();
+    while (it.hasNext()) {
+      if (it.next() == a1) {
+        it.remove();
+      }
+    }
+    assertEquals(1, queue.size());
+    assertEquals(99, queue.remainingCapacity());
+    assertEquals("a", takeAll(queue));
+  }
+
+  @Test
+  public void testMaxAccountedTenants() throws Exception {
+    conf.setInt(RpcExecutor.CALL_QUEUE_FAIR_METRICS_MAX_TENANTS, 2);
+    WeightedFairCallQueue queue = new WeightedFairCallQueue(100, conf, queueTimes);
+    for (String user : new String[] { "a", "b", "c", "d" }) {
+      queue.offer(createCall(user));
+    }
+    assertEquals("abcd", takeAll(queue));
+    assertEquals(3, queueTimes.size());
+    assertEquals(2, queueTimes.get(WeightedFairCallQueue.OTHER_TENANTS).calls.sum());
+  }
+
+  @Test
+  public void testNamespace() throws Exception {
+    assertEquals("ns", WeightedFairCallQueue
+      .getNamespace(RequestConverter.buildGetRequest(regionName("ns:t"), new Get(ROW))));
+    assertEquals("default", WeightedFairCallQueue
+      .getNamespace(RequestConverter.buildGetRequest(regionName("t"), new Get(ROW))));
+    // the next calls of a scanner do not name the region
+    assertNull(
+      WeightedFairCallQueue.getNamespace(RequestConverter.buildScanRequest(1L, 1, false, false)));
+    assertNull(WeightedFairCallQueue.getNamespace(null));
+
+    conf.set(RpcExecutor.CALL_QUEUE_FAIR_TENANT, RpcExecutor.CALL_QUEUE_FAIR_TENANT_NAMESPACE);
+    WeightedFairCallQueue queue = new WeightedFairCallQueue(100, conf, queueTimes);
+    Message get = RequestConverter.buildGetRequest(regionName("ns:t"), new Get(ROW));
+    assertEquals("ns", queue.getTenant(createCall("a", HConstants.NORMAL_QOS, get)));
+    assertEquals("a", queue.getTenant(createCall("a")));
+  }
+}
@@ -432,6 +432,36 @@ public class MetricsRegionServerWrapperStub implements MetricsRegionServerWrappe
     return 75;
   }
 
+  @Override
+  public long getL2CacheIndexHeapSaved() {
+    return 4096;
+  }
+
+  @Override
+  public long getL2CacheIndexOffHeapSize() {
+    return 1024;
+  }
+
+  @Override
+  public long getL2CacheFragmentationBytes() {
+    return 2048;
+  }
+
+  @Override
+  public long getL2CacheRelocatedBlockCount() {
+    return 30;
+  }
+
+  @Override
+  public long getL2CacheAdmissionRejectedCount() {
+    return 40;
+  }
+
+  @Override
+  public long getL2CacheGhostHitCount() {
+    return 10;
+  }
+
   @Override
   public long getL2CacheEvictedCount() {
     return 2000;
@@ -732,6 +762,31 @@ public class MetricsRegionServerWrapperStub implements MetricsRegionServerWrappe
     return 50;
   }
 
+  @Override
+  public long getRowCacheHitCount() {
+    return 300;
+  }
+
+  @Override
+  public long getRowCacheMissCount() {
+    return 100;
+  }
+
+  @Override
+  public long getRowCacheEvictedCount() {
+    return 10;
+  }
+
+  @Override
+  public long getRowCacheCount() {
+    return 200;
+  }
+
+  @Override
+  public long getRowCacheSize() {
+    return 4096;
+  }
+
   @Override
   public long getAverageRegionSize() {
     return 10000000;
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseTestingUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.CompoundBinaryFuseFilter;
+import org.apache.hadoop.hbase.io.hfile.HFileContext;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.io.hfile.ReaderContext;
+import org.apache.hadoop.hbase.io.hfile.ReaderContextBuilder;
+import org.apache.hadoop.hbase.nio.ByteBuff;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.BinaryFuseFilterChunk;
+import org.apache.hadoop.hbase.util.BloomFilter;
+import org.apache.hadoop.hbase.util.BloomFilterFactory;
+import org.apache.hadoop.hbase.util.ByteArrayHashKey;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Hash;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TestName;
+
+@Category({ RegionServerTests.class, SmallTests.class })
+public class TestBinaryFuseFilter {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestBinaryFuseFilter.class);
+
+  private static final HBaseTestingUtil TEST_UTIL = new HBaseTestingUtil();
+  private static final float ERROR_RATE = 0.01f;
+  private static final int NUM_ROWS = 20000;
+  private static final byte[] FAMILY = Bytes.toBytes("family");
+  private static final byte[] QUALIFIER = Bytes.toBytes("col");
+
+  private static Configuration conf;
+  private static FileSystem fs;
+
+  @Rule
+  public TestName name = new TestName();
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws IOException {
+    conf = TEST_UTIL.getConfiguration();
+    conf.setFloat(BloomFilterFactory.IO_STOREFILE_BLOOM_ERROR_RATE, ERROR_RATE);
+    conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_ENABLED, true);
+    // small chunks, so that files span several of them
+    conf.setInt(BloomFilterFactory.IO_STOREFILE_BLOOM_BLOCK_SIZE, 4096);
+    fs = FileSystem.getLocal(conf);
+  }
+
+  private static byte[] row(int i) {
+    return Bytes.toBytes(String.format("row-%010d", i));
+  }
+
+  /**
+   * Writes the even rows in [0, 2 * NUM_ROWS) to a new store file and opens a reader for it.
+   */
+  private StoreFileReader writeAndOpen(BloomType bloomType) throws IOException {
+    CacheConfig cacheConf = new CacheConfig(conf);
+    Path dir = TEST_UTIL.getDataTestDir(name.getMethodName());
+    HFileContext meta = new HFileContextBuilder().withBlockSize(8192).build();
+    StoreFileWriter writer = new StoreFileWriter.Builder(conf, cacheConf, fs).withOutputDir(dir)
+      .withBloomType(bloomType).withMaxKeyCount(NUM_ROWS).withFileContext(meta).build();
+    try {
+      for (int i = 0; i < 2 * NUM_ROWS; i += 2) {
+        writer.append(new KeyValue(row(i), FAMILY, QUALIFIER, 1L, Bytes.toBytes("value")));
+      }
+    } finally {
+      writer.close();
+    }
+    Path f = writer.getPath();
+    ReaderContext context = new ReaderContextBuilder().withFileSystemAndPath(fs, f).build();
+    StoreFileInfo storeFileInfo = new StoreFileInfo(conf, fs, f, true);
+    storeFileInfo.initHFileInfo(context);
+    StoreFileReader reader = storeFileInfo.createReader(context, cacheConf);
+    storeFileInfo.getHFileInfo().initMetaAndIndex(reader.getHFileReader());
+    reader.loadFileInfo();
+    reader.loadBloomfilter();
+    return reader;
+  }
+
+  @Test
+  public void testNoFalseNegatives() throws IOException {
+    StoreFileReader reader = writeAndOpen(BloomType.ROW_BINARY_FUSE);
+    try {
+      assertEquals(BloomType.ROW_BINARY_FUSE, reader.getBloomFilterType());
+      BloomFilter filter = reader.getGeneralBloomFilter();
+      assertTrue(filter instanceof CompoundBinaryFuseFilter);
+      assertTrue(((CompoundBinaryFuseFilter) filter).getNumChunks() > 1);
+      assertEquals(NUM_ROWS, filter.getKeyCount());
+
+      int falsePositives = 0;
+      for (int i = 0; i < 2 * NUM_ROWS; i++) {
+        boolean exists = reader.passesBloomFilter(new Scan(new Get(row(i))), null);
+        if (i % 2 == 0) {
+          assertTrue("False negative for row " + i, exists);
+        } else if (exists) {
+          falsePositives++;
+        }
+      }
+      int maxFalsePositives = (int) (2 * ERROR_RATE * NUM_ROWS);
+      assertTrue("Too many false positives: " + falsePositives + ", expected no more than "
+        + maxFalsePositives, falsePositives <= maxFalsePositives);
+      // rows past the last key are filtered out without looking at the chunks
+      assertFalse(reader.passesBloomFilter(new Scan(new Get(Bytes.toBytes("zzz"))), null));
+    } finally {
+      reader.close(true);
+    }
+  }
+
+  @Test
+  public void testSmallerThanBloomFilter() throws IOException {
+    StoreFileReader bloomReader = writeAndOpen(BloomType.ROW);
+    StoreFileReader fuseReader = writeAndOpen(BloomType.ROW_BINARY_FUSE);
+    try {
+      long bloomSize = bloomReader.getGeneralBloomFilter().getByteSize();
+      long fuseSize = fuseReader.getGeneralBloomFilter().getByteSize();
+      assertTrue("Binary fuse filter takes " + fuseSize + " bytes, Bloom filter " + bloomSize,
+        fuseSize < bloomSize);
+    } finally {
+      bloomReader.close(true);
+      fuseReader.close(true);
+    }
+  }
+
+  @Test
+  public void testChunkWithDuplicateKeys() throws IOException {
+    int bits = BinaryFuseFilterChunk.computeFingerprintBits(ERROR_RATE);
+    BinaryFuseFilterChunk chunk = new BinaryFuseFilterChunk(100, bits, Hash.MURMUR_HASH3);
+    for (int i = 0; i < 50; i++) {
+      byte[] key = row(i % 25);
+      chunk.add(key, 0, key.length);
+    }
+    chunk.build();
+    assertEquals(25, chunk.getKeyCount());
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    chunk.writeChunk(new DataOutputStream(bos));
+    assertEquals(chunk.getByteSize(), bos.size());
+    ByteBuff buf = ByteBuff.wrap(ByteBuffer.wrap(bos.toByteArray()));
+    Hash hash = Hash.getInstance(Hash.MURMUR_HASH3);
+    for (int i = 0; i < 25; i++) {
+      byte[] key = row(i);
+      long keyHash =
+        BinaryFuseFilterChunk.hash64(hash, new ByteArrayHashKey(key, 0, key.length));
+      assertTrue(BinaryFuseFilterChunk.contains(keyHash, buf, 0, bits));
+    }
+  }
+}
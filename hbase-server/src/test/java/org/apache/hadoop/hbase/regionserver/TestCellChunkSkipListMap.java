@@ -0,0 +1,344 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.util.MemorySizeUtil;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the {@link CellChunkSkipListMap} of the {@link CellChunkMutableSegment}.
+ */
+@Category({ RegionServerTests.class, SmallTests.class })
+public class TestCellChunkSkipListMap {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestCellChunkSkipListMap.class);
+
+  private static final Configuration CONF = HBaseConfiguration.create();
+
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  private MemStoreLAB mslab;
+
+  private CellChunkSkipListMap map;
+
+  @Before
+  public void setUp() {
+    long globalMemStoreLimit =
+      (long) (ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax()
+        * MemorySizeUtil.getGlobalMemStoreHeapPercent(CONF, false));
+    ChunkCreator.initialize(MemStoreLAB.CHUNK_SIZE_DEFAULT, false, globalMemStoreLimit, 0.2f,
+      MemStoreLAB.POOL_INITIAL_SIZE_DEFAULT, null, MemStoreLAB.INDEX_CHUNK_SIZE_PERCENTAGE_DEFAULT);
+    mslab = new MemStoreLABImpl(CONF);
+    map = new CellChunkSkipListMap(CellComparator.getInstance().getSimpleComparator(), mslab);
+  }
+
+  @After
+  public void tearDown() {
+    mslab.close();
+  }
+
+  private Cell cell(int row, long ts) {
+    return mslab.copyCellInto(new KeyValue(Bytes.toBytes(row), FAMILY, QUALIFIER, ts,
+      Bytes.toBytes("v" + row)));
+  }
+
+  private static int row(Cell cell) {
+    return Bytes.toInt(CellUtil.cloneRow(cell));
+  }
+
+  @Test
+  public void testPutGet() {
+    // put in a random order
+    for (int i = 0; i < 1000; i++) {
+      Cell cell = cell((i * 7919) % 1000, 1);
+      assertNull(map.put(cell, cell));
+    }
+    assertFalse(map.isEmpty());
+    for (int i = 0; i < 1000; i++) {
+      Cell cell = map.get(cell(i, 1));
+      assertNotNull(cell);
+      assertEquals(i, row(cell));
+    }
+    assertNull(map.get(cell(1000, 1)));
+    assertEquals(0, row(map.firstKey()));
+    assertEquals(999, row(map.lastKey()));
+
+    // an equal cell replaces the previous one
+    Cell cell = cell(500, 1);
+    Cell previous = map.put(cell, cell);
+    assertNotNull(previous);
+    assertEquals(500, row(previous));
+    int count = 0;
+    for (Cell c : map.values()) {
+      assertEquals(count++, row(c));
+    }
+    assertEquals(1000, count);
+  }
+
+  @Test
+  public void testNavigation() {
+    for (int i = 0; i < 100; i += 2) {
+      Cell cell = cell(i, 1);
+      map.put(cell, cell);
+    }
+    assertEquals(10, row(map.ceilingKey(cell(9, 1))));
+    assertEquals(8, row(map.floorKey(cell(9, 1))));
+    assertEquals(10, row(map.higherKey(cell(8, 1))));
+    assertEquals(6, row(map.lowerKey(cell(8, 1))));
+    assertNull(map.lowerKey(cell(0, 1)));
+
+    NavigableMap<Cell, Cell> sub = map.subMap(cell(10, 1), true, cell(20, 1), false);
+    List<Integer> rows = new ArrayList<>();
+    sub.values().forEach(c -> rows.add(row(c)));
+    assertEquals(5, rows.size());
+    assertEquals(10, rows.get(0).intValue());
+    assertEquals(18, rows.get(4).intValue());
+    assertNull(sub.get(cell(20, 1)));
+
+    Iterator<Cell> it = map.headMap(cell(20, 1), true).descendingMap().values().iterator();
+    for (int i = 20; i >= 0; i -= 2) {
+      assertEquals(i, row(it.next()));
+    }
+    assertFalse(it.hasNext());
+    assertEquals(98, row(map.tailMap(cell(50, 1), false).lastEntry().getValue()));
+    assertEquals(52, row(map.tailMap(cell(50, 1), false).firstEntry().getValue()));
+  }
+
+  @Test
+  public void testRemove() {
+    for (int i = 0; i < 10; i++) {
+      Cell cell = cell(i, 1);
+      map.put(cell, cell);
+    }
+    assertNotNull(map.remove(cell(3, 1)));
+    assertNull(map.remove(cell(3, 1)));
+    assertNull(map.get(cell(3, 1)));
+    Iterator<Cell> it = map.values().iterator();
+    while (it.hasNext()) {
+      if (row(it.next()) % 2 == 0) {
+        it.remove();
+      }
+    }
+    // the removed cells are skipped both ways
+    assertEquals(7, row(map.floorKey(cell(8, 1))));
+    assertEquals(5, row(map.lowerKey(cell(7, 1))));
+    assertEquals(9, row(map.lastKey()));
+    assertEquals(1, row(map.firstKey()));
+    map.clear();
+    assertTrue(map.isEmpty());
+    // added again after removal
+    Cell cell = cell(4, 1);
+    assertNull(map.put(cell, cell));
+    assertEquals(4, row(map.firstKey()));
+  }
+
+  @Test
+  public void testUnlinkRemoved() {
+    for (int i = 0; i < 100; i++) {
+      Cell cell = cell(i, 1);
+      map.put(cell, cell);
+    }
+    for (int i = 0; i < 100; i += 2) {
+      assertNotNull(map.remove(cell(i, 1)));
+    }
+    // replaced by an equal one
+    for (int i = 0; i < 10; i++) {
+      Cell cell = cell(1, 1);
+      map.put(cell, cell);
+    }
+    // the removed nodes are unlinked by the iterations going through them
+    int count = 0;
+    for (Cell cell : map.values()) {
+      assertEquals(2 * count++ + 1, row(cell));
+    }
+    assertEquals(50, count);
+    assertEquals(50, map.getLinkedNodeCount());
+
+    // the replaced cells not on the MSLAB are dropped
+    for (int i = 0; i < 100; i++) {
+      Cell cell = new KeyValue(Bytes.toBytes(200), FAMILY, QUALIFIER, 1, Bytes.toBytes(i));
+      map.put(cell, cell);
+    }
+    assertEquals(99, Bytes.toInt(CellUtil.cloneValue(map.lastKey())));
+    count = 0;
+    for (Cell cell : map.values()) {
+      count++;
+    }
+    assertEquals(51, count);
+    assertEquals(1, map.getHeapCellCount());
+    assertEquals(51, map.getLinkedNodeCount());
+  }
+
+  @Test
+  public void testCellsNotOnChunk() {
+    Cell onChunk = cell(1, 1);
+    map.put(onChunk, onChunk);
+    // as the cells of an upsert, kept as they are
+    Cell onHeap = new KeyValue(Bytes.toBytes(2), FAMILY, QUALIFIER, 1, Bytes.toBytes("v"));
+    map.put(onHeap, onHeap);
+    assertSame(onHeap, map.get(onHeap));
+    assertSame(onHeap, map.lastKey());
+    assertEquals(1, row(map.firstKey()));
+  }
+
+  @Test
+  public void testConcurrentPuts() throws Exception {
+    int threads = 4;
+    int cellsPerThread = 2000;
+    Thread[] writers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      int first = t;
+      writers[t] = new Thread(() -> {
+        for (int i = first; i < threads * cellsPerThread; i += threads) {
+          Cell cell = cell(i, 1);
+          map.put(cell, cell);
+        }
+      });
+      writers[t].start();
+    }
+    for (Thread writer : writers) {
+      writer.join();
+    }
+    int count = 0;
+    for (Cell cell : map.values()) {
+      assertEquals(count++, row(cell));
+    }
+    assertEquals(threads * cellsPerThread, count);
+  }
+
+  @Test
+  public void testFlattenOffHeap() {
+    ChunkCreator oldCreator = ChunkCreator.getInstance();
+    ChunkCreator.instance = new ChunkCreator(MemStoreLAB.CHUNK_SIZE_DEFAULT, true,
+      100L * MemStoreLAB.CHUNK_SIZE_DEFAULT, 0, 0, null,
+      MemStoreLAB.INDEX_CHUNK_SIZE_PERCENTAGE_DEFAULT);
+    try {
+      Configuration conf = new Configuration(CONF);
+      conf.setBoolean(MemStoreLAB.USEMSLAB_KEY, true);
+      conf.setBoolean(CellChunkMutableSegment.CHUNK_MAP_ENABLED_KEY, true);
+      MemStoreSizing sizing = new NonThreadSafeMemStoreSizing();
+      MutableSegment segment =
+        SegmentFactory.instance().createMutableSegment(conf, CellComparator.getInstance(), sizing);
+      assertTrue(segment.getMemStoreLAB().isOffHeap());
+      int numOfCells = 10;
+      for (int i = 0; i < numOfCells; i++) {
+        Cell cell = segment.maybeCloneWithAllocator(
+          new KeyValue(Bytes.toBytes(i), FAMILY, QUALIFIER, 1, Bytes.toBytes("v")), false);
+        segment.add(cell, true, sizing, false);
+      }
+      long offHeapSize = sizing.getOffHeapSize();
+      ImmutableSegment flat = SegmentFactory.instance().createImmutableSegmentByFlattening(
+        (CSLMImmutableSegment) SegmentFactory.instance().createImmutableSegment(segment, sizing),
+        CompactingMemStore.IndexType.CHUNK_MAP, sizing, MemStoreCompactionStrategy.Action.FLATTEN);
+      try {
+        assertTrue(flat instanceof CellChunkImmutableSegment);
+        // the links on-heap of the skip list are gone, and its nodes off-heap replaced
+        assertEquals(0, sizing.getHeapSize());
+        assertEquals(offHeapSize + CellChunkImmutableSegment.DEEP_OVERHEAD_CCM
+          + numOfCells * (ClassSize.CELL_CHUNK_MAP_ENTRY - CellChunkSkipListMap.NODE_SIZE),
+          sizing.getOffHeapSize());
+      } finally {
+        flat.close();
+      }
+    } finally {
+      ChunkCreator.instance = oldCreator;
+    }
+  }
+
+  @Test
+  public void testUpsertHeapSize() {
+    Configuration conf = new Configuration(CONF);
+    conf.setBoolean(MemStoreLAB.USEMSLAB_KEY, true);
+    conf.setBoolean(CellChunkMutableSegment.CHUNK_MAP_ENABLED_KEY, true);
+    MemStoreSizing sizing = new NonThreadSafeMemStoreSizing();
+    MutableSegment segment =
+      SegmentFactory.instance().createMutableSegment(conf, CellComparator.getInstance(), sizing);
+    assertTrue(segment.getMemStoreLAB().isOnHeap());
+    try {
+      long heapSize = sizing.getHeapSize();
+      KeyValue kv = null;
+      // as the upserts of an Increment, the oldest version is removed by the third one
+      for (long ts = 1; ts <= 3; ts++) {
+        kv = new KeyValue(Bytes.toBytes(1), FAMILY, QUALIFIER, ts, Bytes.toBytes(ts));
+        segment.upsert(kv, Long.MAX_VALUE, sizing, false);
+      }
+      assertEquals(2, segment.getCellsCount());
+      // the node and the links of the index, the Cell and its side map entry
+      long cellHeapSize = ClassSize.align(CellChunkSkipListMap.NODE_SIZE + 2 * Bytes.SIZEOF_INT
+        + kv.heapSize() + CellChunkSkipListMap.SIDE_MAP_ENTRY_SIZE);
+      assertEquals(heapSize + 2 * cellHeapSize, sizing.getHeapSize());
+      assertEquals(0, sizing.getOffHeapSize());
+    } finally {
+      segment.close();
+    }
+  }
+
+  @Test
+  public void testMutableSegment() {
+    Configuration conf = new Configuration(CONF);
+    conf.setBoolean(MemStoreLAB.USEMSLAB_KEY, true);
+    conf.setBoolean(CellChunkMutableSegment.CHUNK_MAP_ENABLED_KEY, true);
+    MutableSegment segment = SegmentFactory.instance().createMutableSegment(conf,
+      CellComparator.getInstance(), new NonThreadSafeMemStoreSizing());
+    assertTrue(segment instanceof CellChunkMutableSegment);
+    try {
+      MemStoreSizing sizing = new NonThreadSafeMemStoreSizing();
+      for (int i = 0; i < 10; i++) {
+        Cell cell = segment.maybeCloneWithAllocator(
+          new KeyValue(Bytes.toBytes(i), FAMILY, QUALIFIER, 1, Bytes.toBytes("v")), false);
+        segment.add(cell, true, sizing, false);
+      }
+      assertEquals(10, segment.getCellsCount());
+      assertEquals(0, row(segment.first()));
+      assertTrue(sizing.getHeapSize() > 0);
+    } finally {
+      segment.close();
+    }
+  }
+}
@@ -781,6 +781,93 @@ public class TestHRegion {
     }
   }
 
+  @Test
+  public void testParallelRecoveredEditsReplay() throws Exception {
+    byte[][] families = { Bytes.toBytes("a"), Bytes.toBytes("b"), Bytes.toBytes("c") };
+    Configuration conf = new Configuration(CONF);
+    conf.setInt(RecoveredEditsReplayer.REPLAY_THREADS, 2);
+    conf.setInt(RecoveredEditsReplayer.REPLAY_BATCH_SIZE, 7);
+    conf.setLong(HConstants.HREGION_MEMSTORE_FLUSH_SIZE, 64 * 1024);
+    this.region = initHRegion(tableName, method, conf, families);
+    final WALFactory wals = new WALFactory(conf, method);
+    try {
+      Path regiondir = region.getRegionFileSystem().getRegionDir();
+      FileSystem fs = region.getRegionFileSystem().getFileSystem();
+      byte[] regionName = region.getRegionInfo().getEncodedNameAsBytes();
+      Path recoveredEditsDir = WALSplitUtil.getRegionDirRecoveredEditsDir(regiondir);
+
+      long minSeqId = 1000;
+      long maxSeqId = 1999;
+      byte[] value = new byte[256];
+      Path recoveredEdits = new Path(recoveredEditsDir, String.format("%019d", minSeqId));
+      fs.create(recoveredEdits);
+      WALProvider.Writer writer = wals.createRecoveredEditsWriter(fs, recoveredEdits);
+      for (long i = minSeqId; i <= maxSeqId; i++) {
+        long time = System.nanoTime();
+        WALEdit edit = new WALEdit();
+        // the later edits of a row overwrite the earlier ones, so the order has to be kept
+        byte[] rowKey = Bytes.toBytes(i % 10);
+        for (byte[] family : families) {
+          edit.add(new KeyValue(rowKey, family, family, i, KeyValue.Type.Put,
+            Bytes.add(Bytes.toBytes(i), value)));
+        }
+        writer.append(new WAL.Entry(
+          new WALKeyImpl(regionName, tableName, i, time, HConstants.DEFAULT_CLUSTER_ID), edit));
+      }
+      writer.close();
+
+      MonitoredTask status = TaskMonitor.get().createStatus(method);
+      Map<byte[], Long> maxSeqIdInStores = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+      for (HStore store : region.getStores()) {
+        maxSeqIdInStores.put(Bytes.toBytes(store.getColumnFamilyName()), minSeqId - 1);
+      }
+      long seqId = region.replayRecoveredEditsIfAny(maxSeqIdInStores, null, status);
+      assertEquals(maxSeqId, seqId);
+      region.getMVCC().advanceTo(seqId);
+      for (byte[] family : families) {
+        // flushed along the way when the memstore got full, and once more at the end
+        assertTrue(region.getStore(family).getStorefilesCount() > 1);
+      }
+      for (long i = maxSeqId - 9; i <= maxSeqId; i++) {
+        Result result = region.get(new Get(Bytes.toBytes(i % 10)));
+        for (byte[] family : families) {
+          assertEquals(i, Bytes.toLong(result.getValue(family, family)));
+        }
+      }
+    } finally {
+      HBaseTestingUtil.closeRegionAndWAL(this.region);
+      this.region = null;
+      wals.close();
+    }
+  }
+
+  @Test
+  public void testRecoveredEditsReplayerQueuedSize() throws Exception {
+    byte[][] families = { Bytes.toBytes("a"), Bytes.toBytes("b") };
+    Configuration conf = new Configuration(CONF);
+    conf.setInt(RecoveredEditsReplayer.REPLAY_THREADS, 2);
+    conf.setInt(RecoveredEditsReplayer.REPLAY_BATCH_SIZE, 100);
+    this.region = initHRegion(tableName, method, conf, families);
+    try (RecoveredEditsReplayer replayer = RecoveredEditsReplayer.create(region, conf)) {
+      for (int i = 0; i < 150; i++) {
+        for (byte[] family : families) {
+          KeyValue kv = new KeyValue(Bytes.toBytes(i), family, family, i, KeyValue.Type.Put,
+            Bytes.toBytes(i));
+          kv.setSequenceId(i);
+          replayer.add(region.getStore(family), kv);
+        }
+      }
+      // the cells not handed to the appliers yet are counted until they are in the memstores
+      assertTrue(replayer.getQueuedSize() > 0);
+      replayer.drain();
+      assertEquals(0, replayer.getQueuedSize());
+      assertTrue(region.getMemStoreDataSize() > 0);
+    } finally {
+      HBaseTestingUtil.closeRegionAndWAL(this.region);
+      this.region = null;
+    }
+  }
+
   @Test
   public void testSkipRecoveredEditsReplaySomeIgnored() throws Exception {
     byte[] family = Bytes.toBytes("family");
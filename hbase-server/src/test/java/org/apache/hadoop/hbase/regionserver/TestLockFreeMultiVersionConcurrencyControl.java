@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.regionserver.MultiVersionConcurrencyControl.WriteEntry;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Checks that {@link LockFreeMultiVersionConcurrencyControl} keeps the ordering guarantees of
+ * {@link MultiVersionConcurrencyControl} with many concurrent writers.
+ */
+@Category({ RegionServerTests.class, MediumTests.class })
+public class TestLockFreeMultiVersionConcurrencyControl {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestLockFreeMultiVersionConcurrencyControl.class);
+
+  @Test
+  public void testCreate() {
+    Configuration conf = HBaseConfiguration.create();
+    assertFalse(MultiVersionConcurrencyControl.create(conf,
+      "r") instanceof LockFreeMultiVersionConcurrencyControl);
+    conf.setBoolean(MultiVersionConcurrencyControl.LOCK_FREE_KEY, true);
+    assertTrue(MultiVersionConcurrencyControl.create(conf,
+      "r") instanceof LockFreeMultiVersionConcurrencyControl);
+  }
+
+  @Test
+  public void testSimpleOps() {
+    MultiVersionConcurrencyControl mvcc = new LockFreeMultiVersionConcurrencyControl();
+    mvcc.advanceTo(100);
+    assertEquals(100, mvcc.getReadPoint());
+    assertEquals(100, mvcc.getWritePoint());
+
+    WriteEntry first = mvcc.begin();
+    WriteEntry second = mvcc.begin();
+    assertEquals(101, first.getWriteNumber());
+    assertEquals(102, second.getWriteNumber());
+    // the second write is not visible before the first one completes
+    assertFalse(mvcc.complete(second));
+    assertEquals(100, mvcc.getReadPoint());
+    assertTrue(mvcc.complete(first));
+    assertEquals(102, mvcc.getReadPoint());
+
+    mvcc.await();
+    assertEquals(103, mvcc.getReadPoint());
+    assertEquals(103, mvcc.getWritePoint());
+  }
+
+  @Test
+  public void testCompletionActionsRunInOrder() {
+    MultiVersionConcurrencyControl mvcc = new LockFreeMultiVersionConcurrencyControl();
+    List<Long> ran = new ArrayList<>();
+    WriteEntry[] entries = new WriteEntry[5];
+    for (int i = 0; i < entries.length; i++) {
+      WriteEntry e = mvcc.begin();
+      // the action runs before the read point passes its write
+      e.attachCompletionAction(() -> {
+        assertTrue(mvcc.getReadPoint() < e.getWriteNumber());
+        ran.add(e.getWriteNumber());
+      });
+      entries[i] = e;
+    }
+    for (int i = entries.length - 1; i >= 0; i--) {
+      mvcc.complete(entries[i]);
+    }
+    assertEquals(5, mvcc.getReadPoint());
+    for (int i = 0; i < entries.length; i++) {
+      assertEquals(i + 1, ran.get(i).longValue());
+    }
+  }
+
+  @Test
+  public void testParallelWriters() throws Exception {
+    // a tiny ring, so that writers often wait for a slot
+    runWriters(new LockFreeMultiVersionConcurrencyControl(4, "small"), 16, 20000);
+    runWriters(new LockFreeMultiVersionConcurrencyControl(), 32, 20000);
+  }
+
+  private static void runWriters(MultiVersionConcurrencyControl mvcc, int writers,
+    int writesPerWriter) throws Exception {
+    AtomicReference<String> failure = new AtomicReference<>();
+    // like the WAL, the begin actions take a txid which must follow the write number order
+    AtomicLong txid = new AtomicLong();
+    long[] writeNumberByTxid = new long[writers * writesPerWriter + 1];
+    AtomicLong lastCompletionAction = new AtomicLong(mvcc.getReadPoint());
+    AtomicBoolean finished = new AtomicBoolean();
+
+    Thread reader = new Thread(() -> {
+      long prev = mvcc.getReadPoint();
+      while (!finished.get()) {
+        long next = mvcc.getReadPoint();
+        if (next < prev) {
+          failure.compareAndSet(null, "Read point went back from " + prev + " to " + next);
+        }
+        prev = next;
+      }
+    });
+    reader.start();
+
+    Thread[] threads = new Thread[writers];
+    for (int t = 0; t < writers; t++) {
+      threads[t] = new Thread(() -> {
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        for (int i = 0; i < writesPerWriter && failure.get() == null; i++) {
+          long[] seen = new long[1];
+          WriteEntry e;
+          if (rand.nextBoolean()) {
+            e = mvcc.begin(() -> seen[0] = txid.incrementAndGet());
+            writeNumberByTxid[(int) seen[0]] = e.getWriteNumber();
+          } else {
+            e = mvcc.begin();
+          }
+          long writeNumber = e.getWriteNumber();
+          e.attachCompletionAction(() -> {
+            long last = lastCompletionAction.getAndSet(writeNumber);
+            if (last != writeNumber - 1) {
+              failure.compareAndSet(null,
+                "Completion action of " + writeNumber + " ran after the one of " + last);
+            }
+          });
+          if (rand.nextInt(10) == 0) {
+            Thread.yield();
+          }
+          mvcc.completeAndWait(e);
+          if (mvcc.getReadPoint() < writeNumber) {
+            failure.compareAndSet(null, "Write " + writeNumber + " not visible after completion");
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    finished.set(true);
+    reader.join();
+
+    assertNull(failure.get());
+    for (int i = 2; i <= txid.get(); i++) {
+      assertTrue(writeNumberByTxid[i - 1] < writeNumberByTxid[i]);
+    }
+    assertEquals(mvcc.getWritePoint(), mvcc.getReadPoint());
+    assertEquals(mvcc.getReadPoint(), lastCompletionAction.get());
+  }
+}
@@ -133,12 +133,23 @@ public class TestMetricsRegionServer {
     HELPER.assertGauge("l2CacheFreeSize", 200, serverSource);
     HELPER.assertGauge("l2CacheSize", 456, serverSource);
     HELPER.assertGauge("l2CacheCount", 75, serverSource);
+    HELPER.assertGauge("l2CacheIndexHeapSaved", 4096, serverSource);
+    HELPER.assertGauge("l2CacheIndexOffHeapSize", 1024, serverSource);
+    HELPER.assertGauge("l2CacheFragmentationBytes", 2048, serverSource);
+    HELPER.assertCounter("l2CacheRelocatedBlockCount", 30, serverSource);
+    HELPER.assertCounter("l2CacheAdmissionRejectedCount", 40, serverSource);
+    HELPER.assertCounter("l2CacheGhostHitCount", 10, serverSource);
     HELPER.assertCounter("l2CacheEvictionCount", 2000, serverSource);
     HELPER.assertGauge("l2CacheHitCount", 800, serverSource);
     HELPER.assertGauge("l2CacheMissCount", 200, serverSource);
     HELPER.assertGauge("l2CacheHitRatio", 90, serverSource);
     HELPER.assertGauge("l2CacheMissRatio", 10, serverSource);
     HELPER.assertCounter("updatesBlockedTime", 419, serverSource);
+    HELPER.assertCounter("rowCacheHitCount", 300, serverSource);
+    HELPER.assertCounter("rowCacheMissCount", 100, serverSource);
+    HELPER.assertCounter("rowCacheEvictedCount", 10, serverSource);
+    HELPER.assertGauge("rowCacheCount", 200, serverSource);
+    HELPER.assertGauge("rowCacheSize", 4096, serverSource);
   }
 
   @Test
@@ -224,6 +235,19 @@ public class TestMetricsRegionServer {
     HELPER.assertCounter("flushOutputSize_num_ops", 2, serverSource);
     HELPER.assertCounter("flushedMemstoreBytes", 22, serverSource);
     HELPER.assertCounter("flushedOutputBytes", 33, serverSource);
+
+    rsm.updateFlushStoreWriteTime(5, 15);
+    HELPER.assertCounter("flushWriteTime_num_ops", 1, serverSource);
+    HELPER.assertCounter("flushStoreWriteTime_num_ops", 1, serverSource);
+  }
+
+  @Test
+  public void testRecoveredEditsReplay() {
+    rsm.updateRecoveredEditsReplay(100, 5000);
+    rsm.updateRecoveredEditsReplay(0, 10);
+    HELPER.assertCounter("recoveredEditsReplayTime_num_ops", 2, serverSource);
+    HELPER.assertCounter("recoveredEditsReplayRate_num_ops", 2, serverSource);
+    HELPER.assertCounter("recoveredEditsReplayed", 5010, serverSource);
   }
 
   @Test
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseTestingUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionConfiguration;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequestImpl;
+import org.apache.hadoop.hbase.regionserver.compactions.DefaultCompactor;
+import org.apache.hadoop.hbase.regionserver.throttle.NoLimitThroughputController;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TestName;
+
+/**
+ * Test major compactions split into row ranges, see
+ * {@link DefaultCompactor#PARALLEL_COMPACTION_RANGES_KEY}.
+ */
+@Category({ RegionServerTests.class, MediumTests.class })
+public class TestParallelMajorCompaction {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestParallelMajorCompaction.class);
+
+  private static final HBaseTestingUtil TEST_UTIL = new HBaseTestingUtil();
+
+  private static final int NUM_ROWS = 300;
+  private static final int NUM_RANGES = 3;
+  private static final byte[] FAMILY = Bytes.toBytes("cf");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  @Rule
+  public TestName name = new TestName();
+
+  private HRegion region;
+
+  @Before
+  public void setUp() throws IOException {
+    TableName tableName = TableName.valueOf(name.getMethodName());
+    // small blocks, so that the data block index has enough entries to split on
+    TableDescriptor htd = TableDescriptorBuilder.newBuilder(tableName)
+      .setColumnFamily(ColumnFamilyDescriptorBuilder.newBuilder(FAMILY).setBlocksize(1024).build())
+      .build();
+    RegionInfo info = RegionInfoBuilder.newBuilder(tableName).build();
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setInt(DefaultCompactor.PARALLEL_COMPACTION_RANGES_KEY, NUM_RANGES);
+    conf.setLong(DefaultCompactor.PARALLEL_COMPACTION_MIN_SIZE_KEY, 0);
+    conf.setInt(CompactionConfiguration.HBASE_HSTORE_COMPACTION_MIN_KEY, NUM_RANGES + 1);
+    Path path = TEST_UTIL.getDataTestDir(name.getMethodName());
+    region = HBaseTestingUtil.createRegionAndWAL(info, path, conf, htd);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    HBaseTestingUtil.closeRegionAndWAL(region);
+  }
+
+  private static byte[] row(int i) {
+    return Bytes.toBytes(String.format("row-%05d", i));
+  }
+
+  private static byte[] value(int row) {
+    return Bytes.toBytes(row % 2 == 0 ? "even-" + row : "odd-" + row);
+  }
+
+  private void loadFiles() throws IOException {
+    for (int i = 0; i < NUM_ROWS; i++) {
+      region.put(new Put(row(i)).addColumn(FAMILY, QUALIFIER, Bytes.toBytes("old")));
+    }
+    region.flush(true);
+    for (int i = 0; i < NUM_ROWS; i += 2) {
+      region.put(new Put(row(i)).addColumn(FAMILY, QUALIFIER, value(i)));
+    }
+    region.flush(true);
+    for (int i = 1; i < NUM_ROWS; i += 2) {
+      region.put(new Put(row(i)).addColumn(FAMILY, QUALIFIER, value(i)));
+    }
+    for (int i = 0; i < NUM_ROWS; i += 3) {
+      region.delete(new Delete(row(i)));
+    }
+    region.flush(true);
+  }
+
+  @Test
+  public void testMajorCompactionInRowRanges() throws IOException {
+    loadFiles();
+    HStore store = region.getStore(FAMILY);
+    assertEquals(3, store.getStorefilesCount());
+
+    region.compact(true);
+
+    // one file per row range, and the ranges do not overlap
+    List<HStoreFile> files = new ArrayList<>(store.getStorefiles());
+    assertEquals(NUM_RANGES, files.size());
+    files.sort((f1, f2) -> Bytes.compareTo(f1.getReader().getHFileReader().getFirstRowKey().get(),
+      f2.getReader().getHFileReader().getFirstRowKey().get()));
+    long entries = 0;
+    for (int i = 0; i < files.size(); i++) {
+      assertTrue(files.get(i).isMajorCompactionResult());
+      StoreFileReader reader = files.get(i).getReader();
+      entries += reader.getEntries();
+      if (i > 0) {
+        byte[] prevLastRow = files.get(i - 1).getReader().getLastRowKey().get();
+        byte[] firstRow = reader.getHFileReader().getFirstRowKey().get();
+        assertTrue(Bytes.compareTo(prevLastRow, firstRow) < 0);
+      }
+    }
+    // old versions and deleted rows are dropped
+    assertEquals(NUM_ROWS - (NUM_ROWS + 2) / 3, entries);
+
+    for (int i = 0; i < NUM_ROWS; i++) {
+      Result result = region.get(new Get(row(i)));
+      if (i % 3 == 0) {
+        assertTrue(result.isEmpty());
+      } else {
+        assertArrayEquals(value(i), result.getValue(FAMILY, QUALIFIER));
+      }
+    }
+  }
+
+  @Test
+  public void testMinorCompactionOfAllFilesInOnePass() throws IOException {
+    loadFiles();
+    HStore store = region.getStore(FAMILY);
+    assertEquals(3, store.getStorefilesCount());
+
+    // a minor compaction keeps the delete markers, it is not split even with all the files
+    CompactionRequestImpl request = new CompactionRequestImpl(store.getStorefiles());
+    request.setIsMajor(false, true);
+    assertTrue(request.isAllFiles());
+    DefaultCompactor compactor = (DefaultCompactor) store.getStoreEngine().getCompactor();
+    List<Path> newFiles = compactor.compact(request, NoLimitThroughputController.INSTANCE, null);
+    assertEquals(1, newFiles.size());
+  }
+}
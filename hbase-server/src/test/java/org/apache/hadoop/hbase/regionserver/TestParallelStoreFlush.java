@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseTestingUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TestName;
+
+/**
+ * Test flushing the stores of a region in parallel, see {@link HRegion#FLUSH_STORE_THREADS_MAX}.
+ */
+@Category({ RegionServerTests.class, MediumTests.class })
+public class TestParallelStoreFlush {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestParallelStoreFlush.class);
+
+  private static final HBaseTestingUtil TEST_UTIL = new HBaseTestingUtil();
+
+  private static final int NUM_FAMILIES = 8;
+  private static final int NUM_ROWS = 100;
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  @Rule
+  public TestName name = new TestName();
+
+  private HRegion region;
+
+  @Before
+  public void setUp() throws IOException {
+    TableName tableName = TableName.valueOf(name.getMethodName());
+    TableDescriptorBuilder builder = TableDescriptorBuilder.newBuilder(tableName);
+    for (int i = 0; i < NUM_FAMILIES; i++) {
+      builder.setColumnFamily(ColumnFamilyDescriptorBuilder.of(family(i)));
+    }
+    TableDescriptor htd = builder.build();
+    RegionInfo info = RegionInfoBuilder.newBuilder(tableName).build();
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setInt(HRegion.FLUSH_STORE_THREADS_MAX, 4);
+    Path path = TEST_UTIL.getDataTestDir(name.getMethodName());
+    region = HBaseTestingUtil.createRegionAndWAL(info, path, conf, htd);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    HBaseTestingUtil.closeRegionAndWAL(region);
+  }
+
+  private static byte[] family(int i) {
+    return Bytes.toBytes("cf" + i);
+  }
+
+  private static byte[] value(int row, int family, int round) {
+    return Bytes.toBytes(row + "-" + family + "-" + round);
+  }
+
+  private void load(int round) throws IOException {
+    for (int r = 0; r < NUM_ROWS; r++) {
+      Put put = new Put(Bytes.toBytes(r));
+      for (int f = 0; f < NUM_FAMILIES; f++) {
+        put.addColumn(family(f), QUALIFIER, value(r, f, round));
+      }
+      region.put(put);
+    }
+  }
+
+  private void verify(int round) throws IOException {
+    for (int r = 0; r < NUM_ROWS; r++) {
+      Result result = region.get(new Get(Bytes.toBytes(r)));
+      for (int f = 0; f < NUM_FAMILIES; f++) {
+        assertArrayEquals(value(r, f, round), result.getValue(family(f), QUALIFIER));
+      }
+    }
+  }
+
+  @Test
+  public void testFlushAllStores() throws IOException {
+    for (int round = 1; round <= 2; round++) {
+      load(round);
+      HRegion.FlushResult result = region.flush(true);
+      assertEquals(HRegion.FlushResult.Result.FLUSHED_NO_COMPACTION_NEEDED, result.getResult());
+      assertEquals(0, region.getMemStoreDataSize());
+      for (HStore store : region.getStores()) {
+        assertEquals(round, store.getStorefilesCount());
+        assertEquals(0, store.getMemStoreSize().getDataSize());
+      }
+      verify(round);
+    }
+  }
+}
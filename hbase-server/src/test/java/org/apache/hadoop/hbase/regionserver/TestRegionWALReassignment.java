@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Collections;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseTestingUtil;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.CommonFSUtils;
+import org.apache.hadoop.hbase.wal.RegionGroupingProvider;
+import org.apache.hadoop.hbase.wal.WAL;
+import org.apache.hadoop.hbase.wal.WALFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TestName;
+
+/**
+ * Checks that a region moves to the WAL of its new region group at its next flush of all stores.
+ */
+@Category({ RegionServerTests.class, MediumTests.class })
+public class TestRegionWALReassignment {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestRegionWALReassignment.class);
+
+  private static final HBaseTestingUtil TEST_UTIL = new HBaseTestingUtil();
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] OTHER_FAMILY = Bytes.toBytes("g");
+
+  @Rule
+  public TestName name = new TestName();
+
+  private Configuration conf;
+  private WALFactory firstWALs;
+  private WALFactory secondWALs;
+  private HRegion region;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new Configuration(TEST_UTIL.getConfiguration());
+    CommonFSUtils.setRootDir(conf, TEST_UTIL.getDataTestDir(name.getMethodName()));
+    conf.set(RegionGroupingProvider.REGION_GROUPING_STRATEGY,
+      RegionGroupingProvider.Strategies.loadaware.name());
+    firstWALs = new WALFactory(conf, name.getMethodName() + "-1");
+    secondWALs = new WALFactory(conf, name.getMethodName() + "-2");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (region != null) {
+      region.close();
+    }
+    firstWALs.close();
+    secondWALs.close();
+  }
+
+  private HRegion createRegion(TableDescriptor htd, WAL wal, WAL reassigned) throws IOException {
+    RegionInfo info = RegionInfoBuilder.newBuilder(htd.getTableName()).build();
+    Path rootDir = CommonFSUtils.getRootDir(conf);
+    HRegion r = HRegion.createHRegion(info, rootDir, conf, htd, wal, true);
+    RegionServerServices rsServices = mock(RegionServerServices.class);
+    when(rsServices.getWAL(any())).thenReturn(reassigned);
+    r.rsServices = rsServices;
+    return r;
+  }
+
+  private void put(int row, byte[] family) throws IOException {
+    region.put(new Put(Bytes.toBytes(row)).addColumn(family, family, Bytes.toBytes(row)));
+  }
+
+  @Test
+  public void testMoveOnFlush() throws IOException {
+    TableDescriptor htd =
+      TableDescriptorBuilder.newBuilder(TableName.valueOf(name.getMethodName()))
+        .setColumnFamily(ColumnFamilyDescriptorBuilder.of(FAMILY))
+        .setColumnFamily(ColumnFamilyDescriptorBuilder.of(OTHER_FAMILY)).build();
+    RegionInfo dummy = RegionInfoBuilder.newBuilder(htd.getTableName()).build();
+    WAL first = firstWALs.getWAL(dummy);
+    WAL second = secondWALs.getWAL(dummy);
+    region = createRegion(htd, first, second);
+    byte[] encodedName = region.getRegionInfo().getEncodedNameAsBytes();
+
+    put(1, FAMILY);
+    put(1, OTHER_FAMILY);
+    assertNotEquals(HConstants.NO_SEQNUM, first.getEarliestMemStoreSeqNum(encodedName, FAMILY));
+
+    // flushing some of the stores leaves edits in the current WAL, so the region stays there
+    region.flushcache(Collections.singletonList(FAMILY), false,
+      FlushLifeCycleTracker.DUMMY);
+    assertSame(first, region.getWAL());
+
+    region.flush(true);
+    assertSame(second, region.getWAL());
+    assertEquals(HConstants.NO_SEQNUM, first.getEarliestMemStoreSeqNum(encodedName, FAMILY));
+    assertEquals(HConstants.NO_SEQNUM,
+      first.getEarliestMemStoreSeqNum(encodedName, OTHER_FAMILY));
+
+    put(2, FAMILY);
+    assertEquals(HConstants.NO_SEQNUM, first.getEarliestMemStoreSeqNum(encodedName, FAMILY));
+    assertNotEquals(HConstants.NO_SEQNUM, second.getEarliestMemStoreSeqNum(encodedName, FAMILY));
+    region.flush(true);
+    assertSame(second, region.getWAL());
+    assertEquals(2, region.getStore(FAMILY).getStorefilesCount());
+  }
+
+  @Test
+  public void testReplicatedTableDoesNotMove() throws IOException {
+    TableDescriptor htd =
+      TableDescriptorBuilder.newBuilder(TableName.valueOf(name.getMethodName()))
+        .setColumnFamily(ColumnFamilyDescriptorBuilder.newBuilder(FAMILY)
+          .setScope(HConstants.REPLICATION_SCOPE_GLOBAL).build())
+        .build();
+    RegionInfo dummy = RegionInfoBuilder.newBuilder(htd.getTableName()).build();
+    WAL first = firstWALs.getWAL(dummy);
+    region = createRegion(htd, first, secondWALs.getWAL(dummy));
+    put(1, FAMILY);
+    region.flush(true);
+    assertSame(first, region.getWAL());
+  }
+}
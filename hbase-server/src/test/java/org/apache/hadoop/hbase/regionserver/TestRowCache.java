@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseTestingUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TestName;
+
+@Category({ RegionServerTests.class, SmallTests.class })
+public class TestRowCache {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestRowCache.class);
+
+  private static final HBaseTestingUtil TEST_UTIL = new HBaseTestingUtil();
+
+  private static final byte[] CACHED = Bytes.toBytes("cached");
+  private static final byte[] UNCACHED = Bytes.toBytes("uncached");
+  private static final byte[] ROW = Bytes.toBytes("row");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  @Rule
+  public TestName name = new TestName();
+
+  private HRegion region;
+  private RowCache rowCache;
+
+  @Before
+  public void setUp() throws IOException {
+    TableName tableName = TableName.valueOf(name.getMethodName());
+    TableDescriptor htd = TableDescriptorBuilder.newBuilder(tableName)
+      .setColumnFamily(ColumnFamilyDescriptorBuilder.newBuilder(CACHED)
+        .setConfiguration(RowCache.ROW_CACHE_ENABLED_KEY, "true").build())
+      .setColumnFamily(ColumnFamilyDescriptorBuilder.of(UNCACHED)).build();
+    RegionInfo info = RegionInfoBuilder.newBuilder(tableName).build();
+    Path path = TEST_UTIL.getDataTestDir(name.getMethodName());
+    region = HBaseTestingUtil.createRegionAndWAL(info, path, TEST_UTIL.getConfiguration(), htd);
+    rowCache = new RowCache(1024 * 1024);
+    region.setRowCache(rowCache);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    HBaseTestingUtil.closeRegionAndWAL(region);
+  }
+
+  private void put(byte[] family, String value) throws IOException {
+    region.put(new Put(ROW).addColumn(family, QUALIFIER, Bytes.toBytes(value)));
+  }
+
+  private String getCached() throws IOException {
+    Result result = region.get(new Get(ROW).addFamily(CACHED));
+    return result.isEmpty() ? null : Bytes.toString(result.getValue(CACHED, QUALIFIER));
+  }
+
+  @Test
+  public void testHitAndMiss() throws IOException {
+    put(CACHED, "v1");
+    assertEquals("v1", getCached());
+    assertEquals(0, rowCache.getHitCount());
+    assertEquals(1, rowCache.getMissCount());
+    assertEquals("v1", getCached());
+    assertEquals(1, rowCache.getHitCount());
+    assertEquals(1, rowCache.getMissCount());
+    assertEquals(1, rowCache.getCount());
+    assertTrue(rowCache.getCurrentSize() > 0);
+  }
+
+  @Test
+  public void testNotCacheable() throws IOException {
+    put(CACHED, "v1");
+    put(UNCACHED, "v1");
+    // specific columns, filters, multiple versions and families without the row cache enabled
+    region.get(new Get(ROW).addColumn(CACHED, QUALIFIER));
+    region.get(new Get(ROW).addFamily(CACHED).setFilter(new FirstKeyOnlyFilter()));
+    region.get(new Get(ROW).addFamily(CACHED).readVersions(2));
+    region.get(new Get(ROW).addFamily(UNCACHED));
+    region.get(new Get(ROW));
+    assertEquals(0, rowCache.getHitCount());
+    assertEquals(0, rowCache.getMissCount());
+    assertEquals(0, rowCache.getCount());
+  }
+
+  @Test
+  public void testInvalidateOnWrite() throws IOException {
+    put(CACHED, "v1");
+    assertEquals("v1", getCached());
+    put(CACHED, "v2");
+    assertEquals("v2", getCached());
+    assertEquals("v2", getCached());
+    assertEquals(1, rowCache.getHitCount());
+
+    region.delete(new Delete(ROW));
+    assertEquals(null, getCached());
+    // empty results are cached as well
+    assertEquals(null, getCached());
+    assertEquals(2, rowCache.getHitCount());
+
+    // a write to another family of the row does not invalidate the cached family
+    put(UNCACHED, "v3");
+    assertEquals(null, getCached());
+    assertEquals(3, rowCache.getHitCount());
+  }
+
+  @Test
+  public void testInvalidateOnFlushAndCompaction() throws IOException {
+    put(CACHED, "v1");
+    assertEquals("v1", getCached());
+    HStore store = region.getStore(CACHED);
+    long generation = store.getRowCacheGeneration();
+
+    region.flush(true);
+    assertTrue(store.getRowCacheGeneration() != generation);
+    assertEquals("v1", getCached());
+    assertEquals(0, rowCache.getHitCount());
+    assertEquals(2, rowCache.getMissCount());
+
+    put(CACHED, "v2");
+    region.flush(true);
+    assertEquals("v2", getCached());
+    generation = store.getRowCacheGeneration();
+    region.compact(true);
+    assertTrue(store.getRowCacheGeneration() != generation);
+    assertEquals("v2", getCached());
+    assertEquals(0, rowCache.getHitCount());
+    assertEquals("v2", getCached());
+    assertEquals(1, rowCache.getHitCount());
+  }
+
+  @Test
+  public void testResultFromCache() throws IOException {
+    put(CACHED, "v1");
+    Result first = region.get(new Get(ROW).addFamily(CACHED));
+    Result second = region.get(new Get(ROW).addFamily(CACHED));
+    assertEquals(1, rowCache.getHitCount());
+    assertArrayEquals(first.getValue(CACHED, QUALIFIER), second.getValue(CACHED, QUALIFIER));
+    assertFalse(second.isStale());
+    assertEquals(1, second.size());
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.ArrayBackedTag;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseCommonTestingUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.Tag;
+import org.apache.hadoop.hbase.codec.Codec.Decoder;
+import org.apache.hadoop.hbase.codec.Codec.Encoder;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({ RegionServerTests.class, SmallTests.class })
+public class TestColumnarWALCellCodec {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestColumnarWALCellCodec.class);
+
+  private static final HBaseCommonTestingUtil UTIL = new HBaseCommonTestingUtil();
+  private static final TableName TABLE_A = TableName.valueOf("ns", "a");
+  private static final TableName TABLE_B = TableName.valueOf("b");
+
+  @AfterClass
+  public static void tearDown() {
+    UTIL.cleanupTestDir();
+  }
+
+  private static List<Cell> createCells(String rowPrefix, int rows, long ts) {
+    List<Cell> cells = new ArrayList<>();
+    byte[][] families = { Bytes.toBytes("f"), Bytes.toBytes("meta") };
+    for (int r = 0; r < rows; r++) {
+      byte[] row = Bytes.toBytes(String.format("%s-%08d", rowPrefix, r * 7));
+      for (byte[] family : families) {
+        for (int q = 0; q < 3; q++) {
+          byte[] qualifier = Bytes.toBytes("qualifier-" + q);
+          byte[] value = Bytes.toBytes("value-" + r + "-" + q);
+          KeyValue.Type type = q == 2 && r % 5 == 0 ? KeyValue.Type.Delete : KeyValue.Type.Put;
+          if (r % 4 == 1) {
+            List<Tag> tags =
+              Arrays.asList(new ArrayBackedTag((byte) 1, Bytes.toBytes("tag-" + r)));
+            cells.add(new KeyValue(row, family, qualifier, ts + r - q, type, value, tags));
+          } else {
+            cells.add(new KeyValue(row, family, qualifier, ts + r - q, type, value));
+          }
+        }
+      }
+    }
+    // an empty qualifier and an empty value
+    cells.add(new KeyValue(Bytes.toBytes(rowPrefix), families[0], new byte[0], ts, new byte[0]));
+    return cells;
+  }
+
+  private static void assertSameCells(List<Cell> expected, Decoder decoder) throws IOException {
+    for (Cell cell : expected) {
+      assertTrue(decoder.advance());
+      KeyValue kv = (KeyValue) cell;
+      KeyValue decoded = (KeyValue) decoder.current();
+      assertTrue("Expected " + kv + " but was " + decoded, Bytes.equals(kv.getBuffer(),
+        kv.getOffset(), kv.getLength(), decoded.getBuffer(), decoded.getOffset(),
+        decoded.getLength()));
+    }
+  }
+
+  private static byte[] encode(Configuration conf, TableName[] tables, List<List<Cell>> edits)
+    throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Encoder encoder = new ColumnarWALCellCodec(conf, null).getEncoder(bos);
+    assertTrue(encoder instanceof WALCellCodec.BatchEncoder);
+    for (int i = 0; i < edits.size(); i++) {
+      ((WALCellCodec.BatchEncoder) encoder).write(tables[i], edits.get(i));
+    }
+    encoder.flush();
+    return bos.toByteArray();
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    Configuration conf = new Configuration(false);
+    List<Cell> first = createCells("row", 100, 1000000L);
+    List<Cell> second = createCells("other", 3, 5L);
+    List<List<Cell>> edits = Arrays.asList(first, second);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    bos.write(encode(conf, new TableName[] { TABLE_A, TABLE_B }, edits));
+    // single cells are written as batches of one
+    Encoder encoder = new ColumnarWALCellCodec(conf, null).getEncoder(bos);
+    encoder.write(first.get(5));
+    encoder.flush();
+
+    try (InputStream is = new ByteArrayInputStream(bos.toByteArray())) {
+      Decoder decoder = new ColumnarWALCellCodec(conf, null).getDecoder(is);
+      assertSameCells(first, decoder);
+      assertSameCells(second, decoder);
+      assertSameCells(first.subList(5, 6), decoder);
+      assertFalse(decoder.advance());
+    }
+  }
+
+  @Test
+  public void testSmallerThanWALCellCodec() throws Exception {
+    Configuration conf = new Configuration(false);
+    List<Cell> cells = createCells("row", 100, System.currentTimeMillis());
+    byte[] columnar = encode(conf, new TableName[] { TABLE_A }, Arrays.asList(cells));
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Encoder encoder = new WALCellCodec(conf, null).getEncoder(bos);
+    for (Cell cell : cells) {
+      encoder.write(cell);
+    }
+    encoder.flush();
+    assertTrue(columnar.length + " >= " + bos.size(), columnar.length < bos.size());
+  }
+
+  private static String writeDictionary(String name, byte[] dictionary) throws IOException {
+    Path path = new Path(UTIL.getDataTestDir(), name);
+    FileSystem fs = FileSystem.getLocal(new Configuration(false));
+    try (OutputStream out = fs.create(path)) {
+      out.write(dictionary);
+    }
+    return fs.makeQualified(path).toString();
+  }
+
+  @Test
+  public void testPretrainedDictionary() throws Exception {
+    List<Cell> training = createCells("training", 50, 0L);
+    byte[] dictionary = ColumnarWALCellCodec.trainDictionary(training, 100);
+    Configuration conf = new Configuration(false);
+    conf.set(ColumnarWALCellCodec.DICTIONARY_KEY + "." + TABLE_A.getNameAsString(),
+      writeDictionary("table-a.dict", dictionary));
+    // only the families are known for the other table
+    conf.set(ColumnarWALCellCodec.DICTIONARY_KEY,
+      writeDictionary("default.dict", ColumnarWALCellCodec.trainDictionary(training, 2)));
+
+    // short edits are where the dictionary helps the most
+    List<List<Cell>> edits = new ArrayList<>();
+    TableName[] tables = new TableName[20];
+    for (int i = 0; i < tables.length; i++) {
+      tables[i] = i % 2 == 0 ? TABLE_A : TABLE_B;
+      edits.add(createCells("row" + i, 1, i));
+    }
+    byte[] withDictionary = encode(conf, tables, edits);
+    byte[] withoutDictionary = encode(new Configuration(false), tables, edits);
+    assertTrue(withDictionary.length + " >= " + withoutDictionary.length,
+      withDictionary.length < withoutDictionary.length);
+
+    try (InputStream is = new ByteArrayInputStream(withDictionary)) {
+      Decoder decoder = new ColumnarWALCellCodec(conf, null).getDecoder(is);
+      for (List<Cell> edit : edits) {
+        assertSameCells(edit, decoder);
+      }
+      assertFalse(decoder.advance());
+    }
+
+    // the reader needs the dictionaries too
+    try (InputStream is = new ByteArrayInputStream(withDictionary)) {
+      Decoder decoder = new ColumnarWALCellCodec(new Configuration(false), null).getDecoder(is);
+      decoder.advance();
+      fail("Should not decode without the dictionary");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("dictionary"));
+    }
+  }
+
+  @Test
+  public void testTruncatedBatch() throws Exception {
+    Configuration conf = new Configuration(false);
+    List<Cell> cells = createCells("row", 10, 0L);
+    byte[] encoded = encode(conf, new TableName[] { TABLE_A }, Arrays.asList(cells));
+    try (InputStream is =
+      new ByteArrayInputStream(Arrays.copyOf(encoded, encoded.length - 10))) {
+      Decoder decoder = new ColumnarWALCellCodec(conf, null).getDecoder(is);
+      decoder.advance();
+      fail("Should fail on a partial batch");
+    } catch (EOFException e) {
+      // expected, the WAL readers handle it like any partial entry
+    }
+  }
+}
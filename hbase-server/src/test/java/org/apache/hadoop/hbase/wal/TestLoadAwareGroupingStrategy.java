@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.wal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseClassTestRule;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.ManualEnvironmentEdge;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category({ RegionServerTests.class, SmallTests.class })
+public class TestLoadAwareGroupingStrategy {
+
+  @ClassRule
+  public static final HBaseClassTestRule CLASS_RULE =
+    HBaseClassTestRule.forClass(TestLoadAwareGroupingStrategy.class);
+
+  private static final long INTERVAL = 1000;
+
+  private final ManualEnvironmentEdge clock = new ManualEnvironmentEdge();
+  private Configuration conf;
+  private byte[][] regions;
+
+  @Before
+  public void setUp() {
+    clock.setValue(1);
+    EnvironmentEdgeManager.injectEdge(clock);
+    conf = HBaseConfiguration.create();
+    conf.setLong(LoadAwareGroupingStrategy.REBALANCE_INTERVAL, INTERVAL);
+    conf.setLong(LoadAwareGroupingStrategy.SYNC_LATENCY_TARGET_MS, 1000);
+    regions = new byte[4][];
+    for (int i = 0; i < regions.length; i++) {
+      regions[i] = Bytes.toBytes("region-" + i);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    EnvironmentEdgeManager.reset();
+  }
+
+  private LoadAwareGroupingStrategy createStrategy() {
+    LoadAwareGroupingStrategy strategy = new LoadAwareGroupingStrategy();
+    strategy.init(conf, "provider");
+    return strategy;
+  }
+
+  /** Appends the given bytes for each region during one rebalance interval, then rebalances. */
+  private void applyLoad(LoadAwareGroupingStrategy strategy, long... bytes) {
+    for (int i = 0; i < bytes.length; i++) {
+      String group = strategy.group(regions[i], null);
+      strategy.getGroup(group).recordAppend(regions[i], bytes[i]);
+    }
+    clock.incValue(INTERVAL);
+    strategy.group(regions[0], null);
+  }
+
+  private Set<String> groupsOf(LoadAwareGroupingStrategy strategy) {
+    Set<String> groups = new HashSet<>();
+    for (byte[] region : regions) {
+      groups.add(strategy.group(region, null));
+    }
+    return groups;
+  }
+
+  @Test
+  public void testNewRegionsAreSpread() {
+    LoadAwareGroupingStrategy strategy = createStrategy();
+    assertEquals(LoadAwareGroupingStrategy.DEFAULT_MIN_GROUPS, strategy.getActiveGroups());
+    assertEquals(2, groupsOf(strategy).size());
+    // the assignment is stable
+    assertEquals(strategy.group(regions[0], null), strategy.group(regions[0], null));
+  }
+
+  @Test
+  public void testSkewedLoadIsRebalanced() {
+    conf.setInt(LoadAwareGroupingStrategy.MAX_GROUPS, 2);
+    conf.setLong(LoadAwareGroupingStrategy.GROUP_TARGET_THROUGHPUT, 1L << 40);
+    LoadAwareGroupingStrategy strategy = createStrategy();
+    // regions 0 and 2 share a group, 1 and 3 the other one
+    assertEquals(strategy.group(regions[0], null), strategy.group(regions[2], null));
+    assertEquals(strategy.group(regions[1], null), strategy.group(regions[3], null));
+
+    applyLoad(strategy, 100000, 10000, 100000, 10000);
+    assertEquals(2, strategy.getActiveGroups());
+    // one of the busy regions moved away
+    assertNotEquals(strategy.group(regions[0], null), strategy.group(regions[2], null));
+
+    // a balanced load moves nothing
+    String group0 = strategy.group(regions[0], null);
+    String group2 = strategy.group(regions[2], null);
+    applyLoad(strategy, 100000, 10000, 100000, 10000);
+    assertEquals(group0, strategy.group(regions[0], null));
+    assertEquals(group2, strategy.group(regions[2], null));
+  }
+
+  @Test
+  public void testGroupCountFollowsLoad() {
+    conf.setInt(LoadAwareGroupingStrategy.MIN_GROUPS, 1);
+    conf.setInt(LoadAwareGroupingStrategy.MAX_GROUPS, 4);
+    conf.setLong(LoadAwareGroupingStrategy.GROUP_TARGET_THROUGHPUT, 1000);
+    LoadAwareGroupingStrategy strategy = createStrategy();
+    assertEquals(1, groupsOf(strategy).size());
+
+    // 4 regions of 1000 bytes/s, one per group
+    applyLoad(strategy, 1000000, 1000000, 1000000, 1000000);
+    assertEquals(4, strategy.getActiveGroups());
+    assertEquals(4, groupsOf(strategy).size());
+
+    // no load, the groups go away one at a time and their regions go to the remaining ones
+    applyLoad(strategy, 0, 0, 0, 0);
+    assertEquals(3, strategy.getActiveGroups());
+    assertEquals(3, groupsOf(strategy).size());
+    applyLoad(strategy, 0, 0, 0, 0);
+    applyLoad(strategy, 0, 0, 0, 0);
+    assertEquals(1, strategy.getActiveGroups());
+    assertEquals(1, groupsOf(strategy).size());
+  }
+
+  @Test
+  public void testSlowSyncsAddAGroup() {
+    conf.setInt(LoadAwareGroupingStrategy.MIN_GROUPS, 1);
+    conf.setLong(LoadAwareGroupingStrategy.GROUP_TARGET_THROUGHPUT, 1L << 40);
+    conf.setLong(LoadAwareGroupingStrategy.SYNC_LATENCY_TARGET_MS, 10);
+    LoadAwareGroupingStrategy strategy = createStrategy();
+    String group = strategy.group(regions[0], null);
+    strategy.getGroup(group).postSync(TimeUnit.MILLISECONDS.toNanos(50), 1);
+    applyLoad(strategy, 1000, 1000, 1000, 1000);
+    assertEquals(2, strategy.getActiveGroups());
+    assertEquals(2, groupsOf(strategy).size());
+  }
+
+  @Test
+  public void testPinnedRegionsAreNotMoved() {
+    conf.setInt(LoadAwareGroupingStrategy.MAX_GROUPS, 2);
+    conf.setLong(LoadAwareGroupingStrategy.GROUP_TARGET_THROUGHPUT, 1L << 40);
+    LoadAwareGroupingStrategy strategy = createStrategy();
+    String group = strategy.group(regions[0], null);
+    assertEquals(group, strategy.group(regions[2], null));
+    strategy.pinRegion(regions[0], group);
+    strategy.pinRegion(regions[2], group);
+
+    // the busy group only has pinned regions, so nothing moves
+    applyLoad(strategy, 100000, 10000, 100000, 10000);
+    assertEquals(group, strategy.group(regions[0], null));
+    assertEquals(group, strategy.group(regions[2], null));
+
+    // a pinned region keeps the group of its WAL even if it was moved before being pinned
+    String other = strategy.group(regions[1], null);
+    strategy.pinRegion(regions[1], group);
+    assertNotEquals(group, other);
+    assertEquals(group, strategy.group(regions[1], null));
+  }
+
+  @Test
+  public void testClosedRegionsAreForgotten() {
+    LoadAwareGroupingStrategy strategy = createStrategy();
+    for (byte[] region : regions) {
+      strategy.group(region, null);
+      assertTrue(strategy.isAssigned(region));
+    }
+    String group = strategy.group(regions[0], null);
+    strategy.pinRegion(regions[0], group);
+    for (byte[] region : regions) {
+      strategy.regionClosed(region);
+      assertFalse(strategy.isAssigned(region));
+    }
+    assertEquals(0, strategy.getGroup(group).regionCount);
+    // a reopened region is assigned again
+    strategy.group(regions[0], null);
+    assertTrue(strategy.isAssigned(regions[0]));
+  }
+
+  @Test
+  public void testNewRegionWithoutGroupUnderAverage() {
+    LoadAwareGroupingStrategy strategy = createStrategy();
+    String group0 = strategy.group(regions[0], null);
+    String group1 = strategy.group(regions[1], null);
+    // no rate is below the average of rates which are not numbers
+    strategy.getGroup(group0).bytesPerSecond = Double.NaN;
+    strategy.getGroup(group1).bytesPerSecond = Double.NaN;
+    assertNotNull(strategy.group(regions[2], null));
+  }
+
+  @Test
+  public void testIsConfigured() {
+    assertFalse(LoadAwareGroupingStrategy.isConfigured(conf));
+    conf.set(RegionGroupingProvider.REGION_GROUPING_STRATEGY,
+      RegionGroupingProvider.Strategies.loadaware.name());
+    assertTrue(LoadAwareGroupingStrategy.isConfigured(conf));
+  }
+}